@@ -100,6 +100,103 @@ public class Configuration {
         public boolean developerMode;
         public List<ProcessorConfig> processors = new ArrayList<>();
         public boolean openTelemetryApiSupport;
+        public MetricsAggregation metricsAggregation = new MetricsAggregation();
+        public StandardMetrics standardMetrics = new StandardMetrics();
+        // reports how long each performance counter took to collect, as a metric
+        public boolean performanceCounterCollectionTelemetry;
+        // reports cpu usage and allocation rate per thread pool
+        public boolean threadPoolMetrics;
+        // reports how much threads are blocked on monitors, and the most contended monitors with their owner stacks
+        public boolean lockContentionMetrics;
+        // reports the agent's own buffer depth, dropped items, compression ratio, http latency and disk backlog
+        // (and then also over jmx, as com.microsoft.applicationinsights:type=PipelineMetrics)
+        public boolean pipelineMetrics;
+        public Profiler profiler = new Profiler();
+        public FastStart fastStart = new FastStart();
+        public AppIdCache appIdCache = new AppIdCache();
+        // converts telemetry to json on the application threads, so that only compression is left for the sender threads
+        public boolean serializeOnTrack;
+        public Compression compression = new Compression();
+        // separate buffers and send budgets for requests/dependencies/exceptions, traces/events and metrics
+        public boolean priorityLanes;
+        public LogRateLimit logRateLimit = new LogRateLimit();
+        public LogAggregation logAggregation = new LogAggregation();
+        // other Application Insights resources that receive a copy of all telemetry,
+        // each with its own batching, retries and disk persistence
+        public List<String> additionalConnectionStrings = new ArrayList<>();
+    }
+
+    public static class LogRateLimit {
+
+        // limits the captured log records per logger name and level
+        public boolean enabled;
+        public double recordsPerSecond = 10;
+        public int burst = 100;
+        // how often the number of suppressed log records is reported, per logger name and level
+        public long summaryIntervalSeconds = 60;
+    }
+
+    public static class LogAggregation {
+
+        // aggregates repeated log messages per logger name, level and message template
+        public boolean enabled;
+        public long windowSeconds = 60;
+        // once this many message templates are being aggregated, other log messages are sent without aggregation
+        public int maxTemplates = 1000;
+        // number of operation ids sent with each aggregate
+        public int maxSampleOperationIds = 3;
+    }
+
+    public static class Compression {
+
+        // -1 uses the deflate default (currently 6), otherwise from 0 (no compression) to 9 (smallest)
+        public int level = -1;
+        // compresses large batches on all cores, as independent gzip members
+        public boolean parallel;
+        public int parallelMinBatchSize = 250;
+    }
+
+    public static class AppIdCache {
+
+        // keeps the resolved application id in a local file, so that it is available right away after a restart
+        public boolean enabled;
+        public String path; // defaults to applicationinsights-java/appid-cache.properties under java.io.tmpdir
+        // after this, the cached application id is still used, but it is revalidated in the background
+        public long timeToLiveHours = 24;
+    }
+
+    public static class FastStart {
+
+        // defers the telemetry modules (heartbeat, performance counters, etc.), QuickPulse, json config polling
+        // and the profiler until the first request has completed, or until the delay below has passed
+        public boolean enabled;
+        public long delaySeconds = 10;
+    }
+
+    public static class Profiler {
+
+        public boolean enabled;
+        public String path = "applicationinsights-profile.txt"; // relative to the working directory
+        public long samplingIntervalMillis = 50;
+        // share of one cpu that the profiler is allowed to spend on sampling
+        public double cpuBudgetPercent = 1;
+        public long aggregationIntervalSeconds = 60;
+        // prefixes the sampled stacks with the name of the request the thread is serving
+        public boolean operationNames = true;
+    }
+
+    public static class MetricsAggregation {
+
+        public boolean enabled;
+        public long intervalSeconds = 60;
+        public int maxSeries = 1000;
+    }
+
+    public static class StandardMetrics {
+
+        public boolean enabled;
+        public long intervalSeconds = 60;
+        public int maxSeries = 1000;
     }
 
     public static class SelfDiagnostics {
@@ -25,13 +25,17 @@ import java.io.File;
 import java.lang.instrument.Instrumentation;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.function.LongFunction;
 
 import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.agent.LogAggregator;
+import com.microsoft.applicationinsights.agent.LogRateLimiter;
 import com.microsoft.applicationinsights.agent.bootstrap.BytecodeUtil;
 import com.microsoft.applicationinsights.agent.bootstrap.MainEntryPoint;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration;
@@ -47,22 +51,35 @@ import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.Quic
 import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.RequestTelemetryClassFileTransformer;
 import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.TelemetryClientClassFileTransformer;
 import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.WebRequestTrackingFilterClassFileTransformer;
+import com.microsoft.applicationinsights.agent.internal.profiler.ProfilerSpanProcessor;
 import com.microsoft.applicationinsights.agent.internal.propagator.DelegatingPropagator;
 import com.microsoft.applicationinsights.agent.internal.propagator.DelegatingPropagatorProvider;
+import com.microsoft.applicationinsights.agent.internal.sampling.LoggerThresholds;
 import com.microsoft.applicationinsights.agent.internal.sampling.SamplingPercentage;
 import com.microsoft.applicationinsights.common.CommonUtils;
 import com.microsoft.applicationinsights.agent.bootstrap.customExceptions.FriendlyException;
 import com.microsoft.applicationinsights.extensibility.initializer.ResourceAttributesContextInitializer;
 import com.microsoft.applicationinsights.extensibility.initializer.SdkVersionContextInitializer;
 import com.microsoft.applicationinsights.internal.channel.common.ApacheSender43;
+import com.microsoft.applicationinsights.internal.channel.common.GzipTelemetrySerializer;
 import com.microsoft.applicationinsights.internal.config.AddTypeXmlElement;
 import com.microsoft.applicationinsights.internal.config.ApplicationInsightsXmlConfiguration;
 import com.microsoft.applicationinsights.internal.config.JmxXmlElement;
+import com.microsoft.applicationinsights.internal.config.JvmXmlElement;
 import com.microsoft.applicationinsights.internal.config.ParamXmlElement;
+import com.microsoft.applicationinsights.internal.config.PerformanceCounterJvmSectionXmlElement;
 import com.microsoft.applicationinsights.internal.config.TelemetryConfigurationFactory;
 import com.microsoft.applicationinsights.internal.config.TelemetryModulesXmlElement;
+import com.microsoft.applicationinsights.internal.config.connection.ConnectionString;
+import com.microsoft.applicationinsights.internal.config.connection.InvalidConnectionStringException;
+import com.microsoft.applicationinsights.internal.metrics.MetricsAggregator;
+import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounterContainer;
+import com.microsoft.applicationinsights.internal.perfcounter.PipelinePerformanceCounter;
+import com.microsoft.applicationinsights.internal.perfcounter.jvm.LockContentionPerformanceCounter;
+import com.microsoft.applicationinsights.internal.perfcounter.jvm.ThreadCpuPerformanceCounter;
 import com.microsoft.applicationinsights.internal.system.SystemInformation;
 import com.microsoft.applicationinsights.internal.util.PropertyHelper;
+import com.microsoft.applicationinsights.web.internal.correlation.CachingApplicationIdResolver;
 import com.microsoft.applicationinsights.web.internal.correlation.CdsProfileFetcher;
 import io.opentelemetry.instrumentation.api.aiconnectionstring.AiConnectionString;
 import io.opentelemetry.instrumentation.api.config.Config;
@@ -72,6 +89,7 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static java.util.concurrent.TimeUnit.HOURS;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
@@ -85,15 +103,16 @@ public class BeforeAgentInstaller {
     public static void beforeInstallBytebuddyAgent(Instrumentation instrumentation) throws Exception {
         start(instrumentation);
         // add sdk instrumentation after ensuring Global.getTelemetryClient() will not return null
-        instrumentation.addTransformer(new TelemetryClientClassFileTransformer());
-        instrumentation.addTransformer(new DependencyTelemetryClassFileTransformer());
-        instrumentation.addTransformer(new RequestTelemetryClassFileTransformer());
-        instrumentation.addTransformer(new PerformanceCounterModuleClassFileTransformer());
-        instrumentation.addTransformer(new QuickPulseClassFileTransformer());
-        instrumentation.addTransformer(new HeartBeatModuleClassFileTransformer());
-        instrumentation.addTransformer(new ApplicationInsightsAppenderClassFileTransformer());
-        instrumentation.addTransformer(new WebRequestTrackingFilterClassFileTransformer());
-        instrumentation.addTransformer(new DuplicateAgentClassFileTransformer());
+        instrumentation.addTransformer(new DispatchingClassFileTransformer(
+                new TelemetryClientClassFileTransformer(),
+                new DependencyTelemetryClassFileTransformer(),
+                new RequestTelemetryClassFileTransformer(),
+                new PerformanceCounterModuleClassFileTransformer(),
+                new QuickPulseClassFileTransformer(),
+                new HeartBeatModuleClassFileTransformer(),
+                new ApplicationInsightsAppenderClassFileTransformer(),
+                new WebRequestTrackingFilterClassFileTransformer(),
+                new DuplicateAgentClassFileTransformer()));
     }
 
     private static void start(Instrumentation instrumentation) throws Exception {
@@ -122,7 +141,23 @@ public class BeforeAgentInstaller {
 
         Map<String, String> properties = new HashMap<>();
         properties.put("otel.additional.bootstrap.package.prefixes", "com.microsoft.applicationinsights.agent.bootstrap");
-        properties.put("otel.experimental.log.capture.threshold", getLoggingFrameworksThreshold(config, "INFO"));
+        String loggingFrameworksThreshold = getLoggingFrameworksThreshold(config, "INFO");
+        Map<String, String> loggerThresholdLevels = getLoggerThresholdLevels(config);
+        if (loggerThresholdLevels.isEmpty()) {
+            properties.put("otel.experimental.log.capture.threshold", loggingFrameworksThreshold);
+        } else {
+            LoggerThresholds loggerThresholds;
+            try {
+                loggerThresholds = new LoggerThresholds(loggingFrameworksThreshold, loggerThresholdLevels);
+            } catch (IllegalArgumentException e) {
+                throw new FriendlyException("Invalid logging threshold: " + e.getMessage(),
+                                            "Please provide one of the logging levels OFF, FATAL, ERROR, WARN, INFO, DEBUG, TRACE or ALL.");
+            }
+            // the logging instrumentation captures everything at or above the most verbose configured threshold,
+            // and LogThresholdSampler drops the rest before the log span is created
+            properties.put("otel.experimental.log.capture.threshold", loggerThresholds.getLowestLevel());
+            Global.setLoggerThresholds(loggerThresholds);
+        }
         int reportingIntervalSeconds = getMicrometerReportingIntervalSeconds(config, 60);
         properties.put("otel.micrometer.step.millis", Long.toString(SECONDS.toMillis(reportingIntervalSeconds)));
         // TODO need some kind of test for these configuration properties
@@ -174,14 +209,41 @@ public class BeforeAgentInstaller {
             instrumentation.addTransformer(new JulListeningClassFileTransformer(ApacheSender43.safeToInitLatch));
         }
 
+        if (config.preview.appIdCache.enabled) {
+            String path = config.preview.appIdCache.path;
+            CachingApplicationIdResolver.defaultCacheFile = path == null ? new File(tmpDir, "appid-cache.properties") : new File(path);
+            CachingApplicationIdResolver.defaultTimeToLiveMinutes = HOURS.toMinutes(config.preview.appIdCache.timeToLiveHours);
+        }
+
+        int compressionLevel = config.preview.compression.level;
+        if (compressionLevel < -1 || compressionLevel > 9) {
+            throw new FriendlyException("Invalid compression level: " + compressionLevel,
+                                        "Please provide a compression level between 0 and 9, or -1 for the default.");
+        }
+        GzipTelemetrySerializer.defaultCompressionLevel = compressionLevel;
+        if (config.preview.compression.parallel) {
+            GzipTelemetrySerializer.defaultParallelCompressionMinBatchSize = config.preview.compression.parallelMinBatchSize;
+        }
+
         if (config.proxy.host != null) {
             HttpHost proxy = new HttpHost(config.proxy.host, config.proxy.port);
             ApacheSender43.proxy = proxy;
             CdsProfileFetcher.proxy = proxy;
         }
 
+        PerformanceCounterContainer.INSTANCE.setCollectionDurationTelemetryEnabled(config.preview.performanceCounterCollectionTelemetry);
+
+        DeferredStartupSpanProcessor deferredStartup = config.preview.fastStart.enabled ? new DeferredStartupSpanProcessor() : null;
+
         TelemetryConfiguration configuration = TelemetryConfiguration.getActiveWithoutInitializingConfig();
-        TelemetryConfigurationFactory.INSTANCE.initialize(configuration, buildXmlConfiguration(config));
+        ApplicationInsightsXmlConfiguration xmlConfiguration = buildXmlConfiguration(config);
+        if (deferredStartup == null) {
+            TelemetryConfigurationFactory.INSTANCE.initialize(configuration, xmlConfiguration);
+        } else {
+            // only what is needed to track telemetry is set up eagerly
+            TelemetryConfigurationFactory.INSTANCE.initializeWithoutModules(configuration, xmlConfiguration);
+            deferredStartup.add(() -> TelemetryConfigurationFactory.INSTANCE.initializeModules(configuration, xmlConfiguration));
+        }
         configuration.getContextInitializers().add(new SdkVersionContextInitializer());
         configuration.getContextInitializers().add(new ResourceAttributesContextInitializer(config.customDimensions));
 
@@ -189,6 +251,70 @@ public class BeforeAgentInstaller {
         final TelemetryClient telemetryClient = new TelemetryClient();
         Global.setTelemetryClient(telemetryClient);
 
+        final MetricsAggregator metricsAggregator;
+        if (config.preview.metricsAggregation.enabled) {
+            Configuration.MetricsAggregation metricsAggregation = config.preview.metricsAggregation;
+            if (metricsAggregation.intervalSeconds <= 0 || metricsAggregation.maxSeries < 1) {
+                throw new FriendlyException("Invalid metrics aggregation: an interval of " + metricsAggregation.intervalSeconds + " seconds with at most " + metricsAggregation.maxSeries + " series",
+                                            "Please provide a positive number of interval seconds and at least 1 max series.");
+            }
+            metricsAggregator = new MetricsAggregator(metricsAggregation.maxSeries);
+            metricsAggregator.start(telemetryClient, metricsAggregation.intervalSeconds);
+            Global.setMetricsAggregator(metricsAggregator);
+        } else {
+            metricsAggregator = null;
+        }
+
+        final MetricsAggregator standardMetricsAggregator;
+        if (config.preview.standardMetrics.enabled) {
+            Configuration.StandardMetrics standardMetrics = config.preview.standardMetrics;
+            if (standardMetrics.intervalSeconds <= 0 || standardMetrics.maxSeries < 1) {
+                throw new FriendlyException("Invalid standard metrics: an interval of " + standardMetrics.intervalSeconds + " seconds with at most " + standardMetrics.maxSeries + " series",
+                                            "Please provide a positive number of interval seconds and at least 1 max series.");
+            }
+            standardMetricsAggregator = new MetricsAggregator(standardMetrics.maxSeries);
+            standardMetricsAggregator.start(telemetryClient, standardMetrics.intervalSeconds);
+            Global.setStandardMetricsAggregator(standardMetricsAggregator);
+        } else {
+            standardMetricsAggregator = null;
+        }
+
+        final LogRateLimiter logRateLimiter;
+        if (config.preview.logRateLimit.enabled) {
+            Configuration.LogRateLimit logRateLimit = config.preview.logRateLimit;
+            if (logRateLimit.recordsPerSecond <= 0 || logRateLimit.burst < 1) {
+                throw new FriendlyException("Invalid log rate limit: " + logRateLimit.recordsPerSecond + " records per second with a burst of " + logRateLimit.burst,
+                                            "Please provide a positive number of records per second and a burst of at least 1.");
+            }
+            if (logRateLimit.summaryIntervalSeconds <= 0) {
+                throw new FriendlyException("Invalid log rate limit summary interval: " + logRateLimit.summaryIntervalSeconds + " seconds",
+                                            "Please provide a positive number of summary interval seconds.");
+            }
+            logRateLimiter = new LogRateLimiter(telemetryClient, logRateLimit.recordsPerSecond, logRateLimit.burst, logRateLimit.summaryIntervalSeconds);
+            logRateLimiter.start();
+            Global.setLogRateLimiter(logRateLimiter);
+        } else {
+            logRateLimiter = null;
+        }
+
+        final LogAggregator logAggregator;
+        if (config.preview.logAggregation.enabled) {
+            Configuration.LogAggregation logAggregation = config.preview.logAggregation;
+            if (logAggregation.windowSeconds <= 0 || logAggregation.maxTemplates < 1) {
+                throw new FriendlyException("Invalid log aggregation: a window of " + logAggregation.windowSeconds + " seconds with at most " + logAggregation.maxTemplates + " templates",
+                                            "Please provide a positive number of window seconds and at least 1 max template.");
+            }
+            logAggregator = new LogAggregator(telemetryClient, logAggregation.windowSeconds, logAggregation.maxTemplates, logAggregation.maxSampleOperationIds);
+            logAggregator.start();
+            Global.setLogAggregator(logAggregator);
+        } else {
+            logAggregator = null;
+        }
+
+        if (config.preview.profiler.enabled) {
+            startProfiler(config.preview.profiler, deferredStartup);
+        }
+
         // this is for Azure Function Linux consumption plan support.
         if ("java".equals(System.getenv("FUNCTIONS_WORKER_RUNTIME"))) {
             AiConnectionString.setAccessor(new ConnectionStringAccessor());
@@ -201,6 +327,19 @@ public class BeforeAgentInstaller {
             public void run() {
                 startupLogger.debug("running shutdown hook");
                 try {
+                    // these flush the last partial interval after stopping their flush threads
+                    if (metricsAggregator != null) {
+                        metricsAggregator.stop(1, SECONDS);
+                    }
+                    if (standardMetricsAggregator != null) {
+                        standardMetricsAggregator.stop(1, SECONDS);
+                    }
+                    if (logRateLimiter != null) {
+                        logRateLimiter.sendSuppressedSummaries();
+                    }
+                    if (logAggregator != null) {
+                        logAggregator.sendAggregates();
+                    }
                     telemetryClient.flush();
                     telemetryClient.shutdown(5, SECONDS);
                     startupLogger.debug("completed shutdown hook");
@@ -214,7 +353,54 @@ public class BeforeAgentInstaller {
 
         Path configPath = MainEntryPoint.getConfigPath();
         if (configPath != null) {
-            JsonConfigPolling.pollJsonConfigEveryMinute(configPath, MainEntryPoint.getLastModifiedTime(), config.sampling.percentage);
+            long lastModifiedTime = MainEntryPoint.getLastModifiedTime();
+            runOrDefer(deferredStartup, () -> JsonConfigPolling.pollJsonConfigEveryMinute(configPath, lastModifiedTime, config.sampling.percentage));
+        }
+
+        if (deferredStartup != null) {
+            Global.setDeferredStartupSpanProcessor(deferredStartup);
+            deferredStartup.start(config.preview.fastStart.delaySeconds);
+        }
+    }
+
+    private static void runOrDefer(@Nullable DeferredStartupSpanProcessor deferredStartup, Runnable task) {
+        if (deferredStartup == null) {
+            task.run();
+        } else {
+            deferredStartup.add(task);
+        }
+    }
+
+    private static void startProfiler(Configuration.Profiler profilerConfig, @Nullable DeferredStartupSpanProcessor deferredStartup) {
+        // the profiler lives in the agent jar (which is not visible to the agent class loader directly),
+        // it is started here rather than in premain so that it doesn't initialize JMX before logging is set up
+        Class<?> profilerClass;
+        try {
+            profilerClass = Class.forName("io.opentelemetry.javaagent.Profiler", true, ClassLoader.getSystemClassLoader());
+            if (profilerConfig.operationNames) {
+                // registered right away even in fast start mode, since the tracer provider is built before the first
+                // span and won't pick it up later, only the sampling thread itself is deferred
+                ProfilerSpanProcessor profilerSpanProcessor = new ProfilerSpanProcessor();
+                profilerClass.getMethod("setOperationNameResolver", LongFunction.class).invoke(null, profilerSpanProcessor);
+                Global.setProfilerSpanProcessor(profilerSpanProcessor);
+            }
+        } catch (Exception e) {
+            startupLogger.warn("profiler could not be started: {}", e.getMessage(), e);
+            return;
+        }
+        runOrDefer(deferredStartup, () -> startProfiler(profilerClass, profilerConfig));
+    }
+
+    private static void startProfiler(Class<?> profilerClass, Configuration.Profiler profilerConfig) {
+        try {
+            Object started = profilerClass.getMethod("start", String.class, long.class, double.class, long.class)
+                    .invoke(null, profilerConfig.path, profilerConfig.samplingIntervalMillis,
+                            profilerConfig.cpuBudgetPercent, SECONDS.toMillis(profilerConfig.aggregationIntervalSeconds));
+            if (!Boolean.TRUE.equals(started)) {
+                startupLogger.warn("profiler is already running or could not open: {}", profilerConfig.path);
+            }
+        } catch (Exception e) {
+            startupLogger.warn("profiler could not be started: {}", e.getMessage(), e);
         }
     }
 
@@ -273,6 +459,31 @@ public class BeforeAgentInstaller {
         return threshold;
     }
 
+    private static Map<String, String> getLoggerThresholdLevels(Configuration config) {
+        Map<String, Object> logging = config.instrumentation.get("logging");
+        if (logging == null) {
+            return Collections.emptyMap();
+        }
+        Object loggersObj = logging.get("loggers");
+        if (loggersObj == null) {
+            return Collections.emptyMap();
+        }
+        if (!(loggersObj instanceof Map)) {
+            startupLogger.warn("logging loggers must be an object, but found: {}", loggersObj.getClass());
+            return Collections.emptyMap();
+        }
+        Map<String, String> levels = new HashMap<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) loggersObj).entrySet()) {
+            Object levelObj = entry.getValue();
+            if (!(levelObj instanceof String) || ((String) levelObj).isEmpty()) {
+                startupLogger.warn("logging level for logger {} must be a non-empty string, but found: {}", entry.getKey(), levelObj);
+                continue;
+            }
+            levels.put(String.valueOf(entry.getKey()), (String) levelObj);
+        }
+        return levels;
+    }
+
     private static boolean isInstrumentationEnabled(Configuration config, String instrumentationName) {
         Map<String, Object> properties = config.instrumentation.get(instrumentationName);
         if (properties == null) {
@@ -312,6 +523,15 @@ public class BeforeAgentInstaller {
         if (!Strings.isNullOrEmpty(config.connectionString)) {
             xmlConfiguration.setConnectionString(config.connectionString);
         }
+        for (String connectionString : config.preview.additionalConnectionStrings) {
+            try {
+                ConnectionString.parseInto(connectionString, new TelemetryConfiguration());
+            } catch (InvalidConnectionStringException e) {
+                throw new FriendlyException("Invalid additional connection string: " + e.getMessage(),
+                                            "Please provide the connection string of an Application Insights resource.");
+            }
+        }
+        xmlConfiguration.setAdditionalConnectionStrings(config.preview.additionalConnectionStrings);
         if (!Strings.isNullOrEmpty(config.role.name)) {
             xmlConfiguration.setRoleName(config.role.name);
         }
@@ -345,12 +565,41 @@ public class BeforeAgentInstaller {
         }
         xmlConfiguration.getPerformance().setJmxXmlElements(jmxXmls);
 
+        ArrayList<JvmXmlElement> jvmXmls = new ArrayList<>();
+        if (config.preview.threadPoolMetrics) {
+            jvmXmls.add(newJvmXml(ThreadCpuPerformanceCounter.NAME));
+        }
+        if (config.preview.lockContentionMetrics) {
+            jvmXmls.add(newJvmXml(LockContentionPerformanceCounter.NAME));
+        }
+        if (config.preview.pipelineMetrics) {
+            jvmXmls.add(newJvmXml(PipelinePerformanceCounter.NAME));
+        }
+        if (!jvmXmls.isEmpty()) {
+            PerformanceCounterJvmSectionXmlElement jvmSectionXml = new PerformanceCounterJvmSectionXmlElement();
+            jvmSectionXml.setJvmXmlElements(jvmXmls);
+            xmlConfiguration.getPerformance().setJvmSection(jvmSectionXml);
+        }
+
         if (config.preview.developerMode) {
             xmlConfiguration.getChannel().setDeveloperMode(true);
         }
+        if (config.preview.serializeOnTrack) {
+            xmlConfiguration.getChannel().setSerializeOnTrack(true);
+        }
+        if (config.preview.priorityLanes) {
+            xmlConfiguration.getChannel().setPriorityLanes(true);
+        }
         return xmlConfiguration;
     }
 
+    private static JvmXmlElement newJvmXml(String name) {
+        JvmXmlElement jvmXml = new JvmXmlElement();
+        jvmXml.setName(name);
+        jvmXml.setEnabled(true);
+        return jvmXml;
+    }
+
     private static ParamXmlElement newParamXml(String name, String value) {
         ParamXmlElement paramXml = new ParamXmlElement();
         paramXml.setName(name);
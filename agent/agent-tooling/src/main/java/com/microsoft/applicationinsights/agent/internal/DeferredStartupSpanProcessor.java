@@ -0,0 +1,111 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.agent.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// used by the fast start mode to run the subsystems that are not needed to capture telemetry (heartbeat, performance
+// counters, QuickPulse, etc.) once the first request has completed, or once the delay has passed, whichever comes first,
+// so that they don't compete with the application while it starts up and serves its first request
+public class DeferredStartupSpanProcessor implements SpanProcessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeferredStartupSpanProcessor.class);
+
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final CountDownLatch firstRequestEnded = new CountDownLatch(1);
+
+    // tasks must be added before calling start()
+    public void add(Runnable task) {
+        tasks.add(task);
+    }
+
+    public void start(long delaySeconds) {
+        ThreadPoolUtils.createDaemonThreadFactory(DeferredStartupSpanProcessor.class)
+                .newThread(() -> runTasks(delaySeconds))
+                .start();
+    }
+
+    private void runTasks(long delaySeconds) {
+        long startNanos = System.nanoTime();
+        try {
+            firstRequestEnded.await(delaySeconds, SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        logger.debug("starting deferred subsystems {} ms after agent startup ({})",
+                (System.nanoTime() - startNanos) / 1000000,
+                firstRequestEnded.getCount() == 0 ? "first request completed" : "delay passed");
+        for (Runnable task : tasks) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                logger.error(t.getMessage(), t);
+            }
+        }
+    }
+
+    @Override
+    public void onStart(Context parentContext, ReadWriteSpan span) {
+    }
+
+    @Override
+    public boolean isStartRequired() {
+        return false;
+    }
+
+    @Override
+    public void onEnd(ReadableSpan span) {
+        if (span.getKind() == SpanKind.SERVER && firstRequestEnded.getCount() > 0) {
+            firstRequestEnded.countDown();
+        }
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return true;
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return CompletableResultCode.ofSuccess();
+    }
+}
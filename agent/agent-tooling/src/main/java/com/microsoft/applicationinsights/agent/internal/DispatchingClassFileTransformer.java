@@ -0,0 +1,67 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.agent.internal;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+// the JVM invokes every registered transformer for every class that is loaded (and retransformed), for the lifetime
+// of the process, so instead of registering each sdk transformer separately, they are registered behind this single
+// transformer, which routes each class with one hash lookup on its internal name
+//
+// this transformer is never removed, even after all the target classes have been transformed, since the same class
+// can be loaded again by another class loader later on (e.g. the sdk packaged in each web app of an app server)
+public class DispatchingClassFileTransformer implements ClassFileTransformer {
+
+    private final Map<String, ClassFileTransformer> transformers = new HashMap<>();
+
+    public DispatchingClassFileTransformer(TargetedClassFileTransformer... transformers) {
+        for (TargetedClassFileTransformer transformer : transformers) {
+            for (String className : transformer.getTargetClassNames()) {
+                if (this.transformers.put(className, transformer) != null) {
+                    throw new IllegalArgumentException("more than one transformer targets class: " + className);
+                }
+            }
+        }
+    }
+
+    @Override
+    public byte /*@Nullable*/[] transform(@Nullable ClassLoader loader, @Nullable String className,
+                                          @Nullable Class<?> classBeingRedefined,
+                                          @Nullable ProtectionDomain protectionDomain,
+                                          byte[] classfileBuffer) throws IllegalClassFormatException {
+
+        if (className == null) {
+            // lambdas and other hidden classes
+            return null;
+        }
+        ClassFileTransformer transformer = transformers.get(className);
+        if (transformer == null) {
+            return null;
+        }
+        return transformer.transform(loader, className, classBeingRedefined, protectionDomain, classfileBuffer);
+    }
+}
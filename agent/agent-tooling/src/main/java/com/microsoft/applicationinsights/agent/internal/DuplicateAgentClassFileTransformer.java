@@ -20,8 +20,8 @@
  */
 package com.microsoft.applicationinsights.agent.internal;
 
-import java.lang.instrument.ClassFileTransformer;
 import java.security.ProtectionDomain;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -36,7 +36,7 @@ import org.slf4j.LoggerFactory;
 import static net.bytebuddy.jar.asm.Opcodes.ASM7;
 import static net.bytebuddy.jar.asm.Opcodes.RETURN;
 
-public class DuplicateAgentClassFileTransformer implements ClassFileTransformer {
+public class DuplicateAgentClassFileTransformer implements TargetedClassFileTransformer {
 
     private static final Logger logger = LoggerFactory.getLogger(DuplicateAgentClassFileTransformer.class);
 
@@ -60,6 +60,11 @@ public class DuplicateAgentClassFileTransformer implements ClassFileTransformer
         this.unshadedClassNames = unshadedClassNames;
     }
 
+    @Override
+    public Collection<String> getTargetClassNames() {
+        return unshadedClassNames;
+    }
+
     @Override
     public byte /*@Nullable*/[] transform(@Nullable ClassLoader loader, @Nullable String className,
                                           @Nullable Class<?> classBeingRedefined,
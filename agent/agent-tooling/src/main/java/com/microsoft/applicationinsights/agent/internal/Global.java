@@ -1,6 +1,11 @@
 package com.microsoft.applicationinsights.agent.internal;
 
 import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.agent.LogAggregator;
+import com.microsoft.applicationinsights.agent.LogRateLimiter;
+import com.microsoft.applicationinsights.agent.internal.profiler.ProfilerSpanProcessor;
+import com.microsoft.applicationinsights.agent.internal.sampling.LoggerThresholds;
+import com.microsoft.applicationinsights.internal.metrics.MetricsAggregator;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 public class Global {
@@ -10,6 +15,32 @@ public class Global {
 
     private static volatile double samplingPercentage = 100;
 
+    // this is null unless preview metrics aggregation is enabled
+    @Nullable
+    private static volatile MetricsAggregator metricsAggregator;
+
+    // this is null unless preview standard metrics are enabled
+    @Nullable
+    private static volatile MetricsAggregator standardMetricsAggregator;
+
+    // this is null unless the preview profiler is enabled with operation names
+    @Nullable
+    private static volatile ProfilerSpanProcessor profilerSpanProcessor;
+
+    // this is null unless the preview fast start mode is enabled
+    @Nullable
+    private static volatile DeferredStartupSpanProcessor deferredStartupSpanProcessor;
+
+    @Nullable
+    private static volatile LogRateLimiter logRateLimiter;
+
+    @Nullable
+    private static volatile LogAggregator logAggregator;
+
+    // this is null unless per-logger thresholds are configured
+    @Nullable
+    private static volatile LoggerThresholds loggerThresholds;
+
     // this can be null if agent failed during startup
     @Nullable
     public static TelemetryClient getTelemetryClient() {
@@ -20,6 +51,41 @@ public class Global {
         return samplingPercentage;
     }
 
+    @Nullable
+    public static MetricsAggregator getMetricsAggregator() {
+        return metricsAggregator;
+    }
+
+    @Nullable
+    public static MetricsAggregator getStandardMetricsAggregator() {
+        return standardMetricsAggregator;
+    }
+
+    @Nullable
+    public static ProfilerSpanProcessor getProfilerSpanProcessor() {
+        return profilerSpanProcessor;
+    }
+
+    @Nullable
+    public static DeferredStartupSpanProcessor getDeferredStartupSpanProcessor() {
+        return deferredStartupSpanProcessor;
+    }
+
+    @Nullable
+    public static LogRateLimiter getLogRateLimiter() {
+        return logRateLimiter;
+    }
+
+    @Nullable
+    public static LogAggregator getLogAggregator() {
+        return logAggregator;
+    }
+
+    @Nullable
+    public static LoggerThresholds getLoggerThresholds() {
+        return loggerThresholds;
+    }
+
     public static void setTelemetryClient(TelemetryClient telemetryClient) {
         Global.telemetryClient = telemetryClient;
     }
@@ -27,4 +93,32 @@ public class Global {
     public static void setSamplingPercentage(double samplingPercentage) {
         Global.samplingPercentage = samplingPercentage;
     }
+
+    public static void setMetricsAggregator(MetricsAggregator metricsAggregator) {
+        Global.metricsAggregator = metricsAggregator;
+    }
+
+    public static void setStandardMetricsAggregator(MetricsAggregator standardMetricsAggregator) {
+        Global.standardMetricsAggregator = standardMetricsAggregator;
+    }
+
+    public static void setProfilerSpanProcessor(ProfilerSpanProcessor profilerSpanProcessor) {
+        Global.profilerSpanProcessor = profilerSpanProcessor;
+    }
+
+    public static void setDeferredStartupSpanProcessor(DeferredStartupSpanProcessor deferredStartupSpanProcessor) {
+        Global.deferredStartupSpanProcessor = deferredStartupSpanProcessor;
+    }
+
+    public static void setLogRateLimiter(LogRateLimiter logRateLimiter) {
+        Global.logRateLimiter = logRateLimiter;
+    }
+
+    public static void setLogAggregator(LogAggregator logAggregator) {
+        Global.logAggregator = logAggregator;
+    }
+
+    public static void setLoggerThresholds(LoggerThresholds loggerThresholds) {
+        Global.loggerThresholds = loggerThresholds;
+    }
 }
@@ -30,6 +30,7 @@ import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.agent.bootstrap.BytecodeUtil.BytecodeUtilDelegate;
 import com.microsoft.applicationinsights.agent.internal.Global;
 import com.microsoft.applicationinsights.agent.internal.sampling.SamplingScoreGeneratorV2;
+import com.microsoft.applicationinsights.internal.metrics.MetricsAggregator;
 import com.microsoft.applicationinsights.telemetry.Duration;
 import com.microsoft.applicationinsights.telemetry.EventTelemetry;
 import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
@@ -78,6 +79,11 @@ public class BytecodeUtilImpl implements BytecodeUtilDelegate {
         if (Strings.isNullOrEmpty(name)) {
             return;
         }
+        MetricsAggregator metricsAggregator = Global.getMetricsAggregator();
+        if (metricsAggregator != null
+                && aggregateMetric(metricsAggregator, name, value, count, min, max, stdDev, properties, tags)) {
+            return;
+        }
         MetricTelemetry telemetry = new MetricTelemetry();
         telemetry.setName(name);
         telemetry.setValue(value);
@@ -91,6 +97,23 @@ public class BytecodeUtilImpl implements BytecodeUtilDelegate {
         track(telemetry);
     }
 
+    // returns false if the metric cannot be aggregated and so needs to be sent as is
+    private static boolean aggregateMetric(MetricsAggregator metricsAggregator, String name, double value,
+                                           Integer count, Double min, Double max, Double stdDev,
+                                           Map<String, String> properties, Map<String, String> tags) {
+        if (stdDev != null) {
+            // standard deviation cannot be merged with other values
+            return false;
+        }
+        if (count == null || count == 1) {
+            return metricsAggregator.record(name, value, properties, tags);
+        }
+        if (count > 1 && min != null && max != null) {
+            return metricsAggregator.record(name, value, count, min, max, properties, tags);
+        }
+        return false;
+    }
+
     @Override
     public void trackDependency(String name, String id, String resultCode, @Nullable Long totalMillis,
                                 boolean success, String commandName, String type, String target,
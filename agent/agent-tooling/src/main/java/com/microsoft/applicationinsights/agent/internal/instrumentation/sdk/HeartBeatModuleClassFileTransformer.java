@@ -20,6 +20,7 @@
  */
 package com.microsoft.applicationinsights.agent.internal.instrumentation.sdk;
 
+import com.microsoft.applicationinsights.agent.internal.TargetedClassFileTransformer;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import net.bytebuddy.jar.asm.ClassReader;
 import net.bytebuddy.jar.asm.ClassVisitor;
@@ -28,18 +29,24 @@ import net.bytebuddy.jar.asm.MethodVisitor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.instrument.ClassFileTransformer;
 import java.security.ProtectionDomain;
+import java.util.Collection;
+import java.util.Collections;
 
 import static net.bytebuddy.jar.asm.Opcodes.ASM7;
 import static net.bytebuddy.jar.asm.Opcodes.RETURN;
 
-public class HeartBeatModuleClassFileTransformer implements ClassFileTransformer {
+public class HeartBeatModuleClassFileTransformer implements TargetedClassFileTransformer {
 
     private static final Logger logger = LoggerFactory.getLogger(HeartBeatModuleClassFileTransformer.class);
 
     private final String unshadedClassName = UnshadedSdkPackageName.get() + "/internal/heartbeat/HeartBeatModule";
 
+    @Override
+    public Collection<String> getTargetClassNames() {
+        return Collections.singletonList(unshadedClassName);
+    }
+
     @Override
     public byte /*@Nullable*/[] transform(@Nullable ClassLoader loader, @Nullable String className,
                                           @Nullable Class<?> classBeingRedefined,
@@ -20,9 +20,11 @@
  */
 package com.microsoft.applicationinsights.agent.internal.instrumentation.sdk;
 
-import java.lang.instrument.ClassFileTransformer;
 import java.security.ProtectionDomain;
+import java.util.Collection;
+import java.util.Collections;
 
+import com.microsoft.applicationinsights.agent.internal.TargetedClassFileTransformer;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import net.bytebuddy.jar.asm.ClassReader;
 import net.bytebuddy.jar.asm.ClassVisitor;
@@ -34,13 +36,18 @@ import org.slf4j.LoggerFactory;
 import static net.bytebuddy.jar.asm.Opcodes.ASM7;
 import static net.bytebuddy.jar.asm.Opcodes.RETURN;
 
-public class PerformanceCounterModuleClassFileTransformer implements ClassFileTransformer {
+public class PerformanceCounterModuleClassFileTransformer implements TargetedClassFileTransformer {
 
     private static final Logger logger = LoggerFactory.getLogger(PerformanceCounterModuleClassFileTransformer.class);
 
     private final String unshadedClassName =
             UnshadedSdkPackageName.get() + "/internal/perfcounter/AbstractPerformanceCounterModule";
 
+    @Override
+    public Collection<String> getTargetClassNames() {
+        return Collections.singletonList(unshadedClassName);
+    }
+
     @Override
     public byte /*@Nullable*/[] transform(@Nullable ClassLoader loader, @Nullable String className,
                                           @Nullable Class<?> classBeingRedefined,
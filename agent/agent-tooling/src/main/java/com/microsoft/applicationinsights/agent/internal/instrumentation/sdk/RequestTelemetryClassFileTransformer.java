@@ -20,11 +20,12 @@
  */
 package com.microsoft.applicationinsights.agent.internal.instrumentation.sdk;
 
-import java.lang.instrument.ClassFileTransformer;
 import java.security.ProtectionDomain;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 
+import com.microsoft.applicationinsights.agent.internal.TargetedClassFileTransformer;
 import net.bytebuddy.jar.asm.ClassReader;
 import net.bytebuddy.jar.asm.ClassVisitor;
 import net.bytebuddy.jar.asm.ClassWriter;
@@ -41,12 +42,17 @@ import static net.bytebuddy.jar.asm.Opcodes.INVOKESTATIC;
 
 // this is used to supplement old versions of RequestTelemetry with getters from the latest version of
 // RequestTelemetry
-public class RequestTelemetryClassFileTransformer implements ClassFileTransformer {
+public class RequestTelemetryClassFileTransformer implements TargetedClassFileTransformer {
 
     private static final Logger logger = LoggerFactory.getLogger(RequestTelemetryClassFileTransformer.class);
 
     private final String unshadedClassName = UnshadedSdkPackageName.get() + "/telemetry/RequestTelemetry";
 
+    @Override
+    public Collection<String> getTargetClassNames() {
+        return Collections.singletonList(unshadedClassName);
+    }
+
     @Override
     public byte /*@Nullable*/[] transform(@Nullable ClassLoader loader, @Nullable String className,
                                           @Nullable Class<?> classBeingRedefined,
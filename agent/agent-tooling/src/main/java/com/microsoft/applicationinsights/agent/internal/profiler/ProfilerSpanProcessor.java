@@ -0,0 +1,91 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.agent.internal.profiler;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongFunction;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+
+// remembers which local root span (i.e. which request) each thread is working on, so that the sampling profiler
+// can prefix the stacks it captures with the operation name
+//
+// only the thread that started the local root span is tracked, work that the request hands off to other threads
+// is profiled without an operation name
+public class ProfilerSpanProcessor implements SpanProcessor, LongFunction<String> {
+
+    private final ConcurrentHashMap<Long, ReadableSpan> localRootSpansByThread = new ConcurrentHashMap<>();
+    // needed to find the thread when the span ends on a different thread than the one it started on
+    private final ConcurrentHashMap<ReadableSpan, Long> threadsByLocalRootSpan = new ConcurrentHashMap<>();
+
+    @Override
+    public void onStart(Context parentContext, ReadWriteSpan span) {
+        SpanContext parentSpanContext = Span.fromContext(parentContext).getSpanContext();
+        if (parentSpanContext.isValid() && !parentSpanContext.isRemote()) {
+            return;
+        }
+        long threadId = Thread.currentThread().getId();
+        localRootSpansByThread.put(threadId, span);
+        threadsByLocalRootSpan.put(span, threadId);
+    }
+
+    @Override
+    public boolean isStartRequired() {
+        return true;
+    }
+
+    @Override
+    public void onEnd(ReadableSpan span) {
+        Long threadId = threadsByLocalRootSpan.remove(span);
+        if (threadId != null) {
+            localRootSpansByThread.remove(threadId, span);
+        }
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return true;
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    // called by the profiler thread with the id of every sampled thread
+    @Override
+    public String apply(long threadId) {
+        ReadableSpan span = localRootSpansByThread.get(threadId);
+        return span == null ? null : span.getName();
+    }
+}
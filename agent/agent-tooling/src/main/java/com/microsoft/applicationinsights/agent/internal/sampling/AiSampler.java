@@ -32,6 +32,12 @@ public final class AiSampler implements Sampler {
     private final SamplingResult alwaysOffDecision;
 
     public AiSampler(double samplingPercentage) {
+        this(samplingPercentage, false);
+    }
+
+    // recordSampledOut makes sampled out spans RECORD_ONLY instead of DROP, so that span processors still see them
+    // (they are still not exported)
+    public AiSampler(double samplingPercentage, boolean recordSampledOut) {
         this.samplingPercentage = samplingPercentage;
         Attributes alwaysOnAttributes;
         if (samplingPercentage != 100) {
@@ -40,7 +46,8 @@ public final class AiSampler implements Sampler {
             alwaysOnAttributes = Attributes.empty();
         }
         alwaysOnDecision = new FixedRateSamplerDecision(SamplingDecision.RECORD_AND_SAMPLE, alwaysOnAttributes);
-        alwaysOffDecision = new FixedRateSamplerDecision(SamplingDecision.DROP, Attributes.empty());
+        alwaysOffDecision = new FixedRateSamplerDecision(
+                recordSampledOut ? SamplingDecision.RECORD_ONLY : SamplingDecision.DROP, Attributes.empty());
     }
 
     @Override
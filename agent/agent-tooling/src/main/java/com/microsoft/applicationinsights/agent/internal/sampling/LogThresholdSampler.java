@@ -0,0 +1,88 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.agent.internal.sampling;
+
+import java.util.List;
+import javax.annotation.Nullable;
+
+import com.microsoft.applicationinsights.agent.Exporter;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingDecision;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+
+// drops log spans below the threshold configured for their logger, before the span is created
+//
+// the logging instrumentation captures everything at or above the lowest configured threshold,
+// so this only needs to filter out the loggers that have a higher threshold
+public final class LogThresholdSampler implements Sampler {
+
+    private static final SamplingResult DROP = new DropDecision();
+
+    private final Sampler delegate;
+
+    private final LoggerThresholds loggerThresholds;
+
+    public LogThresholdSampler(Sampler delegate, LoggerThresholds loggerThresholds) {
+        this.delegate = delegate;
+        this.loggerThresholds = loggerThresholds;
+    }
+
+    @Override
+    public SamplingResult shouldSample(@Nullable Context parentContext,
+                                       String traceId,
+                                       String name,
+                                       SpanKind spanKind,
+                                       Attributes attributes,
+                                       List<LinkData> parentLinks) {
+        Boolean isLog = attributes.get(Exporter.AI_LOG_KEY);
+        if (isLog != null && isLog) {
+            String loggerName = attributes.get(Exporter.AI_LOGGER_NAME_KEY);
+            String level = attributes.get(Exporter.AI_LOG_LEVEL_KEY);
+            if (loggerName != null && level != null && !loggerThresholds.isCaptured(loggerName, level)) {
+                return DROP;
+            }
+        }
+        return delegate.shouldSample(parentContext, traceId, name, spanKind, attributes, parentLinks);
+    }
+
+    @Override
+    public String getDescription() {
+        return "LogThresholdSampler, delegating to: " + delegate.getDescription();
+    }
+
+    private static final class DropDecision implements SamplingResult {
+
+        @Override
+        public SamplingDecision getDecision() {
+            return SamplingDecision.DROP;
+        }
+
+        @Override
+        public Attributes getAttributes() {
+            return Attributes.empty();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.agent.internal.sampling;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// resolves the capture threshold of a logger from the thresholds configured for logger name prefixes
+//
+// prefixes match whole name segments ("com.foo" matches "com.foo" and "com.foo.Bar", but not "com.foobar"),
+// and the longest matching prefix wins, same as logger hierarchies in the logging frameworks
+//
+// the prefixes are stored in a trie of name segments, and the result for each logger name is cached since
+// applications only have a bounded number of loggers
+public class LoggerThresholds {
+
+    private static final int MAX_CACHE_SIZE = 10000;
+
+    private static final int UNKNOWN = -1;
+
+    private final Node root = new Node();
+
+    private final int lowestThreshold;
+
+    private final ConcurrentMap<String, Integer> cache = new ConcurrentHashMap<>();
+
+    public LoggerThresholds(String defaultLevel, Map<String, String> prefixLevels) {
+        int defaultThreshold = getRank(defaultLevel);
+        if (defaultThreshold == UNKNOWN) {
+            throw new IllegalArgumentException("Unexpected level: " + defaultLevel);
+        }
+        root.threshold = defaultThreshold;
+        int lowestThreshold = defaultThreshold;
+        for (Map.Entry<String, String> entry : prefixLevels.entrySet()) {
+            int threshold = getRank(entry.getValue());
+            if (threshold == UNKNOWN) {
+                throw new IllegalArgumentException("Unexpected level for " + entry.getKey() + ": " + entry.getValue());
+            }
+            Node node = root;
+            for (String segment : entry.getKey().split("\\.")) {
+                Node child = node.children.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(segment, child);
+                }
+                node = child;
+            }
+            node.threshold = threshold;
+            lowestThreshold = Math.min(lowestThreshold, threshold);
+        }
+        this.lowestThreshold = lowestThreshold;
+    }
+
+    // the most verbose of the configured levels, which is what the logging instrumentation needs to capture
+    //
+    // this is always one of the log4j/logback level names, whichever name the level was configured with
+    public String getLowestLevel() {
+        return getLevelName(lowestThreshold);
+    }
+
+    public boolean isCaptured(String loggerName, String level) {
+        int rank = getRank(level);
+        if (rank == UNKNOWN) {
+            // better to capture than to silently drop
+            return true;
+        }
+        return rank >= getThreshold(loggerName);
+    }
+
+    private int getThreshold(String loggerName) {
+        Integer threshold = cache.get(loggerName);
+        if (threshold == null) {
+            threshold = lookup(loggerName);
+            if (cache.size() < MAX_CACHE_SIZE) {
+                cache.put(loggerName, threshold);
+            }
+        }
+        return threshold;
+    }
+
+    private int lookup(String loggerName) {
+        Node node = root;
+        int threshold = root.threshold;
+        int start = 0;
+        while (start <= loggerName.length()) {
+            int end = loggerName.indexOf('.', start);
+            if (end == -1) {
+                end = loggerName.length();
+            }
+            node = node.children.get(loggerName.substring(start, end));
+            if (node == null) {
+                break;
+            }
+            if (node.threshold != UNKNOWN) {
+                threshold = node.threshold;
+            }
+            start = end + 1;
+        }
+        return threshold;
+    }
+
+    // levels from log4j, logback and java.util.logging on a single scale
+    static int getRank(String level) {
+        switch (level.toUpperCase(Locale.ROOT)) {
+            case "ALL":
+                return 0;
+            case "TRACE":
+            case "FINEST":
+                return 1;
+            case "DEBUG":
+            case "FINER":
+            case "FINE":
+                return 2;
+            case "CONFIG":
+                return 3;
+            case "INFO":
+                return 4;
+            case "WARN":
+            case "WARNING":
+                return 5;
+            case "ERROR":
+            case "SEVERE":
+                return 6;
+            case "FATAL":
+                return 7;
+            case "OFF":
+                return Integer.MAX_VALUE;
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    // the inverse of getRank(), with CONFIG (which only java.util.logging has) widened to DEBUG
+    private static String getLevelName(int rank) {
+        switch (rank) {
+            case 0:
+                return "ALL";
+            case 1:
+                return "TRACE";
+            case 2:
+            case 3:
+                return "DEBUG";
+            case 4:
+                return "INFO";
+            case 5:
+                return "WARN";
+            case 6:
+                return "ERROR";
+            case 7:
+                return "FATAL";
+            default:
+                return "OFF";
+        }
+    }
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private int threshold = UNKNOWN;
+    }
+}
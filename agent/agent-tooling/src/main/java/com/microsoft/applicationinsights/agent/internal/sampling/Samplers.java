@@ -1,12 +1,15 @@
 package com.microsoft.applicationinsights.agent.internal.sampling;
 
+import com.microsoft.applicationinsights.agent.internal.Global;
 import io.opentelemetry.sdk.trace.samplers.Sampler;
 
 public class Samplers {
 
     public static Sampler getSampler(double samplingPercentage) {
         if (samplingPercentage != 100) {
-            return new AiSampler(samplingPercentage);
+            // sampled out spans still need to be recorded (but not exported) when standard metrics are computed from them
+            boolean recordSampledOut = Global.getStandardMetricsAggregator() != null;
+            return new AiSampler(samplingPercentage, recordSampledOut);
         } else {
             // OpenTelemetry default sampling is "parent based", which means don't sample if remote traceparent sampled flag was not set,
             // but Application Insights SDKs do not send the sampled flag (since they perform sampling during export instead of head-based sampling)
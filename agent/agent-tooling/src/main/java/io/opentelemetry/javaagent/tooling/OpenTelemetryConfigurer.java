@@ -6,16 +6,24 @@ import java.util.List;
 
 import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.agent.Exporter;
+import com.microsoft.applicationinsights.agent.LogAggregator;
+import com.microsoft.applicationinsights.agent.LogRateLimiter;
+import com.microsoft.applicationinsights.agent.StandardMetricsSpanProcessor;
 import com.microsoft.applicationinsights.agent.bootstrap.MainEntryPoint;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorConfig;
 import com.microsoft.applicationinsights.agent.bootstrap.configuration.Configuration.ProcessorType;
+import com.microsoft.applicationinsights.agent.internal.DeferredStartupSpanProcessor;
 import com.microsoft.applicationinsights.agent.internal.Global;
+import com.microsoft.applicationinsights.agent.internal.profiler.ProfilerSpanProcessor;
 import com.microsoft.applicationinsights.agent.internal.processors.ExporterWithAttributeProcessor;
 import com.microsoft.applicationinsights.agent.internal.processors.ExporterWithSpanProcessor;
 import com.microsoft.applicationinsights.agent.internal.propagator.DelegatingPropagator;
 import com.microsoft.applicationinsights.agent.internal.sampling.DelegatingSampler;
+import com.microsoft.applicationinsights.agent.internal.sampling.LogThresholdSampler;
+import com.microsoft.applicationinsights.agent.internal.sampling.LoggerThresholds;
 import com.microsoft.applicationinsights.agent.internal.sampling.Samplers;
+import com.microsoft.applicationinsights.internal.metrics.MetricsAggregator;
 import io.opentelemetry.sdk.autoconfigure.spi.SdkTracerProviderConfigurer;
 import io.opentelemetry.sdk.trace.SdkTracerProviderBuilder;
 import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
@@ -33,7 +41,12 @@ public class OpenTelemetryConfigurer implements SdkTracerProviderConfigurer {
 
         Configuration config = MainEntryPoint.getConfiguration();
 
-        tracerProvider.setSampler(DelegatingSampler.getInstance());
+        LoggerThresholds loggerThresholds = Global.getLoggerThresholds();
+        if (loggerThresholds == null) {
+            tracerProvider.setSampler(DelegatingSampler.getInstance());
+        } else {
+            tracerProvider.setSampler(new LogThresholdSampler(DelegatingSampler.getInstance(), loggerThresholds));
+        }
 
         if (config.connectionString != null) {
             DelegatingPropagator.getInstance().setUpStandardDelegate();
@@ -44,6 +57,29 @@ public class OpenTelemetryConfigurer implements SdkTracerProviderConfigurer {
             // and the default for DelegatingSampler is to not sample anything)
         }
 
+        MetricsAggregator standardMetricsAggregator = Global.getStandardMetricsAggregator();
+        StandardMetricsSpanProcessor standardMetricsSpanProcessor = null;
+        if (standardMetricsAggregator != null) {
+            // this needs to see every span, including sampled out spans (which are recorded but not sampled in that case),
+            // see Samplers
+            standardMetricsSpanProcessor = new StandardMetricsSpanProcessor(standardMetricsAggregator,
+                    config.preview.standardMetrics.intervalSeconds);
+            tracerProvider.addSpanProcessor(standardMetricsSpanProcessor);
+        }
+
+        DeferredStartupSpanProcessor deferredStartupSpanProcessor = Global.getDeferredStartupSpanProcessor();
+        if (deferredStartupSpanProcessor != null) {
+            tracerProvider.addSpanProcessor(deferredStartupSpanProcessor);
+        }
+
+        ProfilerSpanProcessor profilerSpanProcessor = Global.getProfilerSpanProcessor();
+        if (profilerSpanProcessor != null) {
+            tracerProvider.addSpanProcessor(profilerSpanProcessor);
+        }
+
+        LogRateLimiter logRateLimiter = Global.getLogRateLimiter();
+        LogAggregator logAggregator = Global.getLogAggregator();
+
         List<ProcessorConfig> processors = new ArrayList<>(config.preview.processors);
         // Reversing the order of processors before passing it to SpanProcessor
         Collections.reverse(processors);
@@ -55,8 +91,8 @@ public class OpenTelemetryConfigurer implements SdkTracerProviderConfigurer {
 
                 if (currExporter == null) {
                     currExporter = processorConfig.type == ProcessorType.attribute ?
-                            new ExporterWithAttributeProcessor(processorConfig, new Exporter(telemetryClient)) :
-                            new ExporterWithSpanProcessor(processorConfig, new Exporter(telemetryClient));
+                            new ExporterWithAttributeProcessor(processorConfig, new Exporter(telemetryClient, standardMetricsSpanProcessor, logRateLimiter, logAggregator)) :
+                            new ExporterWithSpanProcessor(processorConfig, new Exporter(telemetryClient, standardMetricsSpanProcessor, logRateLimiter, logAggregator));
 
                 } else {
                     currExporter = processorConfig.type == ProcessorType.attribute ?
@@ -68,7 +104,7 @@ public class OpenTelemetryConfigurer implements SdkTracerProviderConfigurer {
             tracerProvider.addSpanProcessor(SimpleSpanProcessor.create(currExporter));
 
         } else {
-            tracerProvider.addSpanProcessor(SimpleSpanProcessor.create(new Exporter(telemetryClient)));
+            tracerProvider.addSpanProcessor(SimpleSpanProcessor.create(new Exporter(telemetryClient, standardMetricsSpanProcessor, logRateLimiter, logAggregator)));
         }
     }
 }
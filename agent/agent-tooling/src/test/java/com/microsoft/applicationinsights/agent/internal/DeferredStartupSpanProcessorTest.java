@@ -0,0 +1,73 @@
+package com.microsoft.applicationinsights.agent.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import org.junit.*;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+
+public class DeferredStartupSpanProcessorTest {
+
+    private final AtomicInteger firstRuns = new AtomicInteger();
+    private final AtomicInteger secondRuns = new AtomicInteger();
+    private final CountDownLatch secondRan = new CountDownLatch(1);
+
+    private DeferredStartupSpanProcessor processor;
+    private Tracer tracer;
+
+    @Before
+    public void setup() {
+        processor = new DeferredStartupSpanProcessor();
+        processor.add(() -> {
+            firstRuns.incrementAndGet();
+            throw new IllegalStateException("first task fails");
+        });
+        processor.add(() -> {
+            secondRuns.incrementAndGet();
+            secondRan.countDown();
+        });
+        tracer = SdkTracerProvider.builder()
+                .addSpanProcessor(processor)
+                .build()
+                .get("test");
+    }
+
+    @Test
+    public void testTasksRunOnceAfterTheFirstRequest() throws InterruptedException {
+        processor.start(60);
+
+        // only a request span ends the wait
+        tracer.spanBuilder("SELECT users").setSpanKind(SpanKind.CLIENT).startSpan().end();
+        assertFalse(secondRan.await(200, MILLISECONDS));
+        assertEquals(0, firstRuns.get());
+
+        tracer.spanBuilder("GET /users").setSpanKind(SpanKind.SERVER).startSpan().end();
+        assertTrue(secondRan.await(10, SECONDS));
+
+        tracer.spanBuilder("GET /users").setSpanKind(SpanKind.SERVER).startSpan().end();
+        Thread.sleep(200);
+
+        // the second task still runs after the first one threw
+        assertEquals(1, firstRuns.get());
+        assertEquals(1, secondRuns.get());
+    }
+
+    @Test
+    public void testTasksRunOnceAfterTheDelayWithoutRequests() throws InterruptedException {
+        processor.start(0);
+
+        assertTrue(secondRan.await(10, SECONDS));
+
+        tracer.spanBuilder("GET /users").setSpanKind(SpanKind.SERVER).startSpan().end();
+        Thread.sleep(200);
+
+        assertEquals(1, firstRuns.get());
+        assertEquals(1, secondRuns.get());
+    }
+}
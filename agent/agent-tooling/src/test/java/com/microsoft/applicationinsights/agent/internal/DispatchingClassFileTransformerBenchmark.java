@@ -0,0 +1,132 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.agent.internal;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.ApplicationInsightsAppenderClassFileTransformer;
+import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.DependencyTelemetryClassFileTransformer;
+import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.HeartBeatModuleClassFileTransformer;
+import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.PerformanceCounterModuleClassFileTransformer;
+import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.QuickPulseClassFileTransformer;
+import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.RequestTelemetryClassFileTransformer;
+import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.TelemetryClientClassFileTransformer;
+import com.microsoft.applicationinsights.agent.internal.instrumentation.sdk.WebRequestTrackingFilterClassFileTransformer;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+// compares the time spent in the sdk transformers while an application loads its classes, when the transformers are
+// registered separately (the JVM calls each of them in turn for every class) vs behind DispatchingClassFileTransformer
+//
+// this is skipped by default, run it with:
+//   ./gradlew :agent:agent-tooling:test --tests '*DispatchingClassFileTransformerBenchmark' -Pai.tests.benchmarks=true
+public class DispatchingClassFileTransformerBenchmark {
+
+    private static final int NUMBER_OF_CLASSES = 40000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue(Boolean.getBoolean("ai.tests.benchmarks"));
+    }
+
+    @Test
+    public void transformUntargetedClasses() throws Exception {
+        String[] classNames = getClassNames(NUMBER_OF_CLASSES);
+
+        List<ClassFileTransformer> separate = Arrays.asList(newTransformers());
+        List<ClassFileTransformer> dispatching =
+                Arrays.<ClassFileTransformer>asList(new DispatchingClassFileTransformer(newTransformers()));
+
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            loadClasses(separate, classNames);
+            loadClasses(dispatching, classNames);
+        }
+        long separateNanos = 0;
+        long dispatchingNanos = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            separateNanos += loadClasses(separate, classNames);
+            dispatchingNanos += loadClasses(dispatching, classNames);
+        }
+
+        System.out.printf("classes loaded: %d%n", NUMBER_OF_CLASSES);
+        print("separate transformers", separateNanos / MEASURED_ROUNDS, NUMBER_OF_CLASSES);
+        print("dispatching transformer", dispatchingNanos / MEASURED_ROUNDS, NUMBER_OF_CLASSES);
+        assertTrue("dispatching took " + dispatchingNanos + " ns vs " + separateNanos + " ns for the separate transformers",
+                dispatchingNanos < separateNanos);
+    }
+
+    private static TargetedClassFileTransformer[] newTransformers() {
+        return new TargetedClassFileTransformer[] {
+                new TelemetryClientClassFileTransformer(),
+                new DependencyTelemetryClassFileTransformer(),
+                new RequestTelemetryClassFileTransformer(),
+                new PerformanceCounterModuleClassFileTransformer(),
+                new QuickPulseClassFileTransformer(),
+                new HeartBeatModuleClassFileTransformer(),
+                new ApplicationInsightsAppenderClassFileTransformer(),
+                new WebRequestTrackingFilterClassFileTransformer(),
+                new DuplicateAgentClassFileTransformer()
+        };
+    }
+
+    // mimics the JVM, which calls each registered transformer in turn for every class that is loaded
+    private static long loadClasses(List<ClassFileTransformer> transformers, String[] classNames) throws Exception {
+        byte[] classfileBuffer = new byte[0];
+        ClassLoader loader = DispatchingClassFileTransformerBenchmark.class.getClassLoader();
+        long start = System.nanoTime();
+        for (String className : classNames) {
+            for (ClassFileTransformer transformer : transformers) {
+                transformer.transform(loader, className, null, null, classfileBuffer);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    // none of these are targeted, which is the case for practically all the classes an application loads,
+    // the names share the package prefixes of the targeted classes so that the separate transformers
+    // can't reject them on the first character
+    private static String[] getClassNames(int numberOfClasses) {
+        String[] packages = {
+                "com/microsoft/applicationinsights/internal/",
+                "com/microsoft/applicationinsights/telemetry/",
+                "com/example/application/service/",
+                "org/springframework/beans/factory/support/",
+                "java/util/concurrent/"
+        };
+        List<String> classNames = new ArrayList<>(numberOfClasses);
+        for (int i = 0; i < numberOfClasses; i++) {
+            classNames.add(packages[i % packages.length] + "GeneratedClass" + i);
+        }
+        return classNames.toArray(new String[0]);
+    }
+
+    private static void print(String name, long nanos, int numberOfClasses) {
+        System.out.printf("%-25s %8.3f ms total, %6.1f ns per class%n", name, nanos / 1000000.0,
+                (double) nanos / numberOfClasses);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.agent.internal;
+
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class DispatchingClassFileTransformerTest {
+
+    @Test
+    public void shouldRouteToTargetedTransformer() throws Exception {
+        // given
+        RecordingTransformer first = new RecordingTransformer("com/example/First");
+        RecordingTransformer second = new RecordingTransformer("com/example/Second", "com/example/Third");
+        DispatchingClassFileTransformer dispatcher = new DispatchingClassFileTransformer(first, second);
+
+        // when
+        byte[] firstResult = dispatcher.transform(null, "com/example/First", null, null, new byte[0]);
+        byte[] thirdResult = dispatcher.transform(null, "com/example/Third", null, null, new byte[0]);
+        byte[] otherResult = dispatcher.transform(null, "com/example/Other", null, null, new byte[0]);
+        byte[] hiddenResult = dispatcher.transform(null, null, null, null, new byte[0]);
+
+        // then
+        assertArrayEquals(RecordingTransformer.TRANSFORMED, firstResult);
+        assertArrayEquals(RecordingTransformer.TRANSFORMED, thirdResult);
+        assertNull(otherResult);
+        assertNull(hiddenResult);
+        assertEquals(Arrays.asList("com/example/First"), first.transformedClassNames);
+        assertEquals(Arrays.asList("com/example/Third"), second.transformedClassNames);
+    }
+
+    @Test
+    public void shouldKeepTransformingClassesLoadedAgain() throws Exception {
+        // given
+        RecordingTransformer transformer = new RecordingTransformer("com/example/First");
+        DispatchingClassFileTransformer dispatcher = new DispatchingClassFileTransformer(transformer);
+
+        // when
+        dispatcher.transform(null, "com/example/First", null, null, new byte[0]);
+        dispatcher.transform(new ClassLoader() {}, "com/example/First", null, null, new byte[0]);
+
+        // then
+        assertEquals(2, transformer.transformedClassNames.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectTwoTransformersForSameClass() {
+        new DispatchingClassFileTransformer(new RecordingTransformer("com/example/First"),
+                new RecordingTransformer("com/example/First"));
+    }
+
+    private static class RecordingTransformer implements TargetedClassFileTransformer {
+
+        private static final byte[] TRANSFORMED = new byte[] {1, 2, 3};
+
+        private final List<String> targetClassNames;
+        private final List<String> transformedClassNames = new ArrayList<>();
+
+        private RecordingTransformer(String... targetClassNames) {
+            this.targetClassNames = Arrays.asList(targetClassNames);
+        }
+
+        @Override
+        public Collection<String> getTargetClassNames() {
+            return targetClassNames;
+        }
+
+        @Override
+        public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                                ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+            transformedClassNames.add(className);
+            return TRANSFORMED;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.microsoft.applicationinsights.agent.internal.profiler;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class ProfilerSpanProcessorTest {
+
+    private ProfilerSpanProcessor processor;
+    private Tracer tracer;
+
+    @Before
+    public void setup() {
+        processor = new ProfilerSpanProcessor();
+        tracer = SdkTracerProvider.builder()
+                .addSpanProcessor(processor)
+                .build()
+                .get("test");
+    }
+
+    @Test
+    public void testLocalRootSpanNamesItsThread() {
+        long threadId = Thread.currentThread().getId();
+        assertNull(processor.apply(threadId));
+
+        Span span = tracer.spanBuilder("GET /users").startSpan();
+        assertEquals("GET /users", processor.apply(threadId));
+
+        span.end();
+        assertNull(processor.apply(threadId));
+    }
+
+    @Test
+    public void testChildSpanDoesNotRenameItsThread() {
+        long threadId = Thread.currentThread().getId();
+        Span root = tracer.spanBuilder("GET /users").startSpan();
+
+        Span child = tracer.spanBuilder("SELECT users")
+                .setParent(Context.root().with(root))
+                .startSpan();
+        assertEquals("GET /users", processor.apply(threadId));
+
+        child.end();
+        assertEquals("GET /users", processor.apply(threadId));
+
+        root.end();
+        assertNull(processor.apply(threadId));
+    }
+
+    @Test
+    public void testOtherThreadsAreNotNamed() throws InterruptedException {
+        Span span = tracer.spanBuilder("GET /users").startSpan();
+        final String[] otherThreadName = new String[1];
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                otherThreadName[0] = processor.apply(Thread.currentThread().getId());
+            }
+        });
+        other.start();
+        other.join();
+
+        assertNull(otherThreadName[0]);
+        span.end();
+    }
+
+    @Test
+    public void testSpanEndedOnAnotherThreadIsForgotten() throws InterruptedException {
+        long threadId = Thread.currentThread().getId();
+        final Span span = tracer.spanBuilder("GET /users").startSpan();
+
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                span.end();
+            }
+        });
+        other.start();
+        other.join();
+
+        assertNull(processor.apply(threadId));
+    }
+
+    @Test
+    public void testEndedSpanDoesNotForgetTheNextOneOnTheSameThread() {
+        long threadId = Thread.currentThread().getId();
+        Span first = tracer.spanBuilder("GET /first").startSpan();
+        // e.g. an async request whose span ends after the thread moved on to the next request
+        Span second = tracer.spanBuilder("GET /second").startSpan();
+
+        first.end();
+        assertEquals("GET /second", processor.apply(threadId));
+
+        second.end();
+        assertNull(processor.apply(threadId));
+    }
+}
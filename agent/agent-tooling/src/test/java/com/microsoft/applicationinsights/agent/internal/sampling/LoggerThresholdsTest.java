@@ -0,0 +1,92 @@
+package com.microsoft.applicationinsights.agent.internal.sampling;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class LoggerThresholdsTest {
+
+    @Test
+    public void testDefaultThreshold() {
+        LoggerThresholds thresholds = new LoggerThresholds("INFO", new HashMap<String, String>());
+
+        assertTrue(thresholds.isCaptured("com.foo.Bar", "ERROR"));
+        assertTrue(thresholds.isCaptured("com.foo.Bar", "INFO"));
+        assertFalse(thresholds.isCaptured("com.foo.Bar", "DEBUG"));
+        assertEquals("INFO", thresholds.getLowestLevel());
+    }
+
+    @Test
+    public void testPrefixMatchesWholeSegments() {
+        Map<String, String> levels = new HashMap<>();
+        levels.put("com.foo", "DEBUG");
+        LoggerThresholds thresholds = new LoggerThresholds("INFO", levels);
+
+        assertTrue(thresholds.isCaptured("com.foo", "DEBUG"));
+        assertTrue(thresholds.isCaptured("com.foo.Bar", "DEBUG"));
+        assertFalse(thresholds.isCaptured("com.foobar", "DEBUG"));
+        assertFalse(thresholds.isCaptured("com", "DEBUG"));
+        assertEquals("DEBUG", thresholds.getLowestLevel());
+    }
+
+    @Test
+    public void testLongestPrefixWins() {
+        Map<String, String> levels = new HashMap<>();
+        levels.put("com.foo", "WARN");
+        levels.put("com.foo.bar", "TRACE");
+        levels.put("com.foo.bar.baz", "OFF");
+        LoggerThresholds thresholds = new LoggerThresholds("INFO", levels);
+
+        assertFalse(thresholds.isCaptured("com.foo.Other", "INFO"));
+        assertTrue(thresholds.isCaptured("com.foo.Other", "WARN"));
+        assertTrue(thresholds.isCaptured("com.foo.bar.Other", "TRACE"));
+        assertFalse(thresholds.isCaptured("com.foo.bar.baz.Other", "FATAL"));
+        assertTrue(thresholds.isCaptured("org.Other", "INFO"));
+        assertEquals("TRACE", thresholds.getLowestLevel());
+    }
+
+    @Test
+    public void testJavaUtilLoggingLevels() {
+        Map<String, String> levels = new HashMap<>();
+        levels.put("com.foo", "fine");
+        LoggerThresholds thresholds = new LoggerThresholds("WARNING", levels);
+
+        assertTrue(thresholds.isCaptured("com.foo.Bar", "FINE"));
+        assertFalse(thresholds.isCaptured("com.foo.Bar", "FINEST"));
+        assertTrue(thresholds.isCaptured("org.Bar", "SEVERE"));
+        assertFalse(thresholds.isCaptured("org.Bar", "INFO"));
+        assertEquals("DEBUG", thresholds.getLowestLevel());
+    }
+
+    @Test
+    public void testLowestLevelIsAlwaysALog4jLevelName() {
+        assertEquals("TRACE", new LoggerThresholds("finest", new HashMap<String, String>()).getLowestLevel());
+        assertEquals("WARN", new LoggerThresholds("Warning", new HashMap<String, String>()).getLowestLevel());
+        assertEquals("ERROR", new LoggerThresholds("SEVERE", new HashMap<String, String>()).getLowestLevel());
+        assertEquals("INFO", new LoggerThresholds("info", new HashMap<String, String>()).getLowestLevel());
+        assertEquals("OFF", new LoggerThresholds("off", new HashMap<String, String>()).getLowestLevel());
+
+        Map<String, String> levels = new HashMap<>();
+        levels.put("com.foo", "CONFIG");
+        // there is nothing between DEBUG and INFO in the other frameworks, so CONFIG is captured from DEBUG
+        assertEquals("DEBUG", new LoggerThresholds("SEVERE", levels).getLowestLevel());
+    }
+
+    @Test
+    public void testUnknownLevelIsCaptured() {
+        LoggerThresholds thresholds = new LoggerThresholds("OFF", new HashMap<String, String>());
+
+        assertFalse(thresholds.isCaptured("com.foo.Bar", "FATAL"));
+        assertTrue(thresholds.isCaptured("com.foo.Bar", "CUSTOM"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownConfiguredLevel() {
+        Map<String, String> levels = new HashMap<>();
+        levels.put("com.foo", "VERBOSE");
+        new LoggerThresholds("INFO", levels);
+    }
+}
@@ -20,101 +20,406 @@
  */
 package io.opentelemetry.javaagent;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.lang.Thread.State;
 import java.lang.management.ManagementFactory;
-import java.lang.management.RuntimeMXBean;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongFunction;
 
+/**
+ * A low overhead sampling profiler.
+ *
+ * <p>Every sampling interval the profiler looks at the state of all the threads, and captures the stacks of the threads
+ * that are RUNNABLE (in two batched {@link ThreadMXBean#getThreadInfo} calls, so idle threads cost no stack walk).
+ * The stacks are interned into a call tree, which is exported once per aggregation interval as folded stacks
+ * (one {@code frame;frame;frame count} line per distinct stack), the format flame graph tools consume.
+ *
+ * <p>The profiler measures its own cpu time, and stretches the sampling interval whenever sampling would cost more
+ * than the configured share of one cpu.
+ *
+ * <p>This class only depends on the JDK, since it lives in the agent jar next to the agent entry point. For the same
+ * reason it cannot send the profiles through the telemetry channel, the agent has it append them to a local file.
+ */
 public class Profiler {
 
-//    public static void start() {
-//        File dir = new File("/home");
-//        if (!dir.exists() || !dir.isDirectory()) {
-//            dir = new File(".");
-//        }
-//        File file = new File(dir, "stacktraces.txt");
-//        try {
-//            start(new PrintWriter(new FileWriter(file)));
-//        } catch (IOException e) {
-//            e.printStackTrace();
-//        }
-//    }
-
-    public static void start(PrintWriter out) {
-        Executors.newSingleThreadScheduledExecutor()
-                .scheduleAtFixedRate(new ThreadDump(out), 50, 50, TimeUnit.MILLISECONDS);
+    static final long DEFAULT_SAMPLING_INTERVAL_MILLIS = 50;
+    static final double DEFAULT_CPU_BUDGET_PERCENT = 1.0;
+    static final long DEFAULT_AGGREGATION_INTERVAL_MILLIS = 60000;
+
+    static final int MAX_STACK_DEPTH = 128;
+
+    private static volatile Sampler sampler;
+    private static volatile LongFunction<String> operationNameResolver;
+
+    /**
+     * Receives the aggregated samples, on the profiler thread.
+     */
+    public interface Exporter {
+        void export(long startMillis, long endMillis, int sampleCount, String foldedStacks);
+
+        /**
+         * Called on the profiler thread after the last export, once the profiler is stopped.
+         */
+        default void close() {
+        }
+    }
+
+    /**
+     * Starts the profiler, appending the folded stacks of every aggregation interval to the given file.
+     * This is what the agent calls (reflectively) when the profiler is enabled. The file is closed by {@link #stop()}.
+     * @return false if the profiler is already running, or the file cannot be opened
+     */
+    public static boolean start(String outputPath, long samplingIntervalMillis, double cpuBudgetPercent, long aggregationIntervalMillis) {
+        PrintWriter out;
+        try {
+            out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(outputPath), true), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return false;
+        }
+        if (!start(samplingIntervalMillis, cpuBudgetPercent, aggregationIntervalMillis, new PrintWriterExporter(out))) {
+            out.close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param samplingIntervalMillis the shortest time between two samples
+     * @param cpuBudgetPercent the share of one cpu the profiler may use, e.g. 1.0 is 1% of one cpu
+     * @param aggregationIntervalMillis how often the samples are exported
+     * @return false if the profiler is already running
+     */
+    public static synchronized boolean start(long samplingIntervalMillis, double cpuBudgetPercent, long aggregationIntervalMillis,
+                                             Exporter exporter) {
+        if (sampler != null) {
+            return false;
+        }
+        Sampler newSampler = new Sampler(samplingIntervalMillis, cpuBudgetPercent, aggregationIntervalMillis, exporter);
+        Thread thread = new Thread(newSampler, "applicationinsights-profiler");
+        thread.setDaemon(true);
+        thread.start();
+        sampler = newSampler;
+        return true;
     }
 
+    /**
+     * Stops the profiler. The samples of the current aggregation interval are still exported, and the exporter closed,
+     * when the profiler thread wakes up for the last time.
+     */
+    public static synchronized void stop() {
+        if (sampler != null) {
+            sampler.stop();
+            sampler = null;
+        }
+    }
 
-    private static class ThreadDump implements Runnable {
+    public static boolean isRunning() {
+        return sampler != null;
+    }
 
-        private final PrintWriter out;
+    /**
+     * Lets the agent tag the samples with the operation (e.g. the span name) each thread is working on.
+     * The resolver is called on the profiler thread with the id of a sampled thread, and returns null when there is none.
+     */
+    public static void setOperationNameResolver(LongFunction<String> resolver) {
+        operationNameResolver = resolver;
+    }
 
-        private ThreadDump(PrintWriter out) {
-            this.out = out;
+    static class Sampler implements Runnable {
+
+        private final long samplingIntervalNanos;
+        private final double cpuBudget;
+        private final long aggregationIntervalMillis;
+        private final Exporter exporter;
+        private final ThreadMXBean threadBean;
+        private final boolean cpuTimeSupported;
+
+        private final CallTree callTree = new CallTree();
+
+        private volatile boolean stopped;
+
+        // exponentially weighted average of the cost of one sample, in nanoseconds
+        private double averageSampleCostNanos;
+
+        Sampler(long samplingIntervalMillis, double cpuBudgetPercent, long aggregationIntervalMillis, Exporter exporter) {
+            this.samplingIntervalNanos = Math.max(1, samplingIntervalMillis) * 1000000;
+            this.cpuBudget = Math.max(0.0001, cpuBudgetPercent / 100);
+            this.aggregationIntervalMillis = Math.max(1000, aggregationIntervalMillis);
+            this.exporter = exporter;
+            this.threadBean = ManagementFactory.getThreadMXBean();
+            this.cpuTimeSupported = threadBean.isCurrentThreadCpuTimeSupported();
+        }
+
+        void stop() {
+            stopped = true;
         }
 
         @Override
         public void run() {
-            out.println("========================================");
-            RuntimeMXBean runtimeBean = ManagementFactory.getRuntimeMXBean();
-            out.println(runtimeBean.getUptime());
-            out.println();
-            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
-            ThreadInfo[] threadInfos = threadBean.getThreadInfo(threadBean.getAllThreadIds(),
-                    threadBean.isObjectMonitorUsageSupported(), false);
-            long currentThreadId = Thread.currentThread().getId();
-            for (ThreadInfo threadInfo : threadInfos) {
-                if (threadInfo.getThreadId() != currentThreadId) {
-                    write(threadInfo);
+            long windowStartMillis = System.currentTimeMillis();
+            long selfThreadId = Thread.currentThread().getId();
+            while (!stopped) {
+                long startNanos = System.nanoTime();
+                long startCpu = cpuTimeSupported ? threadBean.getCurrentThreadCpuTime() : -1;
+                try {
+                    sample(selfThreadId);
+                } catch (Throwable t) {
+                    // a failing sample must never take the application down, skip it
+                }
+                long cost = startCpu >= 0 ? threadBean.getCurrentThreadCpuTime() - startCpu : System.nanoTime() - startNanos;
+                averageSampleCostNanos = averageSampleCostNanos == 0 ? cost : averageSampleCostNanos * 0.9 + cost * 0.1;
+
+                long now = System.currentTimeMillis();
+                if (now - windowStartMillis >= aggregationIntervalMillis) {
+                    export(windowStartMillis, now);
+                    windowStartMillis = now;
+                }
+
+                long sleepNanos = getDelayNanos(averageSampleCostNanos) - (System.nanoTime() - startNanos);
+                if (sleepNanos > 0) {
+                    try {
+                        Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
                 }
             }
-            out.flush();
+            export(windowStartMillis, System.currentTimeMillis());
+            try {
+                exporter.close();
+            } catch (Throwable t) {
+                // chomp
+            }
         }
 
-        private void write(ThreadInfo threadInfo) {
-            if (capture(threadInfo)) {
+        /**
+         * The sampling interval, stretched so the time spent sampling stays within the cpu budget.
+         */
+        long getDelayNanos(double sampleCostNanos) {
+            return Math.max(samplingIntervalNanos, (long) (sampleCostNanos / cpuBudget));
+        }
 
+        void sample(long selfThreadId) {
+            long[] threadIds = threadBean.getAllThreadIds();
+            // no stacks in the first pass, it only finds the threads that are worth a stack walk
+            ThreadInfo[] states = threadBean.getThreadInfo(threadIds, 0);
+            int runnable = 0;
+            for (int i = 0; i < states.length; i++) {
+                ThreadInfo state = states[i];
+                if (state != null && state.getThreadState() == State.RUNNABLE && state.getThreadId() != selfThreadId) {
+                    threadIds[runnable++] = threadIds[i];
+                }
             }
-            out.println(threadInfo.getThreadName() + " #" + threadInfo.getThreadId());
-            out.println("   java.lang.Thread.State: " + threadInfo.getThreadState());
-            for (StackTraceElement ste : threadInfo.getStackTrace()) {
-                out.println("        " + ste);
+            if (runnable == 0) {
+                return;
+            }
+            long[] runnableIds = new long[runnable];
+            System.arraycopy(threadIds, 0, runnableIds, 0, runnable);
+            ThreadInfo[] threadInfos = threadBean.getThreadInfo(runnableIds, MAX_STACK_DEPTH);
+
+            LongFunction<String> resolver = operationNameResolver;
+            for (ThreadInfo threadInfo : threadInfos) {
+                if (threadInfo == null || threadInfo.getThreadState() != State.RUNNABLE) {
+                    continue;
+                }
+                StackTraceElement[] stackTrace = threadInfo.getStackTrace();
+                if (stackTrace.length == 0 || isIdle(stackTrace[0], threadInfo.isInNative())) {
+                    // e.g. the "Signal Dispatcher" thread has no java frames
+                    continue;
+                }
+                String operationName = resolver == null ? null : resolver.apply(threadInfo.getThreadId());
+                callTree.add(operationName, stackTrace);
+            }
+        }
+
+        void export(long startMillis, long endMillis) {
+            int sampleCount = callTree.getSampleCount();
+            if (sampleCount == 0) {
+                return;
+            }
+            String foldedStacks = callTree.toFoldedStacks();
+            callTree.clear();
+            try {
+                exporter.export(startMillis, endMillis, sampleCount, foldedStacks);
+            } catch (Throwable t) {
+                // chomp
             }
-            out.println();
         }
 
-        private boolean capture(ThreadInfo threadInfo) {
-            if (threadInfo.getThreadName().equals("main")) {
+        /**
+         * Threads that wait in native code for I/O are reported as RUNNABLE, but burn no cpu.
+         */
+        static boolean isIdle(StackTraceElement top, boolean inNative) {
+            String className = top.getClassName();
+            String methodName = top.getMethodName();
+            if (className.equals("java.lang.ref.Reference") && methodName.equals("waitForReferencePendingList")) {
                 return true;
             }
-            // check stack trace length helps to skip "Signal Dispatcher" thread
-            return threadInfo.getThreadState() == State.RUNNABLE
-                    && threadInfo.getStackTrace().length > 0;
+            if (!inNative) {
+                return false;
+            }
+            return className.startsWith("sun.nio.ch.") && (methodName.startsWith("epoll") || methodName.startsWith("poll")
+                    || methodName.startsWith("accept") || methodName.startsWith("kevent") || methodName.equals("wait"))
+                    || className.equals("java.net.SocketInputStream") && methodName.equals("socketRead0")
+                    || className.equals("java.net.PlainSocketImpl") && methodName.equals("socketAccept");
         }
     }
 
-    //
-    //
-    //
-    //
-    //
-    //
-    //
-    //
-    //
-    //
-    //
-    //
-    //
-    //
-    //
-    //
-    //
-    //
-    //
+    /**
+     * Interns the sampled stacks into a trie rooted at the outermost frame, so a stack that was already seen
+     * only increments a counter, and every distinct frame name is stored once.
+     */
+    static class CallTree {
+
+        // bounds the memory of applications with dynamically generated classes
+        static final int MAX_FRAMES = 100000;
+        static final String TRUNCATED_FRAME = "[truncated]";
+
+        private final Map<StackTraceElement, Integer> frameIds = new HashMap<StackTraceElement, Integer>();
+        private final Map<String, Integer> nameIds = new HashMap<String, Integer>();
+        private final List<String> names = new ArrayList<String>();
+
+        private Node root = new Node(-1);
+        private int sampleCount;
+
+        void add(String operationName, StackTraceElement[] stackTrace) {
+            Node node = root;
+            if (operationName != null) {
+                node = node.getOrAddChild(getNameId("[" + operationName + "]"));
+            }
+            // the stack trace starts with the innermost frame
+            for (int i = stackTrace.length - 1; i >= 0; i--) {
+                node = node.getOrAddChild(getFrameId(stackTrace[i]));
+            }
+            node.selfCount++;
+            sampleCount++;
+        }
+
+        int getSampleCount() {
+            return sampleCount;
+        }
+
+        void clear() {
+            root = new Node(-1);
+            sampleCount = 0;
+            if (frameIds.size() >= MAX_FRAMES) {
+                frameIds.clear();
+                nameIds.clear();
+                names.clear();
+            }
+        }
+
+        String toFoldedStacks() {
+            StringBuilder out = new StringBuilder();
+            StringBuilder path = new StringBuilder();
+            for (int i = 0; i < root.childCount; i++) {
+                appendFolded(root.children[i], path, out);
+            }
+            return out.toString();
+        }
+
+        private void appendFolded(Node node, StringBuilder path, StringBuilder out) {
+            int length = path.length();
+            if (length > 0) {
+                path.append(';');
+            }
+            path.append(names.get(node.nameId));
+            if (node.selfCount > 0) {
+                out.append(path).append(' ').append(node.selfCount).append('\n');
+            }
+            for (int i = 0; i < node.childCount; i++) {
+                appendFolded(node.children[i], path, out);
+            }
+            path.setLength(length);
+        }
+
+        private int getFrameId(StackTraceElement frame) {
+            Integer id = frameIds.get(frame);
+            if (id != null) {
+                return id;
+            }
+            int nameId;
+            if (frameIds.size() >= MAX_FRAMES) {
+                nameId = getNameId(TRUNCATED_FRAME);
+            } else {
+                // line numbers are left out, so all the samples of a method are aggregated together
+                nameId = getNameId(frame.getClassName() + '.' + frame.getMethodName());
+                frameIds.put(frame, nameId);
+            }
+            return nameId;
+        }
+
+        private int getNameId(String name) {
+            Integer id = nameIds.get(name);
+            if (id == null) {
+                id = names.size();
+                names.add(name);
+                nameIds.put(name, id);
+            }
+            return id;
+        }
+    }
+
+    private static class Node {
+
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private final int nameId;
+        private Node[] children = NO_CHILDREN;
+        private int childCount;
+        private int selfCount;
+
+        private Node(int nameId) {
+            this.nameId = nameId;
+        }
+
+        private Node getOrAddChild(int childNameId) {
+            // most frames have one or two callees, a linear scan beats hashing here
+            for (int i = 0; i < childCount; i++) {
+                if (children[i].nameId == childNameId) {
+                    return children[i];
+                }
+            }
+            if (childCount == children.length) {
+                Node[] grown = new Node[Math.max(2, childCount * 2)];
+                System.arraycopy(children, 0, grown, 0, childCount);
+                children = grown;
+            }
+            Node child = new Node(childNameId);
+            children[childCount++] = child;
+            return child;
+        }
+    }
+
+    private static class PrintWriterExporter implements Exporter {
+
+        private final PrintWriter out;
+
+        private PrintWriterExporter(PrintWriter out) {
+            this.out = out;
+        }
+
+        @Override
+        public void export(long startMillis, long endMillis, int sampleCount, String foldedStacks) {
+            out.println("# start=" + startMillis + " end=" + endMillis + " samples=" + sampleCount);
+            out.print(foldedStacks);
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            out.close();
+        }
+    }
 }
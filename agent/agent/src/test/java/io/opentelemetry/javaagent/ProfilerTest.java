@@ -0,0 +1,186 @@
+package io.opentelemetry.javaagent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.opentelemetry.javaagent.Profiler.CallTree;
+import io.opentelemetry.javaagent.Profiler.Sampler;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class ProfilerTest {
+
+    @Test
+    public void testCallTreeFoldsStacksOutermostFrameFirst() {
+        CallTree callTree = new CallTree();
+
+        callTree.add(null, stack("Main.run", "Service.handle", "Dao.query"));
+        callTree.add(null, stack("Main.run", "Service.handle", "Dao.query"));
+        callTree.add(null, stack("Main.run", "Service.handle"));
+        callTree.add(null, stack("Main.run", "Service.render"));
+
+        assertEquals(4, callTree.getSampleCount());
+        assertEquals("Main.run;Service.handle 1\n"
+                + "Main.run;Service.handle;Dao.query 2\n"
+                + "Main.run;Service.render 1\n", callTree.toFoldedStacks());
+    }
+
+    @Test
+    public void testCallTreePrefixesOperationName() {
+        CallTree callTree = new CallTree();
+
+        callTree.add("GET /users", stack("Main.run", "Service.handle"));
+        callTree.add(null, stack("Main.run", "Service.handle"));
+
+        assertEquals("[GET /users];Main.run;Service.handle 1\n"
+                + "Main.run;Service.handle 1\n", callTree.toFoldedStacks());
+    }
+
+    @Test
+    public void testCallTreeIgnoresLineNumbers() {
+        CallTree callTree = new CallTree();
+
+        callTree.add(null, new StackTraceElement[] {new StackTraceElement("Main", "run", "Main.java", 10)});
+        callTree.add(null, new StackTraceElement[] {new StackTraceElement("Main", "run", "Main.java", 20)});
+
+        assertEquals("Main.run 2\n", callTree.toFoldedStacks());
+    }
+
+    @Test
+    public void testCallTreeClear() {
+        CallTree callTree = new CallTree();
+        callTree.add(null, stack("Main.run"));
+
+        callTree.clear();
+        callTree.add(null, stack("Main.other"));
+
+        assertEquals(1, callTree.getSampleCount());
+        assertEquals("Main.other 1\n", callTree.toFoldedStacks());
+    }
+
+    @Test
+    public void testCallTreeTruncatesFramesOverTheLimit() {
+        CallTree callTree = new CallTree();
+        for (int i = 0; i < CallTree.MAX_FRAMES; i++) {
+            callTree.add(null, stack("Main.run", "Generated" + i + ".call"));
+        }
+
+        // frames that were seen before keep their name
+        callTree.add(null, stack("Main.run", "Generated0.call"));
+        // new frames no longer do
+        callTree.add(null, stack("Main.run", "NewClass1.call"));
+        callTree.add(null, stack("Main.run", "NewClass2.call"));
+
+        String foldedStacks = callTree.toFoldedStacks();
+        assertTrue(foldedStacks.startsWith("Main.run;Generated0.call 2\n"));
+        assertFalse(foldedStacks.contains("NewClass"));
+        // the last generated frame did not fit either
+        assertTrue(foldedStacks.contains("\nMain.run;" + CallTree.TRUNCATED_FRAME + " 3\n"));
+
+        // clearing past the limit starts over
+        callTree.clear();
+        callTree.add(null, stack("Main.run", "NewClass1.call"));
+        assertEquals("Main.run;NewClass1.call 1\n", callTree.toFoldedStacks());
+    }
+
+    @Test
+    public void testDelayIsTheSamplingIntervalWhenSamplingIsCheap() {
+        Sampler sampler = new Sampler(50, 1.0, 60000, new RecordingExporter());
+
+        // 100 microseconds is 0.2% of 50 milliseconds
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), sampler.getDelayNanos(TimeUnit.MICROSECONDS.toNanos(100)));
+    }
+
+    @Test
+    public void testDelayIsStretchedToStayWithinTheCpuBudget() {
+        Sampler sampler = new Sampler(50, 1.0, 60000, new RecordingExporter());
+
+        // 2 milliseconds per sample needs 200 milliseconds between samples to stay at 1% of one cpu
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), sampler.getDelayNanos(TimeUnit.MILLISECONDS.toNanos(2)));
+    }
+
+    @Test
+    public void testIsIdle() {
+        assertTrue(Sampler.isIdle(new StackTraceElement("sun.nio.ch.EPoll", "epollWait", null, -2), true));
+        assertTrue(Sampler.isIdle(new StackTraceElement("sun.nio.ch.Net", "poll", null, -2), true));
+        assertTrue(Sampler.isIdle(new StackTraceElement("sun.nio.ch.ServerSocketChannelImpl", "accept0", null, -2), true));
+        assertTrue(Sampler.isIdle(new StackTraceElement("java.net.SocketInputStream", "socketRead0", null, -2), true));
+        assertTrue(Sampler.isIdle(new StackTraceElement("java.net.PlainSocketImpl", "socketAccept", null, -2), true));
+        // not in native, even if reported as RUNNABLE
+        assertTrue(Sampler.isIdle(new StackTraceElement("java.lang.ref.Reference", "waitForReferencePendingList", null, -2), false));
+
+        assertFalse(Sampler.isIdle(new StackTraceElement("sun.nio.ch.EPoll", "epollWait", null, -2), false));
+        assertFalse(Sampler.isIdle(new StackTraceElement("sun.nio.ch.FileDispatcherImpl", "read0", null, -2), true));
+        assertFalse(Sampler.isIdle(new StackTraceElement("java.util.zip.Deflater", "deflateBytes", null, -2), true));
+        assertFalse(Sampler.isIdle(new StackTraceElement("com.example.Busy", "spin", "Busy.java", 10), false));
+    }
+
+    @Test
+    public void testStopExportsTheLastIntervalAndClosesTheExporter() throws InterruptedException {
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread spinner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                busy.countDown();
+                long x = 0;
+                while (done.getCount() > 0) {
+                    x++;
+                }
+                if (x == 42) {
+                    System.out.println(x);
+                }
+            }
+        });
+        spinner.start();
+        busy.await();
+        RecordingExporter exporter = new RecordingExporter();
+
+        try {
+            assertTrue(Profiler.start(1, 100, 60000, exporter));
+            assertFalse(Profiler.start(1, 100, 60000, new RecordingExporter()));
+            Thread.sleep(100);
+            Profiler.stop();
+            assertFalse(Profiler.isRunning());
+            assertTrue(exporter.closed.await(10, TimeUnit.SECONDS));
+        } finally {
+            Profiler.stop();
+            done.countDown();
+            spinner.join();
+        }
+
+        assertEquals(1, exporter.exports.size());
+        assertTrue(exporter.exports.get(0), exporter.exports.get(0).contains("ProfilerTest$"));
+    }
+
+    private static StackTraceElement[] stack(String... outermostFirst) {
+        StackTraceElement[] stackTrace = new StackTraceElement[outermostFirst.length];
+        for (int i = 0; i < outermostFirst.length; i++) {
+            String frame = outermostFirst[i];
+            int dot = frame.lastIndexOf('.');
+            // stack traces start with the innermost frame
+            stackTrace[outermostFirst.length - 1 - i] =
+                    new StackTraceElement(frame.substring(0, dot), frame.substring(dot + 1), null, -1);
+        }
+        return stackTrace;
+    }
+
+    private static class RecordingExporter implements Profiler.Exporter {
+
+        private final List<String> exports = new ArrayList<>();
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void export(long startMillis, long endMillis, int sampleCount, String foldedStacks) {
+            exports.add(foldedStacks);
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+}
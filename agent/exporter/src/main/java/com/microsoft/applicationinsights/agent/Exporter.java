@@ -65,13 +65,13 @@ public class Exporter implements SpanExporter {
 
     private static final Logger logger = LoggerFactory.getLogger(Exporter.class);
 
-    private static final Pattern COMPONENT_PATTERN = Pattern.compile("io\\.opentelemetry\\.javaagent\\.([^0-9]*)(-[0-9.]*)?");
+    static final Pattern COMPONENT_PATTERN = Pattern.compile("io\\.opentelemetry\\.javaagent\\.([^0-9]*)(-[0-9.]*)?");
 
     private static final Joiner JOINER = Joiner.on(", ");
 
     public static final AttributeKey<Double> AI_SAMPLING_PERCENTAGE_KEY = AttributeKey.doubleKey("applicationinsights.internal.sampling_percentage");
 
-    private static final AttributeKey<Boolean> AI_LOG_KEY = AttributeKey.booleanKey("applicationinsights.internal.log");
+    public static final AttributeKey<Boolean> AI_LOG_KEY = AttributeKey.booleanKey("applicationinsights.internal.log");
 
     private static final AttributeKey<String> AI_SPAN_SOURCE_APP_ID_KEY = AttributeKey.stringKey(AiAppId.SPAN_SOURCE_APP_ID_ATTRIBUTE_NAME);
     private static final AttributeKey<String> AI_SPAN_TARGET_APP_ID_KEY = AttributeKey.stringKey(AiAppId.SPAN_TARGET_APP_ID_ATTRIBUTE_NAME);
@@ -80,14 +80,40 @@ public class Exporter implements SpanExporter {
     // for ThreadContext.getRequestTelemetryContext().getRequestTelemetry().setSource()
     private static final AttributeKey<String> AI_SPAN_SOURCE_KEY = AttributeKey.stringKey("applicationinsights.internal.source");
 
-    private static final AttributeKey<String> AI_LOG_LEVEL_KEY = AttributeKey.stringKey("applicationinsights.internal.log_level");
-    private static final AttributeKey<String> AI_LOGGER_NAME_KEY = AttributeKey.stringKey("applicationinsights.internal.logger_name");
+    public static final AttributeKey<String> AI_LOG_LEVEL_KEY = AttributeKey.stringKey("applicationinsights.internal.log_level");
+    public static final AttributeKey<String> AI_LOGGER_NAME_KEY = AttributeKey.stringKey("applicationinsights.internal.logger_name");
     private static final AttributeKey<String> AI_LOG_ERROR_STACK_KEY = AttributeKey.stringKey("applicationinsights.internal.log_error_stack");
 
     private final TelemetryClient telemetryClient;
 
+    // null when request and dependency metrics are not computed by StandardMetricsSpanProcessor
+    private final StandardMetricsSpanProcessor standardMetricsSpanProcessor;
+
+    // null when captured logs are not rate limited
+    private final LogRateLimiter logRateLimiter;
+
+    // null when repeated log messages are not aggregated
+    private final LogAggregator logAggregator;
+
     public Exporter(TelemetryClient telemetryClient) {
+        this(telemetryClient, null);
+    }
+
+    public Exporter(TelemetryClient telemetryClient, StandardMetricsSpanProcessor standardMetricsSpanProcessor) {
+        this(telemetryClient, standardMetricsSpanProcessor, null);
+    }
+
+    public Exporter(TelemetryClient telemetryClient, StandardMetricsSpanProcessor standardMetricsSpanProcessor,
+                    LogRateLimiter logRateLimiter) {
+        this(telemetryClient, standardMetricsSpanProcessor, logRateLimiter, null);
+    }
+
+    public Exporter(TelemetryClient telemetryClient, StandardMetricsSpanProcessor standardMetricsSpanProcessor,
+                    LogRateLimiter logRateLimiter, LogAggregator logAggregator) {
         this.telemetryClient = telemetryClient;
+        this.standardMetricsSpanProcessor = standardMetricsSpanProcessor;
+        this.logRateLimiter = logRateLimiter;
+        this.logAggregator = logAggregator;
     }
 
     @Override
@@ -217,6 +243,11 @@ public class Exporter implements SpanExporter {
 
         setExtraAttributes(telemetry, attributes);
 
+        if (isRecordedInStandardMetrics(span)) {
+            telemetry.getProperties().put(StandardMetricsSpanProcessor.PROCESSED_BY_METRIC_EXTRACTORS,
+                    StandardMetricsSpanProcessor.REQUESTS_EXTRACTOR);
+        }
+
         Double samplingPercentage = attributes.get(AI_SAMPLING_PERCENTAGE_KEY);
         track(telemetry, samplingPercentage);
         trackEvents(span, samplingPercentage);
@@ -252,11 +283,21 @@ public class Exporter implements SpanExporter {
 
         setExtraAttributes(telemetry, attributes);
 
+        if (isRecordedInStandardMetrics(span)) {
+            telemetry.getProperties().put(StandardMetricsSpanProcessor.PROCESSED_BY_METRIC_EXTRACTORS,
+                    StandardMetricsSpanProcessor.DEPENDENCIES_EXTRACTOR);
+        }
+
         Double samplingPercentage = attributes.get(AI_SAMPLING_PERCENTAGE_KEY);
         track(telemetry, samplingPercentage);
         trackEvents(span, samplingPercentage);
     }
 
+    // the spans that did not fit under the standard metrics series cap are left for the ingestion service to count
+    private boolean isRecordedInStandardMetrics(SpanData span) {
+        return standardMetricsSpanProcessor != null && standardMetricsSpanProcessor.isRecorded(span.getSpanId());
+    }
+
     private void applySemanticConventions(Attributes attributes, RemoteDependencyTelemetry telemetry, SpanKind spanKind) {
         String httpMethod = attributes.get(SemanticAttributes.HTTP_METHOD);
         if (httpMethod != null) {
@@ -281,7 +322,18 @@ public class Exporter implements SpanExporter {
     }
 
     private void exportLogSpan(SpanData span) {
-        String errorStack = span.getAttributes().get(AI_LOG_ERROR_STACK_KEY);
+        Attributes attributes = span.getAttributes();
+        String errorStack = attributes.get(AI_LOG_ERROR_STACK_KEY);
+        // repeated messages are aggregated before rate limiting, so that they don't use up the rate limit
+        if (errorStack == null && logAggregator != null && logAggregator.aggregate(attributes.get(AI_LOGGER_NAME_KEY),
+                attributes.get(AI_LOG_LEVEL_KEY), span.getName(), NANOSECONDS.toMillis(span.getStartEpochNanos()),
+                SpanId.isValid(span.getParentSpanId()) ? span.getTraceId() : null)) {
+            return;
+        }
+        if (logRateLimiter != null
+                && !logRateLimiter.tryAcquire(attributes.get(AI_LOGGER_NAME_KEY), attributes.get(AI_LOG_LEVEL_KEY))) {
+            return;
+        }
         if (errorStack == null) {
             trackTrace(span);
         } else {
@@ -402,6 +454,29 @@ public class Exporter implements SpanExporter {
 
     private static void applyHttpClientSpan(Attributes attributes, RemoteDependencyTelemetry telemetry) {
 
+        String target = getHttpClientTarget(attributes);
+
+        String targetAppId = attributes.get(AI_SPAN_TARGET_APP_ID_KEY);
+        if (targetAppId == null || AiAppId.getAppId().equals(targetAppId)) {
+            telemetry.setType("Http");
+            telemetry.setTarget(target);
+        } else {
+            // using "Http (tracked component)" is important for dependencies that go cross-component (have an appId in their target field)
+            // if you use just HTTP, Breeze will remove appid from the target
+            // TODO remove this once confirmed by zakima that it is no longer needed
+            telemetry.setType("Http (tracked component)");
+            telemetry.setTarget(target + " | " + targetAppId);
+        }
+
+        Long httpStatusCode = attributes.get(SemanticAttributes.HTTP_STATUS_CODE);
+        if (httpStatusCode != null) {
+            telemetry.setResultCode(Long.toString(httpStatusCode));
+        }
+
+        telemetry.setCommandName(attributes.get(SemanticAttributes.HTTP_URL));
+    }
+
+    static String getHttpClientTarget(Attributes attributes) {
         // from the spec, at least one of the following sets of attributes is required:
         // * http.url
         // * http.scheme, http.host, http.target
@@ -438,25 +513,7 @@ public class Exporter implements SpanExporter {
             // this should not happen, just a failsafe
             target = "Http";
         }
-
-        String targetAppId = attributes.get(AI_SPAN_TARGET_APP_ID_KEY);
-        if (targetAppId == null || AiAppId.getAppId().equals(targetAppId)) {
-            telemetry.setType("Http");
-            telemetry.setTarget(target);
-        } else {
-            // using "Http (tracked component)" is important for dependencies that go cross-component (have an appId in their target field)
-            // if you use just HTTP, Breeze will remove appid from the target
-            // TODO remove this once confirmed by zakima that it is no longer needed
-            telemetry.setType("Http (tracked component)");
-            telemetry.setTarget(target + " | " + targetAppId);
-        }
-
-        Long httpStatusCode = attributes.get(SemanticAttributes.HTTP_STATUS_CODE);
-        if (httpStatusCode != null) {
-            telemetry.setResultCode(Long.toString(httpStatusCode));
-        }
-
-        telemetry.setCommandName(url);
+        return target;
     }
 
     private static void applyRpcClientSpan(Attributes attributes, RemoteDependencyTelemetry telemetry, String rpcSystem) {
@@ -469,7 +526,7 @@ public class Exporter implements SpanExporter {
         telemetry.setTarget(target);
     }
 
-    private static final Set<String> SQL_DB_SYSTEMS = ImmutableSet.of("db2", "derby", "mariadb", "mssql", "mysql", "oracle", "postgresql", "sqlite", "other_sql", "hsqldb", "h2");
+    static final Set<String> SQL_DB_SYSTEMS = ImmutableSet.of("db2", "derby", "mariadb", "mssql", "mysql", "oracle", "postgresql", "sqlite", "other_sql", "hsqldb", "h2");
 
     private static void applyDatabaseClientSpan(Attributes attributes, RemoteDependencyTelemetry telemetry, String dbSystem) {
         String dbStatement = attributes.get(SemanticAttributes.DB_STATEMENT);
@@ -515,7 +572,7 @@ public class Exporter implements SpanExporter {
         }
     }
 
-    private static String getTargetFromPeerAttributes(Attributes attributes, int defaultPort) {
+    static String getTargetFromPeerAttributes(Attributes attributes, int defaultPort) {
         String target = attributes.get(SemanticAttributes.PEER_SERVICE);
         if (target != null) {
             // do not append port if peer.service is provided
@@ -536,7 +593,7 @@ public class Exporter implements SpanExporter {
         return target;
     }
 
-    private static int getDefaultPortForDbSystem(String dbSystem) {
+    static int getDefaultPortForDbSystem(String dbSystem) {
         switch (dbSystem) {
             // TODO replace these with constants from OpenTelemetry API after upgrading to 0.10.0
             // TODO add these default ports to the OpenTelemetry database semantic conventions spec
@@ -623,7 +680,7 @@ public class Exporter implements SpanExporter {
         }
     }
 
-    private static SeverityLevel toSeverityLevel(String level) {
+    static SeverityLevel toSeverityLevel(String level) {
         if (level == null) {
             return null;
         }
@@ -652,7 +709,7 @@ public class Exporter implements SpanExporter {
         }
     }
 
-    private static String nullAwareConcat(String str1, String str2, String separator) {
+    static String nullAwareConcat(String str1, String str2, String separator) {
         if (str1 == null) {
             return str2;
         }
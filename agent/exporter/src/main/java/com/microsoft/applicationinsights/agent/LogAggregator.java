@@ -0,0 +1,376 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.agent;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// aggregates repeated log messages per logger name, level and message template
+//
+// the message template is the message with numbers, uuids and hex ids masked, so that e.g.
+// "Connection 12 reset, retrying in 500 ms" and "Connection 13 reset, retrying in 250 ms" are aggregated together
+//
+// the first occurrence of a template in each window is sent in full, and the remaining occurrences are only counted,
+// and sent at the end of the window as a single summary trace with the count, the first and last timestamps,
+// and a few sample operation ids
+public class LogAggregator {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogAggregator.class);
+
+    // longer messages are aggregated by their first MAX_TEMPLATE_LENGTH characters, which bounds the memory per template
+    private static final int MAX_TEMPLATE_LENGTH = 1024;
+
+    // marks an aggregate that has been removed at the end of its window, see Aggregate.increment()
+    private static final long CLOSED = -1;
+
+    private final ConcurrentMap<Key, Aggregate> aggregates = new ConcurrentHashMap<>();
+    // approximate number of entries in the aggregates map, which is cheaper to check than ConcurrentHashMap.size()
+    private final AtomicInteger aggregateCount = new AtomicInteger();
+
+    private final TelemetryClient telemetryClient;
+    private final long windowSeconds;
+    // once this many templates are being aggregated, log messages with other templates are sent without aggregation
+    private final int maxTemplates;
+    private final int maxSampleOperationIds;
+
+    public LogAggregator(TelemetryClient telemetryClient, long windowSeconds, int maxTemplates, int maxSampleOperationIds) {
+        if (windowSeconds <= 0) {
+            throw new IllegalArgumentException("windowSeconds must be positive: " + windowSeconds);
+        }
+        if (maxTemplates < 1) {
+            throw new IllegalArgumentException("maxTemplates must be at least 1: " + maxTemplates);
+        }
+        this.telemetryClient = telemetryClient;
+        this.windowSeconds = windowSeconds;
+        this.maxTemplates = maxTemplates;
+        this.maxSampleOperationIds = Math.max(maxSampleOperationIds, 0);
+    }
+
+    public void start() {
+        ScheduledExecutorService executor =
+                Executors.newSingleThreadScheduledExecutor(ThreadPoolUtils.createDaemonThreadFactory(LogAggregator.class));
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sendAggregates();
+                } catch (Throwable t) {
+                    logger.error(t.getMessage(), t);
+                }
+            }
+        }, windowSeconds, windowSeconds, SECONDS);
+    }
+
+    // returns true if the log message was aggregated, and false if it needs to be sent in full
+    public boolean aggregate(String loggerName, String level, String message, long epochMillis, String operationId) {
+        Key key = new Key(loggerName == null ? "" : loggerName, level == null ? "" : level,
+                toTemplate(message == null ? "" : message));
+        while (true) {
+            Aggregate aggregate = aggregates.get(key);
+            if (aggregate == null) {
+                if (aggregateCount.get() >= maxTemplates) {
+                    return false;
+                }
+                Aggregate existing = aggregates.putIfAbsent(key, new Aggregate(epochMillis));
+                if (existing == null) {
+                    // the limit can be slightly exceeded under races, which is fine since it only bounds memory
+                    aggregateCount.incrementAndGet();
+                    // first occurrence in this window
+                    return false;
+                }
+                aggregate = existing;
+            }
+            if (aggregate.increment(epochMillis, operationId)) {
+                return true;
+            }
+            // the window of this aggregate just ended, so this is the first occurrence in the next window
+        }
+    }
+
+    // also called on shutdown, so that the last window is not lost
+    public void sendAggregates() {
+        for (Map.Entry<Key, Aggregate> entry : aggregates.entrySet()) {
+            Key key = entry.getKey();
+            Aggregate aggregate = entry.getValue();
+            if (!aggregates.remove(key, aggregate)) {
+                continue;
+            }
+            aggregateCount.decrementAndGet();
+            long count = aggregate.close();
+            if (count > 0) {
+                sendAggregate(key, aggregate, count);
+            }
+        }
+    }
+
+    private void sendAggregate(Key key, Aggregate aggregate, long count) {
+        String message = "Repeated " + count + " more times: " + key.template;
+        TraceTelemetry telemetry = new TraceTelemetry(message, key.level.isEmpty() ? null : Exporter.toSeverityLevel(key.level));
+        Map<String, String> properties = telemetry.getProperties();
+        properties.put("SourceType", "Logger");
+        properties.put("LoggerName", key.loggerName);
+        if (!key.level.isEmpty()) {
+            properties.put("LoggingLevel", key.level);
+        }
+        properties.put("MessageTemplate", key.template);
+        properties.put("AggregatedCount", Long.toString(count));
+        properties.put("FirstTimestamp", LocalStringsUtils.getDateFormatter().format(new Date(aggregate.firstEpochMillis)));
+        properties.put("LastTimestamp", LocalStringsUtils.getDateFormatter().format(new Date(aggregate.lastEpochMillis.get())));
+        String sampleOperationIds = aggregate.getSampleOperationIds();
+        if (!sampleOperationIds.isEmpty()) {
+            properties.put("SampleOperationIds", sampleOperationIds);
+        }
+        telemetry.setTimestamp(new Date());
+        telemetryClient.track(telemetry);
+    }
+
+    // visible for testing
+    static String toTemplate(String message) {
+        int length = Math.min(message.length(), MAX_TEMPLATE_LENGTH);
+        StringBuilder sb = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            char c = message.charAt(i);
+            if (!isAsciiLetterOrDigit(c)) {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            int uuidEnd = getUuidEnd(message, i, length);
+            if (uuidEnd != -1) {
+                sb.append("<uuid>");
+                i = uuidEnd;
+                continue;
+            }
+            int end = i + 1;
+            while (end < length && isAsciiLetterOrDigit(message.charAt(end))) {
+                end++;
+            }
+            appendWord(sb, message, i, end);
+            i = end;
+        }
+        return sb.toString();
+    }
+
+    private static void appendWord(StringBuilder sb, String message, int start, int end) {
+        if (isHexId(message, start, end)) {
+            sb.append("<hex>");
+            return;
+        }
+        // mask runs of digits, including inside of words, e.g. "thread12" becomes "thread<num>"
+        int i = start;
+        while (i < end) {
+            char c = message.charAt(i);
+            if (isDigit(c)) {
+                while (i < end && isDigit(message.charAt(i))) {
+                    i++;
+                }
+                sb.append("<num>");
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+    }
+
+    // "0x" followed by hex digits, or at least 8 hex digits including at least one digit and one letter
+    // (so that plain numbers are masked as numbers, and plain words like "deadbeef" or "accepted" are left alone)
+    private static boolean isHexId(String message, int start, int end) {
+        if (end - start > 2 && message.charAt(start) == '0'
+                && (message.charAt(start + 1) == 'x' || message.charAt(start + 1) == 'X')) {
+            return isHex(message, start + 2, end);
+        }
+        if (end - start < 8 || !isHex(message, start, end)) {
+            return false;
+        }
+        boolean hasDigit = false;
+        boolean hasLetter = false;
+        for (int i = start; i < end; i++) {
+            if (isDigit(message.charAt(i))) {
+                hasDigit = true;
+            } else {
+                hasLetter = true;
+            }
+        }
+        return hasDigit && hasLetter;
+    }
+
+    // returns the end of the uuid starting at start, or -1 if there is no uuid starting at start
+    private static int getUuidEnd(String message, int start, int length) {
+        // 8-4-4-4-12
+        int end = start + 36;
+        if (end > length) {
+            return -1;
+        }
+        if (start > 0 && isAsciiLetterOrDigit(message.charAt(start - 1))) {
+            return -1;
+        }
+        if (end < length && isAsciiLetterOrDigit(message.charAt(end))) {
+            return -1;
+        }
+        for (int i = start; i < end; i++) {
+            int offset = i - start;
+            char c = message.charAt(i);
+            if (offset == 8 || offset == 13 || offset == 18 || offset == 23) {
+                if (c != '-') {
+                    return -1;
+                }
+            } else if (!isHex(c)) {
+                return -1;
+            }
+        }
+        return end;
+    }
+
+    private static boolean isHex(String message, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isHex(message.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isHex(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static final class Key {
+
+        private final String loggerName;
+        private final String level;
+        private final String template;
+        private final int hashCode;
+
+        private Key(String loggerName, String level, String template) {
+            this.loggerName = loggerName;
+            this.level = level;
+            this.template = template;
+            this.hashCode = 31 * (31 * loggerName.hashCode() + level.hashCode()) + template.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hashCode == other.hashCode
+                    && loggerName.equals(other.loggerName)
+                    && level.equals(other.level)
+                    && template.equals(other.template);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private final class Aggregate {
+
+        // number of occurrences after the first one, or CLOSED once the window has ended
+        private final AtomicLong count = new AtomicLong();
+        private final long firstEpochMillis;
+        private final AtomicLong lastEpochMillis;
+        private final AtomicReferenceArray<String> sampleOperationIds = new AtomicReferenceArray<>(maxSampleOperationIds);
+        private final AtomicInteger sampleIndex = new AtomicInteger();
+
+        private Aggregate(long epochMillis) {
+            firstEpochMillis = epochMillis;
+            lastEpochMillis = new AtomicLong(epochMillis);
+        }
+
+        // returns false if the window has ended, in which case the caller needs to start a new aggregate
+        //
+        // the timestamp and operation id are recorded before incrementing the count, so that they are visible
+        // to close() for every counted occurrence (the ones that lose the race with close() are only extra samples)
+        private boolean increment(long epochMillis, String operationId) {
+            long last;
+            while (epochMillis > (last = lastEpochMillis.get())) {
+                if (lastEpochMillis.compareAndSet(last, epochMillis)) {
+                    break;
+                }
+            }
+            if (operationId != null && sampleIndex.get() < maxSampleOperationIds) {
+                int index = sampleIndex.getAndIncrement();
+                if (index < maxSampleOperationIds) {
+                    sampleOperationIds.set(index, operationId);
+                }
+            }
+            while (true) {
+                long current = count.get();
+                if (current == CLOSED) {
+                    return false;
+                }
+                if (count.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        // returns the number of occurrences after the first one
+        private long close() {
+            return count.getAndSet(CLOSED);
+        }
+
+        private String getSampleOperationIds() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < sampleOperationIds.length(); i++) {
+                String operationId = sampleOperationIds.get(i);
+                if (operationId != null) {
+                    if (sb.length() > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(operationId);
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
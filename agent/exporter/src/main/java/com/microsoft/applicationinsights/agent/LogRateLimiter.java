@@ -0,0 +1,205 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.agent;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// limits the number of captured log records per logger name and level, using a token bucket per logger name and level
+//
+// the token bucket is implemented as a virtual scheduling algorithm (GCRA), which only needs a single atomic long
+// per bucket: the time at which the bucket will be full again (the "theoretical arrival time")
+//
+// the number of records suppressed for each logger name and level is sent periodically as a summary trace
+public class LogRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogRateLimiter.class);
+
+    // once this many logger name and level combinations are tracked, the remaining ones share a single bucket
+    private static final int MAX_BUCKETS = 1000;
+    private static final String OVERFLOW_LOGGER_NAME = "(other loggers)";
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Bucket>> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger bucketCount = new AtomicInteger();
+    private final ConcurrentMap<String, Bucket> overflowBuckets = new ConcurrentHashMap<>();
+
+    private final TelemetryClient telemetryClient;
+    // nanos between two records, when the logger is logging steadily at the limit
+    private final long emissionIntervalNanos;
+    // how far ahead of now the theoretical arrival time can be, which is what allows bursts
+    private final long burstToleranceNanos;
+    private final long summaryIntervalSeconds;
+
+    public LogRateLimiter(TelemetryClient telemetryClient, double recordsPerSecond, int burst, long summaryIntervalSeconds) {
+        if (recordsPerSecond <= 0) {
+            throw new IllegalArgumentException("recordsPerSecond must be positive: " + recordsPerSecond);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1: " + burst);
+        }
+        this.telemetryClient = telemetryClient;
+        this.emissionIntervalNanos = (long) (SECONDS.toNanos(1) / recordsPerSecond);
+        this.burstToleranceNanos = emissionIntervalNanos * (burst - 1);
+        this.summaryIntervalSeconds = summaryIntervalSeconds;
+    }
+
+    public void start() {
+        ScheduledExecutorService executor =
+                Executors.newSingleThreadScheduledExecutor(ThreadPoolUtils.createDaemonThreadFactory(LogRateLimiter.class));
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sendSuppressedSummaries();
+                } catch (Throwable t) {
+                    logger.error(t.getMessage(), t);
+                }
+            }
+        }, summaryIntervalSeconds, summaryIntervalSeconds, SECONDS);
+    }
+
+    public boolean tryAcquire(String loggerName, String level) {
+        return tryAcquire(loggerName, level, System.nanoTime());
+    }
+
+    // visible for testing
+    boolean tryAcquire(String loggerName, String level, long nanoTime) {
+        Bucket bucket = getBucket(loggerName == null ? "" : loggerName, level == null ? "" : level, nanoTime);
+        if (bucket.tryAcquire(nanoTime)) {
+            return true;
+        }
+        bucket.suppressed.incrementAndGet();
+        return false;
+    }
+
+    // also called on shutdown, so that the last interval is not lost
+    public void sendSuppressedSummaries() {
+        for (Map.Entry<String, ConcurrentMap<String, Bucket>> loggerEntry : buckets.entrySet()) {
+            for (Map.Entry<String, Bucket> levelEntry : loggerEntry.getValue().entrySet()) {
+                sendSuppressedSummary(loggerEntry.getKey(), levelEntry.getKey(), levelEntry.getValue());
+            }
+        }
+        for (Map.Entry<String, Bucket> levelEntry : overflowBuckets.entrySet()) {
+            sendSuppressedSummary(OVERFLOW_LOGGER_NAME, levelEntry.getKey(), levelEntry.getValue());
+        }
+    }
+
+    private void sendSuppressedSummary(String loggerName, String level, Bucket bucket) {
+        long suppressed = bucket.suppressed.getAndSet(0);
+        if (suppressed == 0) {
+            return;
+        }
+        String message = "Suppressed " + suppressed + " log records from logger " + loggerName + " at level " + level
+                + " in the last " + summaryIntervalSeconds + " seconds because of the log rate limit";
+        TraceTelemetry telemetry = new TraceTelemetry(message, level.isEmpty() ? null : Exporter.toSeverityLevel(level));
+        telemetry.getProperties().put("SourceType", "Logger");
+        telemetry.getProperties().put("LoggerName", loggerName);
+        if (!level.isEmpty()) {
+            telemetry.getProperties().put("LoggingLevel", level);
+        }
+        telemetry.getProperties().put("SuppressedCount", Long.toString(suppressed));
+        telemetry.setTimestamp(new Date());
+        telemetryClient.track(telemetry);
+    }
+
+    private Bucket getBucket(String loggerName, String level, long nanoTime) {
+        ConcurrentMap<String, Bucket> levels = buckets.get(loggerName);
+        if (levels != null) {
+            Bucket bucket = levels.get(level);
+            if (bucket != null) {
+                return bucket;
+            }
+        }
+        if (bucketCount.get() >= MAX_BUCKETS) {
+            return getOrCreate(overflowBuckets, level, nanoTime);
+        }
+        if (levels == null) {
+            levels = new ConcurrentHashMap<>();
+            ConcurrentMap<String, Bucket> existing = buckets.putIfAbsent(loggerName, levels);
+            if (existing != null) {
+                levels = existing;
+            }
+        }
+        Bucket bucket = levels.get(level);
+        if (bucket != null) {
+            return bucket;
+        }
+        bucket = new Bucket(nanoTime);
+        Bucket existing = levels.putIfAbsent(level, bucket);
+        if (existing != null) {
+            return existing;
+        }
+        // the limit can be slightly exceeded under races, which is fine since it only bounds memory
+        bucketCount.incrementAndGet();
+        return bucket;
+    }
+
+    private Bucket getOrCreate(ConcurrentMap<String, Bucket> map, String key, long nanoTime) {
+        Bucket bucket = map.get(key);
+        if (bucket == null) {
+            bucket = new Bucket(nanoTime);
+            Bucket existing = map.putIfAbsent(key, bucket);
+            if (existing != null) {
+                bucket = existing;
+            }
+        }
+        return bucket;
+    }
+
+    private final class Bucket {
+
+        private final AtomicLong theoreticalArrivalTime;
+        private final AtomicLong suppressed = new AtomicLong();
+
+        private Bucket(long nanoTime) {
+            // starts full
+            theoreticalArrivalTime = new AtomicLong(nanoTime);
+        }
+
+        private boolean tryAcquire(long nanoTime) {
+            while (true) {
+                long tat = theoreticalArrivalTime.get();
+                // comparing differences, since nanoTime can be negative
+                long start = tat - nanoTime < 0 ? nanoTime : tat;
+                if (start - nanoTime > burstToleranceNanos) {
+                    return false;
+                }
+                if (theoreticalArrivalTime.compareAndSet(tat, start + emissionIntervalNanos)) {
+                    return true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.agent;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+
+import com.microsoft.applicationinsights.internal.metrics.MetricsAggregator;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanId;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+// computes the Application Insights standard request and dependency metrics from every ended span,
+// including spans that are sampled out (the sampler records those spans without sampling them
+// when this processor is registered), so that request and dependency rates, failures and durations are exact
+// regardless of the sampling percentage
+//
+// the spans that are exported are marked with _MS.ProcessedByMetricExtractors (see Exporter),
+// which tells the ingestion service not to derive the same metrics again from the (sampled) items,
+// except for the spans that did not fit under the series cap (see isRecorded())
+public class StandardMetricsSpanProcessor implements SpanProcessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(StandardMetricsSpanProcessor.class);
+
+    static final String PROCESSED_BY_METRIC_EXTRACTORS = "_MS.ProcessedByMetricExtractors";
+    static final String REQUESTS_EXTRACTOR = "(Name:'Requests', Ver:'1.1')";
+    static final String DEPENDENCIES_EXTRACTOR = "(Name:'Dependencies', Ver:'1.1')";
+
+    private static final String REQUESTS_METRIC_NAME = "Server response time";
+    private static final String DEPENDENCIES_METRIC_NAME = "Dependency duration";
+
+    // used in place of high cardinality dimension values once the series limit is reached
+    private static final String OTHER = "Other";
+
+    // the exporter runs right after this processor, so this only needs to cover spans that are never exported,
+    // e.g. because a telemetry processor filtered them out
+    private static final int MAX_NOT_RECORDED_SPAN_IDS = 1000;
+
+    private static final String[] PERFORMANCE_BUCKETS = {
+            "<250ms", "250ms-500ms", "500ms-1sec", "1sec-3sec", "3sec-7sec", "7sec-15sec",
+            "15sec-30sec", "30sec-1min", "1min-2min", "2min-5min", ">=5min"
+    };
+    private static final long[] PERFORMANCE_BUCKET_UPPER_BOUNDS_MILLIS = {
+            250, 500, 1000, 3000, 7000, 15000, 30000, 60000, 120000, 300000
+    };
+
+    private final MetricsAggregator metricsAggregator;
+    private final String aggregationIntervalMillis;
+
+    // the high cardinality dimension is folded once this many series exist,
+    // so that the rest of the series cap is left for the folded series
+    private final int foldSeriesLimit;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicBoolean alreadyLoggedDropped = new AtomicBoolean();
+
+    // the sampled spans that were not counted in any series, guarded by itself
+    private final Map<String, Boolean> notRecordedSpanIds = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_NOT_RECORDED_SPAN_IDS;
+        }
+    };
+
+    public StandardMetricsSpanProcessor(MetricsAggregator metricsAggregator, long aggregationIntervalSeconds) {
+        this.metricsAggregator = metricsAggregator;
+        this.aggregationIntervalMillis = Long.toString(aggregationIntervalSeconds * 1000);
+        int maxSeries = metricsAggregator.getMaxSeries();
+        this.foldSeriesLimit = maxSeries - maxSeries / 4;
+    }
+
+    // the number of spans that were not counted in any series because even the folded series did not fit under the cap
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    // whether the span was counted in the standard metrics, this is called once for each exported span
+    public boolean isRecorded(String spanId) {
+        if (droppedCount.get() == 0) {
+            return true;
+        }
+        synchronized (notRecordedSpanIds) {
+            return notRecordedSpanIds.remove(spanId) == null;
+        }
+    }
+
+    @Override
+    public void onStart(Context parentContext, ReadWriteSpan span) {
+    }
+
+    @Override
+    public boolean isStartRequired() {
+        return false;
+    }
+
+    @Override
+    public void onEnd(ReadableSpan readableSpan) {
+        SpanData span = readableSpan.toSpanData();
+        SpanKind kind = span.getKind();
+        String instrumentationName = span.getInstrumentationLibraryInfo().getName();
+        Matcher matcher = Exporter.COMPONENT_PATTERN.matcher(instrumentationName);
+        String stdComponent = matcher.matches() ? matcher.group(1) : null;
+
+        // same mapping as Exporter.export()
+        if ("jms".equals(stdComponent) && !SpanId.isValid(span.getParentSpanId()) && kind == SpanKind.CONSUMER) {
+            return;
+        }
+        if (kind == SpanKind.INTERNAL) {
+            Boolean isLog = span.getAttributes().get(Exporter.AI_LOG_KEY);
+            if (isLog != null && isLog) {
+                return;
+            }
+            if ("spring-scheduling".equals(stdComponent) && !SpanId.isValid(span.getParentSpanId())) {
+                recordRequest(span);
+            } else {
+                recordDependency(span, "InProc", null, null);
+            }
+        } else if (kind == SpanKind.CLIENT || kind == SpanKind.PRODUCER
+                || (kind == SpanKind.CONSUMER && !span.getParentSpanContext().isRemote())) {
+            recordRemoteDependency(span);
+        } else if (kind == SpanKind.SERVER || kind == SpanKind.CONSUMER) {
+            recordRequest(span);
+        }
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return true;
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    private void recordRequest(SpanData span) {
+        Long httpStatusCode = span.getAttributes().get(SemanticAttributes.HTTP_STATUS_CODE);
+        long durationMillis = getDurationMillis(span);
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put("_MS.MetricId", "requests/duration");
+        properties.put("_MS.IsAutocollected", "True");
+        properties.put("_MS.AggregationIntervalMs", aggregationIntervalMillis);
+        properties.put("Request.Success", isSuccess(span) ? "True" : "False");
+        if (httpStatusCode != null) {
+            properties.put("request/resultCode", Long.toString(httpStatusCode));
+        }
+        properties.put("request/performanceBucket", getPerformanceBucket(durationMillis));
+        properties.put("operation/name", span.getName());
+
+        record(span, REQUESTS_METRIC_NAME, durationMillis, properties, "operation/name");
+    }
+
+    private void recordRemoteDependency(SpanData span) {
+        Attributes attributes = span.getAttributes();
+        if (attributes.get(SemanticAttributes.HTTP_METHOD) != null) {
+            Long httpStatusCode = attributes.get(SemanticAttributes.HTTP_STATUS_CODE);
+            recordDependency(span, "Http", Exporter.getHttpClientTarget(attributes),
+                    httpStatusCode == null ? null : Long.toString(httpStatusCode));
+            return;
+        }
+        String rpcSystem = attributes.get(SemanticAttributes.RPC_SYSTEM);
+        if (rpcSystem != null) {
+            String target = Exporter.getTargetFromPeerAttributes(attributes, 0);
+            recordDependency(span, rpcSystem, target == null ? rpcSystem : target, null);
+            return;
+        }
+        String dbSystem = attributes.get(SemanticAttributes.DB_SYSTEM);
+        if (dbSystem != null) {
+            String type = Exporter.SQL_DB_SYSTEMS.contains(dbSystem) ? "SQL" : dbSystem;
+            String target = Exporter.nullAwareConcat(
+                    Exporter.getTargetFromPeerAttributes(attributes, Exporter.getDefaultPortForDbSystem(dbSystem)),
+                    attributes.get(SemanticAttributes.DB_NAME), "/");
+            recordDependency(span, type, target == null ? dbSystem : target, null);
+            return;
+        }
+        String messagingSystem = attributes.get(SemanticAttributes.MESSAGING_SYSTEM);
+        if (messagingSystem != null) {
+            String type = span.getKind() == SpanKind.PRODUCER ? "Queue Message | " + messagingSystem : messagingSystem;
+            String destination = attributes.get(SemanticAttributes.MESSAGING_DESTINATION);
+            recordDependency(span, type, destination == null ? messagingSystem : destination, null);
+            return;
+        }
+        recordDependency(span, null, null, null);
+    }
+
+    private void recordDependency(SpanData span, String type, String target, String resultCode) {
+        long durationMillis = getDurationMillis(span);
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put("_MS.MetricId", "dependencies/duration");
+        properties.put("_MS.IsAutocollected", "True");
+        properties.put("_MS.AggregationIntervalMs", aggregationIntervalMillis);
+        properties.put("Dependency.Success", isSuccess(span) ? "True" : "False");
+        if (type != null) {
+            properties.put("Dependency.Type", type);
+        }
+        if (target != null) {
+            properties.put("dependency/target", target);
+        }
+        if (resultCode != null) {
+            properties.put("dependency/resultCode", resultCode);
+        }
+        properties.put("dependency/performanceBucket", getPerformanceBucket(durationMillis));
+
+        record(span, DEPENDENCIES_METRIC_NAME, durationMillis, properties, "dependency/target");
+    }
+
+    private void record(SpanData span, String metricName, long durationMillis, Map<String, String> properties,
+                        String highCardinalityDimension) {
+        if (metricsAggregator.record(metricName, durationMillis, properties, null, foldSeriesLimit)) {
+            return;
+        }
+        // the series limit has been reached, so fold the high cardinality dimension
+        // in order to still count the item in a (more coarse grained) series
+        if (properties.containsKey(highCardinalityDimension)) {
+            properties.put(highCardinalityDimension, OTHER);
+        }
+        if (metricsAggregator.record(metricName, durationMillis, properties, null)) {
+            return;
+        }
+        if (span.getSpanContext().isSampled()) {
+            synchronized (notRecordedSpanIds) {
+                notRecordedSpanIds.put(span.getSpanId(), Boolean.TRUE);
+            }
+        }
+        droppedCount.incrementAndGet();
+        if (!alreadyLoggedDropped.getAndSet(true)) {
+            logger.warn("Reached the limit of {} standard metric series, spans that do not fit in an existing series" +
+                    " are not counted in the standard metrics (this message will only be logged once)",
+                    metricsAggregator.getMaxSeries());
+        }
+    }
+
+    private static boolean isSuccess(SpanData span) {
+        return span.getStatus().getStatusCode() != StatusCode.ERROR;
+    }
+
+    private static long getDurationMillis(SpanData span) {
+        return NANOSECONDS.toMillis(span.getEndEpochNanos() - span.getStartEpochNanos());
+    }
+
+    static String getPerformanceBucket(long durationMillis) {
+        for (int i = 0; i < PERFORMANCE_BUCKET_UPPER_BOUNDS_MILLIS.length; i++) {
+            if (durationMillis < PERFORMANCE_BUCKET_UPPER_BOUNDS_MILLIS[i]) {
+                return PERFORMANCE_BUCKETS[i];
+            }
+        }
+        return PERFORMANCE_BUCKETS[PERFORMANCE_BUCKETS.length - 1];
+    }
+}
@@ -0,0 +1,136 @@
+package com.microsoft.applicationinsights.agent;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
+import com.microsoft.applicationinsights.telemetry.SeverityLevel;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogAggregatorTest {
+
+    private final List<Telemetry> sent = new ArrayList<>();
+
+    private TelemetryClient telemetryClient;
+
+    @Before
+    public void setup() {
+        TelemetryConfiguration configuration = new TelemetryConfiguration();
+        configuration.setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+        configuration.setChannel(new TelemetryChannel() {
+            @Override
+            public boolean isDeveloperMode() {
+                return false;
+            }
+
+            @Override
+            public void setDeveloperMode(boolean value) {
+            }
+
+            @Override
+            public void send(Telemetry item) {
+                sent.add(item);
+            }
+
+            @Override
+            public void shutdown(long timeout, TimeUnit timeUnit) {
+            }
+
+            @Override
+            public void flush() {
+            }
+        });
+        telemetryClient = new TelemetryClient(configuration);
+    }
+
+    @Test
+    public void shouldMaskNumbersUuidsAndHexIds() {
+        assertEquals("Connection <num> reset, retrying in <num> ms",
+                LogAggregator.toTemplate("Connection 12 reset, retrying in 500 ms"));
+        assertEquals("Request <uuid> failed", LogAggregator.toTemplate("Request 0f8fad5b-d9cb-469f-a165-70867728950e failed"));
+        assertEquals("Object <hex> at <hex>", LogAggregator.toTemplate("Object 5f3e2a91c0 at 0x7ffe4c"));
+        assertEquals("worker-thread-<num> took <num>.<num>s", LogAggregator.toTemplate("worker-thread-12 took 1.25s"));
+        assertEquals("thread<num> accepted deadbeef", LogAggregator.toTemplate("thread7 accepted deadbeef"));
+    }
+
+    @Test
+    public void shouldForwardFirstOccurrenceAndCountTheRest() {
+        // given
+        LogAggregator aggregator = new LogAggregator(telemetryClient, 60, 100, 2);
+
+        // when
+        assertFalse(aggregator.aggregate("com.example.Chatty", "WARN", "Connection 1 reset", 1000, "op1"));
+        assertTrue(aggregator.aggregate("com.example.Chatty", "WARN", "Connection 2 reset", 3000, "op2"));
+        assertTrue(aggregator.aggregate("com.example.Chatty", "WARN", "Connection 3 reset", 2000, "op3"));
+        assertTrue(aggregator.aggregate("com.example.Chatty", "WARN", "Connection 4 reset", 2500, "op4"));
+        aggregator.sendAggregates();
+
+        // then
+        assertEquals(1, sent.size());
+        TraceTelemetry telemetry = (TraceTelemetry) sent.get(0);
+        assertEquals(SeverityLevel.Warning, telemetry.getSeverityLevel());
+        assertEquals("com.example.Chatty", telemetry.getProperties().get("LoggerName"));
+        assertEquals("WARN", telemetry.getProperties().get("LoggingLevel"));
+        assertEquals("Connection <num> reset", telemetry.getProperties().get("MessageTemplate"));
+        assertEquals("3", telemetry.getProperties().get("AggregatedCount"));
+        assertEquals(LocalStringsUtils.getDateFormatter().format(new Date(1000)), telemetry.getProperties().get("FirstTimestamp"));
+        assertEquals(LocalStringsUtils.getDateFormatter().format(new Date(3000)), telemetry.getProperties().get("LastTimestamp"));
+        assertEquals("op2,op3", telemetry.getProperties().get("SampleOperationIds"));
+    }
+
+    @Test
+    public void shouldForwardFirstOccurrenceOfEachWindow() {
+        // given
+        LogAggregator aggregator = new LogAggregator(telemetryClient, 60, 100, 2);
+        assertFalse(aggregator.aggregate("com.example.Chatty", "WARN", "Connection 1 reset", 1000, null));
+
+        // when
+        aggregator.sendAggregates();
+
+        // then
+        assertTrue(sent.isEmpty());
+        assertFalse(aggregator.aggregate("com.example.Chatty", "WARN", "Connection 2 reset", 2000, null));
+        assertTrue(aggregator.aggregate("com.example.Chatty", "WARN", "Connection 3 reset", 3000, null));
+    }
+
+    @Test
+    public void shouldAggregateEachLoggerAndLevelIndependently() {
+        // given
+        LogAggregator aggregator = new LogAggregator(telemetryClient, 60, 100, 2);
+
+        // when
+        assertFalse(aggregator.aggregate("com.example.Chatty", "WARN", "Connection 1 reset", 0, null));
+
+        // then
+        assertFalse(aggregator.aggregate("com.example.Chatty", "ERROR", "Connection 1 reset", 0, null));
+        assertFalse(aggregator.aggregate("com.example.Quiet", "WARN", "Connection 1 reset", 0, null));
+        assertFalse(aggregator.aggregate("com.example.Chatty", "WARN", "Connection closed", 0, null));
+        assertTrue(aggregator.aggregate("com.example.Chatty", "WARN", "Connection 2 reset", 0, null));
+    }
+
+    @Test
+    public void shouldNotAggregateBeyondMaxTemplates() {
+        // given
+        LogAggregator aggregator = new LogAggregator(telemetryClient, 60, 1, 2);
+        assertFalse(aggregator.aggregate("com.example.Chatty", "WARN", "Connection 1 reset", 0, null));
+
+        // when
+        assertFalse(aggregator.aggregate("com.example.Chatty", "WARN", "Something else", 0, null));
+
+        // then
+        assertFalse(aggregator.aggregate("com.example.Chatty", "WARN", "Something else", 0, null));
+        assertTrue(aggregator.aggregate("com.example.Chatty", "WARN", "Connection 2 reset", 0, null));
+    }
+}
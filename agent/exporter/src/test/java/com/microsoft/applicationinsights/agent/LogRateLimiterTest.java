@@ -0,0 +1,133 @@
+package com.microsoft.applicationinsights.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import com.microsoft.applicationinsights.telemetry.SeverityLevel;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogRateLimiterTest {
+
+    private final List<Telemetry> sent = new ArrayList<>();
+
+    private TelemetryClient telemetryClient;
+
+    @Before
+    public void setup() {
+        TelemetryConfiguration configuration = new TelemetryConfiguration();
+        configuration.setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+        configuration.setChannel(new TelemetryChannel() {
+            @Override
+            public boolean isDeveloperMode() {
+                return false;
+            }
+
+            @Override
+            public void setDeveloperMode(boolean value) {
+            }
+
+            @Override
+            public void send(Telemetry item) {
+                sent.add(item);
+            }
+
+            @Override
+            public void shutdown(long timeout, TimeUnit timeUnit) {
+            }
+
+            @Override
+            public void flush() {
+            }
+        });
+        telemetryClient = new TelemetryClient(configuration);
+    }
+
+    @Test
+    public void shouldAllowBurstThenLimitToRate() {
+        // given
+        LogRateLimiter limiter = new LogRateLimiter(telemetryClient, 10, 5, 60);
+        long now = 1000;
+
+        // when
+        int allowed = 0;
+        for (int i = 0; i < 100; i++) {
+            if (limiter.tryAcquire("com.example.Chatty", "WARN", now)) {
+                allowed++;
+            }
+        }
+
+        // then
+        assertEquals(5, allowed);
+        assertFalse(limiter.tryAcquire("com.example.Chatty", "WARN", now + MILLISECONDS.toNanos(99)));
+        assertTrue(limiter.tryAcquire("com.example.Chatty", "WARN", now + MILLISECONDS.toNanos(100)));
+    }
+
+    @Test
+    public void shouldRefillAfterIdle() {
+        // given
+        LogRateLimiter limiter = new LogRateLimiter(telemetryClient, 10, 5, 60);
+        for (int i = 0; i < 10; i++) {
+            limiter.tryAcquire("com.example.Chatty", "WARN", 0);
+        }
+
+        // when
+        int allowed = 0;
+        for (int i = 0; i < 10; i++) {
+            if (limiter.tryAcquire("com.example.Chatty", "WARN", SECONDS.toNanos(10))) {
+                allowed++;
+            }
+        }
+
+        // then
+        assertEquals(5, allowed);
+    }
+
+    @Test
+    public void shouldLimitEachLoggerAndLevelIndependently() {
+        // given
+        LogRateLimiter limiter = new LogRateLimiter(telemetryClient, 1, 1, 60);
+
+        // when
+        assertTrue(limiter.tryAcquire("com.example.Chatty", "WARN", 0));
+        assertFalse(limiter.tryAcquire("com.example.Chatty", "WARN", 0));
+
+        // then
+        assertTrue(limiter.tryAcquire("com.example.Chatty", "ERROR", 0));
+        assertTrue(limiter.tryAcquire("com.example.Quiet", "WARN", 0));
+        assertTrue(limiter.tryAcquire(null, null, 0));
+    }
+
+    @Test
+    public void shouldSendSuppressedSummary() {
+        // given
+        LogRateLimiter limiter = new LogRateLimiter(telemetryClient, 1, 1, 60);
+        for (int i = 0; i < 4; i++) {
+            limiter.tryAcquire("com.example.Chatty", "WARN", 0);
+        }
+
+        // when
+        limiter.sendSuppressedSummaries();
+        limiter.sendSuppressedSummaries();
+
+        // then
+        assertEquals(1, sent.size());
+        TraceTelemetry telemetry = (TraceTelemetry) sent.get(0);
+        assertEquals(SeverityLevel.Warning, telemetry.getSeverityLevel());
+        assertEquals("com.example.Chatty", telemetry.getProperties().get("LoggerName"));
+        assertEquals("WARN", telemetry.getProperties().get("LoggingLevel"));
+        assertEquals("3", telemetry.getProperties().get("SuppressedCount"));
+    }
+}
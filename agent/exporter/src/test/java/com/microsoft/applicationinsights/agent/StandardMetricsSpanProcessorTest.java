@@ -0,0 +1,246 @@
+package com.microsoft.applicationinsights.agent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import com.microsoft.applicationinsights.internal.metrics.MetricsAggregator;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.semconv.trace.attributes.SemanticAttributes;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StandardMetricsSpanProcessorTest {
+
+    // the sdk treats a zero start timestamp as unset and would use the current time instead
+    private static final long START_MILLIS = 1000;
+
+    private final List<Telemetry> sent = new ArrayList<>();
+
+    private TelemetryClient telemetryClient;
+
+    @Before
+    public void setup() {
+        TelemetryConfiguration configuration = new TelemetryConfiguration();
+        configuration.setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+        configuration.setChannel(new TelemetryChannel() {
+            @Override
+            public boolean isDeveloperMode() {
+                return false;
+            }
+
+            @Override
+            public void setDeveloperMode(boolean value) {
+            }
+
+            @Override
+            public void send(Telemetry item) {
+                sent.add(item);
+            }
+
+            @Override
+            public void shutdown(long timeout, TimeUnit timeUnit) {
+            }
+
+            @Override
+            public void flush() {
+            }
+        });
+        telemetryClient = new TelemetryClient(configuration);
+    }
+
+    @Test
+    public void shouldRecordRequestMetric() {
+        // given
+        MetricsAggregator aggregator = new MetricsAggregator(10);
+        Tracer tracer = tracer(new StandardMetricsSpanProcessor(aggregator, 60), "io.opentelemetry.javaagent.servlet-3.0");
+
+        // when
+        Span span = tracer.spanBuilder("GET /users")
+                .setSpanKind(SpanKind.SERVER)
+                .setStartTimestamp(START_MILLIS, MILLISECONDS)
+                .setAttribute(SemanticAttributes.HTTP_STATUS_CODE, 500L)
+                .startSpan();
+        span.setStatus(StatusCode.ERROR);
+        span.end(START_MILLIS + 300, MILLISECONDS);
+        aggregator.flush(telemetryClient);
+
+        // then
+        MetricTelemetry metric = getOnlyMetric();
+        assertEquals("Server response time", metric.getName());
+        assertEquals(300, metric.getValue(), 0);
+        assertEquals(Integer.valueOf(1), metric.getCount());
+        Map<String, String> properties = metric.getProperties();
+        assertEquals("requests/duration", properties.get("_MS.MetricId"));
+        assertEquals("60000", properties.get("_MS.AggregationIntervalMs"));
+        assertEquals("False", properties.get("Request.Success"));
+        assertEquals("500", properties.get("request/resultCode"));
+        assertEquals("250ms-500ms", properties.get("request/performanceBucket"));
+        assertEquals("GET /users", properties.get("operation/name"));
+    }
+
+    @Test
+    public void shouldRecordDatabaseDependencyMetric() {
+        // given
+        MetricsAggregator aggregator = new MetricsAggregator(10);
+        Tracer tracer = tracer(new StandardMetricsSpanProcessor(aggregator, 60), "io.opentelemetry.javaagent.jdbc");
+
+        // when
+        tracer.spanBuilder("SELECT shop.orders")
+                .setSpanKind(SpanKind.CLIENT)
+                .setStartTimestamp(START_MILLIS, MILLISECONDS)
+                .setAttribute(SemanticAttributes.DB_SYSTEM, "mysql")
+                .setAttribute(SemanticAttributes.DB_NAME, "shop")
+                .setAttribute(SemanticAttributes.NET_PEER_NAME, "db.example")
+                .setAttribute(SemanticAttributes.NET_PEER_PORT, 3306L)
+                .startSpan()
+                .end(START_MILLIS + 20, MILLISECONDS);
+        aggregator.flush(telemetryClient);
+
+        // then
+        MetricTelemetry metric = getOnlyMetric();
+        assertEquals("Dependency duration", metric.getName());
+        assertEquals(20, metric.getValue(), 0);
+        Map<String, String> properties = metric.getProperties();
+        assertEquals("dependencies/duration", properties.get("_MS.MetricId"));
+        assertEquals("True", properties.get("Dependency.Success"));
+        assertEquals("SQL", properties.get("Dependency.Type"));
+        assertEquals("db.example:3306/shop", properties.get("dependency/target"));
+        assertEquals("<250ms", properties.get("dependency/performanceBucket"));
+        assertNull(properties.get("dependency/resultCode"));
+    }
+
+    @Test
+    public void shouldRecordInternalSpanAsInProcDependency() {
+        // given
+        MetricsAggregator aggregator = new MetricsAggregator(10);
+        Tracer tracer = tracer(new StandardMetricsSpanProcessor(aggregator, 60), "io.opentelemetry.javaagent.spring-webmvc-3.1");
+
+        // when
+        Span parent = tracer.spanBuilder("GET /users").setSpanKind(SpanKind.SERVER).startSpan();
+        tracer.spanBuilder("UserController.list")
+                .setParent(Context.root().with(parent))
+                .startSpan()
+                .end();
+        aggregator.flush(telemetryClient);
+
+        // then
+        MetricTelemetry metric = getOnlyMetric();
+        assertEquals("Dependency duration", metric.getName());
+        assertEquals("InProc", metric.getProperties().get("Dependency.Type"));
+    }
+
+    @Test
+    public void shouldFoldOperationNameIntoOtherNearTheSeriesCap() {
+        // given
+        MetricsAggregator aggregator = new MetricsAggregator(4);
+        StandardMetricsSpanProcessor processor = new StandardMetricsSpanProcessor(aggregator, 60);
+        Tracer tracer = tracer(processor, "io.opentelemetry.javaagent.servlet-3.0");
+
+        // when
+        for (int i = 1; i <= 5; i++) {
+            endRequest(tracer, "GET /op" + i, 100);
+        }
+        aggregator.flush(telemetryClient);
+
+        // then
+        // three quarters of the cap are used by the distinct operation names, the rest is left for the folded series
+        assertEquals(4, sent.size());
+        Map<String, Integer> countsByOperationName = new HashMap<>();
+        for (Telemetry telemetry : sent) {
+            MetricTelemetry metric = (MetricTelemetry) telemetry;
+            countsByOperationName.put(metric.getProperties().get("operation/name"), metric.getCount());
+        }
+        assertEquals(Integer.valueOf(1), countsByOperationName.get("GET /op1"));
+        assertEquals(Integer.valueOf(1), countsByOperationName.get("GET /op2"));
+        assertEquals(Integer.valueOf(1), countsByOperationName.get("GET /op3"));
+        assertEquals(Integer.valueOf(2), countsByOperationName.get("Other"));
+        assertEquals(0, processor.getDroppedCount());
+    }
+
+    @Test
+    public void shouldCountSpansThatDoNotFitUnderTheSeriesCap() {
+        // given
+        MetricsAggregator aggregator = new MetricsAggregator(4);
+        StandardMetricsSpanProcessor processor = new StandardMetricsSpanProcessor(aggregator, 60);
+        Tracer tracer = tracer(processor, "io.opentelemetry.javaagent.servlet-3.0");
+        for (int i = 1; i <= 4; i++) {
+            endRequest(tracer, "GET /op" + i, 100);
+        }
+
+        // when
+        // the folded series for a different performance bucket does not fit anymore
+        endRequest(tracer, "GET /op5", 2000);
+        // but the existing folded series still does
+        endRequest(tracer, "GET /op6", 100);
+
+        // then
+        assertEquals(1, processor.getDroppedCount());
+        aggregator.flush(telemetryClient);
+        int count = 0;
+        for (Telemetry telemetry : sent) {
+            count += ((MetricTelemetry) telemetry).getCount();
+        }
+        assertEquals(5, count);
+    }
+
+    @Test
+    public void shouldOnlyReportCountedSpansAsRecorded() {
+        // given
+        MetricsAggregator aggregator = new MetricsAggregator(4);
+        StandardMetricsSpanProcessor processor = new StandardMetricsSpanProcessor(aggregator, 60);
+        Tracer tracer = tracer(processor, "io.opentelemetry.javaagent.servlet-3.0");
+        for (int i = 1; i <= 4; i++) {
+            endRequest(tracer, "GET /op" + i, 100);
+        }
+
+        // when
+        String counted = endRequest(tracer, "GET /op5", 100);
+        String dropped = endRequest(tracer, "GET /op6", 2000);
+
+        // then
+        assertTrue(processor.isRecorded(counted));
+        assertFalse(processor.isRecorded(dropped));
+        assertEquals(1, processor.getDroppedCount());
+    }
+
+    private static Tracer tracer(StandardMetricsSpanProcessor processor, String instrumentationName) {
+        return SdkTracerProvider.builder()
+                .addSpanProcessor(processor)
+                .build()
+                .get(instrumentationName);
+    }
+
+    private static String endRequest(Tracer tracer, String name, long durationMillis) {
+        Span span = tracer.spanBuilder(name)
+                .setSpanKind(SpanKind.SERVER)
+                .setStartTimestamp(START_MILLIS, MILLISECONDS)
+                .setAttribute(SemanticAttributes.HTTP_STATUS_CODE, 200L)
+                .startSpan();
+        span.end(START_MILLIS + durationMillis, MILLISECONDS);
+        return span.getSpanContext().getSpanId();
+    }
+
+    private MetricTelemetry getOnlyMetric() {
+        assertEquals(1, sent.size());
+        return (MetricTelemetry) sent.get(0);
+    }
+}
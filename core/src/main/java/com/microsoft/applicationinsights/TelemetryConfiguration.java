@@ -50,6 +50,7 @@ public final class TelemetryConfiguration {
     private String instrumentationKey;
     private String normalizedInstrumentationKey;
     private String connectionString;
+    private final List<String> additionalConnectionStrings = new CopyOnWriteArrayList<String>();
     private String roleName;
     private String roleInstance;
 
@@ -232,6 +233,34 @@ public final class TelemetryConfiguration {
         this.connectionString = connectionString;
     }
 
+    /**
+     * Gets the connection strings of the other Application Insights resources that receive a copy of all telemetry.
+     * @return The additional connection strings, empty if telemetry is only sent to the main resource
+     */
+    public List<String> getAdditionalConnectionStrings() {
+        return additionalConnectionStrings;
+    }
+
+    /**
+     * Sets the connection strings of the other Application Insights resources that receive a copy of all telemetry.
+     *
+     * This needs to be set before the channel is created, each resource then gets its own batching, retries and
+     * disk persistence, while each telemetry item is still only serialized once.
+     *
+     * @param additionalConnectionStrings The additional connection strings
+     */
+    public void setAdditionalConnectionStrings(List<String> additionalConnectionStrings) {
+        for (String connectionString : additionalConnectionStrings) {
+            try {
+                ConnectionString.parseInto(connectionString, new TelemetryConfiguration());
+            } catch (InvalidConnectionStringException e) {
+                throw new IllegalArgumentException("Invalid connection string", e);
+            }
+        }
+        this.additionalConnectionStrings.clear();
+        this.additionalConnectionStrings.addAll(additionalConnectionStrings);
+    }
+
     public EndpointProvider getEndpointProvider() {
         return endpointProvider;
     }
@@ -29,6 +29,8 @@ import com.microsoft.applicationinsights.channel.TelemetryChannel;
 import com.microsoft.applicationinsights.internal.channel.ConfiguredTransmitterFactory;
 import com.microsoft.applicationinsights.internal.channel.TelemetriesTransmitter;
 import com.microsoft.applicationinsights.internal.channel.TransmitterFactory;
+import com.microsoft.applicationinsights.internal.channel.common.PipelineMetrics;
+import com.microsoft.applicationinsights.internal.channel.common.SerializedTelemetry;
 import com.microsoft.applicationinsights.internal.channel.common.TelemetryBuffer;
 import com.microsoft.applicationinsights.internal.util.LimitsEnforcer;
 import com.microsoft.applicationinsights.internal.util.Sanitizer;
@@ -36,6 +38,7 @@ import com.microsoft.applicationinsights.telemetry.Telemetry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.net.URI;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -66,6 +69,7 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
     public static final String MAX_TRANSMISSION_STORAGE_CAPACITY_NAME = "MaxTransmissionStorageFilesCapacityInMB";
     public static final int LOG_TELEMETRY_ITEMS_MODULUS = 10000;
     public static final String THROTTLING_ENABLED_NAME = "Throttling";
+    public static final String TRANSMISSION_STORAGE_FOLDER_NAME = "TransmissionStorageFolder";
 
     private TransmitterFactory transmitterFactory;
     private AtomicLong itemsSent = new AtomicLong(0);
@@ -79,6 +83,10 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
 
     private TelemetryConfiguration configuration;
 
+    // null for the default folder, set before the transmitter factory is created
+    @Nullable
+    private String transmissionStorageFolder;
+
     public TelemetryChannelBase(TelemetryConfiguration configuration) {
         initialize(configuration, null, null, Boolean.getBoolean(DEVELOPER_MODE_SYSTEM_PROPRETY_NAME),
                 createDefaultMaxTelemetryBufferCapacityEnforcer(null), createDefaultSendIntervalInSecondsEnforcer(null), true, DEFAULT_MAX_INSTANT_RETRY);
@@ -179,6 +187,7 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
             maxTelemetryBufferCapacityEnforcer.normalizeStringValue(namesAndValues.get(MAX_TELEMETRY_BUFFER_CAPACITY_NAME));
             sendIntervalInSecondsEnforcer.normalizeStringValue(namesAndValues.get(FLUSH_BUFFER_TIMEOUT_IN_SECONDS_NAME));
             maxTransmissionStorageCapacity = namesAndValues.get(MAX_TRANSMISSION_STORAGE_CAPACITY_NAME);
+            transmissionStorageFolder = namesAndValues.get(TRANSMISSION_STORAGE_FOLDER_NAME);
         }
 
         initialize(configuration,
@@ -229,6 +238,14 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
         return transmitterFactory;
     }
 
+    /**
+     * @return The folder for the telemetry that could not be sent, or null for the default folder
+     */
+    @Nullable
+    protected String getTransmissionStorageFolder() {
+        return transmissionStorageFolder;
+    }
+
     @VisibleForTesting
     TelemetryConfiguration getConfiguration() {
         return this.configuration;
@@ -305,7 +322,8 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
     public void send(Telemetry telemetry) {
         Preconditions.checkNotNull(telemetry, "Telemetry item must be non null");
 
-        if (isDeveloperMode()) {
+        // serialized telemetry has been marked by whoever serialized it
+        if (isDeveloperMode() && !(telemetry instanceof SerializedTelemetry)) {
             telemetry.getContext().getProperties().put("DeveloperMode", "true");
         }
 
@@ -313,6 +331,8 @@ public abstract class TelemetryChannelBase<T> implements TelemetryChannel {
             return;
         }
 
+        PipelineMetrics.getInstance().onItemSent();
+
         if (itemsSent.incrementAndGet() % LOG_TELEMETRY_ITEMS_MODULUS == 0) {
             logger.debug("items sent till now: {}", itemsSent.get());
         }
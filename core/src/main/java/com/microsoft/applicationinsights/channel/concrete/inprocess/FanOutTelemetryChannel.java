@@ -0,0 +1,203 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.channel.concrete.inprocess;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import com.microsoft.applicationinsights.channel.concrete.TelemetryChannelBase;
+import com.microsoft.applicationinsights.internal.channel.common.SerializedTelemetry;
+import com.microsoft.applicationinsights.internal.util.LocalFileSystemUtils;
+import com.microsoft.applicationinsights.telemetry.BaseTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link TelemetryChannel} that sends all telemetry to the main Application Insights resource and to the
+ * resources of {@link TelemetryConfiguration#getAdditionalConnectionStrings()}.
+ *
+ * <p>Each telemetry item is serialized once, the copies for the other resources only have their instrumentation key
+ * rewritten (see {@link SerializedTelemetry#withInstrumentationKey(String)}). Each resource has its own
+ * {@link InProcessTelemetryChannel}, so batching, retries and back-off are independent, and each one persists the
+ * telemetry that could not be sent into its own folder, so that it is never sent to the wrong resource.
+ */
+public final class FanOutTelemetryChannel implements TelemetryChannel {
+
+    private static final Logger logger = LoggerFactory.getLogger(FanOutTelemetryChannel.class);
+
+    private static final String TRANSMISSION_FOLDER_PREFIX = "transmissions-";
+
+    private final TelemetryChannel mainChannel;
+
+    // instrumentation key -> channel
+    private final Map<String, TelemetryChannel> destinationChannels;
+
+    @VisibleForTesting
+    FanOutTelemetryChannel(TelemetryChannel mainChannel, Map<String, TelemetryChannel> destinationChannels) {
+        this.mainChannel = mainChannel;
+        this.destinationChannels = destinationChannels;
+    }
+
+    /**
+     * @param mainChannel The channel of the main resource
+     * @param configuration The configuration with the additional connection strings
+     * @param channelConfig Key/Value pairs for channel configuration options, used for all of the additional resources
+     * @return The channel sending to all of the resources
+     */
+    public static FanOutTelemetryChannel create(TelemetryChannel mainChannel, TelemetryConfiguration configuration,
+                                                @Nullable Map<String, String> channelConfig) {
+        Preconditions.checkNotNull(mainChannel, "mainChannel must be non-null value");
+
+        Map<String, TelemetryChannel> destinationChannels = new LinkedHashMap<>();
+        for (String connectionString : configuration.getAdditionalConnectionStrings()) {
+            TelemetryConfiguration destinationConfiguration = new TelemetryConfiguration();
+            destinationConfiguration.setConnectionString(connectionString);
+            String instrumentationKey = destinationConfiguration.getInstrumentationKey();
+            if (instrumentationKey == null || instrumentationKey.isEmpty()) {
+                logger.warn("Ignoring additional connection string without an instrumentation key");
+                continue;
+            }
+            if (instrumentationKey.equals(configuration.getInstrumentationKey())
+                    || destinationChannels.containsKey(instrumentationKey)) {
+                logger.warn("Ignoring duplicate additional connection string for instrumentation key {}", instrumentationKey);
+                continue;
+            }
+            destinationChannels.put(instrumentationKey, new InProcessTelemetryChannel(destinationConfiguration,
+                    getDestinationChannelConfig(channelConfig, instrumentationKey)));
+        }
+        return new FanOutTelemetryChannel(mainChannel, destinationChannels);
+    }
+
+    @VisibleForTesting
+    static Map<String, String> getDestinationChannelConfig(@Nullable Map<String, String> channelConfig, String instrumentationKey) {
+        Map<String, String> destinationChannelConfig = channelConfig == null ? new HashMap<String, String>() : new HashMap<>(channelConfig);
+        // the endpoint of the main resource, each additional resource sends to the endpoint of its connection string
+        destinationChannelConfig.remove(TelemetryChannelBase.ENDPOINT_ADDRESS_NAME);
+        destinationChannelConfig.put(TelemetryChannelBase.TRANSMISSION_STORAGE_FOLDER_NAME, getTransmissionFolder(instrumentationKey));
+        return destinationChannelConfig;
+    }
+
+    private static String getTransmissionFolder(String instrumentationKey) {
+        String normalized = BaseTelemetry.normalizeInstrumentationKey(instrumentationKey);
+        // without the trailing '.'
+        String folderName = TRANSMISSION_FOLDER_PREFIX + normalized.substring(0, normalized.length() - 1);
+        return new File(LocalFileSystemUtils.getTempDir(), folderName).getPath();
+    }
+
+    @Override
+    public boolean isDeveloperMode() {
+        return mainChannel.isDeveloperMode();
+    }
+
+    @Override
+    public void setDeveloperMode(boolean value) {
+        mainChannel.setDeveloperMode(value);
+        for (TelemetryChannel channel : destinationChannels.values()) {
+            channel.setDeveloperMode(value);
+        }
+    }
+
+    @Override
+    public void send(Telemetry item) {
+        Preconditions.checkNotNull(item, "Telemetry item must be non null");
+
+        SerializedTelemetry serialized;
+        if (item instanceof SerializedTelemetry) {
+            serialized = (SerializedTelemetry) item;
+        } else {
+            // this is temporary until we are convinced that telemetry are never re-used by codeless agent
+            if (item.previouslyUsed()) {
+                throw new IllegalStateException("Telemetry was previously used: " + item);
+            }
+            if (isDeveloperMode()) {
+                item.getContext().getProperties().put("DeveloperMode", "true");
+            }
+            try {
+                serialized = SerializedTelemetry.serialize(item);
+            } catch (Exception e) {
+                logger.error("Failed to serialize Telemetry");
+                logger.trace("Failed to serialize Telemetry", e);
+                return;
+            }
+        }
+
+        mainChannel.send(serialized);
+
+        for (Map.Entry<String, TelemetryChannel> entry : destinationChannels.entrySet()) {
+            SerializedTelemetry copy = serialized.withInstrumentationKey(entry.getKey());
+            if (copy == null) {
+                copy = serializeAgain(item, entry.getKey());
+            }
+            if (copy != null) {
+                entry.getValue().send(copy);
+            }
+        }
+    }
+
+    // only used when the envelope header cannot be rewritten, e.g. when the main resource has no instrumentation key
+    @Nullable
+    private static SerializedTelemetry serializeAgain(Telemetry item, String instrumentationKey) {
+        if (item instanceof SerializedTelemetry) {
+            logger.warn("Unable to send telemetry to instrumentation key {}", instrumentationKey);
+            return null;
+        }
+        TelemetryContext context = item.getContext();
+        String originalInstrumentationKey = context.getInstrumentationKey();
+        String originalNormalizedInstrumentationKey = context.getNormalizedInstrumentationKey();
+        context.setInstrumentationKey(instrumentationKey);
+        try {
+            return SerializedTelemetry.serialize(item);
+        } catch (Exception e) {
+            logger.error("Failed to serialize Telemetry");
+            logger.trace("Failed to serialize Telemetry", e);
+            return null;
+        } finally {
+            context.setInstrumentationKey(originalInstrumentationKey, originalNormalizedInstrumentationKey);
+        }
+    }
+
+    @Override
+    public void shutdown(long timeout, TimeUnit timeUnit) throws InterruptedException {
+        mainChannel.shutdown(timeout, timeUnit);
+        for (TelemetryChannel channel : destinationChannels.values()) {
+            channel.shutdown(timeout, timeUnit);
+        }
+    }
+
+    @Override
+    public void flush() {
+        mainChannel.flush();
+        for (TelemetryChannel channel : destinationChannels.values()) {
+            channel.flush();
+        }
+    }
+}
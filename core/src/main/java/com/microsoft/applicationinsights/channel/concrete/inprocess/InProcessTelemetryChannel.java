@@ -24,12 +24,16 @@ package com.microsoft.applicationinsights.channel.concrete.inprocess;
 import com.microsoft.applicationinsights.TelemetryConfiguration;
 import com.microsoft.applicationinsights.channel.concrete.TelemetryChannelBase;
 import com.microsoft.applicationinsights.internal.channel.ConfiguredTransmitterFactory;
-import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import com.microsoft.applicationinsights.internal.channel.common.SerializedTelemetry;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryBuffer;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryLane;
+import com.microsoft.applicationinsights.internal.channel.common.TransmitterImpl;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.io.StringWriter;
-import java.lang.ref.WeakReference;
+import javax.annotation.Nullable;
+import java.util.EnumMap;
 import java.util.Map;
 
 /**
@@ -50,35 +54,65 @@ import java.util.Map;
  * <p>Use application threads to populate the buffer Use channel's threads to send buffers to the
  * server
  *
+ * <p>When {@link #SERIALIZE_ON_TRACK_NAME} is enabled, application threads also convert each telemetry to
+ * Json before adding it to the buffer, so that the buffer holds compact {@link SerializedTelemetry} instances
+ * and the channel's threads only need to compress them.
+ *
+ * <p>When {@link #PRIORITY_LANES_NAME} is enabled, each {@link TelemetryLane} has its own buffer and its own
+ * budget of pending sends, so that a flood of traces cannot cause requests, dependencies or exceptions to be dropped.
+ *
  * <p>Created by gupele on 12/17/2014.
  */
 public final class InProcessTelemetryChannel extends TelemetryChannelBase<Telemetry> {
 
+    private static final Logger logger = LoggerFactory.getLogger(InProcessTelemetryChannel.class);
+
+    public static final String SERIALIZE_ON_TRACK_NAME = "SerializeOnTrack";
+    public static final String PRIORITY_LANES_NAME = "PriorityLanes";
+
+    private final boolean serializeOnTrack;
+
+    // null when priority lanes are not enabled
+    @Nullable
+    private final Map<TelemetryLane, TelemetryBuffer<Telemetry>> laneBuffers;
+
     public InProcessTelemetryChannel(TelemetryConfiguration configuration) {
         super(configuration);
+        serializeOnTrack = false;
+        laneBuffers = null;
     }
 
     public InProcessTelemetryChannel(TelemetryConfiguration configuration, String maxTransmissionStorageCapacity, boolean developerMode, int maxTelemetryBufferCapacity, int sendIntervalInMillis, boolean throttling, int maxInstantRetries) {
         super(configuration, maxTransmissionStorageCapacity, developerMode, maxTelemetryBufferCapacity, sendIntervalInMillis, throttling, maxInstantRetries);
+        serializeOnTrack = false;
+        laneBuffers = null;
     }
 
     public InProcessTelemetryChannel(TelemetryConfiguration configuration, Map<String, String> channelConfig) {
         super(configuration, channelConfig);
+        serializeOnTrack = channelConfig != null && Boolean.parseBoolean(channelConfig.get(SERIALIZE_ON_TRACK_NAME));
+        laneBuffers = createLaneBuffers(channelConfig);
     }
 
     @Deprecated
     public InProcessTelemetryChannel() {
         super();
+        serializeOnTrack = false;
+        laneBuffers = null;
     }
 
     @Deprecated
     public InProcessTelemetryChannel(String endpointAddress, boolean developerMode, int maxTelemetryBufferCapacity, int sendIntervalInMillis) {
         super(endpointAddress, developerMode, maxTelemetryBufferCapacity, sendIntervalInMillis);
+        serializeOnTrack = false;
+        laneBuffers = null;
     }
 
     @Deprecated
     public InProcessTelemetryChannel(String endpointAddress, String maxTransmissionStorageCapacity, boolean developerMode, int maxTelemetryBufferCapacity, int sendIntervalInMillis, boolean throttling, int maxInstantRetries) {
         super(endpointAddress, maxTransmissionStorageCapacity, developerMode, maxTelemetryBufferCapacity, sendIntervalInMillis, throttling, maxInstantRetries);
+        serializeOnTrack = false;
+        laneBuffers = null;
     }
 
     /**
@@ -87,6 +121,8 @@ public final class InProcessTelemetryChannel extends TelemetryChannelBase<Teleme
     @Deprecated
     public InProcessTelemetryChannel(Map<String, String> namesAndValues) {
         super(namesAndValues);
+        serializeOnTrack = namesAndValues != null && Boolean.parseBoolean(namesAndValues.get(SERIALIZE_ON_TRACK_NAME));
+        laneBuffers = createLaneBuffers(namesAndValues);
     }
 
     @Override
@@ -95,13 +131,83 @@ public final class InProcessTelemetryChannel extends TelemetryChannelBase<Teleme
         if (telemetry.previouslyUsed()) {
             throw new IllegalStateException("Telemetry was previously used: " + telemetry);
         }
-        telemetryBuffer.add(telemetry);
+        TelemetryBuffer<Telemetry> buffer = laneBuffers == null ? telemetryBuffer : laneBuffers.get(TelemetryLane.of(telemetry));
+        if (serializeOnTrack) {
+            try {
+                buffer.add(SerializedTelemetry.serialize(telemetry));
+            } catch (Exception e) {
+                logger.error("Failed to serialize Telemetry");
+                logger.trace("Failed to serialize Telemetry", e);
+                return false;
+            }
+            return true;
+        }
+        buffer.add(telemetry);
         return true;
     }
 
+    @Override
+    public void flush() {
+        super.flush();
+        if (laneBuffers != null) {
+            for (TelemetryBuffer<Telemetry> buffer : laneBuffers.values()) {
+                buffer.flush();
+            }
+        }
+    }
+
+    @Override
+    public void setMaxTelemetriesInBatch(int maxTelemetriesInBatch) {
+        super.setMaxTelemetriesInBatch(maxTelemetriesInBatch);
+        // this is also called by the super constructor, before the lanes are created
+        if (laneBuffers != null) {
+            for (TelemetryBuffer<Telemetry> buffer : laneBuffers.values()) {
+                buffer.setMaxTelemetriesInBatch(maxTelemetriesInBatch);
+            }
+        }
+    }
+
+    @Override
+    public void setTransmitBufferTimeoutInSeconds(int transmitBufferTimeoutInSeconds) {
+        super.setTransmitBufferTimeoutInSeconds(transmitBufferTimeoutInSeconds);
+        if (laneBuffers != null) {
+            for (Map.Entry<TelemetryLane, TelemetryBuffer<Telemetry>> entry : laneBuffers.entrySet()) {
+                entry.getValue().setTransmitBufferTimeoutInSeconds(Math.min(transmitBufferTimeoutInSeconds, entry.getKey().getMaxFlushIntervalInSeconds()));
+            }
+        }
+    }
+
+    public boolean isSerializeOnTrack() {
+        return serializeOnTrack;
+    }
+
+    public boolean isPriorityLanes() {
+        return laneBuffers != null;
+    }
+
+    @Nullable
+    private Map<TelemetryLane, TelemetryBuffer<Telemetry>> createLaneBuffers(@Nullable Map<String, String> channelConfig) {
+        if (channelConfig == null || !Boolean.parseBoolean(channelConfig.get(PRIORITY_LANES_NAME))) {
+            return null;
+        }
+        if (!(telemetriesTransmitter instanceof TransmitterImpl)) {
+            logger.warn("Priority lanes are not supported by {}", telemetriesTransmitter.getClass().getName());
+            return null;
+        }
+        TransmitterImpl transmitter = (TransmitterImpl) telemetriesTransmitter;
+        Map<TelemetryLane, TelemetryBuffer<Telemetry>> buffers = new EnumMap<>(TelemetryLane.class);
+        for (TelemetryLane lane : TelemetryLane.values()) {
+            int transmitBufferTimeoutInSeconds = Math.min(telemetryBuffer.getTransmitBufferTimeoutInSeconds(), lane.getMaxFlushIntervalInSeconds());
+            buffers.put(lane, new TelemetryBuffer<>(transmitter.getLaneTransmitter(lane),
+                    createDefaultMaxTelemetryBufferCapacityEnforcer(telemetryBuffer.getMaxTelemetriesInBatch()),
+                    createDefaultSendIntervalInSecondsEnforcer(transmitBufferTimeoutInSeconds)));
+        }
+        return buffers;
+    }
+
     @Override
     protected ConfiguredTransmitterFactory<Telemetry> createTransmitterFactory() {
-        return new InProcessTelemetryTransmitterFactory();
+        return new InProcessTelemetryTransmitterFactory(getTransmissionStorageFolder());
     }
 
 }
@@ -47,6 +47,15 @@ import javax.annotation.Nullable;
  * Created by gupele on 1/15/2015.
  */
 final class InProcessTelemetryTransmitterFactory implements ConfiguredTransmitterFactory {
+
+    // null for the default folder
+    @Nullable
+    private final String transmissionStorageFolder;
+
+    InProcessTelemetryTransmitterFactory(@Nullable String transmissionStorageFolder) {
+        this.transmissionStorageFolder = transmissionStorageFolder;
+    }
+
     @Deprecated
     @Override
     public TelemetriesTransmitter create(@Nullable String endpoint, String maxTransmissionStorageCapacity, boolean throttlingIsEnabled, int maxInstantRetries) {
@@ -80,7 +89,7 @@ final class InProcessTelemetryTransmitterFactory implements ConfiguredTransmitte
 
         TransmissionOutputAsync networkSender = new ActiveTransmissionNetworkOutput(actualNetworkSender, stateFetcher);
         // An active object with the file system sender
-        TransmissionFileSystemOutput fileSystemSender = new TransmissionFileSystemOutput(null, maxTransmissionStorageCapacity);
+        TransmissionFileSystemOutput fileSystemSender = new TransmissionFileSystemOutput(transmissionStorageFolder, maxTransmissionStorageCapacity);
         TransmissionOutputAsync activeFileSystemOutput = new ActiveTransmissionFileSystemOutput(fileSystemSender, stateFetcher);
 
         // The dispatcher works with the two active senders
@@ -45,6 +45,7 @@ import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -86,6 +87,9 @@ public final class ApacheSender43 implements ApacheSender {
     public void dispose(HttpResponse response) {
         try {
             if (response != null) {
+                // consuming the rest of the body lets the connection go back to the pool and be kept alive,
+                // closing the response while content is still pending closes the connection instead
+                EntityUtils.consumeQuietly(response.getEntity());
                 ((CloseableHttpResponse) response).close();
             }
         } catch (IOException e) {
@@ -0,0 +1,96 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+/**
+ * Combines the CRC-32 of two consecutive byte sequences without looking at the bytes again (a port of zlib's
+ * crc32_combine), which lets chunks that were compressed in parallel share one gzip trailer.
+ */
+final class Crc32 {
+
+    // the reversed CRC-32 polynomial, as used by java.util.zip.CRC32
+    private static final int POLYNOMIAL = 0xedb88320;
+
+    private Crc32() {
+    }
+
+    /**
+     * @param crc1 The CRC-32 of the first sequence
+     * @param crc2 The CRC-32 of the second sequence
+     * @param length2 The length of the second sequence
+     * @return The CRC-32 of the first sequence followed by the second one
+     */
+    static int combine(int crc1, int crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+
+        // the operator for one zero bit
+        int[] odd = new int[32];
+        odd[0] = POLYNOMIAL;
+        int row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        int[] even = new int[32];
+        // two zero bits
+        square(even, odd);
+        // four zero bits
+        square(odd, even);
+
+        // apply length2 zero bytes to crc1, the first squaring gives the operator for one zero byte
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            length2 >>>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            length2 >>>= 1;
+        } while (length2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static int times(int[] matrix, int vector) {
+        int sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(int[] square, int[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+}
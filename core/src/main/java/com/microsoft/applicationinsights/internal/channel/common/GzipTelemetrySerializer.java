@@ -21,8 +21,21 @@
 
 package com.microsoft.applicationinsights.internal.channel.common;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
@@ -41,6 +54,11 @@ import org.slf4j.LoggerFactory;
  * The class is an implementation of the {@link TelemetrySerializer}
  * where the {@link Telemetry} instances are compressed by Gzip after converted to Json format
  *
+ * Large batches can optionally be compressed in parallel, the way pigz does it: the batch is split into chunks which
+ * are converted and deflated independently on a fork/join pool, each one ending with a sync flush so that it ends on a
+ * byte boundary. The chunks are then concatenated into a single deflate stream, behind one gzip header and in front of
+ * one trailer, whose CRC-32 is combined from the CRC-32s of the chunks.
+ *
  * Created by gupele on 12/17/2014.
  */
 public final class GzipTelemetrySerializer implements TelemetrySerializer {
@@ -50,10 +68,52 @@ public final class GzipTelemetrySerializer implements TelemetrySerializer {
     private final static String GZIP_WEB_CONTENT_TYPE = "application/x-json-stream";
     private final static String GZIP_WEB_ENCODING_TYPE = "gzip";
 
+    // smaller chunks compress noticeably worse and do not amortize the task overhead
+    private final static int MIN_TELEMETRIES_PER_CHUNK = 50;
+
+    // magic number, deflate, no flags, no modification time, no extra flags, FAT file system (same as GZIPOutputStream)
+    private final static byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    // an empty final block with fixed Huffman codes, which ends the deflate stream
+    private final static byte[] FINAL_BLOCK = {0x03, 0x00};
+
+    // these are set by the agent before the channel is created
+    public static volatile int defaultCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+    // zero disables parallel compression
+    public static volatile int defaultParallelCompressionMinBatchSize = 0;
+
     private final byte[] newlineString;
 
+    private final int compressionLevel;
+
+    private final int parallelCompressionMinBatchSize;
+
+    @Nullable
+    private final ForkJoinPool pool;
+
+    // the deflated newline that separates the chunks of a parallel compressed batch
+    @Nullable
+    private final DeflatedChunk newlineChunk;
+
     public GzipTelemetrySerializer() {
+        this(defaultCompressionLevel, defaultParallelCompressionMinBatchSize,
+                defaultParallelCompressionMinBatchSize > 0 ? ParallelCompressionPoolHolder.POOL : null);
+    }
+
+    /**
+     * @param compressionLevel The deflate level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param parallelCompressionMinBatchSize Batches with at least this many telemetries are compressed in parallel, zero disables it
+     * @param pool The pool used for parallel compression, may be null when parallel compression is disabled
+     */
+    GzipTelemetrySerializer(int compressionLevel, int parallelCompressionMinBatchSize, @Nullable ForkJoinPool pool) {
+        Preconditions.checkArgument(compressionLevel == Deflater.DEFAULT_COMPRESSION || (compressionLevel >= Deflater.NO_COMPRESSION && compressionLevel <= Deflater.BEST_COMPRESSION),
+                "compressionLevel must be between 0 and 9, or -1 for the default");
+        Preconditions.checkArgument(parallelCompressionMinBatchSize <= 0 || pool != null, "pool must be non-null when parallel compression is enabled");
+
         this.newlineString = System.getProperty("line.separator").getBytes();
+        this.compressionLevel = compressionLevel;
+        this.parallelCompressionMinBatchSize = parallelCompressionMinBatchSize;
+        this.pool = pool;
+        this.newlineChunk = parallelCompressionMinBatchSize > 0 ? deflateChunk(newlineString) : null;
     }
 
     @Override
@@ -61,14 +121,23 @@ public final class GzipTelemetrySerializer implements TelemetrySerializer {
         Preconditions.checkNotNull(telemetries, "telemetries must be non-null value");
         Preconditions.checkArgument(!telemetries.isEmpty(), "telemetries: One or more telemetry item is expected");
 
+        int chunks = getNumberOfChunks(telemetries.size());
+        if (chunks > 1) {
+            try {
+                return serializeInParallel(telemetries, chunks);
+            } catch (Exception e) {
+                // fall back to compressing the whole batch on this thread
+                logger.warn("Failed to compress in parallel, exception: {}", e.toString());
+            }
+        }
+
         Transmission result = null;
         boolean succeeded = false;
         try {
             Buffer buffer = new Buffer();
 
             try {
-                GzipSink gzipSink = new GzipSink(buffer);
-                BufferedSink bufferedSink = Okio.buffer(gzipSink);
+                BufferedSink bufferedSink = newGzipSink(buffer);
 
                 try {
                     succeeded = compress(bufferedSink, telemetries);
@@ -90,7 +159,9 @@ public final class GzipTelemetrySerializer implements TelemetrySerializer {
                 // The creation of the result must be done after the 'zipStream' is closed
                 if (succeeded) {
                     // TODO further optimize by passing buffer and using okio http
-                    result = new Transmission(buffer.readByteArray(), GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE);
+                    byte[] content = buffer.readByteArray();
+                    PipelineMetrics.getInstance().onBatchSerialized(getUncompressedSize(content), content.length);
+                    result = new Transmission(content, GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE);
                 }
                 buffer.clear();
             }
@@ -111,8 +182,7 @@ public final class GzipTelemetrySerializer implements TelemetrySerializer {
             Buffer buffer = new Buffer();
 
             try {
-                GzipSink gzipSink = new GzipSink(buffer);
-                BufferedSink bufferedSink = Okio.buffer(gzipSink);
+                BufferedSink bufferedSink = newGzipSink(buffer);
 
                 try {
                     succeeded = compressFromStrings(bufferedSink, telemetries);
@@ -134,7 +204,9 @@ public final class GzipTelemetrySerializer implements TelemetrySerializer {
                 // The creation of the result must be done after the 'zipStream' is closed
                 if (succeeded) {
                     // TODO further optimize by passing buffer and using okio http
-                    result = new Transmission(buffer.readByteArray(), GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE);
+                    byte[] content = buffer.readByteArray();
+                    PipelineMetrics.getInstance().onBatchSerialized(getUncompressedSize(content), content.length);
+                    result = new Transmission(content, GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE);
                 }
                 buffer.clear();
             }
@@ -145,6 +217,115 @@ public final class GzipTelemetrySerializer implements TelemetrySerializer {
         return Optional.fromNullable(result);
     }
 
+    int getNumberOfChunks(int batchSize) {
+        if (parallelCompressionMinBatchSize <= 0 || batchSize < parallelCompressionMinBatchSize) {
+            return 1;
+        }
+        return Math.max(1, Math.min(pool.getParallelism(), batchSize / MIN_TELEMETRIES_PER_CHUNK));
+    }
+
+    private Optional<Transmission> serializeInParallel(Collection<Telemetry> telemetries, int chunks) throws Exception {
+        List<Telemetry> list = telemetries instanceof List ? (List<Telemetry>) telemetries : new ArrayList<>(telemetries);
+
+        List<ForkJoinTask<DeflatedChunk>> tasks = new ArrayList<>(chunks);
+        int size = list.size();
+        for (int i = 0; i < chunks; i++) {
+            final List<Telemetry> chunk = list.subList(i * size / chunks, (i + 1) * size / chunks);
+            tasks.add(pool.submit(new Callable<DeflatedChunk>() {
+                @Override
+                public DeflatedChunk call() throws IOException {
+                    return compressChunk(chunk);
+                }
+            }));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(GZIP_HEADER);
+        int crc = 0;
+        long uncompressedSize = 0;
+        boolean empty = true;
+        // joining in submission order keeps the telemetries in their original order
+        for (ForkJoinTask<DeflatedChunk> task : tasks) {
+            DeflatedChunk chunk = task.get();
+            if (chunk == null) {
+                continue;
+            }
+            if (!empty) {
+                out.write(newlineChunk.deflated);
+                crc = Crc32.combine(crc, newlineChunk.crc, newlineChunk.length);
+                uncompressedSize += newlineChunk.length;
+            }
+            out.write(chunk.deflated);
+            crc = Crc32.combine(crc, chunk.crc, chunk.length);
+            uncompressedSize += chunk.length;
+            empty = false;
+        }
+        if (empty) {
+            return Optional.absent();
+        }
+        out.write(FINAL_BLOCK);
+        writeIntLittleEndian(out, crc);
+        writeIntLittleEndian(out, (int) uncompressedSize);
+        byte[] content = out.toByteArray();
+        PipelineMetrics.getInstance().onBatchSerialized(uncompressedSize, content.length);
+        return Optional.of(new Transmission(content, GZIP_WEB_CONTENT_TYPE, GZIP_WEB_ENCODING_TYPE));
+    }
+
+    @Nullable
+    private DeflatedChunk compressChunk(List<Telemetry> chunk) throws IOException {
+        Buffer buffer = new Buffer();
+        if (!compress(buffer, chunk)) {
+            return null;
+        }
+        return deflateChunk(buffer.readByteArray());
+    }
+
+    // a raw deflate of the bytes that doesn't end the stream, so that more chunks can follow it
+    private DeflatedChunk deflateChunk(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            deflater.setInput(bytes);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+            byte[] buf = new byte[8192];
+            int length;
+            do {
+                length = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                out.write(buf, 0, length);
+            } while (length == buf.length);
+            return new DeflatedChunk(out.toByteArray(), (int) crc.getValue(), bytes.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeIntLittleEndian(ByteArrayOutputStream out, int value) {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    // the last 4 bytes of a gzip member are the size of the uncompressed data (modulo 2^32), little-endian
+    static long getUncompressedSize(byte[] gzipMember) {
+        int length = gzipMember.length;
+        if (length < 4) {
+            return 0;
+        }
+        return (gzipMember[length - 4] & 0xffL)
+                | (gzipMember[length - 3] & 0xffL) << 8
+                | (gzipMember[length - 2] & 0xffL) << 16
+                | (gzipMember[length - 1] & 0xffL) << 24;
+    }
+
+    private BufferedSink newGzipSink(Buffer buffer) throws IOException {
+        if (compressionLevel == Deflater.DEFAULT_COMPRESSION) {
+            return Okio.buffer(new GzipSink(buffer));
+        }
+        return Okio.buffer(Okio.sink(new LeveledGzipOutputStream(buffer.outputStream(), compressionLevel)));
+    }
+
     private boolean compress(BufferedSink sink, Collection<Telemetry> telemetries) throws IOException {
         int counter = 0;
 
@@ -158,6 +339,13 @@ public final class GzipTelemetrySerializer implements TelemetrySerializer {
                 sink.write(newlineString);
             }
 
+            if (telemetry instanceof SerializedTelemetry) {
+                // already encoded on the tracking thread, only needs to be compressed
+                sink.write(((SerializedTelemetry) telemetry).getBytes());
+                ++counter;
+                continue;
+            }
+
             try {
                 JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(JsonWriter.of(sink));
                 telemetry.serialize(jsonWriter);
@@ -195,4 +383,42 @@ public final class GzipTelemetrySerializer implements TelemetrySerializer {
 
         return counter > 0;
     }
+
+    private static class DeflatedChunk {
+
+        private final byte[] deflated;
+        private final int crc;
+        private final int length;
+
+        private DeflatedChunk(byte[] deflated, int crc, int length) {
+            this.deflated = deflated;
+            this.crc = crc;
+            this.length = length;
+        }
+    }
+
+    private static class LeveledGzipOutputStream extends GZIPOutputStream {
+
+        private LeveledGzipOutputStream(OutputStream out, int compressionLevel) throws IOException {
+            super(out);
+            def.setLevel(compressionLevel);
+        }
+    }
+
+    // shared by all channels, since there is only one set of cores to compress on
+    private static class ParallelCompressionPoolHolder {
+
+        private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                    private final AtomicInteger threadId = new AtomicInteger();
+
+                    @Override
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setDaemon(true);
+                        thread.setName(String.format("%s-%d", GzipTelemetrySerializer.class.getSimpleName(), threadId.getAndIncrement()));
+                        return thread;
+                    }
+                }, null, false);
+    }
 }
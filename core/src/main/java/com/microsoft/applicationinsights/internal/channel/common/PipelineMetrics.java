@@ -0,0 +1,328 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
+
+import com.microsoft.applicationinsights.internal.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters and histograms of the telemetry pipeline itself, from the channel down to the network and the disk,
+ * so that capacity problems are visible before telemetry is lost.
+ *
+ * Every count is a {@link LongAdder} and the http latencies are recorded in a {@link LatencyHistogram},
+ * so recording from the application threads and the sender threads does not contend on a single memory location.
+ * The values that are the current state of the pipeline (e.g. the number of buffered items) are kept as
+ * adders of deltas too, since there can be more than one channel in the process.
+ *
+ * The values are reported as metrics by the opt-in {@code PipelinePerformanceCounter},
+ * which also publishes them over JMX (see {@link #registerMBean()}).
+ */
+public final class PipelineMetrics implements PipelineMetricsMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelineMetrics.class);
+
+    public static final String OBJECT_NAME = "com.microsoft.applicationinsights:type=PipelineMetrics";
+
+    private static final PipelineMetrics INSTANCE = new PipelineMetrics();
+
+    private final LongAdder itemsSent = new LongAdder();
+    private final LongAdder itemsBuffered = new LongAdder();
+    private final LongAdder bufferedItems = new LongAdder();
+    private final LongAdder itemsDropped = new LongAdder();
+
+    private final LongAdder pendingSends = new LongAdder();
+    private final LongAdder sendsRejected = new LongAdder();
+
+    private final LongAdder batchesSerialized = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+
+    private final LongAdder httpRequests = new LongAdder();
+    private final LongAdder httpSuccesses = new LongAdder();
+    private final LongAdder httpPartialSuccesses = new LongAdder();
+    private final LongAdder httpThrottled = new LongAdder();
+    private final LongAdder httpServerErrors = new LongAdder();
+    private final LongAdder httpOtherErrors = new LongAdder();
+    private final LongAdder httpExceptions = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LatencyHistogram httpLatency = new LatencyHistogram();
+
+    private final LongAdder diskBacklogBytes = new LongAdder();
+    private final LongAdder transmissionsPersisted = new LongAdder();
+    private final LongAdder transmissionsLoadedFromDisk = new LongAdder();
+    private final LongAdder transmissionsDroppedDiskFull = new LongAdder();
+
+    private final LongAdder backoffs = new LongAdder();
+    private volatile TransmissionPolicy transmissionPolicy = TransmissionPolicy.UNBLOCKED;
+
+    public static PipelineMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    // visible for testing
+    PipelineMetrics() {
+    }
+
+    /**
+     * Registers the pipeline metrics in the platform MBean server, under {@link #OBJECT_NAME}.
+     */
+    public static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // e.g. registered by another copy of the SDK in the same process
+            logger.debug("{} is already registered", OBJECT_NAME);
+        } catch (Exception e) {
+            logger.warn("Failed to register {}: {}", OBJECT_NAME, e.toString());
+        }
+    }
+
+    public void onItemSent() {
+        itemsSent.increment();
+    }
+
+    public void onItemBuffered() {
+        itemsBuffered.increment();
+        bufferedItems.increment();
+    }
+
+    public void onItemsUnbuffered(int count) {
+        bufferedItems.add(-count);
+    }
+
+    public void onItemsDropped(int count) {
+        itemsDropped.add(count);
+    }
+
+    public void onSendPermitAcquired() {
+        pendingSends.increment();
+    }
+
+    public void onSendPermitReleased() {
+        pendingSends.decrement();
+    }
+
+    public void onSendRejected() {
+        sendsRejected.increment();
+    }
+
+    public void onBatchSerialized(long uncompressedSize, long compressedSize) {
+        batchesSerialized.increment();
+        uncompressedBytes.add(uncompressedSize);
+        compressedBytes.add(compressedSize);
+    }
+
+    /**
+     * @param statusCode The http status code, or 0 when the request failed without a response
+     * @param contentLength The size of the request body
+     * @param durationMillis The duration of the request, including reading the response
+     */
+    public void onHttpResponse(int statusCode, long contentLength, long durationMillis) {
+        httpRequests.increment();
+        httpLatency.record(durationMillis);
+        if (statusCode == 200) {
+            httpSuccesses.increment();
+            bytesSent.add(contentLength);
+        } else if (statusCode == 206) {
+            httpPartialSuccesses.increment();
+            bytesSent.add(contentLength);
+        } else if (statusCode == 429 || statusCode == 439) {
+            httpThrottled.increment();
+        } else if (statusCode >= 500) {
+            httpServerErrors.increment();
+        } else if (statusCode == 0) {
+            httpExceptions.increment();
+        } else {
+            httpOtherErrors.increment();
+        }
+    }
+
+    public void onDiskBacklogChanged(long deltaBytes) {
+        diskBacklogBytes.add(deltaBytes);
+    }
+
+    public void onTransmissionPersisted() {
+        transmissionsPersisted.increment();
+    }
+
+    public void onTransmissionLoadedFromDisk() {
+        transmissionsLoadedFromDisk.increment();
+    }
+
+    public void onTransmissionDroppedDiskFull() {
+        transmissionsDroppedDiskFull.increment();
+    }
+
+    public void onBackoff() {
+        backoffs.increment();
+    }
+
+    void onTransmissionPolicyChanged(TransmissionPolicy policy) {
+        transmissionPolicy = policy;
+    }
+
+    public LatencyHistogram.Snapshot getHttpLatencySnapshot() {
+        return httpLatency.snapshot();
+    }
+
+    @Override
+    public long getItemsSent() {
+        return itemsSent.sum();
+    }
+
+    @Override
+    public long getItemsBuffered() {
+        return itemsBuffered.sum();
+    }
+
+    @Override
+    public long getBufferedItems() {
+        return bufferedItems.sum();
+    }
+
+    @Override
+    public long getItemsDropped() {
+        return itemsDropped.sum();
+    }
+
+    @Override
+    public long getPendingSends() {
+        return pendingSends.sum();
+    }
+
+    @Override
+    public long getSendsRejected() {
+        return sendsRejected.sum();
+    }
+
+    @Override
+    public long getBatchesSerialized() {
+        return batchesSerialized.sum();
+    }
+
+    @Override
+    public long getUncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    @Override
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long compressed = compressedBytes.sum();
+        return compressed == 0 ? 0 : (double) uncompressedBytes.sum() / compressed;
+    }
+
+    @Override
+    public long getHttpRequests() {
+        return httpRequests.sum();
+    }
+
+    @Override
+    public long getHttpSuccesses() {
+        return httpSuccesses.sum();
+    }
+
+    @Override
+    public long getHttpPartialSuccesses() {
+        return httpPartialSuccesses.sum();
+    }
+
+    @Override
+    public long getHttpThrottled() {
+        return httpThrottled.sum();
+    }
+
+    @Override
+    public long getHttpServerErrors() {
+        return httpServerErrors.sum();
+    }
+
+    @Override
+    public long getHttpOtherErrors() {
+        return httpOtherErrors.sum();
+    }
+
+    @Override
+    public long getHttpExceptions() {
+        return httpExceptions.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public double getHttpLatencyP50Millis() {
+        return httpLatency.snapshot().getPercentile(50);
+    }
+
+    @Override
+    public double getHttpLatencyP95Millis() {
+        return httpLatency.snapshot().getPercentile(95);
+    }
+
+    @Override
+    public double getHttpLatencyP99Millis() {
+        return httpLatency.snapshot().getPercentile(99);
+    }
+
+    @Override
+    public long getDiskBacklogBytes() {
+        return diskBacklogBytes.sum();
+    }
+
+    @Override
+    public long getTransmissionsPersisted() {
+        return transmissionsPersisted.sum();
+    }
+
+    @Override
+    public long getTransmissionsLoadedFromDisk() {
+        return transmissionsLoadedFromDisk.sum();
+    }
+
+    @Override
+    public long getTransmissionsDroppedDiskFull() {
+        return transmissionsDroppedDiskFull.sum();
+    }
+
+    @Override
+    public long getBackoffs() {
+        return backoffs.sum();
+    }
+
+    @Override
+    public String getTransmissionPolicy() {
+        return transmissionPolicy.name();
+    }
+}
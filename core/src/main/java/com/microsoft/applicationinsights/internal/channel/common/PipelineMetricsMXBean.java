@@ -0,0 +1,84 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+/**
+ * The attributes of {@link PipelineMetrics} that are published over JMX.
+ *
+ * The counts are cumulative since the start of the process, the other values are the current state.
+ */
+public interface PipelineMetricsMXBean {
+
+    long getItemsSent();
+
+    long getItemsBuffered();
+
+    long getBufferedItems();
+
+    long getItemsDropped();
+
+    long getPendingSends();
+
+    long getSendsRejected();
+
+    long getBatchesSerialized();
+
+    long getUncompressedBytes();
+
+    long getCompressedBytes();
+
+    double getCompressionRatio();
+
+    long getHttpRequests();
+
+    long getHttpSuccesses();
+
+    long getHttpPartialSuccesses();
+
+    long getHttpThrottled();
+
+    long getHttpServerErrors();
+
+    long getHttpOtherErrors();
+
+    long getHttpExceptions();
+
+    long getBytesSent();
+
+    double getHttpLatencyP50Millis();
+
+    double getHttpLatencyP95Millis();
+
+    double getHttpLatencyP99Millis();
+
+    long getDiskBacklogBytes();
+
+    long getTransmissionsPersisted();
+
+    long getTransmissionsLoadedFromDisk();
+
+    long getTransmissionsDroppedDiskFull();
+
+    long getBackoffs();
+
+    String getTransmissionPolicy();
+}
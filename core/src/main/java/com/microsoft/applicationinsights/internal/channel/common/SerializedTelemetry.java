@@ -0,0 +1,414 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
+import com.microsoft.applicationinsights.telemetry.BaseTelemetry;
+import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryContext;
+import com.squareup.moshi.JsonReader;
+import com.squareup.moshi.JsonWriter;
+import okio.Buffer;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link Telemetry} that has already been converted to its Json envelope.
+ *
+ * Instances hold the UTF-8 encoded bytes, and the timestamp, sequence and lane of the original telemetry, so the
+ * buffer does not keep the original telemetry graph alive while waiting to be sent, and the
+ * {@link GzipTelemetrySerializer} only needs to copy the bytes into the compressed stream. The encoding happens on
+ * the thread that tracks the telemetry, which spreads the serialization cost over the application threads instead of
+ * the two channel threads.
+ *
+ * The envelope stays the source of truth: setting the timestamp or the sequence rewrites it, and the context and
+ * properties are decoded from it on demand.
+ */
+public final class SerializedTelemetry implements Telemetry {
+
+    // reused across calls on the same thread, the segments go back to the okio pool after each read
+    private static final ThreadLocal<Buffer> buffers = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            return new Buffer();
+        }
+    };
+
+    private static final byte[] NAME_FIELD = "\"name\":\"".getBytes(Charsets.UTF_8);
+    private static final byte[] TIME_FIELD = "\"time\":\"".getBytes(Charsets.UTF_8);
+    private static final byte[] SEQ_FIELD = "\"seq\":\"".getBytes(Charsets.UTF_8);
+    private static final byte[] IKEY_FIELD = "\"iKey\":\"".getBytes(Charsets.UTF_8);
+    private static final byte[] TAGS_FIELD = "\"tags\":".getBytes(Charsets.UTF_8);
+    private static final byte[] DATA_FIELD = "\"data\":".getBytes(Charsets.UTF_8);
+
+    private byte[] bytes;
+    private final TelemetryLane lane;
+    private Date timestamp;
+    private String sequence;
+
+    private SerializedTelemetry(byte[] bytes, TelemetryLane lane, @Nullable Date timestamp, @Nullable String sequence) {
+        this.bytes = bytes;
+        this.lane = lane;
+        this.timestamp = timestamp;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Encodes the telemetry on the calling thread and marks it as used.
+     *
+     * @param telemetry The telemetry to encode, telemetry that is already serialized is returned as is
+     * @return The encoded telemetry
+     * @throws IOException If the telemetry cannot be serialized
+     */
+    public static SerializedTelemetry serialize(Telemetry telemetry) throws IOException {
+        Preconditions.checkNotNull(telemetry, "telemetry must be non-null value");
+        if (telemetry instanceof SerializedTelemetry) {
+            return (SerializedTelemetry) telemetry;
+        }
+
+        Buffer buffer = buffers.get();
+        try {
+            JsonTelemetryDataSerializer jsonWriter = new JsonTelemetryDataSerializer(JsonWriter.of(buffer));
+            telemetry.serialize(jsonWriter);
+            jsonWriter.close();
+            telemetry.markUsed();
+            return new SerializedTelemetry(buffer.readByteArray(), TelemetryLane.of(telemetry),
+                    telemetry.getTimestamp(), telemetry.getSequence());
+        } finally {
+            // leave nothing behind in case of a partially written telemetry
+            buffer.clear();
+        }
+    }
+
+    /**
+     * @return The UTF-8 encoded Json envelope, callers must not modify it
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return The lane of the original telemetry
+     */
+    public TelemetryLane getLane() {
+        return lane;
+    }
+
+    /**
+     * Copies the encoded telemetry for another instrumentation key.
+     *
+     * Only the envelope's 'iKey' and its instrumentation key specific 'name' are rewritten, the rest of the
+     * bytes are copied as is. The envelope writes both fields ahead of the 'tags' and 'data' sections, so
+     * the search never looks at user supplied content.
+     *
+     * @param instrumentationKey The instrumentation key of the copy
+     * @return The copy, or null if the envelope header could not be rewritten (e.g. it has no instrumentation key),
+     *         in which case the original telemetry needs to be encoded again
+     */
+    @Nullable
+    public SerializedTelemetry withInstrumentationKey(String instrumentationKey) {
+        Preconditions.checkNotNull(instrumentationKey, "instrumentationKey must be non-null value");
+
+        int headerEnd = getHeaderEnd(bytes);
+        int nameStart = indexOf(bytes, NAME_FIELD, 0, headerEnd);
+        if (nameStart == -1) {
+            return null;
+        }
+        nameStart += NAME_FIELD.length;
+        int nameEnd = endOfValue(bytes, nameStart, headerEnd);
+        if (nameEnd == -1) {
+            return null;
+        }
+        int iKeyStart = indexOf(bytes, IKEY_FIELD, nameEnd, headerEnd);
+        if (iKeyStart == -1) {
+            return null;
+        }
+        iKeyStart += IKEY_FIELD.length;
+        int iKeyEnd = endOfValue(bytes, iKeyStart, headerEnd);
+        if (iKeyEnd == -1) {
+            return null;
+        }
+
+        String name = new String(bytes, nameStart, nameEnd - nameStart, Charsets.UTF_8);
+        String iKey = new String(bytes, iKeyStart, iKeyEnd - iKeyStart, Charsets.UTF_8);
+        String namePrefix = BaseTelemetry.getTelemetryName(BaseTelemetry.normalizeInstrumentationKey(iKey), "");
+        if (!name.startsWith(namePrefix)) {
+            return null;
+        }
+        String envelopeType = name.substring(namePrefix.length());
+        byte[] newName = BaseTelemetry.getTelemetryName(BaseTelemetry.normalizeInstrumentationKey(instrumentationKey), envelopeType)
+                .getBytes(Charsets.UTF_8);
+        byte[] newIKey = instrumentationKey.getBytes(Charsets.UTF_8);
+
+        byte[] copy = new byte[bytes.length - (nameEnd - nameStart) - (iKeyEnd - iKeyStart) + newName.length + newIKey.length];
+        int pos = 0;
+        System.arraycopy(bytes, 0, copy, pos, nameStart);
+        pos += nameStart;
+        System.arraycopy(newName, 0, copy, pos, newName.length);
+        pos += newName.length;
+        System.arraycopy(bytes, nameEnd, copy, pos, iKeyStart - nameEnd);
+        pos += iKeyStart - nameEnd;
+        System.arraycopy(newIKey, 0, copy, pos, newIKey.length);
+        pos += newIKey.length;
+        System.arraycopy(bytes, iKeyEnd, copy, pos, bytes.length - iKeyEnd);
+        return new SerializedTelemetry(copy, lane, timestamp, sequence);
+    }
+
+    /**
+     * Writes the envelope as it was encoded.
+     */
+    @Override
+    public void serialize(JsonTelemetryDataSerializer writer) throws IOException {
+        writer.writeFields(bytes);
+    }
+
+    @Override
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public void setTimestamp(Date date) {
+        // the same placeholder the envelope writes for a missing time
+        String time = date == null ? "DEFAULT time" : LocalStringsUtils.getDateFormatter().format(date);
+        bytes = withHeaderValue(bytes, TIME_FIELD, time);
+        timestamp = date;
+    }
+
+    @Override
+    public String getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public void setSequence(String sequence) {
+        // the envelope leaves out an empty sequence
+        bytes = withHeaderValue(bytes, SEQ_FIELD, Strings.emptyToNull(sequence));
+        this.sequence = sequence;
+    }
+
+    /**
+     * @return A copy of the instrumentation key, tags and properties, decoded from the envelope.
+     *         Changing it does not change the serialized telemetry.
+     */
+    @Override
+    public TelemetryContext getContext() {
+        TelemetryContext context = new TelemetryContext();
+        try {
+            decodeContext(bytes, context);
+        } catch (IOException e) {
+            // the bytes were written by the same serializer
+            throw new IllegalStateException("Could not decode serialized telemetry", e);
+        }
+        return context;
+    }
+
+    /**
+     * @return A copy of the properties, decoded from the envelope. Changing it does not change the serialized telemetry.
+     */
+    @Override
+    public Map<String, String> getProperties() {
+        return getContext().getProperties();
+    }
+
+    @Deprecated
+    @Override
+    public void sanitize() {
+    }
+
+    @Override
+    public boolean previouslyUsed() {
+        // the original telemetry was already checked and marked as used
+        return false;
+    }
+
+    @Override
+    public void markUsed() {
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    private static void decodeContext(byte[] bytes, TelemetryContext context) throws IOException {
+        JsonReader reader = JsonReader.of(new Buffer().write(bytes));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("iKey")) {
+                context.setInstrumentationKey(reader.nextString());
+            } else if (name.equals("tags")) {
+                readStrings(reader, context.getTags());
+            } else if (name.equals("data")) {
+                // the properties are in data.baseData.properties
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (!reader.nextName().equals("baseData")) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("properties")) {
+                            readStrings(reader, context.getProperties());
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readStrings(JsonReader reader, Map<String, String> map) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (reader.peek() == JsonReader.Token.STRING) {
+                map.put(key, reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // sets, or with a null value removes, a string field of the envelope header
+    private static byte[] withHeaderValue(byte[] bytes, byte[] field, @Nullable String value) {
+        int headerEnd = getHeaderEnd(bytes);
+        int fieldStart = indexOf(bytes, field, 0, headerEnd);
+        if (fieldStart == -1) {
+            if (value == null) {
+                return bytes;
+            }
+            // the order of the fields doesn't matter, so a missing one goes first
+            byte[] escaped = escape(value);
+            byte[] inserted = new byte[field.length + escaped.length + 2];
+            System.arraycopy(field, 0, inserted, 0, field.length);
+            System.arraycopy(escaped, 0, inserted, field.length, escaped.length);
+            inserted[inserted.length - 2] = '"';
+            inserted[inserted.length - 1] = ',';
+            return splice(bytes, 1, 1, inserted);
+        }
+        int valueStart = fieldStart + field.length;
+        int valueEnd = endOfString(bytes, valueStart);
+        if (value != null) {
+            return splice(bytes, valueStart, valueEnd, escape(value));
+        }
+        // the field and one of the commas around it
+        int removeEnd = valueEnd + 1;
+        if (bytes[removeEnd] == ',') {
+            removeEnd++;
+        } else if (bytes[fieldStart - 1] == ',') {
+            fieldStart--;
+        }
+        return splice(bytes, fieldStart, removeEnd, new byte[0]);
+    }
+
+    // the Json string, without the surrounding quotes
+    private static byte[] escape(String value) {
+        Buffer buffer = new Buffer();
+        try {
+            JsonWriter.of(buffer).value(value).flush();
+        } catch (IOException e) {
+            // not possible when writing to a buffer
+            throw new IllegalStateException(e);
+        }
+        byte[] quoted = buffer.readByteArray();
+        return Arrays.copyOfRange(quoted, 1, quoted.length - 1);
+    }
+
+    private static byte[] splice(byte[] bytes, int from, int to, byte[] replacement) {
+        byte[] spliced = new byte[bytes.length - (to - from) + replacement.length];
+        System.arraycopy(bytes, 0, spliced, 0, from);
+        System.arraycopy(replacement, 0, spliced, from, replacement.length);
+        System.arraycopy(bytes, to, spliced, from + replacement.length, bytes.length - to);
+        return spliced;
+    }
+
+    // the envelope header ends where the user supplied content starts
+    private static int getHeaderEnd(byte[] bytes) {
+        int tagsStart = indexOf(bytes, TAGS_FIELD, 0, -1);
+        int dataStart = indexOf(bytes, DATA_FIELD, 0, -1);
+        if (tagsStart == -1) {
+            return dataStart;
+        }
+        if (dataStart == -1) {
+            return tagsStart;
+        }
+        return Math.min(tagsStart, dataStart);
+    }
+
+    // returns -1 if not found before toIndex (-1 for the end of the array)
+    private static int indexOf(byte[] bytes, byte[] target, int fromIndex, int toIndex) {
+        int last = (toIndex == -1 ? bytes.length : toIndex) - target.length;
+        outer:
+        for (int i = fromIndex; i <= last; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (bytes[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    // returns the index of the closing quote, or -1 if the value has escaped characters
+    private static int endOfValue(byte[] bytes, int fromIndex, int toIndex) {
+        int end = toIndex == -1 ? bytes.length : toIndex;
+        for (int i = fromIndex; i < end; i++) {
+            if (bytes[i] == '"') {
+                return i;
+            }
+            if (bytes[i] == '\\') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    // returns the index of the closing quote, skipping escaped characters
+    private static int endOfString(byte[] bytes, int fromIndex) {
+        int i = fromIndex;
+        while (bytes[i] != '"') {
+            i += bytes[i] == '\\' ? 2 : 1;
+        }
+        return i;
+    }
+}
@@ -75,6 +75,7 @@ public class TelemetryBuffer<T> {
                 ++generation;
                 List<T> readyToBeSent = telemetries;
                 telemetries = new ArrayList<T>();
+                PipelineMetrics.getInstance().onItemsUnbuffered(readyToBeSent.size());
 
                 return readyToBeSent;
             }
@@ -183,13 +184,16 @@ public class TelemetryBuffer<T> {
 
         synchronized (lock) {
             telemetries.add(telemetry);
+            PipelineMetrics.getInstance().onItemBuffered();
 
             int currentSize = telemetries.size();
 
             if (currentSize >= maxTelemetriesInBatch) {
-                if (!sender.sendNow(prepareTelemetriesForSend())) {
+                List<T> readyToBeSent = prepareTelemetriesForSend();
+                if (!sender.sendNow(readyToBeSent)) {
                     // 'prepareTelemetriesForSend' already created a new container
                     // so basically we have nothing to do, the old container is lost
+                    PipelineMetrics.getInstance().onItemsDropped(readyToBeSent.size());
                     logger.error("Failed to send buffer data to network");
                 }
             } else if (currentSize == 1) {
@@ -198,6 +202,8 @@ public class TelemetryBuffer<T> {
                     // The reason for this is that in case the maximum buffer size is greater than 2
                     // than in case a new Telemetry arrives it won't trigger the schedule and might be lost too
                     logger.error("Failed to schedule send of the buffer to network");
+                    PipelineMetrics.getInstance().onItemsUnbuffered(telemetries.size());
+                    PipelineMetrics.getInstance().onItemsDropped(telemetries.size());
                     telemetries.clear();
                 }
             }
@@ -210,7 +216,9 @@ public class TelemetryBuffer<T> {
     public void flush() {
         synchronized (lock) {
             if (telemetries.size() != 0) {
-                if (!sender.sendNow(prepareTelemetriesForSend())) {
+                List<T> readyToBeSent = prepareTelemetriesForSend();
+                if (!sender.sendNow(readyToBeSent)) {
+                    PipelineMetrics.getInstance().onItemsDropped(readyToBeSent.size());
                     logger.error("Failed to flush buffer data to network");
                 }
             }
@@ -230,6 +238,7 @@ public class TelemetryBuffer<T> {
         final List<T> readyToBeSent = telemetries;
 
         telemetries = new ArrayList<T>(maxTelemetriesInBatch);
+        PipelineMetrics.getInstance().onItemsUnbuffered(readyToBeSent.size());
 
         return readyToBeSent;
     }
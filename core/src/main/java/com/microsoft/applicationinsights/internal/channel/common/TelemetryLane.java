@@ -0,0 +1,92 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.PerformanceCounterTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+
+/**
+ * The lanes used by the channel when priority lanes are enabled.
+ *
+ * Each lane has its own buffer and its own share of the pending sends, so that a flood of one kind of
+ * telemetry (typically traces from a chatty logger) cannot cause the others to be dropped.
+ * The sender threads drain the lanes in a weighted round robin.
+ */
+public enum TelemetryLane {
+
+    // requests, dependencies and exceptions
+    HIGH(4, 8192, Integer.MAX_VALUE),
+    // traces, events and everything else
+    NORMAL(1, 4096, Integer.MAX_VALUE),
+    // metrics, which are already aggregated and are most useful when they arrive quickly
+    LOW_LATENCY(2, 4096, 1);
+
+    private final int weight;
+    private final int maxPendingSends;
+    private final int maxFlushIntervalInSeconds;
+
+    TelemetryLane(int weight, int maxPendingSends, int maxFlushIntervalInSeconds) {
+        this.weight = weight;
+        this.maxPendingSends = maxPendingSends;
+        this.maxFlushIntervalInSeconds = maxFlushIntervalInSeconds;
+    }
+
+    /**
+     * @return How many batches of this lane are sent, relative to the other lanes, when all of them have batches waiting
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return The maximum number of batches of this lane that can wait to be sent
+     */
+    public int getMaxPendingSends() {
+        return maxPendingSends;
+    }
+
+    /**
+     * @return The maximum time that telemetry of this lane waits in the buffer, regardless of the channel's flush interval
+     */
+    public int getMaxFlushIntervalInSeconds() {
+        return maxFlushIntervalInSeconds;
+    }
+
+    public static TelemetryLane of(Telemetry telemetry) {
+        if (telemetry instanceof SerializedTelemetry) {
+            return ((SerializedTelemetry) telemetry).getLane();
+        }
+        if (telemetry instanceof RequestTelemetry
+                || telemetry instanceof RemoteDependencyTelemetry
+                || telemetry instanceof ExceptionTelemetry) {
+            return HIGH;
+        }
+        if (telemetry instanceof MetricTelemetry || telemetry instanceof PerformanceCounterTelemetry) {
+            return LOW_LATENCY;
+        }
+        return NORMAL;
+    }
+}
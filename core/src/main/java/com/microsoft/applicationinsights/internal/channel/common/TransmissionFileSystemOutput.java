@@ -125,6 +125,7 @@ public final class TransmissionFileSystemOutput implements TransmissionOutputSyn
 
         long currentSize = getTotalSizeOfTransmissionFiles();
         size = new AtomicLong(currentSize);
+        PipelineMetrics.getInstance().onDiskBacklogChanged(currentSize);
     }
 
     public TransmissionFileSystemOutput() {
@@ -144,6 +145,7 @@ public final class TransmissionFileSystemOutput implements TransmissionOutputSyn
                 + "currently at {} bytes. Telemetry will be lost, "
                 + "please consider increasing the value of MaxTransmissionStorageFilesCapacityInMB property in the configuration file.",
                 currentSizeInBytes);
+            PipelineMetrics.getInstance().onTransmissionDroppedDiskFull();
             return false;
         }
 
@@ -160,6 +162,7 @@ public final class TransmissionFileSystemOutput implements TransmissionOutputSyn
             return false;
         }
 
+        PipelineMetrics.getInstance().onTransmissionPersisted();
         logger.debug("Data persisted to file. To be sent when the network is available.");
         return true;
     }
@@ -196,7 +199,9 @@ public final class TransmissionFileSystemOutput implements TransmissionOutputSyn
                     }
                 }
 
-                return transmission.get();
+                Transmission loaded = transmission.get();
+                PipelineMetrics.getInstance().onTransmissionLoadedFromDisk();
+                return loaded;
             } finally {
                 synchronized (this) {
                     filesThatAreBeingLoaded.remove(fileName);
@@ -276,6 +281,7 @@ public final class TransmissionFileSystemOutput implements TransmissionOutputSyn
             long fileLength = tempTransmissionFile.length();
             FileUtils.moveFile(tempTransmissionFile, transmissionFile);
             size.addAndGet(fileLength);
+            PipelineMetrics.getInstance().onDiskBacklogChanged(fileLength);
             return true;
         } catch (Exception e) {
             logger.error("Rename To Permanent Name failed, exception: {}", e.toString());
@@ -289,7 +295,9 @@ public final class TransmissionFileSystemOutput implements TransmissionOutputSyn
         try {
             File renamedFile = new File(folder, FilenameUtils.getBaseName(tempTransmissionFile.getName()) + TEMP_FILE_EXTENSION);
             FileUtils.moveFile(tempTransmissionFile, renamedFile);
-            size.addAndGet(-renamedFile.length());
+            long fileLength = renamedFile.length();
+            size.addAndGet(-fileLength);
+            PipelineMetrics.getInstance().onDiskBacklogChanged(-fileLength);
             transmissionFile = renamedFile;
         } catch (Exception ignore) {
             logger.error("Rename To Temporary Name failed, exception: {}", ignore.toString());
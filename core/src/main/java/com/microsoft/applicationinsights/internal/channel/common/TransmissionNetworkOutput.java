@@ -43,6 +43,7 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -155,6 +156,7 @@ public final class TransmissionNetworkOutput implements TransmissionOutputSync {
             String respString = null;
             Throwable ex = null;
             Header retryAfterHeader = null;
+            long startNanos = System.nanoTime();
             try {
                 // POST the transmission data to the endpoint
                 request = createTransmissionPostRequest(transmission);
@@ -212,6 +214,8 @@ public final class TransmissionNetworkOutput implements TransmissionOutputSync {
                     request.releaseConnection();
                 }
                 httpClient.dispose(response);
+                PipelineMetrics.getInstance().onHttpResponse(code, transmission.getContent().length,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
 
                 if (code == HttpStatus.SC_BAD_REQUEST) {
                     logger.error("Error sending data: {}", reason);
@@ -116,6 +116,7 @@ public final class TransmissionPolicyManager implements Stoppable, TransmissionH
      * Suspend the transmission thread according to the current back off policy.
      */
     public void backoff() {
+        PipelineMetrics.getInstance().onBackoff();
         policyState.setCurrentState(TransmissionPolicy.BACKOFF);
         long backOffMillis = backoffManager.backOffCurrentSenderThreadValue();
         if (backOffMillis > 0)
@@ -36,6 +36,7 @@ final class TransmissionPolicyState implements TransmissionPolicyStateFetcher, T
 
     @Override
     public boolean setCurrentState(TransmissionPolicy newState) {
+        PipelineMetrics.getInstance().onTransmissionPolicyChanged(newState);
         return this.currentState.getAndSet(newState) != newState;
     }
 }
@@ -22,6 +22,8 @@
 package com.microsoft.applicationinsights.internal.channel.common;
 
 import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
@@ -51,6 +53,10 @@ import org.slf4j.LoggerFactory;
  * The class makes sure that the container of telemetries is sent using internal threads
  * and not the 'application' threads
  *
+ * When priority lanes are used, each {@link TelemetryLane} gets its own view of the transmitter
+ * (see {@link #getLaneTransmitter(TelemetryLane)}) with its own budget of pending sends, and the
+ * ready containers of all lanes are drained by the internal threads in a weighted round robin.
+ *
  * Created by gupele on 12/18/2014.
  */
 public final class TransmitterImpl implements TelemetriesTransmitter<Telemetry> {
@@ -117,6 +123,136 @@ public final class TransmitterImpl implements TelemetriesTransmitter<Telemetry>
         }
     }
 
+    // makes sure that nothing thrown by a send is propagated to the thread pool
+    private static final class SafeRunnable implements Runnable {
+        private final Runnable task;
+
+        private final String errorMessage;
+
+        private SafeRunnable(Runnable task, String errorMessage) {
+            this.task = task;
+            this.errorMessage = errorMessage;
+        }
+
+        public void run() {
+            try {
+                task.run();
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t) {
+                try {
+                    if (errorMessage == null) {
+                        logger.trace(t.getMessage(), t);
+                    } else {
+                        logger.error(errorMessage);
+                        logger.trace(errorMessage, t);
+                    }
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t2) {
+                    // chomp
+                }
+            }
+        }
+    }
+
+    private final class LaneTransmitter implements TelemetriesTransmitter<Telemetry> {
+        private final TelemetryLane lane;
+
+        private final Semaphore semaphore;
+
+        private LaneTransmitter(TelemetryLane lane) {
+            this.lane = lane;
+            this.semaphore = new Semaphore(lane.getMaxPendingSends());
+        }
+
+        @Override
+        public boolean scheduleSend(final TelemetriesFetcher<Telemetry> telemetriesFetcher, long value, TimeUnit timeUnit) {
+            Preconditions.checkNotNull(telemetriesFetcher, "telemetriesFetcher should be non-null value");
+
+            if (!tryAcquirePermit(semaphore)) {
+                return false;
+            }
+            if (shutdown) {
+                // returning true so that the caller will not log an error
+                return true;
+            }
+
+            Throwable t = trySchedule(new Runnable() {
+                public void run() {
+                    if (offerReadyBatch(telemetriesFetcher)) {
+                        dispatchNextReadyBatch();
+                    }
+                }
+            }, value, timeUnit);
+            if (t != null) {
+                onScheduleFailed(semaphore, lane, telemetriesFetcher, t);
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean sendNow(Collection<Telemetry> telemetries) {
+            Preconditions.checkNotNull(telemetries, "telemetries should be non-null value");
+
+            if (!tryAcquirePermit(semaphore)) {
+                return false;
+            }
+
+            LaneBatch batch = new LaneBatch(this, telemetries);
+            readyBatches.offer(lane, batch);
+            Throwable t = tryExecute(new Runnable() {
+                public void run() {
+                    dispatchNextReadyBatch();
+                }
+            });
+            if (t == null) {
+                return true;
+            }
+            if (!readyBatches.remove(lane, batch)) {
+                // already sent by the dispatch of another batch, which is then left for the next dispatch
+                return true;
+            }
+            onSendNowFailed(semaphore, lane, telemetries.size(), t);
+
+            return false;
+        }
+
+        // the permit is handed over to the batch only once it is queued, it is released here otherwise
+        private boolean offerReadyBatch(TelemetriesFetcher<Telemetry> telemetriesFetcher) {
+            boolean offered = false;
+            try {
+                Collection<Telemetry> telemetries = telemetriesFetcher.fetch();
+                if (!telemetries.isEmpty()) {
+                    readyBatches.offer(lane, new LaneBatch(this, telemetries));
+                    offered = true;
+                }
+            } finally {
+                if (!offered) {
+                    releasePermit(semaphore);
+                }
+            }
+            return offered;
+        }
+
+        @Override
+        public void shutdown(long timeout, TimeUnit timeUnit) throws InterruptedException {
+            TransmitterImpl.this.shutdown(timeout, timeUnit);
+        }
+    }
+
+    private static final class LaneBatch {
+        private final LaneTransmitter laneTransmitter;
+
+        private final Collection<Telemetry> telemetries;
+
+        private LaneBatch(LaneTransmitter laneTransmitter, Collection<Telemetry> telemetries) {
+            this.laneTransmitter = laneTransmitter;
+            this.telemetries = telemetries;
+        }
+    }
+
     private static final int MAX_PENDING_SCHEDULE_REQUESTS = 16384;
 
     private static final AtomicInteger INSTANCE_ID_POOL = new AtomicInteger(1);
@@ -131,6 +267,10 @@ public final class TransmitterImpl implements TelemetriesTransmitter<Telemetry>
 
     private final Semaphore semaphore;
 
+    private final Map<TelemetryLane, LaneTransmitter> laneTransmitters = new EnumMap<>(TelemetryLane.class);
+
+    private final WeightedLaneQueue<LaneBatch> readyBatches = new WeightedLaneQueue<>();
+
     private volatile boolean shutdown;
 
     private final int instanceId = INSTANCE_ID_POOL.getAndIncrement();
@@ -155,7 +295,7 @@ public final class TransmitterImpl implements TelemetriesTransmitter<Telemetry>
     public boolean scheduleSend(TelemetriesFetcher telemetriesFetcher, long value, TimeUnit timeUnit) {
         Preconditions.checkNotNull(telemetriesFetcher, "telemetriesFetcher should be non-null value");
 
-        if (!semaphore.tryAcquire()) {
+        if (!tryAcquirePermit(semaphore)) {
             return false;
         }
         if (shutdown) {
@@ -163,45 +303,15 @@ public final class TransmitterImpl implements TelemetriesTransmitter<Telemetry>
             return true;
         }
 
-        try {
-            final ScheduledSendHandler command = new ScheduledSendHandler(transmissionDispatcher, telemetriesFetcher, serializer);
-            threadPool.schedule(new Runnable() {
-                public void run() {
-                    try {
-                        semaphore.release();
-                        command.run();
-                    } catch (ThreadDeath td) {
-                        throw td;
-                    } catch (Throwable t) {
-                        try {
-                            logger.trace(t.getMessage(), t);
-                        } catch (ThreadDeath td) {
-                            throw td;
-                        } catch (Throwable t2) {
-                            // chomp
-                        }
-                    } finally {
-                    }
-                }
-            }, value, timeUnit);
-
-            return true;
-        } catch (ThreadDeath td) {
-            throw td;
-        } catch (Throwable t) {
-            try {
-                semaphore.release();
-                // this conditional is to suppress logging error on race condition when shutdown occurs after check at top of method
-                // but before passing the runnable to the thread pool
-                if (!shutdown || !(t instanceof RejectedExecutionException)) {
-                    logger.error("Error in scheduledSend of telemetry items failed. {} items were not sent", telemetriesFetcher.fetch().size());
-                    logger.debug("Error in scheduledSend of telemetry items failed. {} items were not sent", telemetriesFetcher.fetch().size(), t);
-                }
-            } catch (ThreadDeath td) {
-                throw td;
-            } catch (Throwable t2) {
-                // chomp
+        final ScheduledSendHandler command = new ScheduledSendHandler(transmissionDispatcher, telemetriesFetcher, serializer);
+        Throwable t = trySchedule(new Runnable() {
+            public void run() {
+                releasePermit(semaphore);
+                command.run();
             }
+        }, value, timeUnit);
+        if (t != null) {
+            onScheduleFailed(semaphore, null, telemetriesFetcher, t);
         }
 
         return true;
@@ -211,51 +321,126 @@ public final class TransmitterImpl implements TelemetriesTransmitter<Telemetry>
     public boolean sendNow(Collection<Telemetry> telemetries) {
         Preconditions.checkNotNull(telemetries, "telemetries should be non-null value");
 
-        if (!semaphore.tryAcquire()) {
+        if (!tryAcquirePermit(semaphore)) {
             return false;
         }
 
         final SendNowHandler command = new SendNowHandler(transmissionDispatcher, serializer, telemetries);
+        Throwable t = tryExecute(new Runnable() {
+            public void run() {
+                releasePermit(semaphore);
+                command.run();
+            }
+        });
+        if (t == null) {
+            return true;
+        }
+        onSendNowFailed(semaphore, null, telemetries.size(), t);
+
+        return false;
+    }
+
+    /**
+     * @param lane The lane of the telemetries that will be sent through the returned transmitter
+     * @return A transmitter that shares the threads of this one, but has its own budget of pending sends
+     */
+    public synchronized TelemetriesTransmitter<Telemetry> getLaneTransmitter(TelemetryLane lane) {
+        LaneTransmitter laneTransmitter = laneTransmitters.get(lane);
+        if (laneTransmitter == null) {
+            laneTransmitter = new LaneTransmitter(lane);
+            laneTransmitters.put(lane, laneTransmitter);
+        }
+        return laneTransmitter;
+    }
+
+    // every ready batch is followed by one call to this method, though not necessarily for the same lane
+    private void dispatchNextReadyBatch() {
+        LaneBatch batch = readyBatches.poll();
+        if (batch == null) {
+            return;
+        }
+        releasePermit(batch.laneTransmitter.semaphore);
+        new SendNowHandler(transmissionDispatcher, serializer, batch.telemetries).run();
+    }
+
+    /**
+     * @return null if the task was scheduled, otherwise the reason it was not
+     */
+    private Throwable trySchedule(Runnable task, long value, TimeUnit timeUnit) {
         try {
-            threadPool.execute(new Runnable() {
-                public void run() {
-                    try {
-                        semaphore.release();
-                        command.run();
-                    } catch (ThreadDeath td) {
-                        throw td;
-                    } catch (Throwable t) {
-                        try {
-                            logger.error("exception in runnable sendNow()");
-                            logger.trace("exception in runnable sendNow()", t);
-                        } catch (ThreadDeath td) {
-                            throw td;
-                        } catch (Throwable t2) {
-                            // chomp
-                        }
-                    } finally {
-                    }
-                }
-            });
+            threadPool.schedule(new SafeRunnable(task, null), value, timeUnit);
+            return null;
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            return t;
+        }
+    }
 
-            return true;
+    /**
+     * @return null if the task was handed to the thread pool, otherwise the reason it was not
+     */
+    private Throwable tryExecute(Runnable task) {
+        try {
+            threadPool.execute(new SafeRunnable(task, "exception in runnable sendNow()"));
+            return null;
         } catch (ThreadDeath td) {
             throw td;
         } catch (Throwable t) {
-            try {
-                semaphore.release();
-                if (!shutdown) {
-                    logger.error("Error in scheduledSend of telemetry items failed. {} items were not sent", telemetries.size());
-                    logger.debug("Error in scheduledSend of telemetry items failed. {} items were not sent", telemetries.size(), t);
-                }
-            } catch (ThreadDeath td) {
-                throw td;
-            } catch (Throwable t2) {
-                // chomp
+            return t;
+        }
+    }
+
+    private void onScheduleFailed(Semaphore semaphore, TelemetryLane lane, TelemetriesFetcher<Telemetry> telemetriesFetcher, Throwable t) {
+        try {
+            releasePermit(semaphore);
+            if (shouldLogSendFailure(t)) {
+                logSendFailure("scheduledSend", lane, telemetriesFetcher.fetch().size(), t);
             }
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t2) {
+            // chomp
         }
+    }
 
-        return false;
+    private void onSendNowFailed(Semaphore semaphore, TelemetryLane lane, int size, Throwable t) {
+        try {
+            releasePermit(semaphore);
+            if (shouldLogSendFailure(t)) {
+                logSendFailure("sendNow", lane, size, t);
+            }
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t2) {
+            // chomp
+        }
+    }
+
+    // this is to suppress logging error on race condition when shutdown occurs after the check done before
+    // passing the runnable to the thread pool
+    private boolean shouldLogSendFailure(Throwable t) {
+        return !shutdown || !(t instanceof RejectedExecutionException);
+    }
+
+    private static void logSendFailure(String method, TelemetryLane lane, int size, Throwable t) {
+        String items = lane == null ? "telemetry items" : lane + " telemetry items";
+        logger.error("Error in {} of {} failed. {} items were not sent", method, items, size);
+        logger.debug("Error in {} of {} failed. {} items were not sent", method, items, size, t);
+    }
+
+    private static boolean tryAcquirePermit(Semaphore semaphore) {
+        if (!semaphore.tryAcquire()) {
+            PipelineMetrics.getInstance().onSendRejected();
+            return false;
+        }
+        PipelineMetrics.getInstance().onSendPermitAcquired();
+        return true;
+    }
+
+    private static void releasePermit(Semaphore semaphore) {
+        semaphore.release();
+        PipelineMetrics.getInstance().onSendPermitReleased();
     }
 
     @Override
@@ -0,0 +1,84 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.ArrayDeque;
+
+import javax.annotation.Nullable;
+
+/**
+ * A queue per {@link TelemetryLane}, polled in a smooth weighted round robin.
+ *
+ * When every lane has items waiting, each lane gets a share of the polls proportional to its weight,
+ * interleaved rather than in bursts. Lanes without items waiting do not accumulate credit.
+ */
+final class WeightedLaneQueue<T> {
+
+    private static final TelemetryLane[] LANES = TelemetryLane.values();
+
+    private final ArrayDeque<T>[] queues;
+
+    private final int[] credits = new int[LANES.length];
+
+    @SuppressWarnings("unchecked")
+    WeightedLaneQueue() {
+        queues = new ArrayDeque[LANES.length];
+        for (int i = 0; i < LANES.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+    }
+
+    synchronized void offer(TelemetryLane lane, T item) {
+        queues[lane.ordinal()].add(item);
+    }
+
+    synchronized boolean remove(TelemetryLane lane, T item) {
+        return queues[lane.ordinal()].removeLastOccurrence(item);
+    }
+
+    @Nullable
+    synchronized T poll() {
+        int totalWeight = 0;
+        int selected = -1;
+        for (int i = 0; i < LANES.length; i++) {
+            if (queues[i].isEmpty()) {
+                continue;
+            }
+            int weight = LANES[i].getWeight();
+            credits[i] += weight;
+            totalWeight += weight;
+            if (selected == -1 || credits[i] > credits[selected]) {
+                selected = i;
+            }
+        }
+        if (selected == -1) {
+            return null;
+        }
+        credits[selected] -= totalWeight;
+        T item = queues[selected].poll();
+        if (queues[selected].isEmpty()) {
+            // so that a lane which was idle does not get a burst when it has items again
+            credits[selected] = 0;
+        }
+        return item;
+    }
+}
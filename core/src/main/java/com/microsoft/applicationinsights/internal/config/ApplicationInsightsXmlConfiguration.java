@@ -21,6 +21,9 @@
 
 package com.microsoft.applicationinsights.internal.config;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Created by gupele on 3/13/2015.
  */
@@ -30,6 +33,8 @@ public class ApplicationInsightsXmlConfiguration {
 
     private String connectionString;
 
+    private List<String> additionalConnectionStrings = new ArrayList<>();
+
     private String roleName;
 
     private String roleInstance;
@@ -62,6 +67,14 @@ public class ApplicationInsightsXmlConfiguration {
         this.connectionString = connectionString;
     }
 
+    public List<String> getAdditionalConnectionStrings() {
+        return additionalConnectionStrings;
+    }
+
+    public void setAdditionalConnectionStrings(List<String> additionalConnectionStrings) {
+        this.additionalConnectionStrings = additionalConnectionStrings;
+    }
+
     public String getRoleName() {
         return roleName;
     }
@@ -47,6 +47,10 @@ public class ChannelXmlElement {
 
     private String maxInstantRetry;
 
+    private boolean serializeOnTrack;
+
+    private boolean priorityLanes;
+
     private String type = "com.microsoft.applicationinsights.channel.concrete.inprocess.InProcessTelemetryChannel";
 
     public String getType() {
@@ -129,6 +133,22 @@ public class ChannelXmlElement {
         this.maxInstantRetry = maxInstantRetry;
     }
 
+    public boolean getSerializeOnTrack() {
+        return serializeOnTrack;
+    }
+
+    public void setSerializeOnTrack(boolean serializeOnTrack) {
+        this.serializeOnTrack = serializeOnTrack;
+    }
+
+    public boolean getPriorityLanes() {
+        return priorityLanes;
+    }
+
+    public void setPriorityLanes(boolean priorityLanes) {
+        this.priorityLanes = priorityLanes;
+    }
+
     public Map<String, String> getData() {
         HashMap<String, String> data = new HashMap<String, String>();
         if (developerMode) {
@@ -156,6 +176,14 @@ public class ChannelXmlElement {
             data.put("MaxInstantRetry", maxInstantRetry);
         }
 
+        if (serializeOnTrack) {
+            data.put("SerializeOnTrack", "true");
+        }
+
+        if (priorityLanes) {
+            data.put("PriorityLanes", "true");
+        }
+
         data.put("Throttling", throttling ? "true" : "false");
 
         return data;
@@ -32,6 +32,7 @@ import java.util.Set;
 
 import com.microsoft.applicationinsights.TelemetryConfiguration;
 import com.microsoft.applicationinsights.extensibility.*;
+import com.microsoft.applicationinsights.channel.concrete.inprocess.FanOutTelemetryChannel;
 import com.microsoft.applicationinsights.channel.concrete.inprocess.InProcessTelemetryChannel;
 import com.microsoft.applicationinsights.channel.TelemetryChannel;
 import com.microsoft.applicationinsights.internal.jmx.JmxAttributeData;
@@ -86,6 +87,18 @@ public enum TelemetryConfigurationFactory {
     public void initialize(TelemetryConfiguration configuration,
                            ApplicationInsightsXmlConfiguration applicationInsightsConfig) {
 
+        initializeWithoutModules(configuration, applicationInsightsConfig);
+        initializeModules(configuration, applicationInsightsConfig);
+    }
+
+    /**
+     * Sets up everything that is needed to track telemetry (connection string, role, channel), but leaves the
+     * telemetry modules (heartbeat, performance counters, etc.) and QuickPulse out, so that they can be started
+     * later on with {@link #initializeModules(TelemetryConfiguration, ApplicationInsightsXmlConfiguration)}.
+     */
+    public void initializeWithoutModules(TelemetryConfiguration configuration,
+                                         ApplicationInsightsXmlConfiguration applicationInsightsConfig) {
+
         setConnectionString(applicationInsightsConfig, configuration);
         setRoleName(applicationInsightsConfig, configuration);
         setRoleInstance(applicationInsightsConfig, configuration);
@@ -93,8 +106,15 @@ public enum TelemetryConfigurationFactory {
         boolean channelIsConfigured = setChannel(applicationInsightsConfig.getChannel(), configuration);
         if (!channelIsConfigured) {
             logger.warn("No channel was initialized. A channel must be set before telemetry tracking will operate correctly.");
+        } else if (!configuration.getAdditionalConnectionStrings().isEmpty()) {
+            configuration.setChannel(FanOutTelemetryChannel.create(configuration.getChannel(), configuration,
+                    applicationInsightsConfig.getChannel().getData()));
         }
         configuration.setTrackingIsDisabled(applicationInsightsConfig.isDisableTelemetry());
+    }
+
+    public void initializeModules(TelemetryConfiguration configuration,
+                                  ApplicationInsightsXmlConfiguration applicationInsightsConfig) {
 
         setTelemetryModules(applicationInsightsConfig, configuration);
 
@@ -153,6 +173,11 @@ public enum TelemetryConfigurationFactory {
         if (connectionString != null) {
             configuration.setConnectionString(connectionString);
         }
+
+        List<String> additionalConnectionStrings = configXml.getAdditionalConnectionStrings();
+        if (additionalConnectionStrings != null && !additionalConnectionStrings.isEmpty()) {
+            configuration.setAdditionalConnectionStrings(additionalConnectionStrings);
+        }
     }
 
     private void setRoleName(ApplicationInsightsXmlConfiguration userConfiguration,
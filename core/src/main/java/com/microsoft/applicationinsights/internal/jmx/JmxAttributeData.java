@@ -21,6 +21,8 @@
 
 package com.microsoft.applicationinsights.internal.jmx;
 
+import java.util.Arrays;
+
 /**
  * Represents JMX data of an Attribute
  * The display name
@@ -33,8 +35,17 @@ public final class JmxAttributeData {
     public final String metricName;
     public final String attribute;
 
+    // the attribute is parsed once: "HeapMemoryUsage.used" is read as attribute "HeapMemoryUsage"
+    // followed by the composite data path ["used"]
+    final String attributeName;
+    final String[] compositePath;
+
     public JmxAttributeData(String metricName, String attribute) {
         this.attribute = attribute;
         this.metricName = metricName;
+
+        String[] parts = attribute.split("\\.");
+        this.attributeName = parts[0];
+        this.compositePath = Arrays.copyOfRange(parts, 1, parts.length);
     }
 }
@@ -24,15 +24,19 @@ package com.microsoft.applicationinsights.internal.jmx;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
-import javax.management.MBeanException;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
-import javax.management.ReflectionException;
 import javax.management.openmbean.CompositeData;
 
 import org.slf4j.Logger;
@@ -41,6 +45,9 @@ import org.slf4j.LoggerFactory;
 /**
  * A utility class that knows how to fetch JMX data.
  * <p>
+ * The MBeans matching an object name are resolved through {@link JmxObjectNameCache}, and all the attributes
+ * of an MBean are read with a single {@link MBeanServer#getAttributes(ObjectName, String[])} call.
+ * <p>
  * Created by gupele on 3/15/2015.
  */
 public class JmxDataFetcher {
@@ -59,51 +66,111 @@ public class JmxDataFetcher {
     public static Map<String, Collection<Object>> fetch(String objectName, Collection<JmxAttributeData> attributes)
             throws Exception {
         Map<String, Collection<Object>> result = new HashMap<String, Collection<Object>>();
+        for (JmxAttributeData attribute : attributes) {
+            result.put(attribute.metricName, new ArrayList<Object>());
+        }
+        for (Map<String, Object> values : fetchByObjectName(new ObjectName(objectName), attributes).values()) {
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                result.get(entry.getKey()).add(entry.getValue());
+            }
+        }
+        return result;
+    }
 
+    /**
+     * Gets an object name (or object name pattern) and its attributes, and returns the data of every matching MBean.
+     *
+     * @param objectName The object name or pattern to search.
+     * @param attributes The attributes that 'belong' to the object name.
+     * @return For each matching MBean, a map from the displayed name of each attribute to its value
+     * (attributes whose value is null are omitted)
+     * @throws Exception In case the object name is not found, or an attribute is not found.
+     */
+    public static Map<ObjectName, Map<String, Object>> fetchByObjectName(ObjectName objectName, Collection<JmxAttributeData> attributes)
+            throws Exception {
         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
-        Set<ObjectName> objects = server.queryNames(new ObjectName(objectName), null);
+        Set<ObjectName> objects = JmxObjectNameCache.INSTANCE.resolve(objectName);
         if (objects.isEmpty()) {
             String errorMsg = String.format("Cannot find object name '%s'", objectName);
             throw new IllegalArgumentException(errorMsg);
         }
 
+        Set<String> uniqueAttributeNames = new LinkedHashSet<String>();
         for (JmxAttributeData attribute : attributes) {
-            try {
-                Collection<Object> resultForAttribute = fetch(server, objects, attribute.attribute);
-                result.put(attribute.metricName, resultForAttribute);
-            } catch (Exception e) {
-                logger.warn("Failed to fetch JMX object '{}' with attribute '{}': ", objectName, attribute.attribute);
-                throw e;
-            }
+            uniqueAttributeNames.add(attribute.attributeName);
         }
+        String[] attributeNames = uniqueAttributeNames.toArray(new String[0]);
 
-        return result;
-    }
-
-    private static Collection<Object> fetch(MBeanServer server, Set<ObjectName> objects, String attributeName)
-            throws AttributeNotFoundException, MBeanException, ReflectionException, InstanceNotFoundException {
-        ArrayList<Object> result = new ArrayList<Object>();
-
-        String[] inners = attributeName.split("\\.");
-
+        Map<ObjectName, Map<String, Object>> result = new TreeMap<ObjectName, Map<String, Object>>();
         for (ObjectName object : objects) {
+            AttributeList attributeList;
+            try {
+                attributeList = server.getAttributes(object, attributeNames);
+            } catch (InstanceNotFoundException e) {
+                JmxObjectNameCache.INSTANCE.evict(objectName, object);
+                continue;
+            }
+            Map<String, Object> values = new HashMap<String, Object>();
+            for (Attribute attribute : attributeList.asList()) {
+                values.put(attribute.getName(), attribute.getValue());
+            }
 
-            Object value;
-
-            if (inners.length == 1) {
-                value = server.getAttribute(object, attributeName);
-            } else {
-                value = server.getAttribute(object, inners[0]);
+            Map<String, Object> resultForObject = new HashMap<String, Object>();
+            for (JmxAttributeData attribute : attributes) {
+                // getAttributes() leaves out attributes that can't be read, instead of failing
+                if (!values.containsKey(attribute.attributeName)) {
+                    logger.warn("Failed to fetch JMX object '{}' with attribute '{}': ", object, attribute.attribute);
+                    throw new AttributeNotFoundException(attribute.attributeName);
+                }
+                Object value = getCompositeValue(values.get(attribute.attributeName), attribute.compositePath);
                 if (value != null) {
-                    value = ((CompositeData) value).get(inners[1]);
+                    resultForObject.put(attribute.metricName, value);
                 }
             }
-            if (value != null) {
-                result.add(value);
+            result.put(object, resultForObject);
+        }
+        if (result.isEmpty()) {
+            String errorMsg = String.format("Cannot find object name '%s'", objectName);
+            throw new IllegalArgumentException(errorMsg);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the parts of a matching MBean's name that the pattern left open (a wildcard domain, and the
+     * key properties that are not fixed by the pattern), to be used as dimensions of its series.
+     *
+     * @param pattern The object name or pattern used to search.
+     * @param objectName An MBean that matched the pattern.
+     * @return The dimensions, empty if the pattern is not a pattern.
+     */
+    public static Map<String, String> getDimensions(ObjectName pattern, ObjectName objectName) {
+        if (!pattern.isPattern()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> dimensions = new TreeMap<String, String>();
+        if (pattern.isDomainPattern()) {
+            dimensions.put("domain", objectName.getDomain());
+        }
+        Hashtable<String, String> fixed = pattern.getKeyPropertyList();
+        for (Map.Entry<String, String> property : objectName.getKeyPropertyList().entrySet()) {
+            String fixedValue = fixed.get(property.getKey());
+            if (fixedValue == null || pattern.isPropertyValuePattern(property.getKey())) {
+                String value = property.getValue();
+                dimensions.put(property.getKey(), value.startsWith("\"") ? ObjectName.unquote(value) : value);
             }
         }
+        return dimensions;
+    }
 
-        return result;
+    private static Object getCompositeValue(Object value, String[] compositePath) {
+        for (String key : compositePath) {
+            if (!(value instanceof CompositeData)) {
+                return null;
+            }
+            value = ((CompositeData) value).get(key);
+        }
+        return value;
     }
 
     private JmxDataFetcher() {
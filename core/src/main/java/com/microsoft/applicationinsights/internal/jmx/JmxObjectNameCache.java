@@ -0,0 +1,127 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.jmx;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches which MBeans match the object names (or object name patterns) used by JMX metrics, so that
+ * {@link MBeanServer#queryNames(ObjectName, javax.management.QueryExp)} is not called on every collection.
+ * <p>
+ * The cache is kept up to date by listening to the MBean server delegate's registration and unregistration
+ * notifications. If the listener can't be registered every lookup goes to the MBean server.
+ */
+enum JmxObjectNameCache implements NotificationListener {
+    INSTANCE;
+
+    private static final Logger logger = LoggerFactory.getLogger(JmxObjectNameCache.class);
+
+    private final ConcurrentMap<ObjectName, Set<ObjectName>> cache = new ConcurrentHashMap<ObjectName, Set<ObjectName>>();
+
+    private volatile boolean listenerRegistrationAttempted;
+    private volatile boolean listening;
+
+    private MBeanServer getServer() {
+        return ManagementFactory.getPlatformMBeanServer();
+    }
+
+    /**
+     * @return the (live) set of registered MBeans matching the object name or pattern
+     */
+    Set<ObjectName> resolve(ObjectName objectName) {
+        if (!startListening()) {
+            return getServer().queryNames(objectName, null);
+        }
+        Set<ObjectName> names = cache.get(objectName);
+        if (names == null || names.isEmpty()) {
+            // an empty result is queried again: it is cheap, and it covers an MBean that registered
+            // while the set was being populated
+            Set<ObjectName> created = ConcurrentHashMap.newKeySet();
+            Set<ObjectName> previous = cache.putIfAbsent(objectName, created);
+            names = previous == null ? created : previous;
+            names.addAll(getServer().queryNames(objectName, null));
+        }
+        return names;
+    }
+
+    /**
+     * Removes an MBean that turned out to be gone, in case its unregistration notification was missed.
+     */
+    void evict(ObjectName objectName, ObjectName match) {
+        Set<ObjectName> names = cache.get(objectName);
+        if (names != null) {
+            names.remove(match);
+        }
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!(notification instanceof MBeanServerNotification)) {
+            return;
+        }
+        ObjectName name = ((MBeanServerNotification) notification).getMBeanName();
+        boolean registered = MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType());
+        boolean unregistered = MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType());
+        if (name == null || (!registered && !unregistered)) {
+            return;
+        }
+        for (Map.Entry<ObjectName, Set<ObjectName>> entry : cache.entrySet()) {
+            if (entry.getKey().apply(name)) {
+                if (registered) {
+                    entry.getValue().add(name);
+                } else {
+                    entry.getValue().remove(name);
+                }
+            }
+        }
+    }
+
+    private boolean startListening() {
+        if (!listenerRegistrationAttempted) {
+            synchronized (this) {
+                if (!listenerRegistrationAttempted) {
+                    try {
+                        getServer().addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this, null, null);
+                        listening = true;
+                    } catch (Exception e) {
+                        logger.trace("Failed to listen to MBean registrations, JMX object names will not be cached", e);
+                    } finally {
+                        listenerRegistrationAttempted = true;
+                    }
+                }
+            }
+        }
+        return listening;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free accumulator for one metric series.
+ * <p>
+ * Count, sum, min and max are each kept in striped cells ({@link LongAdder}, {@link DoubleAdder},
+ * {@link DoubleAccumulator}), so concurrent recorders on different cores do not contend on a single cache line.
+ * <p>
+ * {@link #drain(MetricSnapshot)} resets the cells one after another, so a value recorded concurrently with a drain
+ * may have its count and sum attributed to different intervals. This is accepted, since it never loses or duplicates
+ * a value across intervals.
+ */
+final class MetricSeries {
+
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+    private final DoubleAccumulator min = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+    private final DoubleAccumulator max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+
+    // number of consecutive flush intervals in which nothing was recorded
+    private int idleIntervals;
+
+    void record(double value) {
+        sum.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+        count.increment();
+    }
+
+    void record(double sumValue, int countValue, double minValue, double maxValue) {
+        sum.add(sumValue);
+        min.accumulate(minValue);
+        max.accumulate(maxValue);
+        count.add(countValue);
+    }
+
+    /**
+     * Moves the values accumulated so far into {@code snapshot} and resets this series.
+     *
+     * @return false if nothing was recorded since the last drain.
+     */
+    boolean drain(MetricSnapshot snapshot) {
+        long c = count.sumThenReset();
+        if (c == 0) {
+            idleIntervals++;
+            return false;
+        }
+        idleIntervals = 0;
+        snapshot.count = c;
+        snapshot.sum = sum.sumThenReset();
+        snapshot.min = min.getThenReset();
+        snapshot.max = max.getThenReset();
+        // a value racing with the previous drain can have its count land in this interval but its min/max in the
+        // previous one, in which case fall back to the mean rather than reporting an infinite bound
+        double mean = snapshot.sum / c;
+        if (snapshot.min == Double.POSITIVE_INFINITY) {
+            snapshot.min = mean;
+        }
+        if (snapshot.max == Double.NEGATIVE_INFINITY) {
+            snapshot.max = mean;
+        }
+        return true;
+    }
+
+    // only accessed by the flushing thread
+    int getIdleIntervals() {
+        return idleIntervals;
+    }
+
+    static final class MetricSnapshot {
+        long count;
+        double sum;
+        double min;
+        double max;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Identifies a single aggregated metric series: the metric name plus its dimensions
+ * (custom properties and context tags).
+ * <p>
+ * Map equality and hash codes are defined by content, so a lookup key can wrap the caller's maps directly and still
+ * match the stored key. Only {@link #copy()} (called when a new series is created) allocates defensive copies.
+ */
+final class MetricSeriesKey {
+
+    private final String name;
+    private final Map<String, String> properties;
+    private final Map<String, String> tags;
+    private final int hashCode;
+
+    MetricSeriesKey(String name, Map<String, String> properties, Map<String, String> tags) {
+        this.name = name;
+        this.properties = properties == null ? Collections.<String, String>emptyMap() : properties;
+        this.tags = tags == null ? Collections.<String, String>emptyMap() : tags;
+        int result = name.hashCode();
+        result = 31 * result + this.properties.hashCode();
+        result = 31 * result + this.tags.hashCode();
+        this.hashCode = result;
+    }
+
+    MetricSeriesKey copy() {
+        return new MetricSeriesKey(name, copyOf(properties), copyOf(tags));
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Map<String, String> getProperties() {
+        return properties;
+    }
+
+    Map<String, String> getTags() {
+        return tags;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof MetricSeriesKey)) {
+            return false;
+        }
+        MetricSeriesKey that = (MetricSeriesKey) o;
+        return hashCode == that.hashCode
+                && name.equals(that.name)
+                && properties.equals(that.properties)
+                && tags.equals(that.tags);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    private static Map<String, String> copyOf(Map<String, String> map) {
+        if (map.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return Collections.unmodifiableMap(new HashMap<>(map));
+    }
+}
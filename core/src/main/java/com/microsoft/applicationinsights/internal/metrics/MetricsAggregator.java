@@ -0,0 +1,248 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.metrics.MetricSeries.MetricSnapshot;
+import com.microsoft.applicationinsights.internal.shutdown.Stoppable;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pre-aggregates metric values in process, so that the number of {@link MetricTelemetry} items sent is proportional
+ * to the number of distinct series rather than to the rate at which values are recorded.
+ * <p>
+ * A series is identified by the metric name plus its properties and tags. Recording is lock-free: the series lookup
+ * is a {@link ConcurrentHashMap} read and the accumulation is done in striped cells (see {@link MetricSeries}).
+ * <p>
+ * The number of live series is capped. Once the cap is reached, {@code record} returns false for values belonging to
+ * new series and the caller is expected to send those values un-aggregated. Series that receive no values for a full
+ * interval are evicted on the next flush, which frees up room under the cap.
+ */
+public class MetricsAggregator implements Stoppable {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsAggregator.class);
+
+    private final ConcurrentMap<MetricSeriesKey, MetricSeries> series = new ConcurrentHashMap<>();
+    private final AtomicInteger seriesCount = new AtomicInteger();
+    private final int maxSeries;
+
+    private final AtomicBoolean alreadyLoggedMaxSeries = new AtomicBoolean();
+
+    private final Object drainLock = new Object();
+
+    // guarded by drainLock
+    private long intervalStartMillis = System.currentTimeMillis();
+
+    private ScheduledExecutorService flushService;
+
+    private TelemetryClient telemetryClient;
+
+    public MetricsAggregator(int maxSeries) {
+        if (maxSeries <= 0) {
+            throw new IllegalArgumentException("maxSeries must be positive: " + maxSeries);
+        }
+        this.maxSeries = maxSeries;
+    }
+
+    /**
+     * Records a single measurement.
+     *
+     * @return false if the series could not be created because the series cap was reached.
+     */
+    public boolean record(String name, double value, Map<String, String> properties, Map<String, String> tags) {
+        return record(name, value, properties, tags, maxSeries);
+    }
+
+    /**
+     * Records a single measurement, but only creates a new series if there are fewer than {@code seriesLimit} series
+     * (which is capped at the series cap). This allows the caller to keep part of the series cap for series that it
+     * falls back to.
+     *
+     * @return false if the series could not be created because the series limit was reached.
+     */
+    public boolean record(String name, double value, Map<String, String> properties, Map<String, String> tags,
+                          int seriesLimit) {
+        MetricSeries metricSeries = getOrCreate(new MetricSeriesKey(name, properties, tags), Math.min(seriesLimit, maxSeries));
+        if (metricSeries == null) {
+            return false;
+        }
+        metricSeries.record(value);
+        return true;
+    }
+
+    /**
+     * Records a value that has already been aggregated by the caller, where {@code sum} is the sum of {@code count}
+     * data points.
+     *
+     * @return false if the series could not be created because the series cap was reached.
+     */
+    public boolean record(String name, double sum, int count, double min, double max,
+                          Map<String, String> properties, Map<String, String> tags) {
+        MetricSeries metricSeries = getOrCreate(new MetricSeriesKey(name, properties, tags), maxSeries);
+        if (metricSeries == null) {
+            return false;
+        }
+        metricSeries.record(sum, count, min, max);
+        return true;
+    }
+
+    public int getMaxSeries() {
+        return maxSeries;
+    }
+
+    public int getSeriesCount() {
+        return seriesCount.get();
+    }
+
+    /**
+     * Starts flushing the aggregated metrics to {@code telemetryClient} every {@code intervalSeconds}.
+     */
+    public synchronized void start(final TelemetryClient telemetryClient, long intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            throw new IllegalArgumentException("intervalSeconds must be positive: " + intervalSeconds);
+        }
+        if (flushService != null) {
+            return;
+        }
+        this.telemetryClient = telemetryClient;
+        flushService = Executors.newSingleThreadScheduledExecutor(ThreadPoolUtils.createDaemonThreadFactory(MetricsAggregator.class));
+        flushService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush(telemetryClient);
+                } catch (ThreadDeath td) {
+                    throw td;
+                } catch (Throwable t) {
+                    try {
+                        logger.error("Exception while flushing aggregated metrics", t);
+                    } catch (ThreadDeath td) {
+                        throw td;
+                    } catch (Throwable t2) {
+                        // chomp
+                    }
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the flush thread and then sends the last partial interval, so that it is not lost at shutdown.
+     */
+    @Override
+    public synchronized void stop(long timeout, TimeUnit timeUnit) {
+        if (flushService == null) {
+            return;
+        }
+        ThreadPoolUtils.stop(flushService, timeout, timeUnit);
+        flushService = null;
+        flush(telemetryClient);
+        telemetryClient = null;
+    }
+
+    /**
+     * Sends the values aggregated since the previous flush.
+     */
+    public void flush(TelemetryClient telemetryClient) {
+        for (MetricTelemetry telemetry : drain()) {
+            telemetryClient.track(telemetry);
+        }
+    }
+
+    List<MetricTelemetry> drain() {
+        synchronized (drainLock) {
+            Date timestamp = new Date(intervalStartMillis);
+            intervalStartMillis = System.currentTimeMillis();
+            return drain(timestamp);
+        }
+    }
+
+    private List<MetricTelemetry> drain(Date timestamp) {
+        List<MetricTelemetry> telemetries = new ArrayList<>();
+        MetricSnapshot snapshot = new MetricSnapshot();
+        for (Iterator<Map.Entry<MetricSeriesKey, MetricSeries>> i = series.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<MetricSeriesKey, MetricSeries> entry = i.next();
+            MetricSeries metricSeries = entry.getValue();
+            if (metricSeries.drain(snapshot)) {
+                telemetries.add(toTelemetry(entry.getKey(), snapshot, timestamp));
+            } else if (metricSeries.getIdleIntervals() > 0) {
+                // a value recorded concurrently with the eviction of a series that was idle for a whole interval
+                // can be lost, which is accepted in exchange for lock-free recording
+                i.remove();
+                seriesCount.decrementAndGet();
+            }
+        }
+        return telemetries;
+    }
+
+    private MetricSeries getOrCreate(MetricSeriesKey key, int seriesLimit) {
+        MetricSeries metricSeries = series.get(key);
+        if (metricSeries != null) {
+            return metricSeries;
+        }
+        if (seriesCount.incrementAndGet() > seriesLimit) {
+            seriesCount.decrementAndGet();
+            // a lower limit is the caller's own choice, so that is not worth a warning
+            if (seriesLimit == maxSeries && !alreadyLoggedMaxSeries.getAndSet(true)) {
+                logger.warn("Reached the limit of {} aggregated metric series, values for new series will not be" +
+                        " aggregated (this message will only be logged once)", maxSeries);
+            }
+            return null;
+        }
+        metricSeries = new MetricSeries();
+        MetricSeries existing = series.putIfAbsent(key.copy(), metricSeries);
+        if (existing != null) {
+            seriesCount.decrementAndGet();
+            return existing;
+        }
+        return metricSeries;
+    }
+
+    private static MetricTelemetry toTelemetry(MetricSeriesKey key, MetricSnapshot snapshot, Date timestamp) {
+        MetricTelemetry telemetry = new MetricTelemetry();
+        telemetry.setName(key.getName());
+        telemetry.setValue(snapshot.sum);
+        telemetry.setCount((int) Math.min(snapshot.count, Integer.MAX_VALUE));
+        telemetry.setMin(snapshot.min);
+        telemetry.setMax(snapshot.max);
+        telemetry.getProperties().putAll(key.getProperties());
+        telemetry.getContext().getTags().putAll(key.getTags());
+        telemetry.setTimestamp(timestamp);
+        return telemetry;
+    }
+}
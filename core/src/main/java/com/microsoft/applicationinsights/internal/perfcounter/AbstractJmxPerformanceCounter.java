@@ -23,6 +23,7 @@ package com.microsoft.applicationinsights.internal.perfcounter;
 
 import java.util.Collection;
 import java.util.Map;
+import javax.management.ObjectName;
 
 import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.internal.jmx.JmxAttributeData;
@@ -43,6 +44,7 @@ public abstract class AbstractJmxPerformanceCounter implements PerformanceCounte
     private final String id;
     private final String objectName;
     private final Collection<JmxAttributeData> attributes;
+    private ObjectName parsedObjectName;
     private boolean alreadyLogged = false;
 
     @Override
@@ -53,33 +55,38 @@ public abstract class AbstractJmxPerformanceCounter implements PerformanceCounte
     /**
      * The main method. The method will fetch the data and send it.
      * The method will not do anything if there was a major problem accessing the needed counter.
+     * When the object name is a pattern, each matching MBean is sent as its own series, dimensioned by
+     * the parts of its name that the pattern left open.
      * @param telemetryClient The telemetry client to send events.
      */
     @Override
     public synchronized void report(TelemetryClient telemetryClient) {
         try {
-            Map<String, Collection<Object>> result =
-                    JmxDataFetcher.fetch(objectName, attributes);
+            if (parsedObjectName == null) {
+                parsedObjectName = new ObjectName(objectName);
+            }
+            Map<ObjectName, Map<String, Object>> result =
+                    JmxDataFetcher.fetchByObjectName(parsedObjectName, attributes);
 
-            for (Map.Entry<String, Collection<Object>> displayAndValues : result.entrySet()) {
-                boolean ok = true;
-                double value = 0.0;
-                for (Object obj : displayAndValues.getValue()) {
+            for (Map.Entry<ObjectName, Map<String, Object>> objectAndValues : result.entrySet()) {
+                Map<String, String> dimensions = JmxDataFetcher.getDimensions(parsedObjectName, objectAndValues.getKey());
+                for (Map.Entry<String, Object> displayAndValue : objectAndValues.getValue().entrySet()) {
+                    Object obj = displayAndValue.getValue();
+                    double value;
                     try {
                         if (obj instanceof Boolean) {
                             value = ((Boolean) obj).booleanValue() ? 1 : 0;
+                        } else if (obj instanceof Number) {
+                            value = ((Number) obj).doubleValue();
                         } else {
-                            value += Double.parseDouble(String.valueOf(obj));
+                            value = Double.parseDouble(String.valueOf(obj));
                         }
                     } catch (Exception e) {
-                        ok = false;
-                        break;
+                        continue;
                     }
-                }
 
-                if (ok) {
                     try {
-                        send(telemetryClient, displayAndValues.getKey(), value);
+                        send(telemetryClient, displayAndValue.getKey(), value, dimensions);
                     } catch (Exception e) {
                         logger.error("Error while sending JMX data: '{}'", e.toString());
                         logger.trace("Error while sending JMX data", e);
@@ -102,4 +109,11 @@ public abstract class AbstractJmxPerformanceCounter implements PerformanceCounte
     }
 
     protected abstract void send(TelemetryClient telemetryClient, String displayName, double value);
+
+    /**
+     * Sends a value of one MBean matched by an object name pattern. By default the dimensions are dropped.
+     */
+    protected void send(TelemetryClient telemetryClient, String displayName, double value, Map<String, String> dimensions) {
+        send(telemetryClient, displayName, value);
+    }
 }
@@ -0,0 +1,245 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter;
+
+import java.io.File;
+
+/**
+ * Reads the cpu and memory accounting of the container the process runs in, from either a cgroup v1 or a cgroup v2 hierarchy.
+ *
+ * The values are read from the root of the mounted hierarchy, which inside a container is the container's own cgroup
+ * (docker and kubernetes mount it with a private cgroup namespace, or bind mount the container's cgroup to that place).
+ *
+ * All the values are kept in fields that are refreshed by {@link #readCpu()} and {@link #readMemory()},
+ * missing values are reported as -1. The class is not thread safe.
+ */
+final class CGroupReader {
+
+    static final String DEFAULT_ROOT = "/sys/fs/cgroup";
+
+    enum Version {
+        V1,
+        V2
+    }
+
+    private final Version version;
+
+    private final ProcFileReader cpuUsageReader;
+    private final ProcFileReader cpuQuotaReader;
+    private final ProcFileReader cpuPeriodReader;
+    private final ProcFileReader cpuStatReader;
+    private final ProcFileReader memoryUsageReader;
+    private final ProcFileReader memoryLimitReader;
+    private final ProcFileReader memoryStatReader;
+
+    private long cpuUsageNanos;
+    private long cpuQuotaMicros;
+    private long cpuPeriodMicros;
+    private long periods;
+    private long throttledPeriods;
+    private long throttledNanos;
+
+    private long memoryUsageBytes;
+    private long memoryLimitBytes;
+    private long inactiveFileBytes;
+
+    /**
+     * @return A reader of the default cgroup hierarchy, or null if the process does not run under a cgroup hierarchy that can be read.
+     */
+    static CGroupReader create() {
+        return create(new File(DEFAULT_ROOT));
+    }
+
+    static CGroupReader create(File root) {
+        if (new File(root, "cgroup.controllers").canRead()) {
+            return new CGroupReader(Version.V2, root, root, root);
+        }
+        File cpu = new File(root, "cpu");
+        File cpuacct = new File(root, "cpuacct");
+        if (!cpuacct.isDirectory()) {
+            cpuacct = new File(root, "cpu,cpuacct");
+            if (!cpu.isDirectory()) {
+                cpu = cpuacct;
+            }
+        }
+        if (!cpu.isDirectory() || !cpuacct.isDirectory()) {
+            return null;
+        }
+        return new CGroupReader(Version.V1, cpu, cpuacct, new File(root, "memory"));
+    }
+
+    private CGroupReader(Version version, File cpu, File cpuacct, File memory) {
+        this.version = version;
+        if (version == Version.V2) {
+            cpuUsageReader = null;
+            cpuQuotaReader = new ProcFileReader(new File(cpu, "cpu.max"));
+            cpuPeriodReader = null;
+            cpuStatReader = new ProcFileReader(new File(cpu, "cpu.stat"));
+            memoryUsageReader = new ProcFileReader(new File(memory, "memory.current"));
+            memoryLimitReader = new ProcFileReader(new File(memory, "memory.max"));
+            memoryStatReader = new ProcFileReader(new File(memory, "memory.stat"));
+        } else {
+            cpuUsageReader = new ProcFileReader(new File(cpuacct, "cpuacct.usage"));
+            cpuQuotaReader = new ProcFileReader(new File(cpu, "cpu.cfs_quota_us"));
+            cpuPeriodReader = new ProcFileReader(new File(cpu, "cpu.cfs_period_us"));
+            cpuStatReader = new ProcFileReader(new File(cpu, "cpu.stat"));
+            memoryUsageReader = new ProcFileReader(new File(memory, "memory.usage_in_bytes"));
+            memoryLimitReader = new ProcFileReader(new File(memory, "memory.limit_in_bytes"));
+            memoryStatReader = new ProcFileReader(new File(memory, "memory.stat"));
+        }
+    }
+
+    Version getVersion() {
+        return version;
+    }
+
+    /**
+     * Refreshes the cpu usage, quota and throttling values.
+     * @return true if at least the cpu usage could be read
+     */
+    boolean readCpu() {
+        cpuUsageNanos = -1;
+        cpuQuotaMicros = -1;
+        cpuPeriodMicros = -1;
+        periods = -1;
+        throttledPeriods = -1;
+        throttledNanos = -1;
+
+        boolean hasStat = cpuStatReader.read();
+        if (version == Version.V2) {
+            // cpu.max is '$MAX $PERIOD', where $MAX is 'max' when there is no quota
+            if (cpuQuotaReader.read()) {
+                cpuQuotaMicros = cpuQuotaReader.nextLong();
+                cpuPeriodMicros = cpuQuotaReader.nextLong();
+            }
+            if (hasStat) {
+                cpuUsageNanos = microsToNanos(cpuStatReader.getValue("usage_usec"));
+                periods = cpuStatReader.getValue("nr_periods");
+                throttledPeriods = cpuStatReader.getValue("nr_throttled");
+                throttledNanos = microsToNanos(cpuStatReader.getValue("throttled_usec"));
+            }
+        } else {
+            if (cpuUsageReader.read()) {
+                cpuUsageNanos = cpuUsageReader.nextLong();
+            }
+            if (cpuQuotaReader.read()) {
+                // -1 when there is no quota
+                cpuQuotaMicros = cpuQuotaReader.nextLong();
+            }
+            if (cpuPeriodReader.read()) {
+                cpuPeriodMicros = cpuPeriodReader.nextLong();
+            }
+            if (hasStat) {
+                periods = cpuStatReader.getValue("nr_periods");
+                throttledPeriods = cpuStatReader.getValue("nr_throttled");
+                throttledNanos = cpuStatReader.getValue("throttled_time");
+            }
+        }
+        return cpuUsageNanos >= 0;
+    }
+
+    /**
+     * Refreshes the memory usage and limit values.
+     * @return true if the memory usage could be read
+     */
+    boolean readMemory() {
+        memoryUsageBytes = -1;
+        memoryLimitBytes = -1;
+        inactiveFileBytes = -1;
+
+        if (memoryUsageReader.read()) {
+            memoryUsageBytes = memoryUsageReader.nextLong();
+        }
+        if (memoryLimitReader.read()) {
+            memoryLimitBytes = memoryLimitReader.nextLong();
+        }
+        if (memoryStatReader.read()) {
+            if (version == Version.V1) {
+                // the hierarchical value, which includes the child cgroups the same way memory.usage_in_bytes does
+                inactiveFileBytes = memoryStatReader.getValue("total_inactive_file");
+            }
+            if (inactiveFileBytes < 0) {
+                inactiveFileBytes = memoryStatReader.getValue("inactive_file");
+            }
+        }
+        return memoryUsageBytes >= 0;
+    }
+
+    long getCpuUsageNanos() {
+        return cpuUsageNanos;
+    }
+
+    /**
+     * @return The number of cpus the quota allows, or -1 if there is no quota.
+     */
+    double getCpuLimit() {
+        if (cpuQuotaMicros <= 0 || cpuQuotaMicros == Long.MAX_VALUE || cpuPeriodMicros <= 0) {
+            return -1;
+        }
+        return (double) cpuQuotaMicros / cpuPeriodMicros;
+    }
+
+    long getPeriods() {
+        return periods;
+    }
+
+    long getThrottledPeriods() {
+        return throttledPeriods;
+    }
+
+    long getThrottledNanos() {
+        return throttledNanos;
+    }
+
+    long getMemoryUsageBytes() {
+        return memoryUsageBytes;
+    }
+
+    /**
+     * @return The memory limit, or -1 if there is none. cgroup v1 reports a page aligned Long.MAX_VALUE when there is no limit.
+     */
+    long getMemoryLimitBytes() {
+        if (memoryLimitBytes < 0 || memoryLimitBytes >= Long.MAX_VALUE / 2) {
+            return -1;
+        }
+        return memoryLimitBytes;
+    }
+
+    /**
+     * The working set is the usage minus the inactive page cache, which the kernel reclaims before it
+     * kills the container. This is the value the kubelet and 'docker stats' compare against the limit.
+     * @return The memory working set, or -1 if it could not be read
+     */
+    long getMemoryWorkingSetBytes() {
+        if (memoryUsageBytes < 0) {
+            return -1;
+        }
+        if (inactiveFileBytes <= 0) {
+            return memoryUsageBytes;
+        }
+        return Math.max(0, memoryUsageBytes - inactiveFileBytes);
+    }
+
+    private static long microsToNanos(long micros) {
+        return micros < 0 ? -1 : micros * 1000;
+    }
+}
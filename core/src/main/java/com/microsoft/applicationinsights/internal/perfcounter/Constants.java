@@ -48,6 +48,13 @@ public final class Constants {
     public final static String PROCESS_IO_PC_METRIC_NAME = "\\Process(??APP_WIN32_PROC??)\\IO Data Bytes/sec";
     public final static String PROCESS_IO_PC_COUNTER_NAME = "IO Data Bytes/sec";
 
+    public final static String CONTAINER_CPU_PC_ID = PERFORMANCE_COUNTER_PREFIX + "ContainerCpuPerformanceCounter";
+    public final static String CONTAINER_CPU_QUOTA_PC_METRIC_NAME = "\\Container\\% CPU Quota Used";
+    public final static String CONTAINER_CPU_THROTTLED_PC_METRIC_NAME = "\\Container\\CPU Throttled Periods";
+
+    public final static String CONTAINER_MEMORY_PC_ID = PERFORMANCE_COUNTER_PREFIX + "ContainerMemoryPerformanceCounter";
+    public final static String CONTAINER_MEMORY_WORKING_SET_PC_METRIC_NAME = "\\Container\\Memory Working Set";
+
     public final static String INSTANCE_NAME_TOTAL = "_Total";
 
     public final static String PROCESS_CATEGORY = "Process";
@@ -0,0 +1,109 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.microsoft.applicationinsights.internal.perfcounter.Constants.CONTAINER_CPU_QUOTA_PC_METRIC_NAME;
+import static com.microsoft.applicationinsights.internal.perfcounter.Constants.CONTAINER_CPU_THROTTLED_PC_METRIC_NAME;
+
+/**
+ * The class supplies the cpu usage of the container the process runs in, relative to the container's cpu quota
+ * (or to the available processors when there is no quota), and the number of periods in which the container was throttled.
+ *
+ * Unlike the '\Processor(_Total)' counter, which reports the load of the whole host, these values tell whether
+ * the container itself is starved by its own limits.
+ */
+final class ContainerCpuPerformanceCounter extends AbstractPerformanceCounter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContainerCpuPerformanceCounter.class);
+
+    private final CGroupReader reader;
+    private final int availableProcessors;
+
+    private long prevCpuUsageNanos = -1;
+    private long prevThrottledPeriods = -1;
+    private long prevCollectionInNanos;
+
+    ContainerCpuPerformanceCounter(CGroupReader reader) {
+        this(reader, Runtime.getRuntime().availableProcessors());
+    }
+
+    ContainerCpuPerformanceCounter(CGroupReader reader, int availableProcessors) {
+        this.reader = reader;
+        this.availableProcessors = availableProcessors;
+    }
+
+    @Override
+    public String getId() {
+        return Constants.CONTAINER_CPU_PC_ID;
+    }
+
+    @Override
+    public void report(TelemetryClient telemetryClient) {
+        report(telemetryClient, System.nanoTime());
+    }
+
+    void report(TelemetryClient telemetryClient, long currentCollectionInNanos) {
+        if (!reader.readCpu()) {
+            logger.trace("Performance Counter {}: could not read the cgroup cpu usage", getId());
+            return;
+        }
+        long cpuUsageNanos = reader.getCpuUsageNanos();
+        long throttledPeriods = reader.getThrottledPeriods();
+
+        if (prevCpuUsageNanos >= 0 && currentCollectionInNanos > prevCollectionInNanos) {
+            double cpuLimit = reader.getCpuLimit();
+            if (cpuLimit <= 0) {
+                cpuLimit = availableProcessors;
+            }
+            double value = calculateQuotaUsage(cpuUsageNanos - prevCpuUsageNanos, currentCollectionInNanos - prevCollectionInNanos, cpuLimit);
+
+            logger.trace("Sending Performance Counter: {}: {}", CONTAINER_CPU_QUOTA_PC_METRIC_NAME, value);
+            telemetryClient.track(new MetricTelemetry(CONTAINER_CPU_QUOTA_PC_METRIC_NAME, value));
+
+            if (throttledPeriods >= 0 && prevThrottledPeriods >= 0) {
+                long throttled = Math.max(0, throttledPeriods - prevThrottledPeriods);
+
+                logger.trace("Sending Performance Counter: {}: {}", CONTAINER_CPU_THROTTLED_PC_METRIC_NAME, throttled);
+                telemetryClient.track(new MetricTelemetry(CONTAINER_CPU_THROTTLED_PC_METRIC_NAME, throttled));
+            }
+        }
+
+        prevCpuUsageNanos = cpuUsageNanos;
+        prevThrottledPeriods = throttledPeriods;
+        prevCollectionInNanos = currentCollectionInNanos;
+    }
+
+    /**
+     * @return The percentage of the cpu limit that was used, a container that used all of its quota reports 100.
+     */
+    static double calculateQuotaUsage(long cpuUsageNanos, long elapsedNanos, double cpuLimit) {
+        if (cpuUsageNanos <= 0 || elapsedNanos <= 0) {
+            return 0.0;
+        }
+        return 100.0 * cpuUsageNanos / (elapsedNanos * cpuLimit);
+    }
+}
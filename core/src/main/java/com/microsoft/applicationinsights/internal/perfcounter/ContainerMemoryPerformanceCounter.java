@@ -21,55 +21,41 @@
 
 package com.microsoft.applicationinsights.internal.perfcounter;
 
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static com.microsoft.applicationinsights.internal.perfcounter.Constants.CONTAINER_MEMORY_WORKING_SET_PC_METRIC_NAME;
+
 /**
- * Created by gupele on 3/16/2015.
+ * The class supplies the memory working set of the container the process runs in,
+ * which is the value the container's memory limit is enforced against.
  */
-final class UnixProcessIOtParser {
-
-    private static final Logger logger = LoggerFactory.getLogger(UnixProcessIOtParser.class);
+final class ContainerMemoryPerformanceCounter extends AbstractPerformanceCounter {
 
-    private static final String READ_BYTES_PART = "read_bytes:";
-    private static final String WRITE_BYTES_PART = "write_bytes:";
+    private static final Logger logger = LoggerFactory.getLogger(ContainerMemoryPerformanceCounter.class);
 
-    private UnixParsingState state = new UnixParsingState(2);
-    private boolean readBytesDone = false;
-    private boolean writeBytesDone = false;
+    private final CGroupReader reader;
 
-    boolean done() {
-        return state.getDoneCounter() == 0;
+    ContainerMemoryPerformanceCounter(CGroupReader reader) {
+        this.reader = reader;
     }
 
-    double getValue() {
-        return state.getReturnValue();
+    @Override
+    public String getId() {
+        return Constants.CONTAINER_MEMORY_PC_ID;
     }
 
-    void process(String line) {
-        if (!readBytesDone && parseValue(line, READ_BYTES_PART)) {
-            readBytesDone = true;
+    @Override
+    public void report(TelemetryClient telemetryClient) {
+        if (!reader.readMemory()) {
+            logger.trace("Performance Counter {}: could not read the cgroup memory usage", getId());
             return;
         }
-        if (!writeBytesDone && parseValue(line, WRITE_BYTES_PART)) {
-            writeBytesDone = true;
-        }
-    }
-
-    private boolean parseValue(String line, String part) {
-        int index = line.indexOf(part);
-        if (index != -1) {
-            String doubleValueAsString = line.substring(index + part.length());
-            try {
-                state.addToReturnValue(Double.parseDouble(doubleValueAsString.trim()));
-                state.decrementDoneCounter();
-                return true;
-            } catch (Exception e) {
-                logger.error("Error in parsing value of UnixProcess counter");
-                logger.trace("Error in parsing value of UnixProcess counter", e);
-            }
-        }
+        long workingSet = reader.getMemoryWorkingSetBytes();
 
-        return false;
+        logger.trace("Sending Performance Counter: {}: {}", CONTAINER_MEMORY_WORKING_SET_PC_METRIC_NAME, workingSet);
+        telemetryClient.track(new MetricTelemetry(CONTAINER_MEMORY_WORKING_SET_PC_METRIC_NAME, workingSet));
     }
 }
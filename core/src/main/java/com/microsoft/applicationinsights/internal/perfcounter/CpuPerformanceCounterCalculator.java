@@ -42,12 +42,14 @@ public final class CpuPerformanceCounterCalculator {
 
     private long prevUpTime, prevProcessCpuTime;
 
+    private final com.sun.management.OperatingSystemMXBean sunOsBean;
+
     private ObjectName osBean;
 
     public CpuPerformanceCounterCalculator() {
         OperatingSystemMXBean operatingSystemMXBean = ManagementFactory.getOperatingSystemMXBean();
         numberOfCpus = operatingSystemMXBean.getAvailableProcessors();
-
+        sunOsBean = getSunOperatingSystemMXBean(operatingSystemMXBean);
     }
 
     public Double getProcessCpuUsage() {
@@ -75,10 +77,25 @@ public final class CpuPerformanceCounterCalculator {
     }
 
     private long getProcessCpuTime() throws Exception {
+        if (sunOsBean != null) {
+            return sunOsBean.getProcessCpuTime();
+        }
+        // not a HotSpot/OpenJ9 compatible jvm, go through the platform mbean server
         MBeanServer bsvr = ManagementFactory.getPlatformMBeanServer();
         if (osBean == null) {
             osBean = ObjectName.getInstance(ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME);
         }
         return (Long) bsvr.getAttribute(osBean, "ProcessCpuTime");
     }
+
+    private static com.sun.management.OperatingSystemMXBean getSunOperatingSystemMXBean(OperatingSystemMXBean operatingSystemMXBean) {
+        try {
+            if (operatingSystemMXBean instanceof com.sun.management.OperatingSystemMXBean) {
+                return (com.sun.management.OperatingSystemMXBean) operatingSystemMXBean;
+            }
+        } catch (LinkageError e) {
+            logger.debug("com.sun.management.OperatingSystemMXBean is not available: {}", e.toString());
+        }
+        return null;
+    }
 }
@@ -18,52 +18,39 @@
  * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
  * DEALINGS IN THE SOFTWARE.
  */
-
 package com.microsoft.applicationinsights.internal.perfcounter;
 
-/**
- * Created by gupele on 3/16/2015.
- */
-@SuppressWarnings("deprecation")
-public class UnixParsingState {
-    // TODO v3 fields private
-    /**
-     * @deprecated use {@link #getDoneCounter()} and {@link #setDoneCounter(int)}
-     */
-    @Deprecated
-    public int doneCounter;
-
-    /**
-     * @deprecated use {@link #getDoneCounter()} and {@link #setDoneCounter(int)}
-     */
-    @Deprecated
-    public double returnValue;
+import java.util.Date;
 
-    public UnixParsingState(int doneCounter) {
-        this.doneCounter = doneCounter;
-    }
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
 
-    public int getDoneCounter() {
-        return doneCounter;
-    }
-
-    public void setDoneCounter(int doneCounter) {
-        this.doneCounter = doneCounter;
-    }
+/**
+ * Handed to performance counters during a collection cycle, so that every sample of the cycle carries the
+ * timestamp of the interval boundary instead of the moment the (possibly slow) counter got around to reporting.
+ */
+final class IntervalTelemetryClient extends TelemetryClient {
 
-    public void decrementDoneCounter() {
-        this.doneCounter--;
-    }
+    private final TelemetryClient delegate;
+    private final long intervalTimestamp;
 
-    public double getReturnValue() {
-        return returnValue;
+    IntervalTelemetryClient(TelemetryClient delegate, long intervalTimestamp) {
+        super(TelemetryConfiguration.getActive());
+        this.delegate = delegate;
+        this.intervalTimestamp = intervalTimestamp;
     }
 
-    public void setReturnValue(double returnValue) {
-        this.returnValue = returnValue;
+    @Override
+    public void track(Telemetry telemetry) {
+        if (telemetry != null && telemetry.getTimestamp() == null) {
+            telemetry.setTimestamp(new Date(intervalTimestamp));
+        }
+        delegate.track(telemetry);
     }
 
-    public void addToReturnValue(double addend) {
-        this.returnValue += addend;
+    @Override
+    public void flush() {
+        delegate.flush();
     }
 }
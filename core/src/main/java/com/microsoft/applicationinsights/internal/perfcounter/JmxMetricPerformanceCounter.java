@@ -22,6 +22,7 @@
 package com.microsoft.applicationinsights.internal.perfcounter;
 
 import java.util.Collection;
+import java.util.Map;
 
 import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.internal.jmx.JmxAttributeData;
@@ -49,4 +50,13 @@ public final class JmxMetricPerformanceCounter extends AbstractJmxPerformanceCou
         MetricTelemetry telemetry = new MetricTelemetry(displayName, value);
         telemetryClient.track(telemetry);
     }
+
+    @Override
+    protected void send(TelemetryClient telemetryClient, String displayName, double value, Map<String, String> dimensions) {
+        logger.trace("Metric JMX: {}, {}, {}", displayName, value, dimensions);
+
+        MetricTelemetry telemetry = new MetricTelemetry(displayName, value);
+        telemetry.getProperties().putAll(dimensions);
+        telemetryClient.track(telemetry);
+    }
 }
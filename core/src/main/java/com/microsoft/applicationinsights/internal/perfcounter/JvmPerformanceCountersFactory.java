@@ -28,6 +28,8 @@ import java.util.HashSet;
 import com.microsoft.applicationinsights.internal.perfcounter.jvm.DeadLockDetectorPerformanceCounter;
 import com.microsoft.applicationinsights.internal.perfcounter.jvm.GCPerformanceCounter;
 import com.microsoft.applicationinsights.internal.perfcounter.jvm.JvmHeapMemoryUsedPerformanceCounter;
+import com.microsoft.applicationinsights.internal.perfcounter.jvm.LockContentionPerformanceCounter;
+import com.microsoft.applicationinsights.internal.perfcounter.jvm.ThreadCpuPerformanceCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,6 +44,8 @@ public class JvmPerformanceCountersFactory implements PerformanceCountersFactory
 
     private boolean isEnabled = true;
     private HashSet<String> disabledJvmPCs = new HashSet<String>();
+    // counters that are off unless explicitly enabled
+    private HashSet<String> enabledOptInJvmPCs = new HashSet<String>();
 
     @Override
     public Collection<PerformanceCounter> getPerformanceCounters() {
@@ -50,6 +54,9 @@ public class JvmPerformanceCountersFactory implements PerformanceCountersFactory
             addDeadLockDetector(pcs);
             addJvmMemoryPerformanceCounter(pcs);
             addGCPerformanceCounter(pcs);
+            addThreadCpuPerformanceCounter(pcs);
+            addLockContentionPerformanceCounter(pcs);
+            addPipelinePerformanceCounter(pcs);
         } else {
             logger.trace("JvmPerformanceCountersFactory is disabled");
         }
@@ -126,6 +133,78 @@ public class JvmPerformanceCountersFactory implements PerformanceCountersFactory
         }
     }
 
+    private void addThreadCpuPerformanceCounter(ArrayList<PerformanceCounter> pcs) {
+        try {
+            if (!enabledOptInJvmPCs.contains(ThreadCpuPerformanceCounter.NAME)) {
+                return;
+            }
+
+            ThreadCpuPerformanceCounter tpc = new ThreadCpuPerformanceCounter();
+            if (!tpc.isSupported()) {
+                logger.trace("ThreadCpuPerformanceCounter is not supported");
+                return;
+            }
+
+            pcs.add(tpc);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                logger.error("Failed to create ThreadCpuPerformanceCounter", t);
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+    }
+
+    private void addLockContentionPerformanceCounter(ArrayList<PerformanceCounter> pcs) {
+        try {
+            if (!enabledOptInJvmPCs.contains(LockContentionPerformanceCounter.NAME)) {
+                return;
+            }
+
+            LockContentionPerformanceCounter lpc = new LockContentionPerformanceCounter();
+            if (!lpc.isSupported()) {
+                logger.trace("LockContentionPerformanceCounter is not supported");
+                return;
+            }
+
+            pcs.add(lpc);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                logger.error("Failed to create LockContentionPerformanceCounter", t);
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+    }
+
+    private void addPipelinePerformanceCounter(ArrayList<PerformanceCounter> pcs) {
+        try {
+            if (!enabledOptInJvmPCs.contains(PipelinePerformanceCounter.NAME)) {
+                return;
+            }
+
+            pcs.add(new PipelinePerformanceCounter());
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                logger.error("Failed to create PipelinePerformanceCounter", t);
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+    }
+
     public void setIsEnabled(boolean isEnabled) {
         this.isEnabled = isEnabled;
     }
@@ -134,4 +213,8 @@ public class JvmPerformanceCountersFactory implements PerformanceCountersFactory
         this.disabledJvmPCs = disabledJvmPCs;
     }
 
+    public void setEnabledOptInJvmPCs(HashSet<String> enabledOptInJvmPCs) {
+        this.enabledOptInJvmPCs = enabledOptInJvmPCs;
+    }
+
 }
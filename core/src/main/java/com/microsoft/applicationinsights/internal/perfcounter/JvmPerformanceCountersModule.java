@@ -30,6 +30,8 @@ import com.microsoft.applicationinsights.internal.config.PerformanceCountersXmlE
 import com.microsoft.applicationinsights.internal.perfcounter.jvm.DeadLockDetectorPerformanceCounter;
 import com.microsoft.applicationinsights.internal.perfcounter.jvm.GCPerformanceCounter;
 import com.microsoft.applicationinsights.internal.perfcounter.jvm.JvmHeapMemoryUsedPerformanceCounter;
+import com.microsoft.applicationinsights.internal.perfcounter.jvm.LockContentionPerformanceCounter;
+import com.microsoft.applicationinsights.internal.perfcounter.jvm.ThreadCpuPerformanceCounter;
 
 /**
  * The class loads the relevant Jvm PCs
@@ -70,6 +72,20 @@ import com.microsoft.applicationinsights.internal.perfcounter.jvm.JvmHeapMemoryU
  * }
  * </pre>
  *
+ * Some Jvm counters are more expensive and are only created when they are explicitly enabled:
+ *
+ * <pre>
+ * {@code
+ *     <PerformanceCounters>
+ *         <Jvm>
+ *             <JvmPC name="ThreadCpu" enabled="true"/>
+ *             <JvmPC name="LockContention" enabled="true"/>
+ *             <JvmPC name="PipelineMetrics" enabled="true"/>
+ *         </Jvm>
+ *     </PerformanceCounters>
+ * }
+ * </pre>
+ *
  * Created by gupele on 8/7/2016.
  */
 public final class JvmPerformanceCountersModule extends AbstractPerformanceCounterModule implements PerformanceCounterConfigurationAware {
@@ -80,6 +96,12 @@ public final class JvmPerformanceCountersModule extends AbstractPerformanceCount
             GCPerformanceCounter.NAME
     };
 
+    private String[] optInJvmPCNames = {
+            ThreadCpuPerformanceCounter.NAME,
+            LockContentionPerformanceCounter.NAME,
+            PipelinePerformanceCounter.NAME
+    };
+
     public JvmPerformanceCountersModule() throws Exception {
         this(new JvmPerformanceCountersFactory());
     }
@@ -115,5 +137,14 @@ public final class JvmPerformanceCountersModule extends AbstractPerformanceCount
             }
         }
         f.setDisabledJvmPCs(disabledJvmPCs);
+
+        HashSet<String> enabledOptInJvmPCs = new HashSet<String>();
+        for (String jvmPcName : optInJvmPCNames) {
+            JvmXmlElement pc = jvmPcsMap.get(jvmPcName);
+            if (pc != null && pc.isEnabled()) {
+                enabledOptInJvmPCs.add(jvmPcName);
+            }
+        }
+        f.setEnabledOptInJvmPCs(enabledOptInJvmPCs);
     }
 }
@@ -21,10 +21,20 @@
 
 package com.microsoft.applicationinsights.internal.perfcounter;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
@@ -32,6 +42,7 @@ import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.internal.shutdown.Stoppable;
 import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +58,11 @@ import org.slf4j.LoggerFactory;
  * The container will go through all the registered Performance Counters and will trigger their 'report' method.
  * By default the container will start reporting after 5 minutes and will continue doing so every 1 minute.
  * <p>
+ * Counters are collected concurrently, so a slow counter (e.g. an app server MBean that takes seconds to answer)
+ * does not delay the others. A counter that does not finish within its timeout, or that throws, is skipped for an
+ * exponentially growing number of intervals. Collections are scheduled on interval boundaries and the samples of a
+ * cycle are all stamped with the boundary time.
+ * <p>
  * The user of this class can add (register), remove (unregister) a performance counter while the container is working.
  * <p>
  * The container will be stopped automatically when the application exists.
@@ -66,8 +82,18 @@ public enum PerformanceCounterContainer implements Stoppable {
     public final static long DEFAULT_COLLECTION_FREQUENCY_IN_SEC = 60;
     private final static long MIN_COLLECTION_FREQUENCY_IN_SEC = 1;
 
+    // A counter gets at most half of the collection interval, and never more than this, to report.
+    private final static long MAX_COUNTER_TIMEOUT_IN_MILLIS = 10000;
+
+    // A failing counter is skipped for 1, 3, 7, ... intervals, up to this many.
+    private final static int MAX_BACKOFF_INTERVALS = 31;
+
+    final static String COLLECTION_DURATION_METRIC_NAME = "Performance counter collection duration";
+
     private final ConcurrentMap<String, PerformanceCounter> performanceCounters = new ConcurrentHashMap<String, PerformanceCounter>();
 
+    private final ConcurrentMap<String, CollectionState> collectionStates = new ConcurrentHashMap<String, CollectionState>();
+
     private volatile boolean initialized = false;
 
     private long startCollectingDelayInMillis = START_COLLECTING_DELAY_IN_MILLIS;
@@ -77,6 +103,13 @@ public enum PerformanceCounterContainer implements Stoppable {
 
     private ScheduledThreadPoolExecutor threads;
 
+    private ThreadPoolExecutor collectionThreads;
+
+    // only accessed from the scheduling thread (and from tests)
+    private long collectionCycle;
+
+    private volatile boolean collectionDurationTelemetryEnabled;
+
     /**
      * /**
      * Registers a {@link com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounter} that can collect data.
@@ -119,6 +152,7 @@ public enum PerformanceCounterContainer implements Stoppable {
 
         logger.trace("Un-registering PC '{}'", id);
         performanceCounters.remove(id);
+        collectionStates.remove(id);
     }
 
     /**
@@ -151,6 +185,7 @@ public enum PerformanceCounterContainer implements Stoppable {
         }
 
         ThreadPoolUtils.stop(threads, timeout, timeUnit);
+        ThreadPoolUtils.stop(collectionThreads, timeout, timeUnit);
         initialized = false;
     }
 
@@ -194,8 +229,19 @@ public enum PerformanceCounterContainer implements Stoppable {
         this.startCollectingDelayInMillis = startCollectingDelayInMillis;
     }
 
+    /**
+     * Sets whether the time it took to collect each performance counter is reported as a metric
+     * named {@value #COLLECTION_DURATION_METRIC_NAME}, with the counter id and the outcome as properties.
+     *
+     * @param enabled True to report collection durations.
+     */
+    public void setCollectionDurationTelemetryEnabled(boolean enabled) {
+        this.collectionDurationTelemetryEnabled = enabled;
+    }
+
     void clear() {
         performanceCounters.clear();
+        collectionStates.clear();
     }
 
     /**
@@ -223,34 +269,202 @@ public enum PerformanceCounterContainer implements Stoppable {
                 new Runnable() {
                     @Override
                     public void run() {
-                        if (telemetryClient == null) {
-                            telemetryClient = new TelemetryClient();
-                        }
-
-                        for (PerformanceCounter performanceCounter : performanceCounters.values()) {
+                        try {
+                            collect();
+                        } catch (ThreadDeath td) {
+                            throw td;
+                        } catch (Throwable t) {
                             try {
-                                performanceCounter.report(telemetryClient);
+                                logger.error("Exception while collecting performance counters", t);
                             } catch (ThreadDeath td) {
                                 throw td;
-                            } catch (Throwable t) {
-                                try {
-                                    logger.error("Exception while reporting performance counter '{}'", performanceCounter.getId(), t);
-                                } catch (ThreadDeath td) {
-                                    throw td;
-                                } catch (Throwable t2) {
-                                    // chomp
-                                }
+                            } catch (Throwable t2) {
+                                // chomp
                             }
                         }
                     }
                 },
-                startCollectingDelayInMillis,
+                getAlignedDelay(System.currentTimeMillis(), startCollectingDelayInMillis, collectionFrequencyInMS),
                 collectionFrequencyInMS,
                 TimeUnit.MILLISECONDS);
     }
 
+    private void collect() {
+        if (telemetryClient == null) {
+            telemetryClient = new TelemetryClient();
+        }
+        collect(telemetryClient, TimeUnit.MILLISECONDS.toNanos(Math.min(collectionFrequencyInMS / 2, MAX_COUNTER_TIMEOUT_IN_MILLIS)));
+    }
+
+    /**
+     * Runs one collection cycle, this is only called directly by tests.
+     */
+    void collect(TelemetryClient telemetryClient, final long timeoutInNanos) {
+        final long cycle = ++collectionCycle;
+        final TelemetryClient intervalClient = new IntervalTelemetryClient(telemetryClient,
+                getIntervalBoundary(System.currentTimeMillis(), collectionFrequencyInMS));
+        final long deadline = System.nanoTime() + timeoutInNanos;
+
+        List<PendingCollection> pendingCollections = new ArrayList<PendingCollection>();
+        for (PerformanceCounter performanceCounter : performanceCounters.values()) {
+            CollectionState state = getCollectionState(performanceCounter.getId());
+            if (cycle < state.skipUntilCycle) {
+                continue;
+            }
+            if (!state.inFlight.compareAndSet(false, true)) {
+                onCollectionFailed(performanceCounter, state, cycle, "is still running from a previous interval", null);
+                continue;
+            }
+            try {
+                Future<Long> future = collectionThreads.submit(new CounterCollection(performanceCounter, state, intervalClient));
+                pendingCollections.add(new PendingCollection(performanceCounter, state, future));
+            } catch (RejectedExecutionException e) {
+                // the container is being stopped
+                state.inFlight.set(false);
+                return;
+            }
+        }
+
+        for (PendingCollection pending : pendingCollections) {
+            try {
+                long durationInNanos = pending.future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                onCollectionSucceeded(pending.performanceCounter, pending.state);
+                reportCollectionDuration(intervalClient, pending.performanceCounter, durationInNanos, "Success");
+            } catch (TimeoutException e) {
+                // the collection is left running (and the counter skipped until it completes), interrupting
+                // counters in the middle of JMX or file system calls is not worth the risk
+                onCollectionFailed(pending.performanceCounter, pending.state, cycle, "timed out", null);
+                reportCollectionDuration(intervalClient, pending.performanceCounter, timeoutInNanos, "Timeout");
+            } catch (ExecutionException e) {
+                onCollectionFailed(pending.performanceCounter, pending.state, cycle, "failed", e.getCause());
+                reportCollectionDuration(intervalClient, pending.performanceCounter, -1, "Failure");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private CollectionState getCollectionState(String id) {
+        CollectionState state = collectionStates.get(id);
+        if (state == null) {
+            state = new CollectionState();
+            CollectionState prev = collectionStates.putIfAbsent(id, state);
+            if (prev != null) {
+                state = prev;
+            }
+        }
+        return state;
+    }
+
+    private void onCollectionSucceeded(PerformanceCounter performanceCounter, CollectionState state) {
+        if (state.consecutiveFailures > 0) {
+            logger.trace("Performance counter '{}' recovered after {} failed collections", performanceCounter.getId(), state.consecutiveFailures);
+        }
+        state.consecutiveFailures = 0;
+    }
+
+    private void onCollectionFailed(PerformanceCounter performanceCounter, CollectionState state, long cycle, String reason, Throwable t) {
+        state.consecutiveFailures++;
+        int skippedIntervals = Math.min((1 << Math.min(state.consecutiveFailures - 1, 30)) - 1, MAX_BACKOFF_INTERVALS);
+        state.skipUntilCycle = cycle + 1 + skippedIntervals;
+        try {
+            if (state.consecutiveFailures == 1) {
+                if (t != null) {
+                    logger.error("Exception while reporting performance counter '{}'", performanceCounter.getId(), t);
+                } else {
+                    logger.warn("Performance counter '{}' {}", performanceCounter.getId(), reason);
+                }
+            } else {
+                logger.trace("Performance counter '{}' {} ({} times in a row), skipping it for {} intervals",
+                        performanceCounter.getId(), reason, state.consecutiveFailures, skippedIntervals);
+            }
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t2) {
+            // chomp
+        }
+    }
+
+    private void reportCollectionDuration(TelemetryClient intervalClient, PerformanceCounter performanceCounter, long durationInNanos, String status) {
+        if (!collectionDurationTelemetryEnabled) {
+            return;
+        }
+        MetricTelemetry telemetry = new MetricTelemetry(COLLECTION_DURATION_METRIC_NAME,
+                durationInNanos < 0 ? 0 : durationInNanos / 1000000.0);
+        telemetry.getProperties().put("counter", performanceCounter.getId());
+        telemetry.getProperties().put("status", status);
+        intervalClient.track(telemetry);
+    }
+
+    /**
+     * @return the interval boundary closest to the given time
+     */
+    static long getIntervalBoundary(long timeInMillis, long intervalInMillis) {
+        return (timeInMillis + intervalInMillis / 2) / intervalInMillis * intervalInMillis;
+    }
+
+    /**
+     * @return the smallest delay that is at least the given minimum and ends on an interval boundary
+     */
+    static long getAlignedDelay(long nowInMillis, long minDelayInMillis, long intervalInMillis) {
+        long remainder = (nowInMillis + minDelayInMillis) % intervalInMillis;
+        return remainder == 0 ? minDelayInMillis : minDelayInMillis + intervalInMillis - remainder;
+    }
+
+    private static final class CollectionState {
+        // true while a collection of the counter is running, so a hung counter never occupies more than one thread
+        private final AtomicBoolean inFlight = new AtomicBoolean();
+
+        // only accessed from the scheduling thread
+        private int consecutiveFailures;
+        private long skipUntilCycle;
+    }
+
+    private static final class CounterCollection implements Callable<Long> {
+        private final PerformanceCounter performanceCounter;
+        private final CollectionState state;
+        private final TelemetryClient telemetryClient;
+
+        private CounterCollection(PerformanceCounter performanceCounter, CollectionState state, TelemetryClient telemetryClient) {
+            this.performanceCounter = performanceCounter;
+            this.state = state;
+            this.telemetryClient = telemetryClient;
+        }
+
+        @Override
+        public Long call() {
+            long start = System.nanoTime();
+            try {
+                performanceCounter.report(telemetryClient);
+                return System.nanoTime() - start;
+            } finally {
+                state.inFlight.set(false);
+            }
+        }
+    }
+
+    private static final class PendingCollection {
+        private final PerformanceCounter performanceCounter;
+        private final CollectionState state;
+        private final Future<Long> future;
+
+        private PendingCollection(PerformanceCounter performanceCounter, CollectionState state, Future<Long> future) {
+            this.performanceCounter = performanceCounter;
+            this.state = state;
+            this.future = future;
+        }
+    }
+
     private void createThreadToCollect() {
         threads = new ScheduledThreadPoolExecutor(1);
         threads.setThreadFactory(ThreadPoolUtils.createDaemonThreadFactory(PerformanceCounterContainer.class));
+
+        // threads are only added when all existing ones are busy, and since a counter is never collected twice
+        // concurrently there can't be more threads than counters; idle threads are kept across a couple of intervals
+        collectionThreads = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                Math.max(60000, 2 * collectionFrequencyInMS), TimeUnit.MILLISECONDS,
+                new SynchronousQueue<Runnable>(),
+                ThreadPoolUtils.createDaemonThreadFactory(PerformanceCounterContainer.class, "collector"));
     }
 }
@@ -0,0 +1,148 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.channel.common.PipelineMetrics;
+import com.microsoft.applicationinsights.internal.util.LatencyHistogram;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+
+/**
+ * The class reports the {@link PipelineMetrics} of the telemetry pipeline as metrics.
+ *
+ * The counts are reported as the change since the previous cycle, and the rest (buffered items, pending sends,
+ * disk backlog) as their current value. The compression ratio and the http latency are computed over the interval.
+ *
+ * The metrics are also registered in the platform MBean server, on the first collection rather than at startup,
+ * since the platform MBean server must not be initialized before application servers such as JBoss install their own.
+ *
+ * This counter is not enabled by default, it is enabled like this:
+ *
+ * <pre>
+ * {@code
+ *     <PerformanceCounters>
+ *         <Jvm>
+ *             <JvmPC name="PipelineMetrics" enabled="true"/>
+ *         </Jvm>
+ *     </PerformanceCounters>
+ * }
+ * </pre>
+ */
+public final class PipelinePerformanceCounter implements PerformanceCounter {
+
+    public final static String NAME = "PipelineMetrics";
+
+    public final static String ITEMS_SENT_METRIC_NAME = "Telemetry Items Sent";
+    public final static String ITEMS_DROPPED_METRIC_NAME = "Telemetry Items Dropped";
+    public final static String SENDS_REJECTED_METRIC_NAME = "Telemetry Sends Rejected";
+    public final static String BUFFERED_ITEMS_METRIC_NAME = "Telemetry Buffered Items";
+    public final static String PENDING_SENDS_METRIC_NAME = "Telemetry Pending Sends";
+    public final static String COMPRESSION_RATIO_METRIC_NAME = "Telemetry Compression Ratio";
+    public final static String HTTP_REQUESTS_METRIC_NAME = "Telemetry Http Requests";
+    public final static String HTTP_THROTTLED_METRIC_NAME = "Telemetry Http Throttled";
+    public final static String HTTP_FAILURES_METRIC_NAME = "Telemetry Http Failures";
+    public final static String HTTP_LATENCY_METRIC_NAME = "Telemetry Http Latency";
+    public final static String BYTES_SENT_METRIC_NAME = "Telemetry Bytes Sent";
+    public final static String DISK_BACKLOG_METRIC_NAME = "Telemetry Disk Backlog Bytes";
+    public final static String TRANSMISSIONS_PERSISTED_METRIC_NAME = "Telemetry Transmissions Persisted";
+    public final static String TRANSMISSIONS_DROPPED_DISK_FULL_METRIC_NAME = "Telemetry Transmissions Dropped Disk Full";
+    public final static String BACKOFFS_METRIC_NAME = "Telemetry Backoffs";
+
+    private final PipelineMetrics metrics;
+
+    private boolean registerMBean;
+
+    private final Map<String, Long> previousCounts = new HashMap<String, Long>();
+
+    private LatencyHistogram.Snapshot previousHttpLatency;
+
+    public PipelinePerformanceCounter() {
+        this(PipelineMetrics.getInstance());
+        registerMBean = true;
+    }
+
+    // visible for testing
+    PipelinePerformanceCounter(PipelineMetrics metrics) {
+        this.metrics = metrics;
+        previousHttpLatency = metrics.getHttpLatencySnapshot();
+    }
+
+    @Override
+    public String getId() {
+        return "PipelinePerformanceCounter";
+    }
+
+    @Override
+    public void report(TelemetryClient telemetryClient) {
+        if (registerMBean) {
+            PipelineMetrics.registerMBean();
+            registerMBean = false;
+        }
+
+        reportDelta(telemetryClient, ITEMS_SENT_METRIC_NAME, metrics.getItemsSent());
+        reportDelta(telemetryClient, ITEMS_DROPPED_METRIC_NAME, metrics.getItemsDropped());
+        reportDelta(telemetryClient, SENDS_REJECTED_METRIC_NAME, metrics.getSendsRejected());
+        telemetryClient.track(new MetricTelemetry(BUFFERED_ITEMS_METRIC_NAME, metrics.getBufferedItems()));
+        telemetryClient.track(new MetricTelemetry(PENDING_SENDS_METRIC_NAME, metrics.getPendingSends()));
+
+        long uncompressedBytes = delta("Uncompressed Bytes", metrics.getUncompressedBytes());
+        long compressedBytes = delta("Compressed Bytes", metrics.getCompressedBytes());
+        if (compressedBytes > 0) {
+            telemetryClient.track(new MetricTelemetry(COMPRESSION_RATIO_METRIC_NAME, (double) uncompressedBytes / compressedBytes));
+        }
+
+        reportDelta(telemetryClient, HTTP_REQUESTS_METRIC_NAME, metrics.getHttpRequests());
+        reportDelta(telemetryClient, HTTP_THROTTLED_METRIC_NAME, metrics.getHttpThrottled());
+        reportDelta(telemetryClient, HTTP_FAILURES_METRIC_NAME,
+                metrics.getHttpServerErrors() + metrics.getHttpOtherErrors() + metrics.getHttpExceptions());
+        reportDelta(telemetryClient, BYTES_SENT_METRIC_NAME, metrics.getBytesSent());
+        LatencyHistogram.Snapshot httpLatency = metrics.getHttpLatencySnapshot();
+        LatencyHistogram.Snapshot intervalHttpLatency = httpLatency.since(previousHttpLatency);
+        previousHttpLatency = httpLatency;
+        if (intervalHttpLatency.getTotalCount() > 0) {
+            MetricTelemetry telemetry = new MetricTelemetry(HTTP_LATENCY_METRIC_NAME, intervalHttpLatency.getPercentile(50));
+            telemetry.getProperties().put("P95", Double.toString(intervalHttpLatency.getPercentile(95)));
+            telemetry.getProperties().put("P99", Double.toString(intervalHttpLatency.getPercentile(99)));
+            telemetryClient.track(telemetry);
+        }
+
+        telemetryClient.track(new MetricTelemetry(DISK_BACKLOG_METRIC_NAME, metrics.getDiskBacklogBytes()));
+        reportDelta(telemetryClient, TRANSMISSIONS_PERSISTED_METRIC_NAME, metrics.getTransmissionsPersisted());
+        reportDelta(telemetryClient, TRANSMISSIONS_DROPPED_DISK_FULL_METRIC_NAME, metrics.getTransmissionsDroppedDiskFull());
+
+        MetricTelemetry backoffs = new MetricTelemetry(BACKOFFS_METRIC_NAME, delta(BACKOFFS_METRIC_NAME, metrics.getBackoffs()));
+        backoffs.getProperties().put("TransmissionPolicy", metrics.getTransmissionPolicy());
+        telemetryClient.track(backoffs);
+    }
+
+    private void reportDelta(TelemetryClient telemetryClient, String name, long count) {
+        telemetryClient.track(new MetricTelemetry(name, delta(name, count)));
+    }
+
+    private long delta(String name, long count) {
+        Long previous = previousCounts.put(name, count);
+        return previous == null ? count : count - previous;
+    }
+}
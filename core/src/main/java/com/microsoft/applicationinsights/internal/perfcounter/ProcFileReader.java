@@ -0,0 +1,249 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads small pseudo files such as the ones under '/proc' and '/sys/fs/cgroup' into a reused buffer,
+ * and parses their numeric content without creating intermediate strings.
+ *
+ * The file is kept open between reads; the kernel regenerates the content of these files whenever
+ * they are read from offset zero. On any failure the file is closed and reopened on the next read.
+ *
+ * The class is not thread safe, every performance counter is expected to hold its own instances.
+ */
+final class ProcFileReader implements Closeable {
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    // procfs and cgroupfs files never come close to this, it only protects against unexpected files
+    private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    private final File file;
+
+    private RandomAccessFile raf;
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    private int length;
+    private int position;
+
+    ProcFileReader(File file) {
+        this.file = file;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    boolean exists() {
+        return file.canRead();
+    }
+
+    /**
+     * Reads the whole content of the file into the buffer, and moves the cursor to its start.
+     * @return true on success, false if the file could not be read
+     */
+    boolean read() {
+        length = 0;
+        position = 0;
+        try {
+            if (raf == null) {
+                raf = new RandomAccessFile(file, "r");
+            } else {
+                raf.seek(0);
+            }
+            while (true) {
+                int count = raf.read(buffer, length, buffer.length - length);
+                if (count < 0) {
+                    return true;
+                }
+                length += count;
+                if (length == buffer.length) {
+                    if (buffer.length >= MAX_BUFFER_SIZE) {
+                        return true;
+                    }
+                    byte[] larger = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, larger, 0, length);
+                    buffer = larger;
+                }
+            }
+        } catch (IOException e) {
+            length = 0;
+            close();
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // chomp
+            }
+            raf = null;
+        }
+    }
+
+    /**
+     * Moves the cursor to the start of the buffer.
+     */
+    void rewind() {
+        position = 0;
+    }
+
+    boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Moves the cursor right after the first line that starts with the given key, searching from the start of the buffer.
+     * @param key The key to search for, e.g. 'read_bytes:'
+     * @return true if such a line was found
+     */
+    boolean seekKey(String key) {
+        int lineStart = 0;
+        int keyLength = key.length();
+        while (lineStart < length) {
+            if (lineStart + keyLength <= length && startsWith(lineStart, key)) {
+                int end = lineStart + keyLength;
+                // the key must be a whole token, 'nr_throttled' must not match 'nr_throttled_time'
+                if (end == length || isWhitespace(buffer[end]) || key.charAt(keyLength - 1) == ':') {
+                    position = end;
+                    return true;
+                }
+            }
+            while (lineStart < length && buffer[lineStart] != '\n') {
+                lineStart++;
+            }
+            lineStart++;
+        }
+        return false;
+    }
+
+    /**
+     * Moves the cursor to the start of the next line.
+     * @return false if there is no next line
+     */
+    boolean nextLine() {
+        while (position < length && buffer[position] != '\n') {
+            position++;
+        }
+        if (position >= length) {
+            return false;
+        }
+        position++;
+        return position < length;
+    }
+
+    /**
+     * Skips the next whitespace delimited token on the current line.
+     * @return false if there is no such token
+     */
+    boolean skipToken() {
+        skipSpaces();
+        if (position >= length || buffer[position] == '\n') {
+            return false;
+        }
+        while (position < length && !isWhitespace(buffer[position])) {
+            position++;
+        }
+        return true;
+    }
+
+    /**
+     * Parses the next whitespace delimited token on the current line as a non negative decimal number.
+     * The token 'max', which cgroup v2 uses for an unlimited value, is returned as {@link Long#MAX_VALUE}.
+     * @return the value, or -1 if there is no numeric token at the cursor
+     */
+    long nextLong() {
+        skipSpaces();
+        if (position >= length || buffer[position] == '\n') {
+            return -1;
+        }
+        if (startsWith(position, "max") && (position + 3 == length || isWhitespace(buffer[position + 3]))) {
+            position += 3;
+            return Long.MAX_VALUE;
+        }
+        boolean negative = false;
+        if (buffer[position] == '-') {
+            negative = true;
+            position++;
+        }
+        int start = position;
+        long value = 0;
+        while (position < length) {
+            byte b = buffer[position];
+            if (b < '0' || b > '9') {
+                break;
+            }
+            value = value * 10 + (b - '0');
+            position++;
+        }
+        if (position == start || (position < length && !isWhitespace(buffer[position]))) {
+            // not a number, skip the rest of the token so the next call does not see it again
+            while (position < length && !isWhitespace(buffer[position])) {
+                position++;
+            }
+            return -1;
+        }
+        // cgroup v1 uses -1 for an unlimited cfs quota
+        return negative ? -1 : value;
+    }
+
+    /**
+     * Finds the line that starts with the given key, and parses the number that follows it.
+     * @return the value, or -1 if the key or the number are missing
+     */
+    long getValue(String key) {
+        if (!seekKey(key)) {
+            return -1;
+        }
+        return nextLong();
+    }
+
+    private void skipSpaces() {
+        while (position < length && (buffer[position] == ' ' || buffer[position] == '\t')) {
+            position++;
+        }
+    }
+
+    private boolean startsWith(int offset, String s) {
+        if (offset + s.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (buffer[offset + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
@@ -93,6 +93,15 @@ final class ProcessBuiltInPerformanceCountersFactory implements PerformanceCount
         performanceCounters.add(new UnixProcessIOPerformanceCounter());
         performanceCounters.add(new UnixTotalCpuPerformanceCounter());
 
+        // every counter gets its own reader, since counters are collected concurrently
+        CGroupReader cpuReader = CGroupReader.create();
+        CGroupReader memoryReader = CGroupReader.create();
+        if (cpuReader != null && memoryReader != null) {
+            logger.debug("Found cgroup {} hierarchy, adding container performance counters", cpuReader.getVersion());
+            performanceCounters.add(new ContainerCpuPerformanceCounter(cpuReader));
+            performanceCounters.add(new ContainerMemoryPerformanceCounter(memoryReader));
+        }
+
         return performanceCounters;
     }
 
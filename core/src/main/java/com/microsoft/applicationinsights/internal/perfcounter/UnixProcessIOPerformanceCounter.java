@@ -21,9 +21,6 @@
 
 package com.microsoft.applicationinsights.internal.perfcounter;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-
 import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.internal.system.SystemInformation;
 import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
@@ -47,12 +44,18 @@ final class UnixProcessIOPerformanceCounter extends AbstractUnixPerformanceCount
 
     private final static double NANOS_IN_SECOND = 1000000000.0;
 
-    private double prevProcessIO;
+    private static final String READ_BYTES_KEY = "read_bytes:";
+    private static final String WRITE_BYTES_KEY = "write_bytes:";
+
+    private final ProcFileReader reader;
+
+    private long prevProcessIO;
 
     private long lastCollectionInNanos = -1;
 
     public UnixProcessIOPerformanceCounter() {
         super("/proc/" + SystemInformation.INSTANCE.getProcessId() + "/io");
+        reader = new ProcFileReader(getProcessFile());
     }
 
     @Override
@@ -64,8 +67,8 @@ final class UnixProcessIOPerformanceCounter extends AbstractUnixPerformanceCount
     public void report(TelemetryClient telemetryClient) {
         long currentCollectionInNanos = System.nanoTime();
 
-        Double processIO = getCurrentIOForCurrentProcess();
-        if (processIO == null) {
+        long processIO = getCurrentIOForCurrentProcess();
+        if (processIO < 0) {
             return;
         }
         if (lastCollectionInNanos != -1) {
@@ -87,34 +90,31 @@ final class UnixProcessIOPerformanceCounter extends AbstractUnixPerformanceCount
 
     /**
      *
-     * @return the current IO for current process, or null if the datum could not be measured.
+     * @return the current IO for current process, or -1 if the datum could not be measured.
      */
-    public Double getCurrentIOForCurrentProcess() {
-        BufferedReader bufferedReader = null;
-
-        Double result = null;
-        UnixProcessIOtParser parser = new UnixProcessIOtParser();
-        try {
-            bufferedReader = new BufferedReader(new FileReader(getProcessFile()));
-            String line;
-            while (!parser.done() && (line = bufferedReader.readLine()) != null) {
-                parser.process(line);
-            }
-
-            result = parser.getValue();
-        } catch (Exception e) {
-            result = null;
-            logPerfCounterErrorError("Error while parsing file: '{}'", PROCESS_IO_PC_METRIC_NAME, e);
-        } finally {
-            if (bufferedReader != null ) {
-                try {
-                    bufferedReader.close();
-                } catch (Exception e) {
-                    logPerfCounterErrorError("Error while closing file : '{}'", e);
-                }
-            }
+    long getCurrentIOForCurrentProcess() {
+        if (!reader.read()) {
+            logPerfCounterErrorError("Error while reading file: '{}'", PROCESS_IO_PC_METRIC_NAME);
+            return -1;
+        }
+        long result = readProcessIO(reader);
+        if (result < 0) {
+            logPerfCounterErrorError("Error while parsing file: '{}'", PROCESS_IO_PC_METRIC_NAME);
         }
-
         return result;
     }
+
+    /**
+     * Sums the 'read_bytes' and 'write_bytes' entries of a /proc/[pid]/io file.
+     * @param reader A reader that already holds the content of the file
+     * @return The sum, or -1 if one of the entries is missing
+     */
+    static long readProcessIO(ProcFileReader reader) {
+        long readBytes = reader.getValue(READ_BYTES_KEY);
+        long writeBytes = reader.getValue(WRITE_BYTES_KEY);
+        if (readBytes < 0 || writeBytes < 0) {
+            return -1;
+        }
+        return readBytes + writeBytes;
+    }
 }
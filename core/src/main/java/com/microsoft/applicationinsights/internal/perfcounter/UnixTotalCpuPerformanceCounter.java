@@ -21,14 +21,9 @@
 
 package com.microsoft.applicationinsights.internal.perfcounter;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.util.ArrayList;
-
 import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
 
-import com.google.common.base.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,12 +40,19 @@ final class UnixTotalCpuPerformanceCounter extends AbstractUnixPerformanceCounte
 
     private final static String STAT_FILE = "/proc/stat";
 
-    private long[] prevCpuCounters;
-    private long prevTotalCpuValue;
+    // user, nice, system, idle, iowait, irq, softirq, steal, guest, guest_nice
+    private final static int MAX_CPU_FIELDS = 10;
+    private final static int IDLE_FIELD_INDEX = 3;
+
+    private final ProcFileReader reader;
+
+    private final long[] cpuCounters = new long[MAX_CPU_FIELDS];
+    private final long[] prevCpuCounters = new long[MAX_CPU_FIELDS];
+    private boolean hasPrevCpuCounters;
 
     public UnixTotalCpuPerformanceCounter() {
         super(STAT_FILE);
-        prevCpuCounters = null;
+        reader = new ProcFileReader(getProcessFile());
     }
 
     @Override
@@ -60,90 +62,59 @@ final class UnixTotalCpuPerformanceCounter extends AbstractUnixPerformanceCounte
 
     @Override
     public void report(TelemetryClient telemetryClient) {
-        String line = getLineOfData();
-
-        if (!Strings.isNullOrEmpty(line)) {
-            String[] rawStringValues = line.split(" ");
-
-            ArrayList<String> stringValues = new ArrayList<String>(rawStringValues.length - 1);
-            for (int i = 1; i < rawStringValues.length; ++i) {
-                String stringValue = rawStringValues[i];
-                if (Strings.isNullOrEmpty(stringValue)) {
-                    continue;
-                }
-
-                stringValues.add(stringValue);
-            }
-
-            String[] array = stringValues.toArray(new String[stringValues.size()]);
+        if (!reader.read()) {
+            logPerfCounterErrorError("Error while reading file");
+            return;
+        }
+        int count = readCpuCounters(reader, cpuCounters);
+        if (count <= IDLE_FIELD_INDEX) {
+            logPerfCounterErrorError("Error while parsing file");
+            return;
+        }
 
-            if (prevCpuCounters == null) {
-                getCountersForTheFirstTime(array);
-                return;
-            }
+        if (!hasPrevCpuCounters) {
+            System.arraycopy(cpuCounters, 0, prevCpuCounters, 0, MAX_CPU_FIELDS);
+            hasPrevCpuCounters = true;
+            return;
+        }
 
-            double totalCpuUsage = calculateTotalCpuUsage(array);
+        double totalCpuUsage = calculateTotalCpuUsage(prevCpuCounters, cpuCounters);
+        System.arraycopy(cpuCounters, 0, prevCpuCounters, 0, MAX_CPU_FIELDS);
 
-            logger.trace("Sending Performance Counter: {}: {}", TOTAL_CPU_PC_METRIC_NAME, totalCpuUsage);
-            MetricTelemetry telemetry = new MetricTelemetry(TOTAL_CPU_PC_METRIC_NAME, totalCpuUsage);
-            telemetryClient.track(telemetry);
-        }
+        logger.trace("Sending Performance Counter: {}: {}", TOTAL_CPU_PC_METRIC_NAME, totalCpuUsage);
+        MetricTelemetry telemetry = new MetricTelemetry(TOTAL_CPU_PC_METRIC_NAME, totalCpuUsage);
+        telemetryClient.track(telemetry);
     }
 
-    private String getLineOfData() {
-        BufferedReader bufferedReader = null;
-
-        String line = null;
-        try {
-            bufferedReader = new BufferedReader(new FileReader(getProcessFile()));
-            line = bufferedReader.readLine();
-        } catch (Exception e) {
-            logPerfCounterErrorError("Error while parsing file: ", e);
-        } finally {
-            if (bufferedReader != null ) {
-                try {
-                    bufferedReader.close();
-                } catch (Exception e) {
-                    logPerfCounterErrorError("Error while closing file: ", e);
-                }
+    /**
+     * Parses the aggregated 'cpu' line of /proc/stat.
+     * @param reader A reader that already holds the content of /proc/stat
+     * @param counters The array to fill, fields that are missing in the file are set to zero
+     * @return The number of fields that were found
+     */
+    static int readCpuCounters(ProcFileReader reader, long[] counters) {
+        int count = 0;
+        if (reader.seekKey("cpu")) {
+            long value;
+            while (count < counters.length && (value = reader.nextLong()) >= 0) {
+                counters[count++] = value;
             }
         }
-
-        return line;
-    }
-
-    private void getCountersForTheFirstTime(String[] stringValues) {
-        prevCpuCounters = new long[stringValues.length];
-        prevTotalCpuValue = 0;
-        for (int i = 0; i < stringValues.length; ++i) {
-            String stringValue = stringValues[i];
-            long value = Long.parseLong(stringValue);
-            prevCpuCounters[i] = value;
-            prevTotalCpuValue += value;
+        for (int i = count; i < counters.length; ++i) {
+            counters[i] = 0;
         }
+        return count;
     }
 
-    private double calculateTotalCpuUsage(String[] stringValues) {
-        long[] cpuCounters = new long[stringValues.length];
-        long totalCpuValue = 0;
-        double diffIdle = 0.0;
-        for (int i = 0; i < stringValues.length; ++i) {
-            String stringValue = stringValues[i];
-            long value = Long.parseLong(stringValue);
-            cpuCounters[i] = value - prevCpuCounters[i];
-            prevCpuCounters[i] = value;
-
-            totalCpuValue += value;
-            if (i == 3) {
-                diffIdle = cpuCounters[i];
-            }
+    static double calculateTotalCpuUsage(long[] prevCpuCounters, long[] cpuCounters) {
+        long totalDiff = 0;
+        for (int i = 0; i < cpuCounters.length; ++i) {
+            totalDiff += cpuCounters[i] - prevCpuCounters[i];
         }
-
-        double totalDiff = totalCpuValue - prevTotalCpuValue;
-        double result = 100 * ((totalDiff - diffIdle) / (totalDiff));
-
-        prevTotalCpuValue = totalCpuValue;
-
-        return result;
+        if (totalDiff <= 0) {
+            return 0.0;
+        }
+        long diffIdle = cpuCounters[IDLE_FIELD_INDEX] - prevCpuCounters[IDLE_FIELD_INDEX];
+        return 100 * ((totalDiff - diffIdle) / (double) totalDiff);
     }
 }
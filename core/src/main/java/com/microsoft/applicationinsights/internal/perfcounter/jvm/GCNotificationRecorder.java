@@ -0,0 +1,303 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter.jvm;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.util.LatencyHistogram;
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Aggregates the garbage collection notifications of the JVM between two performance counter cycles.
+ *
+ * The notifications are delivered on a JVM thread and only update lock free structures,
+ * {@link #flush(TelemetryClient, long)} swaps them out and sends their content from the performance counter thread.
+ */
+final class GCNotificationRecorder implements NotificationListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(GCNotificationRecorder.class);
+
+    static final String GC_TOTAL_COUNT = "GC Total Count";
+    static final String GC_TOTAL_TIME = "GC Total Time";
+    static final String GC_PAUSE_TIME = "GC Pause Time";
+    static final String[] GC_PAUSE_TIME_PERCENTILES = {GC_PAUSE_TIME + " P50", GC_PAUSE_TIME + " P95", GC_PAUSE_TIME + " P99"};
+    static final double[] PERCENTILES = {50, 95, 99};
+    static final String GC_ALLOCATION_RATE = "GC Allocated Bytes/sec";
+    static final String GC_PROMOTION_RATE = "GC Promoted Bytes/sec";
+    static final String LONG_GC_PAUSE_EVENT = "Long GC Pause";
+
+    static final String COLLECTOR_PROPERTY_NAME = "Collector";
+    static final String ACTION_PROPERTY_NAME = "Action";
+    static final String CAUSE_PROPERTY_NAME = "Cause";
+    static final String DURATION_METRIC_NAME = "Duration";
+
+    static final long DEFAULT_LONG_PAUSE_THRESHOLD_MILLIS = 1000;
+
+    // bounds the number of events a GC storm can produce in one interval
+    static final int MAX_LONG_PAUSE_EVENTS = 20;
+
+    private final static double NANOS_IN_SECOND = 1000000000.0;
+
+    private final long longPauseThresholdMillis;
+
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalTimeMillis = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder promotedBytes = new LongAdder();
+    private final AtomicLong youngGenUsedAfterLastGc = new AtomicLong(-1);
+
+    // the allocation and promotion rates are derived from the young generation, so they are only reported once
+    // a collection has shown one (there is none that we recognize e.g. with ZGC and Shenandoah)
+    private volatile boolean youngGenFound;
+
+    private final ConcurrentHashMap<String, AtomicReference<PauseStats>> pauseStats = new ConcurrentHashMap<String, AtomicReference<PauseStats>>();
+
+    private final ConcurrentLinkedQueue<EventTelemetry> longPauses = new ConcurrentLinkedQueue<EventTelemetry>();
+    private final AtomicInteger longPausesCount = new AtomicInteger();
+
+    GCNotificationRecorder(long longPauseThresholdMillis) {
+        this.longPauseThresholdMillis = longPauseThresholdMillis;
+    }
+
+    /**
+     * Subscribes a new recorder to the notifications of all the garbage collectors.
+     * @return The recorder, or null if the JVM does not emit garbage collection notifications
+     */
+    static GCNotificationRecorder register(long longPauseThresholdMillis) {
+        try {
+            Class.forName("com.sun.management.GarbageCollectionNotificationInfo");
+        } catch (ClassNotFoundException e) {
+            logger.debug("Garbage collection notifications are not supported by this JVM");
+            return null;
+        }
+        GCNotificationRecorder recorder = new GCNotificationRecorder(longPauseThresholdMillis);
+        boolean registered = false;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(recorder, null, null);
+                registered = true;
+            }
+        }
+        return registered ? recorder : null;
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        try {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            GcInfo gcInfo = info.getGcInfo();
+            record(info.getGcName(), info.getGcAction(), info.getGcCause(), gcInfo.getDuration(),
+                    gcInfo.getMemoryUsageBeforeGc(), gcInfo.getMemoryUsageAfterGc());
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                logger.error("Error while handling a garbage collection notification");
+                logger.trace("Error while handling a garbage collection notification", t);
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+    }
+
+    void record(String collector, String action, String cause, long durationMillis,
+                Map<String, MemoryUsage> before, Map<String, MemoryUsage> after) {
+        totalCount.increment();
+        totalTimeMillis.add(durationMillis);
+
+        recordMemory(action, before, after);
+
+        if (isConcurrent(collector)) {
+            // the duration of a concurrent cycle is not a pause of the application
+            return;
+        }
+        getPauseStats(collector).record(durationMillis);
+
+        if (durationMillis >= longPauseThresholdMillis && longPausesCount.incrementAndGet() <= MAX_LONG_PAUSE_EVENTS) {
+            EventTelemetry event = new EventTelemetry(LONG_GC_PAUSE_EVENT);
+            event.setTimestamp(new Date());
+            event.getProperties().put(COLLECTOR_PROPERTY_NAME, collector);
+            event.getProperties().put(ACTION_PROPERTY_NAME, action);
+            event.getProperties().put(CAUSE_PROPERTY_NAME, cause);
+            event.getMetrics().put(DURATION_METRIC_NAME, (double) durationMillis);
+            longPauses.add(event);
+        }
+    }
+
+    /**
+     * Sends everything that was recorded since the previous flush.
+     * @param elapsedNanos The time since the previous flush, used for the rates
+     */
+    void flush(TelemetryClient telemetryClient, long elapsedNanos) {
+        telemetryClient.track(new MetricTelemetry(GC_TOTAL_COUNT, totalCount.sumThenReset()));
+        telemetryClient.track(new MetricTelemetry(GC_TOTAL_TIME, totalTimeMillis.sumThenReset()));
+
+        for (Map.Entry<String, AtomicReference<PauseStats>> entry : pauseStats.entrySet()) {
+            PauseStats stats = entry.getValue().getAndSet(new PauseStats());
+            long count = stats.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            String collector = entry.getKey();
+            MetricTelemetry pauseTime = new MetricTelemetry(GC_PAUSE_TIME, stats.totalMillis.sum());
+            pauseTime.setCount((int) Math.min(count, Integer.MAX_VALUE));
+            pauseTime.setMin((double) stats.minMillis.get());
+            pauseTime.setMax((double) stats.maxMillis.get());
+            pauseTime.getProperties().put(COLLECTOR_PROPERTY_NAME, collector);
+            telemetryClient.track(pauseTime);
+
+            LatencyHistogram.Snapshot snapshot = stats.histogram.snapshot();
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                MetricTelemetry percentile = new MetricTelemetry(GC_PAUSE_TIME_PERCENTILES[i], snapshot.getPercentile(PERCENTILES[i]));
+                percentile.getProperties().put(COLLECTOR_PROPERTY_NAME, collector);
+                telemetryClient.track(percentile);
+            }
+        }
+
+        long allocated = allocatedBytes.sumThenReset();
+        long promoted = promotedBytes.sumThenReset();
+        if (elapsedNanos > 0 && youngGenFound) {
+            double elapsedSeconds = elapsedNanos / NANOS_IN_SECOND;
+            telemetryClient.track(new MetricTelemetry(GC_ALLOCATION_RATE, allocated / elapsedSeconds));
+            telemetryClient.track(new MetricTelemetry(GC_PROMOTION_RATE, promoted / elapsedSeconds));
+        }
+
+        int dropped = longPausesCount.getAndSet(0) - MAX_LONG_PAUSE_EVENTS;
+        EventTelemetry event;
+        while ((event = longPauses.poll()) != null) {
+            telemetryClient.track(event);
+        }
+        if (dropped > 0) {
+            logger.debug("{} long garbage collection pauses were not reported in this interval", dropped);
+        }
+    }
+
+    private void recordMemory(String action, Map<String, MemoryUsage> before, Map<String, MemoryUsage> after) {
+        long youngBefore = 0;
+        long youngAfter = 0;
+        long oldBefore = 0;
+        long oldAfter = 0;
+        boolean hasYoungGen = false;
+        for (Map.Entry<String, MemoryUsage> entry : before.entrySet()) {
+            String pool = entry.getKey();
+            MemoryUsage usageAfter = after.get(pool);
+            if (usageAfter == null) {
+                continue;
+            }
+            if (isYoungGenPool(pool)) {
+                hasYoungGen = true;
+                youngBefore += entry.getValue().getUsed();
+                youngAfter += usageAfter.getUsed();
+            } else if (isOldGenPool(pool)) {
+                oldBefore += entry.getValue().getUsed();
+                oldAfter += usageAfter.getUsed();
+            }
+        }
+        if (!hasYoungGen) {
+            return;
+        }
+        youngGenFound = true;
+
+        // everything that is in the young generation now was allocated since the previous collection emptied it
+        long previousYoungAfter = youngGenUsedAfterLastGc.getAndSet(youngAfter);
+        long allocated = youngBefore - Math.max(0, previousYoungAfter);
+        if (allocated > 0) {
+            allocatedBytes.add(allocated);
+        }
+
+        // a major collection shrinks the old generation, so only a minor collection tells what was promoted
+        if (!isMajor(action) && oldAfter > oldBefore) {
+            promotedBytes.add(oldAfter - oldBefore);
+        }
+    }
+
+    private PauseStats getPauseStats(String collector) {
+        AtomicReference<PauseStats> ref = pauseStats.get(collector);
+        if (ref == null) {
+            AtomicReference<PauseStats> newRef = new AtomicReference<PauseStats>(new PauseStats());
+            ref = pauseStats.putIfAbsent(collector, newRef);
+            if (ref == null) {
+                ref = newRef;
+            }
+        }
+        return ref.get();
+    }
+
+    static boolean isYoungGenPool(String pool) {
+        return pool.endsWith("Eden Space") || pool.equals("nursery-allocate");
+    }
+
+    static boolean isOldGenPool(String pool) {
+        return pool.endsWith("Old Gen") || pool.endsWith("Tenured Gen") || pool.startsWith("tenured");
+    }
+
+    static boolean isConcurrent(String collector) {
+        // 'ZGC Cycles', 'Shenandoah Cycles', 'G1 Concurrent GC'
+        return collector.endsWith("Cycles") || collector.contains("Concurrent");
+    }
+
+    private static boolean isMajor(String action) {
+        return action != null && action.contains("major");
+    }
+
+    private static final class PauseStats {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMillis = new LongAdder();
+        private final LongAccumulator minMillis = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final LongAccumulator maxMillis = new LongAccumulator(Math::max, 0);
+
+        private void record(long durationMillis) {
+            histogram.record(durationMillis);
+            count.increment();
+            totalMillis.add(durationMillis);
+            minMillis.accumulate(durationMillis);
+            maxMillis.accumulate(durationMillis);
+        }
+    }
+}
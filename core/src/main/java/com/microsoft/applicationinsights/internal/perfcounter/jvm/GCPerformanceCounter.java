@@ -28,20 +28,56 @@ import java.lang.management.ManagementFactory;
 import com.microsoft.applicationinsights.TelemetryClient;
 import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounter;
 import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.microsoft.applicationinsights.internal.perfcounter.jvm.GCNotificationRecorder.GC_TOTAL_COUNT;
+import static com.microsoft.applicationinsights.internal.perfcounter.jvm.GCNotificationRecorder.GC_TOTAL_TIME;
 
 /**
  * The class reports GC related data
  *
+ * When the JVM emits garbage collection notifications, every collection is recorded as it happens and the counter
+ * reports, in addition to the total count and time, the pause time distribution of every collector,
+ * the allocation and promotion rates, and an event for every pause that is longer than a threshold.
+ * Otherwise the counter falls back to polling the total count and time of the collectors.
+ *
  * Created by gupele on 8/8/2016.
  */
 public final class GCPerformanceCounter implements PerformanceCounter {
+
+    private static final Logger logger = LoggerFactory.getLogger(GCPerformanceCounter.class);
+
     public final static String NAME = "GC";
 
-    private static final String GC_TOTAL_COUNT = "GC Total Count";
-    private static final String GC_TOTAL_TIME = "GC Total Time";
+    private final GCNotificationRecorder recorder;
 
     private long currentTotalCount = 0;
     private long currentTotalTime = 0;
+    private long lastFlushInNanos;
+
+    public GCPerformanceCounter() {
+        this(GCNotificationRecorder.DEFAULT_LONG_PAUSE_THRESHOLD_MILLIS);
+    }
+
+    public GCPerformanceCounter(long longPauseThresholdMillis) {
+        GCNotificationRecorder recorder = null;
+        try {
+            recorder = GCNotificationRecorder.register(longPauseThresholdMillis);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                logger.debug("Could not subscribe to garbage collection notifications, falling back to polling: {}", t.toString());
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+        this.recorder = recorder;
+        lastFlushInNanos = System.nanoTime();
+    }
 
     @Override
     public String getId() {
@@ -51,6 +87,13 @@ public final class GCPerformanceCounter implements PerformanceCounter {
     @Override
     public void report(TelemetryClient telemetryClient) {
         synchronized (this) {
+            if (recorder != null) {
+                long now = System.nanoTime();
+                recorder.flush(telemetryClient, now - lastFlushInNanos);
+                lastFlushInNanos = now;
+                return;
+            }
+
             List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
             if (gcs.isEmpty()) {
                 return;
@@ -0,0 +1,335 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter.jvm;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounter;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.SeverityLevel;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The class reports how much the JVM threads are blocked on monitors and waiting on locks, and which monitors
+ * are the most contended, complementing {@link DeadLockDetectorPerformanceCounter} which only reports full deadlocks.
+ *
+ * Every cycle reports the number of times the threads blocked (entering a synchronized block) and waited
+ * (Object.wait, LockSupport.park, etc.) during the interval and, when thread contention monitoring is supported,
+ * the time they spent doing so. Those are computed from the cumulative per thread counts, so nothing is missed
+ * between two cycles.
+ *
+ * The threads that are blocked on a monitor, or waiting on a lock that is owned by another thread, at the time
+ * of the cycle are grouped by that monitor. The most contended monitors (by blocked time during the interval,
+ * then by number of blocked threads) are reported as a metric, and as a trace with the stack of the owner thread.
+ *
+ * The cost of a cycle is bounded: one batched getThreadInfo call without stacks for all the threads, and one
+ * batched call with a bounded stack depth for at most {@link #MAX_REPORTED_MONITORS} owner threads.
+ *
+ * This counter is not enabled by default, it is enabled like this:
+ *
+ * <pre>
+ * {@code
+ *     <PerformanceCounters>
+ *         <Jvm>
+ *             <JvmPC name="LockContention" enabled="true"/>
+ *         </Jvm>
+ *     </PerformanceCounters>
+ * }
+ * </pre>
+ */
+public final class LockContentionPerformanceCounter implements PerformanceCounter {
+
+    private static final Logger logger = LoggerFactory.getLogger(LockContentionPerformanceCounter.class);
+
+    public final static String NAME = "LockContention";
+
+    public final static String BLOCKED_COUNT_METRIC_NAME = "Thread Blocked Count";
+    public final static String BLOCKED_TIME_METRIC_NAME = "Thread Blocked Time";
+    public final static String WAITED_COUNT_METRIC_NAME = "Thread Waited Count";
+    public final static String WAITED_TIME_METRIC_NAME = "Thread Waited Time";
+    public final static String BLOCKED_THREADS_METRIC_NAME = "Blocked Threads";
+    public final static String MONITOR_METRIC_NAME = "Contended Monitor Blocked Threads";
+    public final static String MONITOR_PROPERTY_NAME = "Monitor";
+    public final static String OWNER_PROPERTY_NAME = "OwnerThreadPool";
+
+    public final static int MAX_REPORTED_MONITORS = 5;
+
+    private final static int MAX_STACK_TRACE = 10;
+    private final static String INDENT = "    ";
+    private final static String SEPERATOR = " | ";
+
+    private final ThreadMXBean threadBean;
+    private final boolean contentionMonitoringEnabled;
+
+    private Map<Long, ThreadCounts> prevThreadCounts;
+
+    public LockContentionPerformanceCounter() {
+        this(ManagementFactory.getThreadMXBean());
+    }
+
+    LockContentionPerformanceCounter(ThreadMXBean threadBean) {
+        this.threadBean = threadBean;
+
+        boolean contentionMonitoringEnabled = threadBean.isThreadContentionMonitoringSupported();
+        if (contentionMonitoringEnabled && !threadBean.isThreadContentionMonitoringEnabled()) {
+            try {
+                threadBean.setThreadContentionMonitoringEnabled(true);
+            } catch (Exception e) {
+                logger.debug("Could not enable thread contention monitoring: {}", e.toString());
+                contentionMonitoringEnabled = false;
+            }
+        }
+        this.contentionMonitoringEnabled = contentionMonitoringEnabled;
+    }
+
+    public boolean isSupported() {
+        return threadBean.isObjectMonitorUsageSupported();
+    }
+
+    @Override
+    public String getId() {
+        return "LockContentionPerformanceCounter";
+    }
+
+    @Override
+    public void report(TelemetryClient telemetryClient) {
+        long[] threadIds = threadBean.getAllThreadIds();
+        ThreadInfo[] threadInfos = threadBean.getThreadInfo(threadIds, 0);
+
+        Map<Long, ThreadCounts> threadCounts = new HashMap<Long, ThreadCounts>(threadIds.length * 2);
+        Map<String, Monitor> monitors = new HashMap<String, Monitor>();
+        boolean firstTime = prevThreadCounts == null;
+        ThreadCounts totals = new ThreadCounts(0, 0, 0, 0);
+        int blockedThreads = 0;
+
+        for (ThreadInfo threadInfo : threadInfos) {
+            if (threadInfo == null) {
+                // the thread died in the meantime
+                continue;
+            }
+            ThreadCounts current = new ThreadCounts(threadInfo.getBlockedCount(), threadInfo.getBlockedTime(),
+                    threadInfo.getWaitedCount(), threadInfo.getWaitedTime());
+            threadCounts.put(threadInfo.getThreadId(), current);
+            if (firstTime) {
+                continue;
+            }
+
+            // a thread that was not seen in the previous cycle was started during the interval
+            ThreadCounts prev = prevThreadCounts.get(threadInfo.getThreadId());
+            long blockedTimeDelta = delta(current.blockedTime, prev == null ? 0 : prev.blockedTime);
+            totals.blockedCount += delta(current.blockedCount, prev == null ? 0 : prev.blockedCount);
+            totals.blockedTime += blockedTimeDelta;
+            totals.waitedCount += delta(current.waitedCount, prev == null ? 0 : prev.waitedCount);
+            totals.waitedTime += delta(current.waitedTime, prev == null ? 0 : prev.waitedTime);
+
+            if (threadInfo.getThreadState() == Thread.State.BLOCKED) {
+                blockedThreads++;
+            }
+            if (isContended(threadInfo)) {
+                Monitor monitor = monitors.get(threadInfo.getLockName());
+                if (monitor == null) {
+                    monitor = new Monitor(threadInfo.getLockName(), threadInfo.getLockOwnerId(), threadInfo.getLockOwnerName());
+                    monitors.put(threadInfo.getLockName(), monitor);
+                }
+                monitor.blockedThreads++;
+                monitor.blockedTime += blockedTimeDelta;
+            }
+        }
+
+        prevThreadCounts = threadCounts;
+        if (firstTime) {
+            return;
+        }
+
+        telemetryClient.track(new MetricTelemetry(BLOCKED_COUNT_METRIC_NAME, totals.blockedCount));
+        telemetryClient.track(new MetricTelemetry(WAITED_COUNT_METRIC_NAME, totals.waitedCount));
+        if (contentionMonitoringEnabled) {
+            telemetryClient.track(new MetricTelemetry(BLOCKED_TIME_METRIC_NAME, totals.blockedTime));
+            telemetryClient.track(new MetricTelemetry(WAITED_TIME_METRIC_NAME, totals.waitedTime));
+        }
+        telemetryClient.track(new MetricTelemetry(BLOCKED_THREADS_METRIC_NAME, blockedThreads));
+
+        if (!monitors.isEmpty()) {
+            reportHottestMonitors(telemetryClient, getHottestMonitors(monitors.values(), MAX_REPORTED_MONITORS));
+        }
+    }
+
+    // a thread is contending when it is blocked entering a synchronized block, or parked on a lock
+    // (e.g. a ReentrantLock) that another thread owns, as opposed to an idle pool thread waiting for work
+    static boolean isContended(ThreadInfo threadInfo) {
+        if (threadInfo.getLockName() == null) {
+            return false;
+        }
+        switch (threadInfo.getThreadState()) {
+            case BLOCKED:
+                return true;
+            case WAITING:
+            case TIMED_WAITING:
+                return threadInfo.getLockOwnerId() != -1;
+            default:
+                return false;
+        }
+    }
+
+    static List<Monitor> getHottestMonitors(Iterable<Monitor> monitors, int max) {
+        List<Monitor> sorted = new ArrayList<Monitor>();
+        for (Monitor monitor : monitors) {
+            sorted.add(monitor);
+        }
+        Collections.sort(sorted, new Comparator<Monitor>() {
+            @Override
+            public int compare(Monitor m1, Monitor m2) {
+                if (m1.blockedTime != m2.blockedTime) {
+                    return m1.blockedTime > m2.blockedTime ? -1 : 1;
+                }
+                return m2.blockedThreads - m1.blockedThreads;
+            }
+        });
+        return sorted.size() > max ? sorted.subList(0, max) : sorted;
+    }
+
+    private void reportHottestMonitors(TelemetryClient telemetryClient, List<Monitor> monitors) {
+        Map<Long, ThreadInfo> ownerInfos = getOwnerInfos(monitors);
+
+        StringBuilder sb = new StringBuilder("Contended monitors: ");
+        for (Monitor monitor : monitors) {
+            MetricTelemetry mt = new MetricTelemetry(MONITOR_METRIC_NAME, monitor.blockedThreads);
+            // the identity hash code is left out of the dimension, otherwise every lock instance would be a new series
+            mt.getProperties().put(MONITOR_PROPERTY_NAME, getMonitorClassName(monitor.name));
+            mt.getProperties().put(OWNER_PROPERTY_NAME, ThreadCpuPerformanceCounter.getPoolName(monitor.ownerName));
+            telemetryClient.track(mt);
+
+            appendMonitor(sb, monitor, ownerInfos.get(monitor.ownerId));
+        }
+        TraceTelemetry trace = new TraceTelemetry(sb.toString(), SeverityLevel.Warning);
+        telemetryClient.track(trace);
+    }
+
+    private Map<Long, ThreadInfo> getOwnerInfos(List<Monitor> monitors) {
+        Map<Long, ThreadInfo> ownerInfos = new HashMap<Long, ThreadInfo>();
+        try {
+            List<Long> ownerIds = new ArrayList<Long>();
+            for (Monitor monitor : monitors) {
+                // the owner is not known when it released the monitor right before the blocked thread was sampled
+                if (monitor.ownerId > 0 && !ownerIds.contains(monitor.ownerId)) {
+                    ownerIds.add(monitor.ownerId);
+                }
+            }
+            if (ownerIds.isEmpty()) {
+                return ownerInfos;
+            }
+            long[] ids = new long[ownerIds.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = ownerIds.get(i);
+            }
+            for (ThreadInfo ownerInfo : threadBean.getThreadInfo(ids, MAX_STACK_TRACE)) {
+                if (ownerInfo != null) {
+                    ownerInfos.put(ownerInfo.getThreadId(), ownerInfo);
+                }
+            }
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                logger.error("Error while getting the lock owners stack traces");
+                logger.trace("Error while getting the lock owners stack traces", t);
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+        return ownerInfos;
+    }
+
+    private void appendMonitor(StringBuilder sb, Monitor monitor, ThreadInfo ownerInfo) {
+        sb.append(monitor.name);
+        sb.append(" blocked ");
+        sb.append(monitor.blockedThreads);
+        sb.append(" threads");
+        if (contentionMonitoringEnabled) {
+            sb.append(" for ");
+            sb.append(monitor.blockedTime);
+            sb.append(" ms");
+        }
+        if (monitor.ownerName != null) {
+            sb.append(INDENT + "is owned by " + monitor.ownerName + " Id=" + monitor.ownerId);
+        }
+        if (ownerInfo != null) {
+            for (StackTraceElement ste : ownerInfo.getStackTrace()) {
+                sb.append(INDENT + "at " + ste.toString());
+            }
+        }
+        sb.append(SEPERATOR);
+    }
+
+    static String getMonitorClassName(String lockName) {
+        int index = lockName.lastIndexOf('@');
+        return index == -1 ? lockName : lockName.substring(0, index);
+    }
+
+    private static long delta(long current, long prev) {
+        if (current < 0 || prev < 0) {
+            return 0;
+        }
+        return Math.max(0, current - prev);
+    }
+
+    private static final class ThreadCounts {
+        private long blockedCount;
+        private long blockedTime;
+        private long waitedCount;
+        private long waitedTime;
+
+        private ThreadCounts(long blockedCount, long blockedTime, long waitedCount, long waitedTime) {
+            this.blockedCount = blockedCount;
+            this.blockedTime = blockedTime;
+            this.waitedCount = waitedCount;
+            this.waitedTime = waitedTime;
+        }
+    }
+
+    static final class Monitor {
+        final String name;
+        final long ownerId;
+        final String ownerName;
+        int blockedThreads;
+        long blockedTime;
+
+        Monitor(String name, long ownerId, String ownerName) {
+            this.name = name;
+            this.ownerId = ownerId;
+            this.ownerName = ownerName;
+        }
+    }
+}
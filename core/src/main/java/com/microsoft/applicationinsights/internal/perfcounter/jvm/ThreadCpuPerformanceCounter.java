@@ -0,0 +1,324 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter.jvm;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.perfcounter.PerformanceCounter;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The class reports the cpu usage, the allocation rate and the number of the JVM threads, aggregated by thread pool.
+ *
+ * Threads are grouped by their name with the numbers masked, so 'pool-3-thread-12' and 'pool-3-thread-7'
+ * are both reported as 'pool-#-thread-#'. The number of reported pools is bounded, the threads of the
+ * pools that do not fit are reported as {@link #OTHER_POOL_NAME}. A pool that has no threads left gives up
+ * its slot, so pools that come and go (e.g. per request executors) do not use up the slots for good.
+ *
+ * Every cycle makes one call for all the thread ids, one batched getThreadInfo call for their names,
+ * and (on HotSpot/OpenJ9) one batched call for their cpu times and one for their allocated bytes.
+ *
+ * This counter is not enabled by default, it is enabled like this:
+ *
+ * <pre>
+ * {@code
+ *     <PerformanceCounters>
+ *         <Jvm>
+ *             <JvmPC name="ThreadCpu" enabled="true"/>
+ *         </Jvm>
+ *     </PerformanceCounters>
+ * }
+ * </pre>
+ */
+public final class ThreadCpuPerformanceCounter implements PerformanceCounter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThreadCpuPerformanceCounter.class);
+
+    public final static String NAME = "ThreadCpu";
+
+    public final static String CPU_METRIC_NAME = "Thread Pool % Processor Time";
+    public final static String ALLOCATION_METRIC_NAME = "Thread Pool Allocated Bytes/sec";
+    public final static String POOL_PROPERTY_NAME = "ThreadPool";
+    public final static String THREAD_COUNT_METRIC_NAME = "Thread Pool Thread Count";
+    public final static String OTHER_POOL_NAME = "Other";
+
+    public final static int DEFAULT_MAX_POOLS = 50;
+
+    private final static double NANOS_IN_SECOND = 1000000000.0;
+
+    private final ThreadMXBean threadBean;
+    private final com.sun.management.ThreadMXBean sunThreadBean;
+    private final boolean cpuTimeSupported;
+    private final boolean allocatedBytesSupported;
+    private final int numberOfCpus;
+    private final int maxPools;
+
+    // the pools that had threads in the last cycle, mapped to the name they are reported as
+    // (their own or OTHER_POOL_NAME), a pool keeps its slot for as long as it has threads
+    // so the series stay stable from one interval to the other
+    private final Map<String, String> reportedPoolNames = new HashMap<String, String>();
+    private int ownPoolSlots;
+
+    private Map<Long, ThreadTimes> prevThreadTimes;
+    private long prevCollectionInNanos;
+
+    public ThreadCpuPerformanceCounter() {
+        this(ManagementFactory.getThreadMXBean(), DEFAULT_MAX_POOLS);
+    }
+
+    ThreadCpuPerformanceCounter(ThreadMXBean threadBean, int maxPools) {
+        this.threadBean = threadBean;
+        this.sunThreadBean = getSunThreadMXBean(threadBean);
+        this.maxPools = maxPools;
+        this.numberOfCpus = ManagementFactory.getOperatingSystemMXBean().getAvailableProcessors();
+
+        boolean cpuTimeSupported = threadBean.isThreadCpuTimeSupported();
+        if (cpuTimeSupported && !threadBean.isThreadCpuTimeEnabled()) {
+            try {
+                threadBean.setThreadCpuTimeEnabled(true);
+            } catch (Exception e) {
+                logger.debug("Could not enable thread cpu time measurement: {}", e.toString());
+                cpuTimeSupported = false;
+            }
+        }
+        this.cpuTimeSupported = cpuTimeSupported;
+
+        boolean allocatedBytesSupported = sunThreadBean != null && sunThreadBean.isThreadAllocatedMemorySupported();
+        if (allocatedBytesSupported && !sunThreadBean.isThreadAllocatedMemoryEnabled()) {
+            try {
+                sunThreadBean.setThreadAllocatedMemoryEnabled(true);
+            } catch (Exception e) {
+                logger.debug("Could not enable thread allocated memory measurement: {}", e.toString());
+                allocatedBytesSupported = false;
+            }
+        }
+        this.allocatedBytesSupported = allocatedBytesSupported;
+    }
+
+    public boolean isSupported() {
+        return cpuTimeSupported || allocatedBytesSupported;
+    }
+
+    @Override
+    public String getId() {
+        return "ThreadCpuPerformanceCounter";
+    }
+
+    @Override
+    public void report(TelemetryClient telemetryClient) {
+        long currentCollectionInNanos = System.nanoTime();
+
+        long[] threadIds = threadBean.getAllThreadIds();
+        ThreadInfo[] threadInfos = threadBean.getThreadInfo(threadIds, 0);
+        long[] cpuTimes = getCpuTimes(threadIds);
+        long[] allocatedBytes = getAllocatedBytes(threadIds);
+
+        Map<Long, ThreadTimes> threadTimes = new HashMap<Long, ThreadTimes>(threadIds.length * 2);
+        Map<String, PoolTotals> pools = new HashMap<String, PoolTotals>();
+        Set<String> seenPoolNames = new HashSet<String>();
+        boolean firstTime = prevThreadTimes == null;
+
+        for (int i = 0; i < threadIds.length; i++) {
+            ThreadInfo threadInfo = threadInfos[i];
+            if (threadInfo == null) {
+                // the thread died in the meantime
+                continue;
+            }
+            long cpuTime = cpuTimes == null ? -1 : cpuTimes[i];
+            long allocated = allocatedBytes == null ? -1 : allocatedBytes[i];
+            threadTimes.put(threadIds[i], new ThreadTimes(cpuTime, allocated));
+            if (firstTime) {
+                continue;
+            }
+
+            // a thread that was not seen in the previous cycle was started during the interval
+            ThreadTimes prev = prevThreadTimes.get(threadIds[i]);
+            long cpuDelta = delta(cpuTime, prev == null ? 0 : prev.cpuTime);
+            long allocatedDelta = delta(allocated, prev == null ? 0 : prev.allocatedBytes);
+
+            String poolName = getPoolName(threadInfo.getThreadName());
+            seenPoolNames.add(poolName);
+            poolName = getReportedPoolName(poolName);
+            PoolTotals totals = pools.get(poolName);
+            if (totals == null) {
+                totals = new PoolTotals();
+                pools.put(poolName, totals);
+            }
+            totals.threadCount++;
+            totals.cpuTime += cpuDelta;
+            totals.allocatedBytes += allocatedDelta;
+        }
+
+        if (!firstTime) {
+            releasePoolSlots(seenPoolNames);
+        }
+
+        long elapsedNanos = currentCollectionInNanos - prevCollectionInNanos;
+        prevThreadTimes = threadTimes;
+        prevCollectionInNanos = currentCollectionInNanos;
+        if (firstTime || elapsedNanos <= 0) {
+            return;
+        }
+
+        for (Map.Entry<String, PoolTotals> entry : pools.entrySet()) {
+            PoolTotals totals = entry.getValue();
+            if (cpuTimeSupported) {
+                double cpuPercentage = totals.cpuTime * 100.0 / elapsedNanos / numberOfCpus;
+                track(telemetryClient, CPU_METRIC_NAME, cpuPercentage, entry.getKey());
+            }
+            if (allocatedBytesSupported) {
+                double allocationRate = totals.allocatedBytes / (elapsedNanos / NANOS_IN_SECOND);
+                track(telemetryClient, ALLOCATION_METRIC_NAME, allocationRate, entry.getKey());
+            }
+            track(telemetryClient, THREAD_COUNT_METRIC_NAME, totals.threadCount, entry.getKey());
+        }
+    }
+
+    /**
+     * Masks the numbers in a thread name, which is what tells apart the threads of the same pool
+     * in practically all the executors, e.g. 'http-nio-8080-exec-3' becomes 'http-nio-#-exec-#'.
+     */
+    static String getPoolName(String threadName) {
+        if (threadName == null || threadName.isEmpty()) {
+            return OTHER_POOL_NAME;
+        }
+        StringBuilder sb = null;
+        int length = threadName.length();
+        for (int i = 0; i < length; i++) {
+            char c = threadName.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (sb == null) {
+                    sb = new StringBuilder(length);
+                    sb.append(threadName, 0, i);
+                }
+                if (sb.length() == 0 || sb.charAt(sb.length() - 1) != '#') {
+                    sb.append('#');
+                }
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? threadName : sb.toString();
+    }
+
+    private String getReportedPoolName(String poolName) {
+        if (OTHER_POOL_NAME.equals(poolName)) {
+            // this doesn't take up a slot of its own
+            return poolName;
+        }
+        String reported = reportedPoolNames.get(poolName);
+        if (reported != null) {
+            return reported;
+        }
+        if (ownPoolSlots < maxPools) {
+            reported = poolName;
+            ownPoolSlots++;
+        } else {
+            reported = OTHER_POOL_NAME;
+        }
+        reportedPoolNames.put(poolName, reported);
+        return reported;
+    }
+
+    private void releasePoolSlots(Set<String> seenPoolNames) {
+        for (Iterator<Map.Entry<String, String>> i = reportedPoolNames.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<String, String> entry = i.next();
+            if (!seenPoolNames.contains(entry.getKey())) {
+                if (entry.getKey().equals(entry.getValue())) {
+                    ownPoolSlots--;
+                }
+                i.remove();
+            }
+        }
+    }
+
+    private long[] getCpuTimes(long[] threadIds) {
+        if (!cpuTimeSupported) {
+            return null;
+        }
+        if (sunThreadBean != null) {
+            return sunThreadBean.getThreadCpuTime(threadIds);
+        }
+        long[] cpuTimes = new long[threadIds.length];
+        for (int i = 0; i < threadIds.length; i++) {
+            cpuTimes[i] = threadBean.getThreadCpuTime(threadIds[i]);
+        }
+        return cpuTimes;
+    }
+
+    private long[] getAllocatedBytes(long[] threadIds) {
+        if (!allocatedBytesSupported) {
+            return null;
+        }
+        return sunThreadBean.getThreadAllocatedBytes(threadIds);
+    }
+
+    private static long delta(long current, long prev) {
+        if (current < 0 || prev < 0) {
+            return 0;
+        }
+        return Math.max(0, current - prev);
+    }
+
+    private static void track(TelemetryClient telemetryClient, String name, double value, String poolName) {
+        MetricTelemetry mt = new MetricTelemetry(name, value);
+        mt.getProperties().put(POOL_PROPERTY_NAME, poolName);
+        telemetryClient.track(mt);
+    }
+
+    private static com.sun.management.ThreadMXBean getSunThreadMXBean(ThreadMXBean threadBean) {
+        try {
+            if (threadBean instanceof com.sun.management.ThreadMXBean) {
+                return (com.sun.management.ThreadMXBean) threadBean;
+            }
+        } catch (LinkageError e) {
+            logger.debug("com.sun.management.ThreadMXBean is not available: {}", e.toString());
+        }
+        return null;
+    }
+
+    private static final class ThreadTimes {
+        private final long cpuTime;
+        private final long allocatedBytes;
+
+        private ThreadTimes(long cpuTime, long allocatedBytes) {
+            this.cpuTime = cpuTime;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    private static final class PoolTotals {
+        private int threadCount;
+        private long cpuTime;
+        private long allocatedBytes;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * The collection configuration pushed by the Live Metrics service in ping and post responses.
+ * Only the parts needed for the document stream are mapped.
+ */
+class CollectionConfigurationInfo {
+
+    @SerializedName("ETag")
+    String etag;
+
+    @SerializedName("DocumentStreams")
+    DocumentStreamInfo[] documentStreams;
+
+    static class DocumentStreamInfo {
+        @SerializedName("Id")
+        String id;
+
+        @SerializedName("DocumentFilterGroups")
+        DocumentFilterConjunctionGroupInfo[] documentFilterGroups;
+    }
+
+    static class DocumentFilterConjunctionGroupInfo {
+        @SerializedName("TelemetryType")
+        String telemetryType;
+
+        @SerializedName("Filters")
+        FilterConjunctionGroupInfo filters;
+    }
+
+    static class FilterConjunctionGroupInfo {
+        @SerializedName("Filters")
+        FilterInfo[] filters;
+    }
+
+    static class FilterInfo {
+        @SerializedName("FieldName")
+        String fieldName;
+
+        @SerializedName("Predicate")
+        String predicate;
+
+        @SerializedName("Comparand")
+        String comparand;
+    }
+}
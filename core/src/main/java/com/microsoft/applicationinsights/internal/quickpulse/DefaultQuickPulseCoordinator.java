@@ -21,6 +21,8 @@
 
 package com.microsoft.applicationinsights.internal.quickpulse;
 
+import java.util.concurrent.TimeUnit;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,6 +57,9 @@ final class DefaultQuickPulseCoordinator implements QuickPulseCoordinator, Runna
     @Override
     public void run() {
         try {
+            // each cycle is scheduled relative to the previous deadline rather than to the end of the previous
+            // cycle, so the time spent pinging/posting does not make the one second intervals drift
+            long nextRunNanos = System.nanoTime();
             while (!stopped) {
                 long sleepInMS;
                 if (pingMode) {
@@ -62,7 +67,14 @@ final class DefaultQuickPulseCoordinator implements QuickPulseCoordinator, Runna
                 } else {
                     sleepInMS = sendData();
                 }
-                Thread.sleep(sleepInMS);
+                nextRunNanos += TimeUnit.MILLISECONDS.toNanos(sleepInMS);
+                long delayNanos = nextRunNanos - System.nanoTime();
+                if (delayNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delayNanos);
+                } else {
+                    // fell behind (e.g. a slow ping), so start over from now instead of firing a burst to catch up
+                    nextRunNanos = System.nanoTime();
+                }
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
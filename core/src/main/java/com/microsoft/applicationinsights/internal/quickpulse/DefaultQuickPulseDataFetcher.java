@@ -22,11 +22,22 @@
 package com.microsoft.applicationinsights.internal.quickpulse;
 
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.SampledDocument;
+import com.microsoft.applicationinsights.internal.schemav2.ExceptionDetails;
+import com.microsoft.applicationinsights.internal.util.LatencyHistogram;
 import com.microsoft.applicationinsights.internal.util.PropertyHelper;
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ByteArrayEntity;
 
@@ -41,11 +52,18 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
     private static final Logger logger = LoggerFactory.getLogger(DefaultQuickPulseDataFetcher.class);
 
     private static final String QP_BASE_URI = "https://rt.services.visualstudio.com/QuickPulseService.svc";
+    private static final int[] DURATION_PERCENTILES = {50, 95, 99};
+    private static final String[] REQUEST_DURATION_PERCENTILE_NAMES = percentileMetricNames("\\\\ApplicationInsights\\\\Request Duration");
+    private static final String[] DEPENDENCY_DURATION_PERCENTILE_NAMES = percentileMetricNames("\\\\ApplicationInsights\\\\Dependency Call Duration");
+    private static final int INITIAL_PAYLOAD_CAPACITY = 4096;
+    private static final String DOCUMENT_TYPE_SUFFIX = ":#Microsoft.ManagementServices.RealTimeDataProcessing.QuickPulseService";
+
     private final ArrayBlockingQueue<HttpPost> sendQueue;
     private final TelemetryConfiguration config;
     private final String ikey;
     private final QuickPulseNetworkHelper networkHelper = new QuickPulseNetworkHelper();
-    private String postPrefix;
+    private final String postPrefix;
+    private final QuickPulsePayloadEncoder payloadEncoder = new QuickPulsePayloadEncoder(INITIAL_PAYLOAD_CAPACITY);
     private final String sdkVersion;
 
     public DefaultQuickPulseDataFetcher(ArrayBlockingQueue<HttpPost> sendQueue, TelemetryConfiguration config,
@@ -64,8 +82,6 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
         this.ikey = ikey;
         sdkVersion = getCurrentSdkVersion();
         final StringBuilder sb = new StringBuilder();
-        sb.append("[{");
-        formatDocuments(sb);
         sb.append("\"Instance\": \"").append(instanceName).append("\",");
         sb.append("\"InstrumentationKey\": \"").append(ikey).append("\",");
         sb.append("\"InvariantVersion\": 1,");
@@ -130,8 +146,13 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
         }
     }
 
-    private ByteArrayEntity buildPostEntity(QuickPulseDataCollector.FinalCounters counters) {
-        StringBuilder sb = new StringBuilder(postPrefix);
+    // only called from the coordinator thread, which owns the payload encoder
+    @VisibleForTesting
+    ByteArrayEntity buildPostEntity(QuickPulseDataCollector.FinalCounters counters) {
+        StringBuilder sb = payloadEncoder.begin();
+        sb.append("[{");
+        formatDocuments(counters.documents, sb);
+        sb.append(postPrefix);
         formatMetrics(counters, sb);
         sb.append("\"Timestamp\": \"\\/Date(");
         long ms = System.currentTimeMillis();
@@ -140,21 +161,155 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
         sb.append("\"Version\": \"");
         sb.append(sdkVersion);
         sb.append("\"}]");
-        return new ByteArrayEntity(sb.toString().getBytes());
+        return new ByteArrayEntity(payloadEncoder.encode());
+    }
+
+    private void formatDocuments(List<SampledDocument> documents, StringBuilder sb) {
+        sb.append("\"Documents\": [");
+        boolean first = true;
+        for (SampledDocument document : documents) {
+            int mark = sb.length();
+            if (!first) {
+                sb.append(',');
+            }
+            if (formatDocument(document, sb)) {
+                first = false;
+            } else {
+                sb.setLength(mark);
+            }
+        }
+        sb.append("] ,");
     }
 
-    private void formatDocuments(StringBuilder sb) {
-        sb.append("\"Documents\": [] ,");
+    private boolean formatDocument(SampledDocument document, StringBuilder sb) {
+        final Telemetry telemetry = document.telemetry;
+        if (telemetry instanceof RequestTelemetry) {
+            RequestTelemetry request = (RequestTelemetry) telemetry;
+            formatDocumentHeader(sb, "RequestTelemetryDocument", "Request", document);
+            formatDocumentField(sb, "Name", request.getName());
+            sb.append(",\"Success\":").append(request.isSuccess());
+            formatDocumentField(sb, "Duration", request.getDuration().toString());
+            formatDocumentField(sb, "ResponseCode", request.getResponseCode());
+            formatDocumentField(sb, "Url", request.getUrlString());
+        } else if (telemetry instanceof RemoteDependencyTelemetry) {
+            RemoteDependencyTelemetry dependency = (RemoteDependencyTelemetry) telemetry;
+            formatDocumentHeader(sb, "DependencyTelemetryDocument", "RemoteDependency", document);
+            formatDocumentField(sb, "Name", dependency.getName());
+            formatDocumentField(sb, "Target", dependency.getTarget());
+            sb.append(",\"Success\":").append(dependency.getSuccess());
+            formatDocumentField(sb, "Duration", dependency.getDuration().toString());
+            formatDocumentField(sb, "ResultCode", dependency.getResultCode());
+            formatDocumentField(sb, "CommandName", dependency.getCommandName());
+            formatDocumentField(sb, "DependencyTypeName", dependency.getType());
+        } else if (telemetry instanceof ExceptionTelemetry) {
+            ExceptionDetails details = QuickPulseDocumentFilters.getOutermostException((ExceptionTelemetry) telemetry);
+            formatDocumentHeader(sb, "ExceptionTelemetryDocument", "Exception", document);
+            formatDocumentField(sb, "Exception", details == null ? null : details.getStack());
+            formatDocumentField(sb, "ExceptionMessage", details == null ? null : details.getMessage());
+            formatDocumentField(sb, "ExceptionType", details == null ? null : details.getTypeName());
+        } else if (telemetry instanceof TraceTelemetry) {
+            TraceTelemetry trace = (TraceTelemetry) telemetry;
+            formatDocumentHeader(sb, "TraceTelemetryDocument", "Trace", document);
+            formatDocumentField(sb, "Message", trace.getMessage());
+            formatDocumentField(sb, "SeverityLevel", trace.getSeverityLevel() == null ? null : trace.getSeverityLevel().name());
+        } else if (telemetry instanceof EventTelemetry) {
+            formatDocumentHeader(sb, "EventTelemetryDocument", "Event", document);
+            formatDocumentField(sb, "Name", ((EventTelemetry) telemetry).getName());
+        } else {
+            return false;
+        }
+        sb.append('}');
+        return true;
+    }
+
+    private void formatDocumentHeader(StringBuilder sb, String type, String documentType, SampledDocument document) {
+        sb.append("{\"__type\":\"").append(type).append(DOCUMENT_TYPE_SUFFIX).append('"');
+        formatDocumentField(sb, "DocumentType", documentType);
+        formatDocumentField(sb, "Version", "1.0");
+        formatDocumentField(sb, "OperationId", document.telemetry.getContext().getOperation().getId());
+        sb.append(",\"Properties\":[");
+        boolean first = true;
+        for (Map.Entry<String, String> entry : document.telemetry.getProperties().entrySet()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            sb.append("{\"key\":");
+            appendJsonString(sb, entry.getKey());
+            sb.append(",\"value\":");
+            appendJsonString(sb, entry.getValue());
+            sb.append('}');
+        }
+        sb.append("],\"DocumentStreamIds\":[");
+        for (int i = 0; i < document.documentStreamIds.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            appendJsonString(sb, document.documentStreamIds[i]);
+        }
+        sb.append(']');
     }
 
-    private void formatSingleMetric(StringBuilder sb, String metricName, double metricValue, int metricWeight, Boolean includeComma) {
-        String comma = includeComma ? "," : "";
-        sb.append(String.format("{\"Name\": \"%s\",\"Value\": %s,\"Weight\": %s}%s", metricName, metricValue, metricWeight, comma));
+    private void formatDocumentField(StringBuilder sb, String name, String value) {
+        sb.append(",\"").append(name).append("\":");
+        appendJsonString(sb, value);
     }
 
-    private void formatSingleMetric(StringBuilder sb, String metricName, long metricValue, int metricWeight, Boolean includeComma) {
-        String comma = includeComma ? "," : "";
-        sb.append(String.format("{\"Name\": \"%s\",\"Value\": %s,\"Weight\": %s}%s", metricName, metricValue, metricWeight, comma));
+    static void appendJsonString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    private void formatSingleMetric(StringBuilder sb, String metricName, double metricValue, int metricWeight, boolean includeComma) {
+        sb.append("{\"Name\": \"").append(metricName).append("\",\"Value\": ").append(metricValue);
+        formatMetricWeight(sb, metricWeight, includeComma);
+    }
+
+    private void formatSingleMetric(StringBuilder sb, String metricName, long metricValue, int metricWeight, boolean includeComma) {
+        sb.append("{\"Name\": \"").append(metricName).append("\",\"Value\": ").append(metricValue);
+        formatMetricWeight(sb, metricWeight, includeComma);
+    }
+
+    private void formatMetricWeight(StringBuilder sb, int metricWeight, boolean includeComma) {
+        sb.append(",\"Weight\": ").append(metricWeight).append('}');
+        if (includeComma) {
+            sb.append(',');
+        }
+    }
+
+    private void formatPercentileMetrics(StringBuilder sb, String[] metricNames, LatencyHistogram.Snapshot histogram) {
+        int weight = (int) histogram.getTotalCount();
+        for (int i = 0; i < DURATION_PERCENTILES.length; i++) {
+            formatSingleMetric(sb, metricNames[i], histogram.getPercentile(DURATION_PERCENTILES[i]), weight, true);
+        }
+    }
+
+    private static String[] percentileMetricNames(String metricNamePrefix) {
+        String[] names = new String[DURATION_PERCENTILES.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = metricNamePrefix + " P" + DURATION_PERCENTILES[i];
+        }
+        return names;
     }
 
     private void formatMetrics(QuickPulseDataCollector.FinalCounters counters, StringBuilder sb) {
@@ -163,10 +318,12 @@ final class DefaultQuickPulseDataFetcher implements QuickPulseDataFetcher {
         formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Request Duration", counters.requestsDuration, (int)counters.requests, true);
         formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Requests Failed\\/Sec", counters.unsuccessfulRequests, 1, true);
         formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Requests Succeeded\\/Sec", (counters.requests - counters.unsuccessfulRequests), 1, true);
+        formatPercentileMetrics(sb, REQUEST_DURATION_PERCENTILE_NAMES, counters.requestsDurationHistogram);
         formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls\\/Sec", counters.rdds, 1, true);
         formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Call Duration", counters.rddsDuration, (int)counters.rdds, true);
         formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls Failed\\/Sec", counters.unsuccessfulRdds, 1, true);
         formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Dependency Calls Succeeded\\/Sec", counters.rdds - counters.unsuccessfulRdds, 1, true);
+        formatPercentileMetrics(sb, DEPENDENCY_DURATION_PERCENTILE_NAMES, counters.rddsDurationHistogram);
         formatSingleMetric(sb, "\\\\ApplicationInsights\\\\Exceptions\\/Sec", counters.exceptions, 1, true);
         formatSingleMetric(sb, "\\\\Memory\\\\Committed Bytes", counters.memoryCommitted, 1, true);
         formatSingleMetric(sb, "\\\\Processor(_Total)\\\\% Processor Time", counters.cpuUsage, 1, false);
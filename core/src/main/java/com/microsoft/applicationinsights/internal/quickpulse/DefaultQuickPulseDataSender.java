@@ -62,6 +62,7 @@ final class DefaultQuickPulseDataSender implements QuickPulseDataSender {
                     response = apacheSender.sendPostRequest(post);
                     if (networkHelper.isSuccess(response)) {
                         final QuickPulseStatus quickPulseResultStatus = networkHelper.getQuickPulseStatus(response);
+                        networkHelper.updateCollectionConfiguration(response);
                         switch (quickPulseResultStatus) {
                             case QP_IS_OFF:
                             case QP_IS_ON:
@@ -48,7 +48,8 @@ final class DefaultQuickPulsePingSender implements QuickPulsePingSender {
     private final TelemetryConfiguration configuration;
     private final ApacheSender apacheSender;
     private final QuickPulseNetworkHelper networkHelper = new QuickPulseNetworkHelper();
-    private String pingPrefix;
+    private final String pingPrefix;
+    private final QuickPulsePayloadEncoder payloadEncoder = new QuickPulsePayloadEncoder(512);
     private long lastValidTransmission = 0;
     private static volatile AtomicBoolean friendlyExceptionThrown = new AtomicBoolean();
 
@@ -92,6 +93,7 @@ final class DefaultQuickPulsePingSender implements QuickPulsePingSender {
             response = apacheSender.sendPostRequest(request);
             if (networkHelper.isSuccess(response)) {
                 final QuickPulseStatus quickPulseResultStatus = networkHelper.getQuickPulseStatus(response);
+                networkHelper.updateCollectionConfiguration(response);
                 switch (quickPulseResultStatus) {
                     case QP_IS_OFF:
                     case QP_IS_ON:
@@ -134,12 +136,15 @@ final class DefaultQuickPulsePingSender implements QuickPulsePingSender {
         }
     }
 
+    // only called from the coordinator thread, which owns the payload encoder
     private ByteArrayEntity buildPingEntity(long timeInMillis) {
-        String sb = pingPrefix + timeInMillis +
-                ")\\/\"," +
-                "\"Version\":\"2.2.0-738\"" +
-                "}";
-        return new ByteArrayEntity(sb.getBytes());
+        payloadEncoder.begin()
+                .append(pingPrefix)
+                .append(timeInMillis)
+                .append(")\\/\",")
+                .append("\"Version\":\"2.2.0-738\"")
+                .append('}');
+        return new ByteArrayEntity(payloadEncoder.encode());
     }
 
     private QuickPulseStatus onPingError(long sendTime) {
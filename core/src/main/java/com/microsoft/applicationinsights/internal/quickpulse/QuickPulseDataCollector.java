@@ -24,12 +24,17 @@ package com.microsoft.applicationinsights.internal.quickpulse;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.microsoft.applicationinsights.TelemetryConfiguration;
 import com.microsoft.applicationinsights.internal.perfcounter.CpuPerformanceCounterCalculator;
+import com.microsoft.applicationinsights.internal.util.LatencyHistogram;
 import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
 import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
 import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
@@ -42,8 +47,16 @@ import org.slf4j.LoggerFactory;
 public enum QuickPulseDataCollector {
     INSTANCE;
 
-    private String ikey;
-    private TelemetryConfiguration config;
+    static final int MAX_DOCUMENTS_PER_INTERVAL = 20;
+
+    // written under the monitor in enable(), read without locking for every tracked telemetry item
+    private volatile String ikey;
+    private volatile TelemetryConfiguration config;
+
+    private volatile QuickPulseDocumentFilters documentFilters = QuickPulseDocumentFilters.DEFAULT;
+
+    // shared by the ping and the post thread, which both receive the collection configuration (guarded by this)
+    private String rejectedDocumentFiltersETag;
 
     static class FinalCounters {
         public final double exceptions;
@@ -55,6 +68,9 @@ public enum QuickPulseDataCollector {
         public final long unsuccessfulRdds;
         public final long memoryCommitted;
         public final double cpuUsage;
+        public final LatencyHistogram.Snapshot requestsDurationHistogram;
+        public final LatencyHistogram.Snapshot rddsDurationHistogram;
+        public final List<SampledDocument> documents;
 
         public FinalCounters(Counters currentCounters, MemoryMXBean memory, CpuPerformanceCounterCalculator cpuPerformanceCounterCalculator) {
             if (memory != null && memory.getHeapMemoryUsage() != null) {
@@ -71,52 +87,81 @@ public enum QuickPulseDataCollector {
             } else {
                 cpuUsage = -1;
             }
-            exceptions = currentCounters.exceptions.get();
+            exceptions = currentCounters.exceptions.sum();
 
-            CountAndDuration countAndDuration = Counters.decodeCountAndDuration(currentCounters.requestsAndDurations.get());
-            requests = countAndDuration.count;
-            this.requestsDuration = countAndDuration.duration;
-            this.unsuccessfulRequests = currentCounters.unsuccessfulRequests.get();
+            this.requests = currentCounters.requests.sum();
+            this.requestsDuration = currentCounters.requestsDuration.sum();
+            this.unsuccessfulRequests = currentCounters.unsuccessfulRequests.sum();
+            this.requestsDurationHistogram = currentCounters.requestsDurationHistogram.snapshot();
 
-            countAndDuration = Counters.decodeCountAndDuration(currentCounters.rddsAndDuations.get());
-            this.rdds = countAndDuration.count;
-            this.rddsDuration = countAndDuration.duration;
-            this.unsuccessfulRdds = currentCounters.unsuccessfulRdds.get();
-        }
-    }
-
-    static class CountAndDuration {
-        public final long count;
-        public final long duration;
+            this.rdds = currentCounters.rdds.sum();
+            this.rddsDuration = currentCounters.rddsDuration.sum();
+            this.unsuccessfulRdds = currentCounters.unsuccessfulRdds.sum();
+            this.rddsDurationHistogram = currentCounters.rddsDurationHistogram.snapshot();
 
-        private CountAndDuration(long count, long duration) {
-            this.count = count;
-            this.duration = duration;
+            this.documents = currentCounters.getDocuments();
         }
     }
 
+    /**
+     * Counters for a single collection interval.
+     *
+     * Every counter is a {@link LongAdder}, which stripes updates across cells when threads contend, so
+     * recording stays cheap on busy servers. Counts and durations are kept separately so neither can overflow
+     * into the other.
+     */
     static class Counters {
-        private static final long MAX_COUNT = 524287L;
-        private static final long MAX_DURATION = 17592186044415L;
+        final LongAdder exceptions = new LongAdder();
+
+        final LongAdder requests = new LongAdder();
+        final LongAdder requestsDuration = new LongAdder();
+        final LongAdder unsuccessfulRequests = new LongAdder();
+        final LatencyHistogram requestsDurationHistogram = new LatencyHistogram();
 
-        public final AtomicInteger exceptions = new AtomicInteger(0);
+        final LongAdder rdds = new LongAdder();
+        final LongAdder rddsDuration = new LongAdder();
+        final LongAdder unsuccessfulRdds = new LongAdder();
+        final LatencyHistogram rddsDurationHistogram = new LatencyHistogram();
 
-        final AtomicLong requestsAndDurations = new AtomicLong(0);
-        final AtomicInteger unsuccessfulRequests = new AtomicInteger(0);
+        // a bounded per-interval sample of telemetry for the document stream, claimed slot by slot without locking
+        private final AtomicReferenceArray<SampledDocument> documents = new AtomicReferenceArray<SampledDocument>(MAX_DOCUMENTS_PER_INTERVAL);
+        private final AtomicInteger documentSlots = new AtomicInteger();
 
-        final AtomicLong rddsAndDuations = new AtomicLong(0);
-        final AtomicInteger unsuccessfulRdds = new AtomicInteger(0);
+        boolean isDocumentSampleFull() {
+            return documentSlots.get() >= MAX_DOCUMENTS_PER_INTERVAL;
+        }
 
-        static long encodeCountAndDuration(long  count, long duration) {
-            if (count > MAX_COUNT || duration > MAX_DURATION) {
-                return 0;
+        void addDocument(SampledDocument document) {
+            int slot = documentSlots.getAndIncrement();
+            if (slot < MAX_DOCUMENTS_PER_INTERVAL) {
+                documents.set(slot, document);
             }
+        }
 
-            return (count << 44) + duration;
+        List<SampledDocument> getDocuments() {
+            int count = Math.min(documentSlots.get(), MAX_DOCUMENTS_PER_INTERVAL);
+            if (count == 0) {
+                return Collections.emptyList();
+            }
+            List<SampledDocument> result = new ArrayList<SampledDocument>(count);
+            for (int i = 0; i < count; i++) {
+                // a slot may have been claimed but not written yet, in which case the document is skipped
+                SampledDocument document = documents.get(i);
+                if (document != null) {
+                    result.add(document);
+                }
+            }
+            return result;
         }
+    }
+
+    static class SampledDocument {
+        final Telemetry telemetry;
+        final String[] documentStreamIds;
 
-        static CountAndDuration decodeCountAndDuration(long countAndDuration) {
-            return new CountAndDuration(countAndDuration >> 44, countAndDuration & MAX_DURATION);
+        SampledDocument(Telemetry telemetry, String[] documentStreamIds) {
+            this.telemetry = telemetry;
+            this.documentStreamIds = documentStreamIds;
         }
     }
 
@@ -147,6 +192,7 @@ public enum QuickPulseDataCollector {
 
     public synchronized void disable() {
         counters.set(null);
+        documentFilters = QuickPulseDocumentFilters.DEFAULT;
     }
 
     @Deprecated
@@ -180,8 +226,33 @@ public enum QuickPulseDataCollector {
         return null;
     }
 
+    String getDocumentFiltersETag() {
+        return documentFilters.getETag();
+    }
+
+    void setDocumentFilters(QuickPulseDocumentFilters documentFilters) {
+        this.documentFilters = documentFilters;
+    }
+
+    /**
+     * Returns false if this configuration was already rejected last time, since the service keeps sending
+     * a configuration until it is accepted.
+     */
+    synchronized boolean setRejectedDocumentFiltersETag(String etag) {
+        if (etag.equals(rejectedDocumentFiltersETag)) {
+            return false;
+        }
+        rejectedDocumentFiltersETag = etag;
+        return true;
+    }
+
     public void add(Telemetry telemetry) {
-        if (!telemetry.getContext().getInstrumentationKey().equals(getInstrumentationKey())) {
+        Counters counters = this.counters.get();
+        if (counters == null) {
+            return;
+        }
+        String instrumentationKey = telemetry.getContext().getInstrumentationKey();
+        if (instrumentationKey == null || !instrumentationKey.equals(getInstrumentationKey())) {
             return;
         }
 
@@ -193,9 +264,17 @@ public enum QuickPulseDataCollector {
         } else if (telemetry instanceof ExceptionTelemetry) {
             addException();
         }
+
+        if (!counters.isDocumentSampleFull()) {
+            String[] documentStreamIds = documentFilters.getMatchingStreamIds(telemetry);
+            if (documentStreamIds != null) {
+                counters.addDocument(new SampledDocument(telemetry, documentStreamIds));
+            }
+        }
     }
 
-    private synchronized String getInstrumentationKey() {
+    private String getInstrumentationKey() {
+        TelemetryConfiguration config = this.config;
         if (config != null) {
             return config.getInstrumentationKey();
         } else {
@@ -208,10 +287,12 @@ public enum QuickPulseDataCollector {
         if (counters == null) {
             return;
         }
-        counters.rddsAndDuations.addAndGet(
-                Counters.encodeCountAndDuration(1, telemetry.getDuration().getTotalMilliseconds()));
+        long durationMillis = telemetry.getDuration().getTotalMilliseconds();
+        counters.rdds.increment();
+        counters.rddsDuration.add(durationMillis);
+        counters.rddsDurationHistogram.record(durationMillis);
         if (!telemetry.getSuccess()) {
-            counters.unsuccessfulRdds.incrementAndGet();
+            counters.unsuccessfulRdds.increment();
         }
     }
 
@@ -221,7 +302,7 @@ public enum QuickPulseDataCollector {
             return;
         }
 
-        counters.exceptions.incrementAndGet();
+        counters.exceptions.increment();
     }
 
     private void addRequest(RequestTelemetry requestTelemetry) {
@@ -230,9 +311,12 @@ public enum QuickPulseDataCollector {
             return;
         }
 
-        counters.requestsAndDurations.addAndGet(Counters.encodeCountAndDuration(1, requestTelemetry.getDuration().getTotalMilliseconds()));
+        long durationMillis = requestTelemetry.getDuration().getTotalMilliseconds();
+        counters.requests.increment();
+        counters.requestsDuration.add(durationMillis);
+        counters.requestsDurationHistogram.record(durationMillis);
         if (!requestTelemetry.isSuccess()) {
-            counters.unsuccessfulRequests.incrementAndGet();
+            counters.unsuccessfulRequests.increment();
         }
     }
 }
@@ -0,0 +1,387 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import com.google.gson.Gson;
+import com.microsoft.applicationinsights.internal.quickpulse.CollectionConfigurationInfo.DocumentFilterConjunctionGroupInfo;
+import com.microsoft.applicationinsights.internal.quickpulse.CollectionConfigurationInfo.DocumentStreamInfo;
+import com.microsoft.applicationinsights.internal.quickpulse.CollectionConfigurationInfo.FilterInfo;
+import com.microsoft.applicationinsights.internal.schemav2.ExceptionDetails;
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.SeverityLevel;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The document stream filters of a Live Metrics session, compiled into predicates.
+ *
+ * Filters are compiled once when the service pushes a new collection configuration, so deciding whether a
+ * telemetry item should be sampled is a handful of field reads and comparisons. Until the service sends a
+ * configuration, {@link #DEFAULT} samples failed requests, failed dependencies and exceptions.
+ */
+final class QuickPulseDocumentFilters {
+
+    private static final Logger logger = LoggerFactory.getLogger(QuickPulseDocumentFilters.class);
+
+    private static final String[] DEFAULT_STREAM_IDS = new String[0];
+    private static final String CUSTOM_DIMENSIONS_PREFIX = "CustomDimensions.";
+    private static final String ANY_FIELD = "*";
+
+    static final QuickPulseDocumentFilters DEFAULT = new QuickPulseDocumentFilters(null, null);
+
+    private final String etag;
+    private final DocumentStream[] streams;
+
+    private QuickPulseDocumentFilters(String etag, DocumentStream[] streams) {
+        this.etag = etag;
+        this.streams = streams;
+    }
+
+    String getETag() {
+        return etag;
+    }
+
+    /**
+     * @return the ids of the document streams the telemetry item belongs to (an empty array for the
+     * default stream), or null if it should not be sampled
+     */
+    String[] getMatchingStreamIds(Telemetry telemetry) {
+        if (streams == null) {
+            return matchesDefault(telemetry) ? DEFAULT_STREAM_IDS : null;
+        }
+
+        String[] matches = null;
+        int count = 0;
+        for (DocumentStream stream : streams) {
+            if (stream.matches(telemetry)) {
+                if (matches == null) {
+                    matches = new String[streams.length];
+                }
+                matches[count++] = stream.id;
+            }
+        }
+        if (matches == null || count == matches.length) {
+            return matches;
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    private static boolean matchesDefault(Telemetry telemetry) {
+        if (telemetry instanceof RequestTelemetry) {
+            return !((RequestTelemetry) telemetry).isSuccess();
+        } else if (telemetry instanceof RemoteDependencyTelemetry) {
+            return !((RemoteDependencyTelemetry) telemetry).getSuccess();
+        }
+        return telemetry instanceof ExceptionTelemetry;
+    }
+
+    /**
+     * @param etag the etag the service sent along with the configuration, which takes precedence over the one in the body
+     */
+    static QuickPulseDocumentFilters parse(String json, String etag) {
+        CollectionConfigurationInfo info = new Gson().fromJson(json, CollectionConfigurationInfo.class);
+        if (info == null) {
+            throw new IllegalArgumentException("Empty collection configuration");
+        }
+        if (etag != null) {
+            info.etag = etag;
+        }
+        return compile(info);
+    }
+
+    static QuickPulseDocumentFilters compile(CollectionConfigurationInfo info) {
+        List<DocumentStream> streams = new ArrayList<>();
+        if (info.documentStreams != null) {
+            for (DocumentStreamInfo streamInfo : info.documentStreams) {
+                if (streamInfo == null || streamInfo.id == null) {
+                    continue;
+                }
+                List<Predicate<Telemetry>> groups = new ArrayList<>();
+                if (streamInfo.documentFilterGroups != null) {
+                    for (DocumentFilterConjunctionGroupInfo groupInfo : streamInfo.documentFilterGroups) {
+                        Predicate<Telemetry> group = compileGroup(groupInfo);
+                        if (group != null) {
+                            groups.add(group);
+                        }
+                    }
+                }
+                streams.add(new DocumentStream(streamInfo.id, groups));
+            }
+        }
+        return new QuickPulseDocumentFilters(info.etag, streams.toArray(new DocumentStream[0]));
+    }
+
+    private static Predicate<Telemetry> compileGroup(DocumentFilterConjunctionGroupInfo groupInfo) {
+        if (groupInfo == null) {
+            return null;
+        }
+        final Class<? extends Telemetry> telemetryClass = getTelemetryClass(groupInfo.telemetryType);
+        if (telemetryClass == null) {
+            logger.trace("Ignoring Live Metrics filter group for unsupported telemetry type '{}'", groupInfo.telemetryType);
+            return null;
+        }
+
+        Predicate<Telemetry> group = telemetryClass::isInstance;
+        if (groupInfo.filters != null && groupInfo.filters.filters != null) {
+            for (FilterInfo filterInfo : groupInfo.filters.filters) {
+                if (filterInfo == null) {
+                    continue;
+                }
+                Predicate<Telemetry> filter = compileFilter(telemetryClass, filterInfo);
+                if (filter == null) {
+                    logger.trace("Ignoring Live Metrics filter group with unsupported filter '{} {} {}'",
+                            filterInfo.fieldName, filterInfo.predicate, filterInfo.comparand);
+                    return null;
+                }
+                group = group.and(filter);
+            }
+        }
+        return group;
+    }
+
+    private static Class<? extends Telemetry> getTelemetryClass(String telemetryType) {
+        if ("Request".equals(telemetryType)) {
+            return RequestTelemetry.class;
+        } else if ("Dependency".equals(telemetryType)) {
+            return RemoteDependencyTelemetry.class;
+        } else if ("Exception".equals(telemetryType)) {
+            return ExceptionTelemetry.class;
+        } else if ("Event".equals(telemetryType)) {
+            return EventTelemetry.class;
+        } else if ("Trace".equals(telemetryType)) {
+            return TraceTelemetry.class;
+        }
+        return null;
+    }
+
+    private static Predicate<Telemetry> compileFilter(Class<? extends Telemetry> telemetryClass, FilterInfo filterInfo) {
+        if (filterInfo.fieldName == null || filterInfo.predicate == null) {
+            return null;
+        }
+        final String comparand = filterInfo.comparand == null ? "" : filterInfo.comparand;
+        if (ANY_FIELD.equals(filterInfo.fieldName)) {
+            final List<Function<Telemetry, Object>> fields = getAllFields(telemetryClass);
+            final Predicate<Object> valuePredicate = compileValuePredicate(filterInfo.predicate, comparand);
+            if (valuePredicate == null) {
+                return null;
+            }
+            // "does not contain" has to hold for every field, everything else for at least one of them
+            final boolean all = "DoesNotContain".equals(filterInfo.predicate);
+            return telemetry -> {
+                for (Function<Telemetry, Object> field : fields) {
+                    if (valuePredicate.test(field.apply(telemetry)) != all) {
+                        return !all;
+                    }
+                }
+                return all;
+            };
+        }
+
+        final Function<Telemetry, Object> field = getField(telemetryClass, filterInfo.fieldName);
+        final Predicate<Object> valuePredicate = compileValuePredicate(filterInfo.predicate, comparand);
+        if (field == null || valuePredicate == null) {
+            return null;
+        }
+        return telemetry -> valuePredicate.test(field.apply(telemetry));
+    }
+
+    private static Function<Telemetry, Object> getField(Class<? extends Telemetry> telemetryClass, String fieldName) {
+        if (fieldName.startsWith(CUSTOM_DIMENSIONS_PREFIX)) {
+            final String key = fieldName.substring(CUSTOM_DIMENSIONS_PREFIX.length());
+            return telemetry -> telemetry.getProperties().get(key);
+        }
+        if (telemetryClass == RequestTelemetry.class) {
+            switch (fieldName) {
+                case "Name": return telemetry -> ((RequestTelemetry) telemetry).getName();
+                case "Success": return telemetry -> ((RequestTelemetry) telemetry).isSuccess();
+                case "ResponseCode": return telemetry -> ((RequestTelemetry) telemetry).getResponseCode();
+                case "Url": return telemetry -> ((RequestTelemetry) telemetry).getUrlString();
+                case "Duration": return telemetry -> ((RequestTelemetry) telemetry).getDuration().getTotalMilliseconds();
+                default: return null;
+            }
+        } else if (telemetryClass == RemoteDependencyTelemetry.class) {
+            switch (fieldName) {
+                case "Name": return telemetry -> ((RemoteDependencyTelemetry) telemetry).getName();
+                case "Success": return telemetry -> ((RemoteDependencyTelemetry) telemetry).getSuccess();
+                case "ResultCode": return telemetry -> ((RemoteDependencyTelemetry) telemetry).getResultCode();
+                case "Target": return telemetry -> ((RemoteDependencyTelemetry) telemetry).getTarget();
+                case "Type": return telemetry -> ((RemoteDependencyTelemetry) telemetry).getType();
+                case "Data": return telemetry -> ((RemoteDependencyTelemetry) telemetry).getCommandName();
+                case "Duration": return telemetry -> ((RemoteDependencyTelemetry) telemetry).getDuration().getTotalMilliseconds();
+                default: return null;
+            }
+        } else if (telemetryClass == ExceptionTelemetry.class) {
+            switch (fieldName) {
+                case "Exception.Message": return telemetry -> {
+                    ExceptionDetails details = getOutermostException((ExceptionTelemetry) telemetry);
+                    return details == null ? null : details.getMessage();
+                };
+                case "Exception.Type": return telemetry -> {
+                    ExceptionDetails details = getOutermostException((ExceptionTelemetry) telemetry);
+                    return details == null ? null : details.getTypeName();
+                };
+                default: return null;
+            }
+        } else if (telemetryClass == EventTelemetry.class) {
+            return "Name".equals(fieldName) ? telemetry -> ((EventTelemetry) telemetry).getName() : null;
+        } else if (telemetryClass == TraceTelemetry.class) {
+            switch (fieldName) {
+                case "Message": return telemetry -> ((TraceTelemetry) telemetry).getMessage();
+                case "SeverityLevel": return telemetry -> {
+                    SeverityLevel severityLevel = ((TraceTelemetry) telemetry).getSeverityLevel();
+                    return severityLevel == null ? null : severityLevel.name();
+                };
+                default: return null;
+            }
+        }
+        return null;
+    }
+
+    private static List<Function<Telemetry, Object>> getAllFields(Class<? extends Telemetry> telemetryClass) {
+        final String[] names;
+        if (telemetryClass == RequestTelemetry.class) {
+            names = new String[] {"Name", "ResponseCode", "Url"};
+        } else if (telemetryClass == RemoteDependencyTelemetry.class) {
+            names = new String[] {"Name", "ResultCode", "Target", "Type", "Data"};
+        } else if (telemetryClass == ExceptionTelemetry.class) {
+            names = new String[] {"Exception.Message", "Exception.Type"};
+        } else if (telemetryClass == TraceTelemetry.class) {
+            names = new String[] {"Message"};
+        } else {
+            names = new String[] {"Name"};
+        }
+        List<Function<Telemetry, Object>> fields = new ArrayList<>(names.length + 1);
+        for (String name : names) {
+            fields.add(getField(telemetryClass, name));
+        }
+        fields.add(telemetry -> StringUtils.join(telemetry.getProperties().values(), ' '));
+        return fields;
+    }
+
+    static ExceptionDetails getOutermostException(ExceptionTelemetry telemetry) {
+        List<ExceptionDetails> exceptions = telemetry.getExceptions();
+        return exceptions == null || exceptions.isEmpty() ? null : exceptions.get(0);
+    }
+
+    private static Predicate<Object> compileValuePredicate(String predicate, final String comparand) {
+        final Double numericComparand = parseNumber(comparand);
+        switch (predicate) {
+            case "Equal":
+                return value -> compare(value, comparand, numericComparand) == 0;
+            case "NotEqual":
+                return value -> compare(value, comparand, numericComparand) != 0;
+            case "LessThan":
+                return value -> numericComparand != null && compare(value, comparand, numericComparand) < 0;
+            case "GreaterThan":
+                return value -> numericComparand != null && compare(value, comparand, numericComparand) > 0;
+            case "LessThanOrEqual":
+                return value -> numericComparand != null && compare(value, comparand, numericComparand) <= 0;
+            case "GreaterThanOrEqual":
+                return value -> numericComparand != null && compare(value, comparand, numericComparand) >= 0;
+            case "Contains":
+                return value -> value != null && StringUtils.containsIgnoreCase(value.toString(), comparand);
+            case "DoesNotContain":
+                return value -> value == null || !StringUtils.containsIgnoreCase(value.toString(), comparand);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Compares a field value to the comparand; values that can't be ordered compare as "not equal" (1).
+     */
+    private static int compare(Object value, String comparand, Double numericComparand) {
+        if (value == null) {
+            return comparand.isEmpty() ? 0 : 1;
+        }
+        if (value instanceof Boolean) {
+            return ((Boolean) value).toString().equalsIgnoreCase(comparand) ? 0 : 1;
+        }
+        if (numericComparand != null) {
+            Double number = value instanceof Number ? Double.valueOf(((Number) value).doubleValue()) : parseNumber(value.toString());
+            if (number != null) {
+                return Double.compare(number, numericComparand);
+            }
+        }
+        return value.toString().equalsIgnoreCase(comparand) ? 0 : 1;
+    }
+
+    /**
+     * Parses a number, also accepting a .NET TimeSpan ("[d.]hh:mm:ss[.fffffff]") which is converted to milliseconds.
+     */
+    static Double parseNumber(String text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        try {
+            if (text.indexOf(':') == -1) {
+                return Double.parseDouble(text);
+            }
+            String[] parts = text.split(":");
+            if (parts.length != 3) {
+                return null;
+            }
+            String hours = parts[0];
+            long days = 0;
+            int dot = hours.indexOf('.');
+            if (dot != -1) {
+                days = Long.parseLong(hours.substring(0, dot));
+                hours = hours.substring(dot + 1);
+            }
+            return (((days * 24 + Long.parseLong(hours)) * 60 + Long.parseLong(parts[1])) * 60
+                    + Double.parseDouble(parts[2])) * 1000;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static final class DocumentStream {
+        private final String id;
+        private final Predicate<Telemetry>[] groups;
+
+        @SuppressWarnings("unchecked")
+        private DocumentStream(String id, List<Predicate<Telemetry>> groups) {
+            this.id = id;
+            this.groups = groups.toArray(new Predicate[0]);
+        }
+
+        private boolean matches(Telemetry telemetry) {
+            for (Predicate<Telemetry> group : groups) {
+                if (group.test(telemetry)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -24,22 +24,34 @@ package com.microsoft.applicationinsights.internal.quickpulse;
 import java.util.Date;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Created by gupele on 12/12/2016.
  */
 final class QuickPulseNetworkHelper {
+
+    private static final Logger logger = LoggerFactory.getLogger(QuickPulseNetworkHelper.class);
+
     private final static long TICKS_AT_EPOCH = 621355968000000000L;
     private static final String HEADER_TRANSMISSION_TIME = "x-ms-qps-transmission-time";
     private final static String QP_STATUS_HEADER = "x-ms-qps-subscribed";
+    private final static String QP_CONFIGURATION_ETAG_HEADER = "x-ms-qps-configuration-etag";
 
     public HttpPost buildRequest(Date currentDate, String address) {
         final long ticks = currentDate.getTime() * 10000 + TICKS_AT_EPOCH;
 
         HttpPost request = new HttpPost(address);
         request.addHeader(HEADER_TRANSMISSION_TIME, String.valueOf(ticks));
+        final String etag = QuickPulseDataCollector.INSTANCE.getDocumentFiltersETag();
+        if (etag != null) {
+            request.addHeader(QP_CONFIGURATION_ETAG_HEADER, etag);
+        }
         return request;
     }
 
@@ -61,4 +73,41 @@ final class QuickPulseNetworkHelper {
 
         return QuickPulseStatus.ERROR;
     }
+
+    /**
+     * Applies the collection configuration in the response body if the service indicates that it
+     * differs from the one currently in use. Must be called before the response is disposed.
+     */
+    public void updateCollectionConfiguration(HttpResponse response) {
+        Header header = response.getFirstHeader(QP_CONFIGURATION_ETAG_HEADER);
+        if (header == null) {
+            return;
+        }
+        final String etag = header.getValue();
+        if (etag == null || etag.equals(QuickPulseDataCollector.INSTANCE.getDocumentFiltersETag())) {
+            return;
+        }
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+        try {
+            QuickPulseDocumentFilters documentFilters = QuickPulseDocumentFilters.parse(EntityUtils.toString(entity, "UTF-8"), etag);
+            QuickPulseDataCollector.INSTANCE.setDocumentFilters(documentFilters);
+        } catch (ThreadDeath td) {
+            throw td;
+        } catch (Throwable t) {
+            try {
+                // the service keeps sending a configuration until it is accepted, so only log it once
+                if (QuickPulseDataCollector.INSTANCE.setRejectedDocumentFiltersETag(etag)) {
+                    logger.warn("Quick Pulse failed to apply the collection configuration: {}", t.toString());
+                }
+                logger.trace("Quick Pulse failed to apply the collection configuration", t);
+            } catch (ThreadDeath td) {
+                throw td;
+            } catch (Throwable t2) {
+                // chomp
+            }
+        }
+    }
 }
@@ -0,0 +1,69 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Builds QuickPulse request bodies in buffers that are kept between requests, so that steady state posting only
+ * allocates the final body. Not thread safe, each instance is meant to be used by a single sending thread.
+ */
+final class QuickPulsePayloadEncoder {
+
+    private final StringBuilder payload;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer bytes;
+
+    QuickPulsePayloadEncoder(int initialCapacity) {
+        payload = new StringBuilder(initialCapacity);
+        bytes = ByteBuffer.allocate(initialCapacity);
+    }
+
+    /**
+     * @return the (emptied) builder to write the next payload into
+     */
+    StringBuilder begin() {
+        payload.setLength(0);
+        return payload;
+    }
+
+    /**
+     * @return the UTF-8 encoding of the payload written since the last call to {@link #begin()}
+     */
+    byte[] encode() {
+        int maxLength = (int) Math.ceil(payload.length() * (double) encoder.maxBytesPerChar());
+        if (bytes.capacity() < maxLength) {
+            bytes = ByteBuffer.allocate(maxLength);
+        }
+        bytes.clear();
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(payload), bytes, true);
+        encoder.flush(bytes);
+        return Arrays.copyOf(bytes.array(), bytes.position());
+    }
+}
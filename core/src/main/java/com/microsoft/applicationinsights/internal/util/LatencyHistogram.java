@@ -0,0 +1,130 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.util;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-bucket histogram of durations in milliseconds.
+ *
+ * Each bucket is a {@link LongAdder}, so concurrent recording from request threads does not contend on a
+ * single memory location. Percentiles are estimated by linear interpolation inside the matching bucket,
+ * which is accurate enough for dashboards (Live Metrics, GC pauses) and needs no per-sample storage.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Inclusive upper bounds (in milliseconds) of every bucket but the last, which is unbounded.
+     */
+    public static final long[] BUCKET_BOUNDS = {
+            1, 2, 5, 10, 25, 50, 75, 100, 150, 250, 500, 750, 1000, 1500, 2500, 5000, 10000, 30000, 60000, 300000
+    };
+
+    private final LongAdder[] buckets;
+
+    public LatencyHistogram() {
+        buckets = new LongAdder[BUCKET_BOUNDS.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long durationMillis) {
+        buckets[bucketIndex(durationMillis)].increment();
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return new Snapshot(counts);
+    }
+
+    public static int bucketIndex(long durationMillis) {
+        int index = Arrays.binarySearch(BUCKET_BOUNDS, durationMillis);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long totalCount;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.totalCount = total;
+        }
+
+        public long getTotalCount() {
+            return totalCount;
+        }
+
+        public long getBucketCount(int index) {
+            return counts[index];
+        }
+
+        /**
+         * @param earlier A snapshot of the same histogram, taken before this one
+         * @return The durations recorded between the two snapshots
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] delta = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                delta[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(delta);
+        }
+
+        /**
+         * Estimates the given percentile.
+         * @param percentile a value between 0 and 100
+         * @return the estimated duration in milliseconds, or 0 if nothing was recorded
+         */
+        public double getPercentile(double percentile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            double rank = Math.max(1, Math.ceil(percentile / 100.0 * totalCount));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    continue;
+                }
+                if (seen + counts[i] >= rank) {
+                    double lower = i == 0 ? 0 : BUCKET_BOUNDS[i - 1];
+                    if (i == BUCKET_BOUNDS.length) {
+                        // the overflow bucket has no upper bound, so report its lower bound
+                        return lower;
+                    }
+                    double upper = BUCKET_BOUNDS[i];
+                    return lower + (upper - lower) * ((rank - seen) / counts[i]);
+                }
+                seen += counts[i];
+            }
+            return BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1];
+        }
+    }
+}
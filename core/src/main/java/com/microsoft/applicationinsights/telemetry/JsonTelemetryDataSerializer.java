@@ -29,7 +29,9 @@ import java.util.Map;
 import com.google.common.base.Strings;
 import com.microsoft.applicationinsights.internal.schemav2.DataPointType;
 import com.microsoft.applicationinsights.internal.util.LocalStringsUtils;
+import com.squareup.moshi.JsonReader;
 import com.squareup.moshi.JsonWriter;
+import okio.Buffer;
 
 /**
  * This class knows how to transform data that is relevant to {@link Telemetry} instances into JSON.
@@ -224,6 +226,63 @@ public final class JsonTelemetryDataSerializer {
         }
     }
 
+    /**
+     * Copies the fields of a Json object that was serialized before, e.g. the envelope of a telemetry that was
+     * serialized on the thread that tracked it.
+     *
+     * @param utf8JsonObject The UTF-8 encoded Json object
+     * @throws IOException If the bytes are not a Json object
+     */
+    public void writeFields(byte[] utf8JsonObject) throws IOException {
+        JsonReader reader = JsonReader.of(new Buffer().write(utf8JsonObject));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            writeName(reader.nextName());
+            copyValue(reader);
+        }
+        reader.endObject();
+    }
+
+    private void copyValue(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                out.beginObject();
+                while (reader.hasNext()) {
+                    out.name(reader.nextName());
+                    copyValue(reader);
+                }
+                out.endObject();
+                reader.endObject();
+                break;
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                out.beginArray();
+                while (reader.hasNext()) {
+                    copyValue(reader);
+                }
+                out.endArray();
+                reader.endArray();
+                break;
+            case STRING:
+                out.value(reader.nextString());
+                break;
+            case NUMBER:
+                // copied as written, e.g. so that "ver":1 doesn't become "ver":1.0
+                out.value(new Buffer().writeUtf8(reader.nextString()));
+                break;
+            case BOOLEAN:
+                out.value(reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                out.nullValue();
+                break;
+            default:
+                throw new IOException("Unexpected Json token " + reader.peek() + " at " + reader.getPath());
+        }
+    }
+
     private <T> void write(T item) throws IOException {
         if (item instanceof JsonSerializable) {
             writeObject((JsonSerializable) item);
@@ -0,0 +1,235 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.web.internal.correlation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.customExceptions.FriendlyException;
+import com.microsoft.applicationinsights.internal.util.ThreadPoolUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the resolved application ids in a local file, so that after a restart the application id is available
+ * right away, instead of after a profile query, and a fleet of restarting JVMs doesn't all issue the same query.
+ *
+ * The entries are keyed by the profile query url, which holds both the instrumentation key and the endpoint.
+ * An entry that is older than the time to live is still used, but it is revalidated in the background
+ * (the file is updated once the profile query completes).
+ *
+ * The file can be shared by several JVMs on the same host: it is re-read before each update,
+ * and replaced atomically where the file system supports it.
+ */
+public class CachingApplicationIdResolver implements ApplicationIdResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingApplicationIdResolver.class);
+
+    // set by the agent at startup (before InstrumentationKeyResolver is initialized) to enable the cache
+    public static volatile File defaultCacheFile;
+    public static volatile long defaultTimeToLiveMinutes = TimeUnit.DAYS.toMinutes(1);
+
+    private static final long REVALIDATION_INTERVAL_MILLIS = 1000;
+    // the profile query times out after 5 seconds, this leaves room for it to complete
+    private static final int MAX_REVALIDATION_ATTEMPTS = 30;
+
+    private final ApplicationIdResolver delegate;
+    private final File cacheFile;
+    private final long timeToLiveMillis;
+
+    // keys that have been (or are being) revalidated by this process
+    private final Set<String> revalidatedKeys = ConcurrentHashMap.newKeySet();
+
+    // the file content as of the last read or write by this process, it is read only once
+    // since the application ids are also cached in memory once resolved (see InstrumentationKeyResolver)
+    private volatile Properties entries;
+
+    private volatile ScheduledExecutorService revalidationExecutor;
+
+    public CachingApplicationIdResolver(ApplicationIdResolver delegate, File cacheFile, long timeToLive, TimeUnit unit) {
+        this.delegate = delegate;
+        this.cacheFile = cacheFile;
+        this.timeToLiveMillis = unit.toMillis(timeToLive);
+    }
+
+    @Override
+    public ProfileFetcherResult fetchApplicationId(String instrumentationKey, TelemetryConfiguration configuration)
+            throws ApplicationIdResolutionException, InterruptedException, FriendlyException {
+
+        String key = getKey(instrumentationKey, configuration);
+        Entry entry = read(key);
+        if (entry == null) {
+            ProfileFetcherResult result = delegate.fetchApplicationId(instrumentationKey, configuration);
+            if (result.getStatus() == ProfileFetcherResultTaskStatus.COMPLETE) {
+                write(key, result.getAppId());
+            }
+            return result;
+        }
+        if (System.currentTimeMillis() - entry.timestamp > timeToLiveMillis && revalidatedKeys.add(key)) {
+            revalidate(key, instrumentationKey, configuration);
+        }
+        return new ProfileFetcherResult(entry.appId, ProfileFetcherResultTaskStatus.COMPLETE);
+    }
+
+    static String getKey(String instrumentationKey, TelemetryConfiguration configuration) {
+        return configuration.getEndpointProvider().getAppIdEndpointURL(instrumentationKey).toString();
+    }
+
+    // the profile query is asynchronous, so it is polled until it completes
+    private void revalidate(final String key, final String instrumentationKey, final TelemetryConfiguration configuration) {
+        logger.debug("Revalidating cached application id for {}", key);
+        final ScheduledExecutorService executor = getRevalidationExecutor();
+        executor.schedule(new Runnable() {
+            private int attempts;
+
+            @Override
+            public void run() {
+                try {
+                    ProfileFetcherResult result = delegate.fetchApplicationId(instrumentationKey, configuration);
+                    switch (result.getStatus()) {
+                        case COMPLETE:
+                            write(key, result.getAppId());
+                            return;
+                        case PENDING:
+                            if (++attempts < MAX_REVALIDATION_ATTEMPTS) {
+                                executor.schedule(this, REVALIDATION_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                                return;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                    logger.debug("Could not revalidate cached application id for {}, keeping the cached one", key);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    logger.debug("Could not revalidate cached application id for {}, keeping the cached one: {}", key, e.toString());
+                }
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+    }
+
+    private ScheduledExecutorService getRevalidationExecutor() {
+        if (revalidationExecutor == null) {
+            synchronized (this) {
+                if (revalidationExecutor == null) {
+                    revalidationExecutor = Executors.newSingleThreadScheduledExecutor(
+                            ThreadPoolUtils.createDaemonThreadFactory(CachingApplicationIdResolver.class));
+                }
+            }
+        }
+        return revalidationExecutor;
+    }
+
+    private Entry read(String key) {
+        Properties entries = this.entries;
+        if (entries == null) {
+            entries = load();
+            this.entries = entries;
+        }
+        String value = entries.getProperty(key);
+        if (value == null) {
+            return null;
+        }
+        int index = value.lastIndexOf(',');
+        if (index <= 0) {
+            return null;
+        }
+        try {
+            return new Entry(value.substring(0, index), Long.parseLong(value.substring(index + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private synchronized void write(String key, String appId) {
+        Properties properties = load();
+        properties.setProperty(key, appId + "," + System.currentTimeMillis());
+        entries = properties;
+        Path tmpFile = null;
+        try {
+            File dir = cacheFile.getAbsoluteFile().getParentFile();
+            if (!dir.exists() && !dir.mkdirs()) {
+                throw new IOException("Could not create directory: " + dir);
+            }
+            // a temp file per write, so that processes sharing the cache file don't write into each other's temp file
+            tmpFile = Files.createTempFile(dir.toPath(), cacheFile.getName(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmpFile)) {
+                properties.store(out, "Application Insights application id cache");
+            }
+            try {
+                Files.move(tmpFile, cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmpFile = null;
+        } catch (IOException e) {
+            logger.debug("Could not write application id cache file {}: {}", cacheFile, e.toString());
+        } finally {
+            if (tmpFile != null) {
+                try {
+                    Files.deleteIfExists(tmpFile);
+                } catch (IOException e) {
+                    tmpFile.toFile().deleteOnExit();
+                }
+            }
+        }
+    }
+
+    private Properties load() {
+        Properties properties = new Properties();
+        if (!cacheFile.exists()) {
+            return properties;
+        }
+        try (InputStream in = new FileInputStream(cacheFile)) {
+            properties.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            // a corrupted file is simply overwritten with the next resolved application id
+            logger.debug("Could not read application id cache file {}: {}", cacheFile, e.toString());
+        }
+        return properties;
+    }
+
+    private static class Entry {
+        private final String appId;
+        private final long timestamp;
+
+        private Entry(String appId, long timestamp) {
+            this.appId = appId;
+            this.timestamp = timestamp;
+        }
+    }
+}
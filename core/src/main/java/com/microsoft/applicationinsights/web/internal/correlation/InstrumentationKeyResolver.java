@@ -21,8 +21,10 @@
 
 package com.microsoft.applicationinsights.web.internal.correlation;
 
+import java.io.File;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.microsoft.applicationinsights.TelemetryConfiguration;
@@ -43,7 +45,13 @@ public enum InstrumentationKeyResolver {
 
     InstrumentationKeyResolver() {
         this.appIdCache = new ConcurrentHashMap<>();
-        this.appIdResolver = new CdsProfileFetcher();
+        ApplicationIdResolver appIdResolver = new CdsProfileFetcher();
+        File cacheFile = CachingApplicationIdResolver.defaultCacheFile;
+        if (cacheFile != null) {
+            appIdResolver = new CachingApplicationIdResolver(appIdResolver, cacheFile,
+                    CachingApplicationIdResolver.defaultTimeToLiveMinutes, TimeUnit.MINUTES);
+        }
+        this.appIdResolver = appIdResolver;
     }
 
     public void clearCache() {
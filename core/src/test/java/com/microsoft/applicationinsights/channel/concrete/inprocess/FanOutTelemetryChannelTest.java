@@ -0,0 +1,187 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.channel.concrete.inprocess;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Charsets;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.microsoft.applicationinsights.channel.TelemetryChannel;
+import com.microsoft.applicationinsights.channel.concrete.TelemetryChannelBase;
+import com.microsoft.applicationinsights.internal.channel.common.SerializedTelemetry;
+import com.microsoft.applicationinsights.internal.channel.common.TelemetryLane;
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FanOutTelemetryChannelTest {
+
+    private static final String MAIN_IKEY = "00000000-0000-0000-0000-0FEEDDADBEEF";
+    private static final String OTHER_IKEY = "11111111-1111-1111-1111-111111111111";
+
+    private StubChannel mainChannel;
+    private StubChannel otherChannel;
+    private FanOutTelemetryChannel channel;
+
+    @Before
+    public void setUp() {
+        mainChannel = new StubChannel();
+        otherChannel = new StubChannel();
+        Map<String, TelemetryChannel> destinations = new LinkedHashMap<>();
+        destinations.put(OTHER_IKEY, otherChannel);
+        channel = new FanOutTelemetryChannel(mainChannel, destinations);
+    }
+
+    @Test
+    public void testCopyOnlyDiffersInInstrumentationKey() {
+        EventTelemetry telemetry = new EventTelemetry("test");
+        telemetry.getContext().setInstrumentationKey(MAIN_IKEY);
+        telemetry.getProperties().put("prop", "value");
+
+        channel.send(telemetry);
+
+        JsonObject main = parse(mainChannel.items.get(0));
+        JsonObject other = parse(otherChannel.items.get(0));
+        assertEquals(MAIN_IKEY, main.get("iKey").getAsString());
+        assertEquals("Microsoft.ApplicationInsights.000000000000000000000feeddadbeef.Event", main.get("name").getAsString());
+        assertEquals(OTHER_IKEY, other.get("iKey").getAsString());
+        assertEquals("Microsoft.ApplicationInsights.11111111111111111111111111111111.Event", other.get("name").getAsString());
+
+        other.addProperty("iKey", MAIN_IKEY);
+        other.addProperty("name", main.get("name").getAsString());
+        assertEquals(main, other);
+    }
+
+    @Test
+    public void testCopyKeepsLane() {
+        RequestTelemetry telemetry = new RequestTelemetry();
+        telemetry.getContext().setInstrumentationKey(MAIN_IKEY);
+
+        channel.send(telemetry);
+
+        assertEquals(TelemetryLane.HIGH, TelemetryLane.of(mainChannel.items.get(0)));
+        assertEquals(TelemetryLane.HIGH, TelemetryLane.of(otherChannel.items.get(0)));
+    }
+
+    @Test
+    public void testWithoutMainInstrumentationKey() {
+        EventTelemetry telemetry = new EventTelemetry("test");
+        // must not be mistaken for the envelope's iKey
+        telemetry.getProperties().put("iKey", "value");
+
+        channel.send(telemetry);
+
+        JsonObject main = parse(mainChannel.items.get(0));
+        JsonObject other = parse(otherChannel.items.get(0));
+        assertNull(main.get("iKey"));
+        assertEquals(OTHER_IKEY, other.get("iKey").getAsString());
+        assertEquals("Microsoft.ApplicationInsights.11111111111111111111111111111111.Event", other.get("name").getAsString());
+        assertEquals("value", other.getAsJsonObject("data").getAsJsonObject("baseData").getAsJsonObject("properties").get("iKey").getAsString());
+        assertNull(telemetry.getContext().getInstrumentationKey());
+    }
+
+    @Test
+    public void testAlreadySerializedTelemetry() throws Exception {
+        EventTelemetry telemetry = new EventTelemetry("test");
+        telemetry.getContext().setInstrumentationKey(MAIN_IKEY);
+        SerializedTelemetry serialized = SerializedTelemetry.serialize(telemetry);
+
+        channel.send(serialized);
+
+        assertSame(serialized, mainChannel.items.get(0));
+        assertEquals(OTHER_IKEY, parse(otherChannel.items.get(0)).get("iKey").getAsString());
+    }
+
+    @Test
+    public void testDestinationChannelConfigDoesNotKeepTheMainEndpoint() {
+        Map<String, String> channelConfig = new HashMap<>();
+        channelConfig.put(TelemetryChannelBase.ENDPOINT_ADDRESS_NAME, "https://main.example/v2/track");
+        channelConfig.put(TelemetryChannelBase.MAX_TELEMETRY_BUFFER_CAPACITY_NAME, "1000");
+
+        Map<String, String> destinationChannelConfig = FanOutTelemetryChannel.getDestinationChannelConfig(channelConfig, OTHER_IKEY);
+
+        assertFalse(destinationChannelConfig.containsKey(TelemetryChannelBase.ENDPOINT_ADDRESS_NAME));
+        assertEquals("1000", destinationChannelConfig.get(TelemetryChannelBase.MAX_TELEMETRY_BUFFER_CAPACITY_NAME));
+        assertTrue(destinationChannelConfig.get(TelemetryChannelBase.TRANSMISSION_STORAGE_FOLDER_NAME).endsWith("transmissions-11111111111111111111111111111111"));
+        // the main channel still uses it
+        assertEquals("https://main.example/v2/track", channelConfig.get(TelemetryChannelBase.ENDPOINT_ADDRESS_NAME));
+    }
+
+    @Test
+    public void testDeveloperMode() {
+        channel.setDeveloperMode(true);
+        assertTrue(mainChannel.isDeveloperMode());
+        assertTrue(otherChannel.isDeveloperMode());
+
+        EventTelemetry telemetry = new EventTelemetry("test");
+        telemetry.getContext().setInstrumentationKey(MAIN_IKEY);
+        channel.send(telemetry);
+
+        JsonObject other = parse(otherChannel.items.get(0));
+        assertEquals("true", other.getAsJsonObject("data").getAsJsonObject("baseData").getAsJsonObject("properties").get("DeveloperMode").getAsString());
+    }
+
+    private static JsonObject parse(Telemetry telemetry) {
+        assertTrue(telemetry instanceof SerializedTelemetry);
+        String json = new String(((SerializedTelemetry) telemetry).getBytes(), Charsets.UTF_8);
+        return new Gson().fromJson(json, JsonObject.class);
+    }
+
+    private static class StubChannel implements TelemetryChannel {
+
+        private final List<Telemetry> items = new ArrayList<>();
+        private boolean developerMode;
+
+        @Override
+        public boolean isDeveloperMode() {
+            return developerMode;
+        }
+
+        @Override
+        public void setDeveloperMode(boolean value) {
+            developerMode = value;
+        }
+
+        @Override
+        public void send(Telemetry item) {
+            items.add(item);
+        }
+
+        @Override
+        public void shutdown(long timeout, TimeUnit timeUnit) {
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+}
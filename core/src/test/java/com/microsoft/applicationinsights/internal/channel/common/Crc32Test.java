@@ -19,42 +19,39 @@
  * DEALINGS IN THE SOFTWARE.
  */
 
-package com.microsoft.applicationinsights.internal.perfcounter;
+package com.microsoft.applicationinsights.internal.channel.common;
 
-import org.junit.Test;
+import java.util.Random;
+import java.util.zip.CRC32;
 
-import static org.junit.Assert.*;
-
-public final class UnixProcessIOtParserTest {
-    @Test
-    public void testProcess() {
-        UnixProcessIOtParser parser = new UnixProcessIOtParser();
-
-        parser.process("rchar: 1661777");
-        assertFalse(parser.done());
-
-        parser.process("wchar: 7431");
-        assertFalse(parser.done());
-
-        parser.process("syscr: 1240");
-        assertFalse(parser.done());
+import org.junit.*;
 
-        parser.process("syscw: 123");
-        assertFalse(parser.done());
+import static org.junit.Assert.*;
 
-        parser.process("read_bytes: 7335936");
-        assertFalse(parser.done());
+public class Crc32Test {
 
-        parser.process("write_bytes: 12288");
-        assertTrue(parser.done());
-        assertEquals(7335936 + 12288, parser.getValue(), 0.0);
+    @Test
+    public void testCombine() {
+        byte[] bytes = new byte[100000];
+        new Random(42).nextBytes(bytes);
+        int whole = crc(bytes, 0, bytes.length);
+
+        for (int split : new int[] {0, 1, 2, 3, 4, 5, 1000, 65536, 99999, 100000}) {
+            int first = crc(bytes, 0, split);
+            int second = crc(bytes, split, bytes.length - split);
+            assertEquals("split at " + split, whole, Crc32.combine(first, second, bytes.length - split));
+        }
+    }
 
-        parser.process("cancelled_write_bytes: 0");
-        assertTrue(parser.done());
-        assertEquals(7335936 + 12288, parser.getValue(), 0.0);
+    @Test
+    public void testCombineEmpty() {
+        assertEquals(0, Crc32.combine(0, 0, 0));
+        assertEquals(crc(new byte[] {'\n'}, 0, 1), Crc32.combine(0, crc(new byte[] {'\n'}, 0, 1), 1));
+    }
 
-        parser.process("write_bytes: 12288");
-        assertTrue(parser.done());
-        assertEquals(7335936 + 12288, parser.getValue(), 0.0);
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
     }
 }
@@ -0,0 +1,128 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import com.google.common.base.Optional;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+// compares sequential and parallel compression of a batch, across batch sizes and number of cores
+//
+// this is skipped unless benchmarks are enabled, run it with:
+//   ./gradlew :core:test --tests '*GzipTelemetrySerializerBenchmark' -Pai.tests.benchmarks=true
+public class GzipTelemetrySerializerBenchmark {
+
+    private static final int[] BATCH_SIZES = {100, 250, 500, 1000};
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int MEASURED_ROUNDS = 200;
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue(Boolean.getBoolean("ai.tests.benchmarks"));
+    }
+
+    @Test
+    public void defaultCompressionLevel() {
+        compare(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Test
+    public void bestSpeed() {
+        compare(Deflater.BEST_SPEED);
+    }
+
+    private static void compare(int compressionLevel) {
+        int availableProcessors = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("compression level: %d, available processors: %d%n", compressionLevel, availableProcessors);
+        System.out.printf("%10s %10s %15s %15s %10s%n", "batch", "cores", "micros/batch", "bytes/batch", "speedup");
+        for (int batchSize : BATCH_SIZES) {
+            List<Telemetry> batch = createBatch(batchSize);
+            GzipTelemetrySerializer sequential = new GzipTelemetrySerializer(compressionLevel, 0, null);
+            long sequentialNanos = measure(sequential, batch);
+            Optional<Transmission> sequentialTransmission = sequential.serialize(batch);
+            print(batchSize, 1, sequentialNanos, sequentialTransmission, sequentialNanos);
+
+            for (int cores = 2; cores <= availableProcessors; cores *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(cores);
+                try {
+                    GzipTelemetrySerializer parallel = new GzipTelemetrySerializer(compressionLevel, 1, pool);
+                    long parallelNanos = measure(parallel, batch);
+                    Optional<Transmission> parallelTransmission = parallel.serialize(batch);
+                    print(batchSize, cores, parallelNanos, parallelTransmission, sequentialNanos);
+                    assertEquals(GzipTelemetrySerializer.getUncompressedSize(sequentialTransmission.get().getContent()),
+                            GzipTelemetrySerializer.getUncompressedSize(parallelTransmission.get().getContent()));
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    private static long measure(GzipTelemetrySerializer serializer, List<Telemetry> batch) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            serializer.serialize(batch);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            serializer.serialize(batch);
+        }
+        return (System.nanoTime() - start) / MEASURED_ROUNDS;
+    }
+
+    private static void print(int batchSize, int cores, long nanos, Optional<Transmission> transmission, long sequentialNanos) {
+        System.out.printf("%10d %10d %15.1f %15d %9.2fx%n", batchSize, cores, nanos / 1000.0,
+                transmission.get().getContent().length, (double) sequentialNanos / nanos);
+    }
+
+    // a mix of requests and traces, which is what most batches look like
+    private static List<Telemetry> createBatch(int batchSize) {
+        List<Telemetry> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            Telemetry telemetry;
+            if (i % 4 == 0) {
+                RequestTelemetry request = new RequestTelemetry();
+                request.setName("GET /api/orders/" + i);
+                request.setUrl("http://localhost:8080/api/orders/" + i);
+                request.setResponseCode("200");
+                request.setSuccess(true);
+                telemetry = request;
+            } else {
+                telemetry = new TraceTelemetry("processing order " + i + " for customer " + (i * 31 % 1000));
+            }
+            telemetry.getContext().setInstrumentationKey("00000000-0000-0000-0000-000000000000");
+            telemetry.getContext().getOperation().setId(Integer.toHexString(i * 7919));
+            telemetry.getProperties().put("thread", "http-nio-8080-exec-" + (i % 10));
+            batch.add(telemetry);
+        }
+        return batch;
+    }
+}
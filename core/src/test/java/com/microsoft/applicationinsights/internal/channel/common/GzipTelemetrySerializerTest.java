@@ -24,12 +24,19 @@ package com.microsoft.applicationinsights.internal.channel.common;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
@@ -152,6 +159,143 @@ public final class GzipTelemetrySerializerTest {
         testSerialization(10);
     }
 
+    @Test
+    public void testSerializeOfPreSerializedAndLiveTelemetries() throws Exception {
+        GzipTelemetrySerializer tested = new GzipTelemetrySerializer();
+
+        StubTelemetry first = createStubTelemetry("0");
+        StubTelemetry second = createStubTelemetry("1");
+        List<Telemetry> telemetries = new ArrayList<Telemetry>();
+        telemetries.add(SerializedTelemetry.serialize(first));
+        telemetries.add(second);
+
+        Optional<Transmission> result = tested.serialize(telemetries);
+        assertTrue(result.isPresent());
+
+        GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(result.get().getContent()));
+        try {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = gis.read(buf)) > 0) {
+                contents.write(buf, 0, len);
+            }
+            String[] stubStrings = new String(contents.toByteArray(), Charsets.UTF_8).split(System.getProperty("line.separator"));
+
+            assertEquals(2, stubStrings.length);
+            Gson gson = new Gson();
+            assertEquals(first, gson.fromJson(stubStrings[0], StubTelemetry.class));
+            assertEquals(second, gson.fromJson(stubStrings[1], StubTelemetry.class));
+        } finally {
+            gis.close();
+        }
+    }
+
+    @Test
+    public void testParallelSerializationKeepsOrder() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            GzipTelemetrySerializer tested = new GzipTelemetrySerializer(Deflater.BEST_SPEED, 100, pool);
+
+            List<Telemetry> telemetries = new ArrayList<Telemetry>();
+            for (int i = 0; i < 400; ++i) {
+                telemetries.add(createStubTelemetry(String.valueOf(i)));
+            }
+
+            Optional<Transmission> result = tested.serialize(telemetries);
+            assertTrue(result.isPresent());
+
+            GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(result.get().getContent()));
+            try {
+                ByteArrayOutputStream contents = new ByteArrayOutputStream();
+                byte[] buf = new byte[4096];
+                int len;
+                while ((len = gis.read(buf)) > 0) {
+                    contents.write(buf, 0, len);
+                }
+                String[] stubStrings = new String(contents.toByteArray(), Charsets.UTF_8).split(System.getProperty("line.separator"));
+
+                assertEquals(400, stubStrings.length);
+                Gson gson = new Gson();
+                for (int i = 0; i < 400; ++i) {
+                    assertEquals(telemetries.get(i), gson.fromJson(stubStrings[i], StubTelemetry.class));
+                }
+            } finally {
+                gis.close();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelSerializationIsOneDeflateStream() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Telemetry> telemetries = new ArrayList<Telemetry>();
+            for (int i = 0; i < 400; ++i) {
+                telemetries.add(createStubTelemetry(String.valueOf(i)));
+            }
+
+            byte[] content = new GzipTelemetrySerializer(Deflater.BEST_SPEED, 100, pool).serialize(telemetries).get().getContent();
+
+            assertArrayEquals(new byte[] {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, 0}, Arrays.copyOf(content, 10));
+            Inflater inflater = new Inflater(true);
+            inflater.setInput(content, 10, content.length - 10);
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            while (!inflater.finished()) {
+                int len = inflater.inflate(buf);
+                assertFalse(len == 0 && inflater.needsInput());
+                contents.write(buf, 0, len);
+            }
+            // nothing but the trailer after the end of the deflate stream
+            assertEquals(8, inflater.getRemaining());
+            inflater.end();
+
+            CRC32 crc = new CRC32();
+            crc.update(contents.toByteArray());
+            ByteBuffer trailer = ByteBuffer.wrap(content, content.length - 8, 8).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals((int) crc.getValue(), trailer.getInt());
+            assertEquals(contents.size(), trailer.getInt());
+
+            byte[] sequential = new GzipTelemetrySerializer(Deflater.BEST_SPEED, 0, null).serialize(telemetries).get().getContent();
+            assertArrayEquals(gunzip(sequential), contents.toByteArray());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testNumberOfChunks() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            GzipTelemetrySerializer tested = new GzipTelemetrySerializer(Deflater.DEFAULT_COMPRESSION, 100, pool);
+            assertEquals(1, tested.getNumberOfChunks(99));
+            assertEquals(2, tested.getNumberOfChunks(100));
+            assertEquals(4, tested.getNumberOfChunks(1000));
+
+            assertEquals(1, new GzipTelemetrySerializer(Deflater.DEFAULT_COMPRESSION, 0, null).getNumberOfChunks(1000));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static byte[] gunzip(byte[] content) throws IOException {
+        GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(content));
+        try {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = gis.read(buf)) > 0) {
+                contents.write(buf, 0, len);
+            }
+            return contents.toByteArray();
+        } finally {
+            gis.close();
+        }
+    }
+
     private void testSerialization(int amount) throws Exception {
         GzipTelemetrySerializer tested = new GzipTelemetrySerializer();
 
@@ -0,0 +1,137 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.zip.GZIPOutputStream;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public final class PipelineMetricsTest {
+
+    @Test
+    public void testBufferedItemsFollowTheBuffer() {
+        PipelineMetrics metrics = new PipelineMetrics();
+
+        metrics.onItemBuffered();
+        metrics.onItemBuffered();
+        metrics.onItemBuffered();
+        metrics.onItemsUnbuffered(2);
+        metrics.onItemsDropped(2);
+
+        assertEquals(3, metrics.getItemsBuffered());
+        assertEquals(1, metrics.getBufferedItems());
+        assertEquals(2, metrics.getItemsDropped());
+    }
+
+    @Test
+    public void testPendingSends() {
+        PipelineMetrics metrics = new PipelineMetrics();
+
+        metrics.onSendPermitAcquired();
+        metrics.onSendPermitAcquired();
+        metrics.onSendPermitReleased();
+        metrics.onSendRejected();
+
+        assertEquals(1, metrics.getPendingSends());
+        assertEquals(1, metrics.getSendsRejected());
+    }
+
+    @Test
+    public void testHttpResponsesAreClassified() {
+        PipelineMetrics metrics = new PipelineMetrics();
+
+        metrics.onHttpResponse(200, 100, 10);
+        metrics.onHttpResponse(206, 50, 20);
+        metrics.onHttpResponse(429, 100, 5);
+        metrics.onHttpResponse(439, 100, 5);
+        metrics.onHttpResponse(503, 100, 5);
+        metrics.onHttpResponse(400, 100, 5);
+        metrics.onHttpResponse(0, 100, 5000);
+
+        assertEquals(7, metrics.getHttpRequests());
+        assertEquals(1, metrics.getHttpSuccesses());
+        assertEquals(1, metrics.getHttpPartialSuccesses());
+        assertEquals(2, metrics.getHttpThrottled());
+        assertEquals(1, metrics.getHttpServerErrors());
+        assertEquals(1, metrics.getHttpOtherErrors());
+        assertEquals(1, metrics.getHttpExceptions());
+        assertEquals(150, metrics.getBytesSent());
+        assertEquals(7, metrics.getHttpLatencySnapshot().getTotalCount());
+        assertTrue(metrics.getHttpLatencyP99Millis() >= 2500);
+    }
+
+    @Test
+    public void testCompressionRatio() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        assertEquals(0, metrics.getCompressionRatio(), 0);
+
+        metrics.onBatchSerialized(1000, 100);
+        metrics.onBatchSerialized(600, 100);
+
+        assertEquals(2, metrics.getBatchesSerialized());
+        assertEquals(8, metrics.getCompressionRatio(), 0.001);
+    }
+
+    @Test
+    public void testTransmissionPolicy() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        assertEquals("UNBLOCKED", metrics.getTransmissionPolicy());
+
+        metrics.onTransmissionPolicyChanged(TransmissionPolicy.BACKOFF);
+
+        assertEquals("BACKOFF", metrics.getTransmissionPolicy());
+    }
+
+    @Test
+    public void testUncompressedSizeFromGzipTrailer() throws Exception {
+        byte[] data = new byte[70000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 7);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(data);
+        gzip.close();
+
+        assertEquals(70000, GzipTelemetrySerializer.getUncompressedSize(out.toByteArray()));
+        assertEquals(0, GzipTelemetrySerializer.getUncompressedSize(new byte[2]));
+    }
+
+    @Test
+    public void testRegisterMBean() throws Exception {
+        PipelineMetrics.registerMBean();
+        // registering twice is a no-op
+        PipelineMetrics.registerMBean();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(PipelineMetrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        assertNotNull(server.getAttribute(name, "ItemsSent"));
+        assertNotNull(server.getAttribute(name, "TransmissionPolicy"));
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.io.IOException;
+import java.util.Date;
+
+import com.google.common.base.Charsets;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.TelemetryContext;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import com.squareup.moshi.JsonWriter;
+import okio.Buffer;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public final class SerializedTelemetryTest {
+
+    private static final String INSTRUMENTATION_KEY = "00000000-0000-0000-0000-000000000000";
+    private static final String OTHER_INSTRUMENTATION_KEY = "11111111-1111-1111-1111-111111111111";
+
+    @Test
+    public void testKeepsTimestampSequenceAndLane() throws Exception {
+        RequestTelemetry request = createRequest();
+        request.setSequence("1:1");
+
+        SerializedTelemetry serialized = SerializedTelemetry.serialize(request);
+
+        assertEquals(request.getTimestamp(), serialized.getTimestamp());
+        assertEquals("1:1", serialized.getSequence());
+        assertEquals(TelemetryLane.HIGH, serialized.getLane());
+        assertEquals(TelemetryLane.NORMAL, SerializedTelemetry.serialize(new TraceTelemetry("message")).getLane());
+        assertTrue(request.previouslyUsed());
+    }
+
+    @Test
+    public void testAlreadySerializedTelemetryIsReturnedAsIs() throws Exception {
+        SerializedTelemetry serialized = SerializedTelemetry.serialize(createRequest());
+
+        assertSame(serialized, SerializedTelemetry.serialize(serialized));
+    }
+
+    @Test
+    public void testSerializeWritesTheSameEnvelope() throws Exception {
+        RequestTelemetry request = createRequest();
+        request.getProperties().put("quoted", "a \"quoted\" \\ value\n");
+        String expected = request.toString();
+
+        SerializedTelemetry serialized = SerializedTelemetry.serialize(request);
+
+        assertEquals(expected, new String(serialized.getBytes(), Charsets.UTF_8));
+        assertEquals(expected, toJson(serialized));
+    }
+
+    @Test
+    public void testContextAndPropertiesAreDecodedFromTheEnvelope() throws Exception {
+        RequestTelemetry request = createRequest();
+        request.getContext().getOperation().setName("GET /users");
+        request.getProperties().put("quoted", "a \"quoted\" value");
+
+        SerializedTelemetry serialized = SerializedTelemetry.serialize(request);
+
+        TelemetryContext context = serialized.getContext();
+        assertEquals(INSTRUMENTATION_KEY, context.getInstrumentationKey());
+        assertEquals("GET /users", context.getOperation().getName());
+        assertEquals("a \"quoted\" value", serialized.getProperties().get("quoted"));
+
+        // a copy
+        serialized.getProperties().put("other", "value");
+        assertNull(serialized.getProperties().get("other"));
+    }
+
+    @Test
+    public void testSetTimestampRewritesTheEnvelope() throws Exception {
+        SerializedTelemetry serialized = SerializedTelemetry.serialize(createRequest());
+        Date timestamp = new Date(1500000000000L);
+
+        serialized.setTimestamp(timestamp);
+
+        RequestTelemetry expected = createRequest();
+        expected.setTimestamp(timestamp);
+        assertEquals(timestamp, serialized.getTimestamp());
+        assertSameJson(expected.toString(), serialized.toString());
+    }
+
+    @Test
+    public void testSetSequenceAddsReplacesAndRemovesTheField() throws Exception {
+        RequestTelemetry withoutSequence = createRequest();
+        String withoutSequenceJson = withoutSequence.toString();
+        SerializedTelemetry serialized = SerializedTelemetry.serialize(withoutSequence);
+
+        serialized.setSequence("1:1");
+        RequestTelemetry expected = createRequest();
+        expected.setSequence("1:1");
+        assertSameJson(expected.toString(), serialized.toString());
+
+        serialized.setSequence("2:\"2\"");
+        expected.setSequence("2:\"2\"");
+        assertEquals("2:\"2\"", serialized.getSequence());
+        assertSameJson(expected.toString(), serialized.toString());
+
+        serialized.setSequence(null);
+        assertNull(serialized.getSequence());
+        assertSameJson(withoutSequenceJson, serialized.toString());
+    }
+
+    @Test
+    public void testWithInstrumentationKey() throws Exception {
+        RequestTelemetry request = createRequest();
+        request.setSequence("1:1");
+        SerializedTelemetry serialized = SerializedTelemetry.serialize(request);
+
+        SerializedTelemetry copy = serialized.withInstrumentationKey(OTHER_INSTRUMENTATION_KEY);
+
+        RequestTelemetry expected = createRequest();
+        expected.setSequence("1:1");
+        expected.getContext().setInstrumentationKey(OTHER_INSTRUMENTATION_KEY);
+        assertNotNull(copy);
+        assertEquals(expected.toString(), copy.toString());
+        assertEquals(OTHER_INSTRUMENTATION_KEY, copy.getContext().getInstrumentationKey());
+        assertEquals(serialized.getTimestamp(), copy.getTimestamp());
+        assertEquals("1:1", copy.getSequence());
+        assertEquals(TelemetryLane.HIGH, copy.getLane());
+    }
+
+    @Test
+    public void testWithInstrumentationKeyWithoutInstrumentationKey() throws Exception {
+        RequestTelemetry request = createRequest();
+        request.getContext().setInstrumentationKey(null);
+
+        assertNull(SerializedTelemetry.serialize(request).withInstrumentationKey(OTHER_INSTRUMENTATION_KEY));
+    }
+
+    private static RequestTelemetry createRequest() {
+        RequestTelemetry request = new RequestTelemetry("GET /users", new Date(1600000000000L), new Duration(42), "200", true);
+        request.setId("1234");
+        request.getContext().setInstrumentationKey(INSTRUMENTATION_KEY);
+        return request;
+    }
+
+    private static String toJson(SerializedTelemetry telemetry) throws IOException {
+        Buffer buffer = new Buffer();
+        JsonTelemetryDataSerializer writer = new JsonTelemetryDataSerializer(JsonWriter.of(buffer));
+        telemetry.serialize(writer);
+        writer.close();
+        return buffer.readUtf8();
+    }
+
+    // the field order doesn't matter
+    private static void assertSameJson(String expected, String actual) {
+        JsonParser parser = new JsonParser();
+        JsonElement expectedJson = parser.parse(expected);
+        JsonElement actualJson = parser.parse(actual);
+        assertEquals(expectedJson, actualJson);
+    }
+}
@@ -23,9 +23,12 @@ package com.microsoft.applicationinsights.internal.channel.common;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Charsets;
@@ -35,8 +38,10 @@ import com.microsoft.applicationinsights.internal.channel.TelemetrySerializer;
 import com.microsoft.applicationinsights.internal.channel.TransmissionDispatcher;
 import com.microsoft.applicationinsights.internal.channel.TransmissionsLoader;
 import com.microsoft.applicationinsights.telemetry.JsonTelemetryDataSerializer;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
 import com.microsoft.applicationinsights.telemetry.Telemetry;
 import com.microsoft.applicationinsights.telemetry.TelemetryContext;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
 import com.squareup.moshi.JsonWriter;
 import okio.Buffer;
 import org.junit.*;
@@ -44,6 +49,7 @@ import org.mockito.Mockito;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.junit.Assert.*;
 
 public final class TransmitterImplTest {
     private final static String MOCK_WEB_CONTENT_TYPE = "MWCT";
@@ -308,6 +314,115 @@ public final class TransmitterImplTest {
         }
     }
 
+    @Test
+    public void testLaneTransmittersDispatchTheBatchesOfEveryLane() throws InterruptedException {
+        TransmissionDispatcher mockDispatcher = Mockito.mock(TransmissionDispatcher.class);
+        TelemetrySerializer mockSerializer = Mockito.mock(TelemetrySerializer.class);
+        Transmission transmission = new Transmission(new byte[1], MOCK_WEB_CONTENT_TYPE, MOCK_CONTENT_ENCODING_TYPE);
+        Mockito.doReturn(Optional.of(transmission)).when(mockSerializer).serialize(Mockito.<Collection<Telemetry>>any());
+        TransmitterImpl transmitter = new TransmitterImpl(mockDispatcher, mockSerializer, Mockito.mock(TransmissionsLoader.class));
+        try {
+            Telemetry request = new RequestTelemetry();
+            final Collection<Telemetry> requests = Collections.singletonList(request);
+            Telemetry trace = new TraceTelemetry("message");
+            Collection<Telemetry> traces = Collections.singletonList(trace);
+
+            TelemetriesTransmitter<Telemetry> highTransmitter = transmitter.getLaneTransmitter(TelemetryLane.of(request));
+            assertTrue(highTransmitter.scheduleSend(new TelemetriesTransmitter.TelemetriesFetcher<Telemetry>() {
+                @Override
+                public Collection<Telemetry> fetch() {
+                    return requests;
+                }
+            }, 1L, TimeUnit.MILLISECONDS));
+            assertTrue(transmitter.getLaneTransmitter(TelemetryLane.of(trace)).sendNow(traces));
+
+            Mockito.verify(mockDispatcher, Mockito.timeout(10000).times(2)).dispatch(transmission);
+            Mockito.verify(mockSerializer).serialize(requests);
+            Mockito.verify(mockSerializer).serialize(traces);
+            assertSame(highTransmitter, transmitter.getLaneTransmitter(TelemetryLane.HIGH));
+        } finally {
+            transmitter.shutdown(1L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testEachLaneHasItsOwnBudgetOfPendingSends() throws InterruptedException {
+        TransmitterImpl transmitter = new TransmitterImpl(Mockito.mock(TransmissionDispatcher.class),
+                Mockito.mock(TelemetrySerializer.class), Mockito.mock(TransmissionsLoader.class));
+        try {
+            TelemetriesTransmitter<Telemetry> normalTransmitter = transmitter.getLaneTransmitter(TelemetryLane.NORMAL);
+            TelemetriesTransmitter.TelemetriesFetcher<Telemetry> fetcher = emptyFetcher();
+
+            // these stay pending until the end of the test
+            for (int i = 0; i < TelemetryLane.NORMAL.getMaxPendingSends(); i++) {
+                assertTrue(normalTransmitter.scheduleSend(fetcher, 1L, TimeUnit.HOURS));
+            }
+            assertFalse(normalTransmitter.scheduleSend(fetcher, 1L, TimeUnit.HOURS));
+            assertFalse(normalTransmitter.sendNow(Collections.<Telemetry>singletonList(new TraceTelemetry("message"))));
+
+            assertTrue(transmitter.getLaneTransmitter(TelemetryLane.HIGH).scheduleSend(fetcher, 1L, TimeUnit.HOURS));
+            assertTrue(transmitter.scheduleSend(fetcher, 1L, TimeUnit.HOURS));
+        } finally {
+            transmitter.shutdown(1L, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    public void testLanePermitIsReleasedWhenNothingIsFetched() throws InterruptedException {
+        final CountDownLatch fetched = new CountDownLatch(TelemetryLane.LOW_LATENCY.getMaxPendingSends());
+        testLanePermitIsReleasedAfterTheFetch(new TelemetriesTransmitter.TelemetriesFetcher<Telemetry>() {
+            @Override
+            public Collection<Telemetry> fetch() {
+                fetched.countDown();
+                return Collections.emptyList();
+            }
+        }, fetched);
+    }
+
+    @Test
+    public void testLanePermitIsReleasedWhenTheFetchFails() throws InterruptedException {
+        final CountDownLatch fetched = new CountDownLatch(TelemetryLane.LOW_LATENCY.getMaxPendingSends());
+        testLanePermitIsReleasedAfterTheFetch(new TelemetriesTransmitter.TelemetriesFetcher<Telemetry>() {
+            @Override
+            public Collection<Telemetry> fetch() {
+                fetched.countDown();
+                throw new IllegalStateException("fetch failed");
+            }
+        }, fetched);
+    }
+
+    private void testLanePermitIsReleasedAfterTheFetch(TelemetriesTransmitter.TelemetriesFetcher<Telemetry> fetcher, CountDownLatch fetched) throws InterruptedException {
+        TransmitterImpl transmitter = new TransmitterImpl(Mockito.mock(TransmissionDispatcher.class),
+                Mockito.mock(TelemetrySerializer.class), Mockito.mock(TransmissionsLoader.class));
+        try {
+            TelemetriesTransmitter<Telemetry> laneTransmitter = transmitter.getLaneTransmitter(TelemetryLane.LOW_LATENCY);
+            for (int i = 0; i < TelemetryLane.LOW_LATENCY.getMaxPendingSends(); i++) {
+                assertTrue(laneTransmitter.scheduleSend(fetcher, 0L, TimeUnit.MILLISECONDS));
+            }
+            assertTrue(fetched.await(10L, TimeUnit.SECONDS));
+            // the permit is released right after the fetch
+            Thread.sleep(100);
+
+            // the whole budget is available again
+            TelemetriesTransmitter.TelemetriesFetcher<Telemetry> pendingFetcher = emptyFetcher();
+            for (int i = 0; i < TelemetryLane.LOW_LATENCY.getMaxPendingSends(); i++) {
+                assertTrue(laneTransmitter.scheduleSend(pendingFetcher, 1L, TimeUnit.HOURS));
+            }
+            assertFalse(laneTransmitter.scheduleSend(pendingFetcher, 1L, TimeUnit.HOURS));
+        } finally {
+            transmitter.shutdown(1L, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static TelemetriesTransmitter.TelemetriesFetcher<Telemetry> emptyFetcher() {
+        return new TelemetriesTransmitter.TelemetriesFetcher<Telemetry>() {
+            @Override
+            public Collection<Telemetry> fetch() {
+                return Collections.emptyList();
+            }
+        };
+    }
+
     private static ArrayList<String> toJson(List<Telemetry> telemetries) throws IOException {
         ArrayList<String> asJsons = new ArrayList<String>();
         for (Telemetry telemetry : telemetries) {
@@ -0,0 +1,111 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.channel.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WeightedLaneQueueTest {
+
+    @Test
+    public void testEmpty() {
+        assertNull(new WeightedLaneQueue<String>().poll());
+    }
+
+    @Test
+    public void testSingleLaneIsFifo() {
+        WeightedLaneQueue<String> queue = new WeightedLaneQueue<>();
+        queue.offer(TelemetryLane.NORMAL, "a");
+        queue.offer(TelemetryLane.NORMAL, "b");
+
+        assertEquals("a", queue.poll());
+        assertEquals("b", queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testLanesAreDrainedByWeight() {
+        WeightedLaneQueue<TelemetryLane> queue = new WeightedLaneQueue<>();
+        for (int i = 0; i < 100; i++) {
+            for (TelemetryLane lane : TelemetryLane.values()) {
+                queue.offer(lane, lane);
+            }
+        }
+
+        int totalWeight = 0;
+        for (TelemetryLane lane : TelemetryLane.values()) {
+            totalWeight += lane.getWeight();
+        }
+        int[] counts = new int[TelemetryLane.values().length];
+        for (int i = 0; i < totalWeight * 10; i++) {
+            counts[queue.poll().ordinal()]++;
+        }
+        for (TelemetryLane lane : TelemetryLane.values()) {
+            assertEquals(lane.getWeight() * 10, counts[lane.ordinal()]);
+        }
+    }
+
+    @Test
+    public void testFloodedLaneDoesNotStarveOthers() {
+        WeightedLaneQueue<String> queue = new WeightedLaneQueue<>();
+        for (int i = 0; i < 1000; i++) {
+            queue.offer(TelemetryLane.NORMAL, "trace");
+        }
+        queue.offer(TelemetryLane.HIGH, "request");
+
+        List<String> polled = new ArrayList<>();
+        polled.add(queue.poll());
+        polled.add(queue.poll());
+        assertTrue(polled.contains("request"));
+    }
+
+    @Test
+    public void testRemove() {
+        WeightedLaneQueue<String> queue = new WeightedLaneQueue<>();
+        queue.offer(TelemetryLane.HIGH, "a");
+
+        assertFalse(queue.remove(TelemetryLane.NORMAL, "a"));
+        assertTrue(queue.remove(TelemetryLane.HIGH, "a"));
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testLaneOfTelemetry() {
+        assertEquals(TelemetryLane.HIGH, TelemetryLane.of(new RequestTelemetry()));
+        assertEquals(TelemetryLane.HIGH, TelemetryLane.of(new RemoteDependencyTelemetry()));
+        assertEquals(TelemetryLane.HIGH, TelemetryLane.of(new ExceptionTelemetry(new Exception())));
+        assertEquals(TelemetryLane.NORMAL, TelemetryLane.of(new TraceTelemetry("message")));
+        assertEquals(TelemetryLane.LOW_LATENCY, TelemetryLane.of(new MetricTelemetry()));
+    }
+}
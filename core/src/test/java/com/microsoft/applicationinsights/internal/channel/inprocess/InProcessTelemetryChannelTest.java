@@ -65,4 +65,24 @@ public class InProcessTelemetryChannelTest {
         new InProcessTelemetryChannel("https://dc.services.visualstudio.com/v2/track", "10",
                 false, 500, 5, true, DEFAULT_MAX_INSTANT_RETRY);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSerializeOnTrack() {
+        HashMap<String, String> map = new HashMap<String, String>();
+        Assert.assertFalse(new InProcessTelemetryChannel(map).isSerializeOnTrack());
+        map.put(InProcessTelemetryChannel.SERIALIZE_ON_TRACK_NAME, "true");
+        Assert.assertTrue(new InProcessTelemetryChannel(map).isSerializeOnTrack());
+    }
+
+    @Test
+    public void testPriorityLanes() {
+        HashMap<String, String> map = new HashMap<String, String>();
+        Assert.assertFalse(new InProcessTelemetryChannel(map).isPriorityLanes());
+        map.put(InProcessTelemetryChannel.PRIORITY_LANES_NAME, "true");
+        InProcessTelemetryChannel channel = new InProcessTelemetryChannel(map);
+        Assert.assertTrue(channel.isPriorityLanes());
+        channel.setMaxTelemetriesInBatch(10);
+        channel.setTransmitBufferTimeoutInSeconds(10);
+        channel.flush();
+    }
+}
@@ -89,6 +89,61 @@ public class JmxDataFetcherTest {
         performTest(attributes, 1000.0, 2000.0, 3000.0);
     }
 
+    @Test
+    public void testWildcardReturnsOneEntryPerMatchWithDimensions() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(new TestStub(1, 0, 0), new ObjectName("JSDKTestsWildcard:type=Pool,name=\"first\""));
+        server.registerMBean(new TestStub(2, 0, 0), new ObjectName("JSDKTestsWildcard:type=Pool,name=second"));
+
+        List<JmxAttributeData> attributes = new ArrayList<JmxAttributeData>();
+        attributes.add(new JmxAttributeData("Int", "IntSample"));
+
+        ObjectName pattern = new ObjectName("JSDKTestsWildcard:type=Pool,*");
+        Map<ObjectName, Map<String, Object>> result = JmxDataFetcher.fetchByObjectName(pattern, attributes);
+        assertEquals(2, result.size());
+
+        Map<String, Object> first = result.get(new ObjectName("JSDKTestsWildcard:type=Pool,name=\"first\""));
+        assertEquals(1, first.get("Int"));
+        Map<String, String> dimensions = JmxDataFetcher.getDimensions(pattern, new ObjectName("JSDKTestsWildcard:type=Pool,name=\"first\""));
+        assertEquals(1, dimensions.size());
+        assertEquals("first", dimensions.get("name"));
+
+        assertTrue(JmxDataFetcher.getDimensions(new ObjectName("JSDKTestsWildcard:type=Pool,name=second"),
+                new ObjectName("JSDKTestsWildcard:type=Pool,name=second")).isEmpty());
+    }
+
+    @Test
+    public void testCachedMatchesFollowRegistrations() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("JSDKTestsCache:type=Pool,name=*");
+        ObjectName first = new ObjectName("JSDKTestsCache:type=Pool,name=first");
+        ObjectName second = new ObjectName("JSDKTestsCache:type=Pool,name=second");
+        server.registerMBean(new TestStub(1, 0, 0), first);
+
+        List<JmxAttributeData> attributes = new ArrayList<JmxAttributeData>();
+        attributes.add(new JmxAttributeData("Int", "IntSample"));
+        assertEquals(1, JmxDataFetcher.fetchByObjectName(pattern, attributes).size());
+
+        server.registerMBean(new TestStub(2, 0, 0), second);
+        assertEquals(2, JmxDataFetcher.fetchByObjectName(pattern, attributes).size());
+
+        server.unregisterMBean(first);
+        Map<ObjectName, Map<String, Object>> result = JmxDataFetcher.fetchByObjectName(pattern, attributes);
+        assertEquals(1, result.size());
+        assertEquals(2, result.get(second).get("Int"));
+    }
+
+    @Test
+    public void testCompositeAttributePath() throws Exception {
+        List<JmxAttributeData> attributes = new ArrayList<JmxAttributeData>();
+        attributes.add(new JmxAttributeData("Heap Used", "HeapMemoryUsage.used"));
+        attributes.add(new JmxAttributeData("Heap Committed", "HeapMemoryUsage.committed"));
+
+        Map<String, Collection<Object>> result = JmxDataFetcher.fetch("java.lang:type=Memory", attributes);
+        assertEquals(1, result.get("Heap Used").size());
+        assertTrue(((Number) result.get("Heap Committed").iterator().next()).longValue() > 0);
+    }
+
     private static void performTest(
             List<JmxAttributeData> attributes,
             double expectedInt,
@@ -0,0 +1,192 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MetricsAggregatorTest {
+
+    private static final Map<String, String> NO_DIMENSIONS = Collections.emptyMap();
+
+    @Test
+    public void valuesForSameSeriesAreAggregated() {
+        MetricsAggregator aggregator = new MetricsAggregator(10);
+        aggregator.record("m", 1, NO_DIMENSIONS, NO_DIMENSIONS);
+        aggregator.record("m", 5, NO_DIMENSIONS, NO_DIMENSIONS);
+        aggregator.record("m", 3, NO_DIMENSIONS, NO_DIMENSIONS);
+
+        List<MetricTelemetry> telemetries = aggregator.drain();
+
+        assertEquals(1, telemetries.size());
+        MetricTelemetry telemetry = telemetries.get(0);
+        assertEquals("m", telemetry.getName());
+        assertEquals(9, telemetry.getValue(), 0);
+        assertEquals(Integer.valueOf(3), telemetry.getCount());
+        assertEquals(1, telemetry.getMin(), 0);
+        assertEquals(5, telemetry.getMax(), 0);
+    }
+
+    @Test
+    public void preAggregatedValuesAreMerged() {
+        MetricsAggregator aggregator = new MetricsAggregator(10);
+        aggregator.record("m", 10, 4, 1, 4, NO_DIMENSIONS, NO_DIMENSIONS);
+        aggregator.record("m", 7, NO_DIMENSIONS, NO_DIMENSIONS);
+
+        MetricTelemetry telemetry = aggregator.drain().get(0);
+
+        assertEquals(17, telemetry.getValue(), 0);
+        assertEquals(Integer.valueOf(5), telemetry.getCount());
+        assertEquals(1, telemetry.getMin(), 0);
+        assertEquals(7, telemetry.getMax(), 0);
+    }
+
+    @Test
+    public void dimensionsIdentifySeriesRegardlessOfMapOrder() {
+        MetricsAggregator aggregator = new MetricsAggregator(10);
+        Map<String, String> properties1 = new HashMap<>();
+        properties1.put("a", "1");
+        properties1.put("b", "2");
+        Map<String, String> properties2 = new TreeMap<>(Collections.reverseOrder());
+        properties2.put("b", "2");
+        properties2.put("a", "1");
+        Map<String, String> properties3 = Collections.singletonMap("a", "other");
+
+        aggregator.record("m", 1, properties1, NO_DIMENSIONS);
+        aggregator.record("m", 1, properties2, NO_DIMENSIONS);
+        aggregator.record("m", 1, properties3, NO_DIMENSIONS);
+        aggregator.record("m", 1, properties3, Collections.singletonMap("ai.cloud.role", "r"));
+
+        List<MetricTelemetry> telemetries = aggregator.drain();
+
+        assertEquals(3, telemetries.size());
+        assertEquals(3, aggregator.getSeriesCount());
+    }
+
+    @Test
+    public void seriesAreCappedAndEvictedWhenIdle() {
+        MetricsAggregator aggregator = new MetricsAggregator(2);
+
+        assertTrue(aggregator.record("m1", 1, NO_DIMENSIONS, NO_DIMENSIONS));
+        assertTrue(aggregator.record("m2", 1, NO_DIMENSIONS, NO_DIMENSIONS));
+        assertFalse(aggregator.record("m3", 1, NO_DIMENSIONS, NO_DIMENSIONS));
+        // existing series still accept values when the cap is reached
+        assertTrue(aggregator.record("m1", 1, NO_DIMENSIONS, NO_DIMENSIONS));
+
+        assertEquals(2, aggregator.drain().size());
+        aggregator.record("m1", 1, NO_DIMENSIONS, NO_DIMENSIONS);
+        // m2 was idle for the whole interval
+        assertEquals(1, aggregator.drain().size());
+        assertEquals(1, aggregator.getSeriesCount());
+
+        assertTrue(aggregator.record("m3", 1, NO_DIMENSIONS, NO_DIMENSIONS));
+    }
+
+    @Test
+    public void lowerSeriesLimitLeavesRoomUnderTheCap() {
+        MetricsAggregator aggregator = new MetricsAggregator(3);
+
+        assertTrue(aggregator.record("m1", 1, NO_DIMENSIONS, NO_DIMENSIONS, 2));
+        assertTrue(aggregator.record("m2", 1, NO_DIMENSIONS, NO_DIMENSIONS, 2));
+        assertFalse(aggregator.record("m3", 1, NO_DIMENSIONS, NO_DIMENSIONS, 2));
+        // existing series still accept values
+        assertTrue(aggregator.record("m1", 1, NO_DIMENSIONS, NO_DIMENSIONS, 2));
+        assertTrue(aggregator.record("m3", 1, NO_DIMENSIONS, NO_DIMENSIONS));
+        assertFalse(aggregator.record("m4", 1, NO_DIMENSIONS, NO_DIMENSIONS, 10));
+    }
+
+    @Test
+    public void drainResetsSeries() {
+        MetricsAggregator aggregator = new MetricsAggregator(10);
+        aggregator.record("m", 100, NO_DIMENSIONS, NO_DIMENSIONS);
+        aggregator.drain();
+        aggregator.record("m", 2, NO_DIMENSIONS, NO_DIMENSIONS);
+
+        MetricTelemetry telemetry = aggregator.drain().get(0);
+
+        assertEquals(2, telemetry.getValue(), 0);
+        assertEquals(Integer.valueOf(1), telemetry.getCount());
+        assertEquals(2, telemetry.getMin(), 0);
+        assertEquals(2, telemetry.getMax(), 0);
+        assertTrue(aggregator.drain().isEmpty());
+    }
+
+    @Test
+    public void concurrentRecordingIsNotLost() throws InterruptedException {
+        final MetricsAggregator aggregator = new MetricsAggregator(10);
+        final int threadCount = 8;
+        final int valuesPerThread = 10000;
+        final CountDownLatch latch = new CountDownLatch(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < valuesPerThread; j++) {
+                        aggregator.record("m", 1, NO_DIMENSIONS, NO_DIMENSIONS);
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+
+        MetricTelemetry telemetry = aggregator.drain().get(0);
+
+        assertEquals(Integer.valueOf(threadCount * valuesPerThread), telemetry.getCount());
+        assertEquals(threadCount * valuesPerThread, telemetry.getValue(), 0);
+    }
+
+    @Test
+    public void stopFlushesLastInterval() {
+        final List<Telemetry> tracked = new ArrayList<>();
+        TelemetryClient telemetryClient = new TelemetryClient() {
+            @Override
+            public void track(Telemetry telemetry) {
+                tracked.add(telemetry);
+            }
+        };
+        MetricsAggregator aggregator = new MetricsAggregator(10);
+        aggregator.start(telemetryClient, 3600);
+        aggregator.record("m", 4, NO_DIMENSIONS, NO_DIMENSIONS);
+
+        aggregator.stop(1, TimeUnit.SECONDS);
+
+        assertEquals(1, tracked.size());
+        assertEquals(4, ((MetricTelemetry) tracked.get(0)).getValue(), 0);
+        // stopping again does not send anything
+        aggregator.stop(1, TimeUnit.SECONDS);
+        assertEquals(1, tracked.size());
+    }
+}
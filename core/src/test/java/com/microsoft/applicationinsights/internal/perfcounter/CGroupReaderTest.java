@@ -0,0 +1,120 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public final class CGroupReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCGroupV1() throws Exception {
+        CGroupReader reader = CGroupReader.create(ProcFileReaderTest.getFixture("cgroup-v1"));
+        assertNotNull(reader);
+        assertEquals(CGroupReader.Version.V1, reader.getVersion());
+
+        assertTrue(reader.readCpu());
+        assertEquals(1234567890123L, reader.getCpuUsageNanos());
+        assertEquals(1.5, reader.getCpuLimit(), 0.0);
+        assertEquals(4721, reader.getPeriods());
+        assertEquals(312, reader.getThrottledPeriods());
+        assertEquals(28401772931L, reader.getThrottledNanos());
+
+        assertTrue(reader.readMemory());
+        assertEquals(536870912, reader.getMemoryUsageBytes());
+        assertEquals(1073741824, reader.getMemoryLimitBytes());
+        // uses total_inactive_file rather than inactive_file
+        assertEquals(536870912 - 134217728, reader.getMemoryWorkingSetBytes());
+    }
+
+    @Test
+    public void testCGroupV1WithoutLimits() throws Exception {
+        CGroupReader reader = CGroupReader.create(ProcFileReaderTest.getFixture("cgroup-v1-unlimited"));
+        assertNotNull(reader);
+
+        assertTrue(reader.readCpu());
+        assertEquals(98765432, reader.getCpuUsageNanos());
+        assertEquals(-1, reader.getCpuLimit(), 0.0);
+        assertEquals(0, reader.getThrottledPeriods());
+
+        // no memory controller
+        assertFalse(reader.readMemory());
+        assertEquals(-1, reader.getMemoryWorkingSetBytes());
+    }
+
+    @Test
+    public void testCGroupV2() throws Exception {
+        CGroupReader reader = CGroupReader.create(ProcFileReaderTest.getFixture("cgroup-v2"));
+        assertNotNull(reader);
+        assertEquals(CGroupReader.Version.V2, reader.getVersion());
+
+        assertTrue(reader.readCpu());
+        assertEquals(8392749000L, reader.getCpuUsageNanos());
+        assertEquals(2.0, reader.getCpuLimit(), 0.0);
+        assertEquals(1525, reader.getPeriods());
+        assertEquals(48, reader.getThrottledPeriods());
+        assertEquals(3094021000L, reader.getThrottledNanos());
+
+        assertTrue(reader.readMemory());
+        assertEquals(268435456, reader.getMemoryUsageBytes());
+        assertEquals(536870912, reader.getMemoryLimitBytes());
+        assertEquals(268435456 - 67108864, reader.getMemoryWorkingSetBytes());
+    }
+
+    @Test
+    public void testCGroupV2WithoutLimits() throws Exception {
+        CGroupReader reader = CGroupReader.create(ProcFileReaderTest.getFixture("cgroup-v2-unlimited"));
+        assertNotNull(reader);
+
+        assertTrue(reader.readCpu());
+        assertEquals(1000000, reader.getCpuUsageNanos());
+        assertEquals(-1, reader.getCpuLimit(), 0.0);
+        assertEquals(-1, reader.getThrottledPeriods());
+
+        assertTrue(reader.readMemory());
+        assertEquals(-1, reader.getMemoryLimitBytes());
+        // no memory.stat, the whole usage is the working set
+        assertEquals(1048576, reader.getMemoryWorkingSetBytes());
+    }
+
+    @Test
+    public void testNoHierarchy() {
+        assertNull(CGroupReader.create(folder.getRoot()));
+        assertNull(CGroupReader.create(new File(folder.getRoot(), "missing")));
+    }
+
+    @Test
+    public void testQuotaUsage() {
+        // 1.5 cpus used during one second with a quota of 2 cpus
+        assertEquals(75.0, ContainerCpuPerformanceCounter.calculateQuotaUsage(1500000000L, 1000000000L, 2.0), 0.0);
+        assertEquals(0.0, ContainerCpuPerformanceCounter.calculateQuotaUsage(0, 1000000000L, 2.0), 0.0);
+        assertEquals(0.0, ContainerCpuPerformanceCounter.calculateQuotaUsage(100, 0, 2.0), 0.0);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import com.microsoft.applicationinsights.internal.channel.common.PipelineMetrics;
+import com.microsoft.applicationinsights.internal.config.JvmXmlElement;
+import com.microsoft.applicationinsights.internal.config.PerformanceCounterJvmSectionXmlElement;
+import com.microsoft.applicationinsights.internal.config.PerformanceCountersXmlElement;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public final class JvmPerformanceCountersModuleTest {
+
+    private final List<Telemetry> tracked = Collections.synchronizedList(new ArrayList<Telemetry>());
+
+    private final TelemetryClient telemetryClient = new TelemetryClient() {
+        @Override
+        public void track(Telemetry telemetry) {
+            tracked.add(telemetry);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        PerformanceCounterContainer.INSTANCE.clear();
+    }
+
+    @After
+    public void tearDown() {
+        PerformanceCounterContainer.INSTANCE.clear();
+    }
+
+    @Test
+    public void testPipelineMetricsAreCollectedWhenOptedIn() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(PipelineMetrics.OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+
+        JvmPerformanceCountersModule module = new JvmPerformanceCountersModule();
+        module.addConfigurationData(newConfiguration(PipelinePerformanceCounter.NAME));
+        module.initialize(new TelemetryConfiguration());
+        PerformanceCounterContainer.INSTANCE.collect(telemetryClient, TimeUnit.SECONDS.toNanos(10));
+
+        assertTrue(isTracked(PipelinePerformanceCounter.ITEMS_SENT_METRIC_NAME));
+        assertTrue(server.isRegistered(name));
+    }
+
+    @Test
+    public void testPipelineMetricsAreNotCollectedByDefault() throws Exception {
+        JvmPerformanceCountersModule module = new JvmPerformanceCountersModule();
+        module.addConfigurationData(newConfiguration());
+        module.initialize(new TelemetryConfiguration());
+        PerformanceCounterContainer.INSTANCE.collect(telemetryClient, TimeUnit.SECONDS.toNanos(10));
+
+        assertFalse(isTracked(PipelinePerformanceCounter.ITEMS_SENT_METRIC_NAME));
+    }
+
+    private boolean isTracked(String metricName) {
+        synchronized (tracked) {
+            for (Telemetry telemetry : tracked) {
+                if (telemetry instanceof MetricTelemetry && metricName.equals(((MetricTelemetry) telemetry).getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static PerformanceCountersXmlElement newConfiguration(String... optInNames) {
+        ArrayList<JvmXmlElement> jvmXmls = new ArrayList<JvmXmlElement>();
+        for (String optInName : optInNames) {
+            JvmXmlElement jvmXml = new JvmXmlElement();
+            jvmXml.setName(optInName);
+            jvmXml.setEnabled(true);
+            jvmXmls.add(jvmXml);
+        }
+        PerformanceCounterJvmSectionXmlElement jvmSection = new PerformanceCounterJvmSectionXmlElement();
+        jvmSection.setJvmXmlElements(jvmXmls);
+        PerformanceCountersXmlElement configuration = new PerformanceCountersXmlElement();
+        configuration.setJvmSection(jvmSection);
+        return configuration;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.perfcounter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PerformanceCounterCollectionTest {
+
+    private static final long TIMEOUT_IN_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final List<Telemetry> tracked = Collections.synchronizedList(new ArrayList<Telemetry>());
+
+    private final TelemetryClient telemetryClient = new TelemetryClient() {
+        @Override
+        public void track(Telemetry telemetry) {
+            tracked.add(telemetry);
+        }
+    };
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        PerformanceCounterContainer.INSTANCE.clear();
+        PerformanceCounterContainer.INSTANCE.setCollectionDurationTelemetryEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        PerformanceCounterContainer.INSTANCE.setCollectionDurationTelemetryEnabled(false);
+        PerformanceCounterContainer.INSTANCE.clear();
+    }
+
+    @Test
+    public void intervalBoundaryIsRoundedToTheClosestBoundary() {
+        assertEquals(60000, PerformanceCounterContainer.getIntervalBoundary(60000, 60000));
+        assertEquals(60000, PerformanceCounterContainer.getIntervalBoundary(60250, 60000));
+        assertEquals(60000, PerformanceCounterContainer.getIntervalBoundary(59990, 60000));
+        assertEquals(120000, PerformanceCounterContainer.getIntervalBoundary(90000, 60000));
+    }
+
+    @Test
+    public void alignedDelayEndsOnAnIntervalBoundary() {
+        assertEquals(20000, PerformanceCounterContainer.getAlignedDelay(40000, 20000, 60000));
+        assertEquals(70000, PerformanceCounterContainer.getAlignedDelay(50000, 20000, 60000));
+        assertEquals(59000, PerformanceCounterContainer.getAlignedDelay(1000, 20000, 60000));
+        long delay = PerformanceCounterContainer.getAlignedDelay(123456789, 20000, 60000);
+        assertEquals(0, (123456789 + delay) % 60000);
+    }
+
+    @Test
+    public void intervalClientStampsTelemetryWithTheBoundary() {
+        final List<Telemetry> tracked = new ArrayList<Telemetry>();
+        TelemetryClient delegate = new TelemetryClient() {
+            @Override
+            public void track(Telemetry telemetry) {
+                tracked.add(telemetry);
+            }
+        };
+        TelemetryClient client = new IntervalTelemetryClient(delegate, 120000);
+
+        client.track(new MetricTelemetry("a", 1));
+        MetricTelemetry explicit = new MetricTelemetry("b", 2);
+        explicit.setTimestamp(new Date(5));
+        client.track(explicit);
+
+        assertEquals(2, tracked.size());
+        assertEquals(120000, tracked.get(0).getTimestamp().getTime());
+        assertEquals(5, tracked.get(1).getTimestamp().getTime());
+    }
+
+    @Test
+    public void hangingCounterTimesOutAndIsSkippedUntilItCompletes() throws InterruptedException {
+        CountingCounter hanging = new CountingCounter("hanging") {
+            @Override
+            void doReport() throws InterruptedException {
+                release.await();
+            }
+        };
+        CountingCounter healthy = new CountingCounter("healthy");
+        PerformanceCounterContainer.INSTANCE.register(hanging);
+        PerformanceCounterContainer.INSTANCE.register(healthy);
+
+        long start = System.nanoTime();
+        PerformanceCounterContainer.INSTANCE.collect(telemetryClient, TIMEOUT_IN_NANOS);
+        long elapsed = System.nanoTime() - start;
+
+        // the hanging counter does not hold up the cycle (or the other counter) past the timeout
+        assertTrue("collection took " + elapsed + "ns", elapsed < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(1, hanging.reports.get());
+        assertEquals(1, healthy.reports.get());
+        assertEquals("Timeout", getCollectionStatus("hanging"));
+        assertEquals("Success", getCollectionStatus("healthy"));
+
+        // the next cycle does not start another collection while the first one is still running
+        tracked.clear();
+        PerformanceCounterContainer.INSTANCE.collect(telemetryClient, TIMEOUT_IN_NANOS);
+        assertEquals(1, hanging.reports.get());
+        assertEquals(2, healthy.reports.get());
+        assertEquals(null, getCollectionStatus("hanging"));
+
+        // once it completes it is collected again after backing off for an interval
+        release.countDown();
+        hanging.awaitCompletions(1);
+        PerformanceCounterContainer.INSTANCE.collect(telemetryClient, TIMEOUT_IN_NANOS);
+        assertEquals(1, hanging.reports.get());
+        for (int i = 0; i < 8 && hanging.reports.get() == 1; i++) {
+            PerformanceCounterContainer.INSTANCE.collect(telemetryClient, TIMEOUT_IN_NANOS);
+        }
+        assertEquals(2, hanging.reports.get());
+    }
+
+    @Test
+    public void failingCounterIsBackedOffExponentially() {
+        CountingCounter failing = new CountingCounter("failing") {
+            @Override
+            void doReport() {
+                throw new IllegalStateException("boom");
+            }
+        };
+        CountingCounter healthy = new CountingCounter("healthy");
+        PerformanceCounterContainer.INSTANCE.register(failing);
+        PerformanceCounterContainer.INSTANCE.register(healthy);
+
+        List<Integer> reportedCycles = new ArrayList<Integer>();
+        for (int cycle = 1; cycle <= 16; cycle++) {
+            int before = failing.reports.get();
+            tracked.clear();
+            PerformanceCounterContainer.INSTANCE.collect(telemetryClient, TIMEOUT_IN_NANOS);
+            if (failing.reports.get() > before) {
+                reportedCycles.add(cycle);
+                assertEquals("Failure", getCollectionStatus("failing"));
+            }
+        }
+
+        // skipped for 0, 1, 3 and 7 intervals after the 1st, 2nd, 3rd and 4th failure
+        assertEquals(Arrays.asList(1, 2, 4, 8, 16), reportedCycles);
+        assertEquals(16, healthy.reports.get());
+    }
+
+    private String getCollectionStatus(String counterId) {
+        synchronized (tracked) {
+            for (Telemetry telemetry : tracked) {
+                if (telemetry instanceof MetricTelemetry
+                        && PerformanceCounterContainer.COLLECTION_DURATION_METRIC_NAME.equals(((MetricTelemetry) telemetry).getName())
+                        && counterId.equals(telemetry.getProperties().get("counter"))) {
+                    return telemetry.getProperties().get("status");
+                }
+            }
+        }
+        return null;
+    }
+
+    private static class CountingCounter implements PerformanceCounter {
+
+        private final String id;
+        private final AtomicInteger reports = new AtomicInteger();
+        private final AtomicInteger completions = new AtomicInteger();
+
+        private CountingCounter(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public void report(TelemetryClient telemetryClient) {
+            reports.incrementAndGet();
+            try {
+                doReport();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                synchronized (this) {
+                    completions.incrementAndGet();
+                    notifyAll();
+                }
+            }
+        }
+
+        void doReport() throws InterruptedException {
+        }
+
+        synchronized void awaitCompletions(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (completions.get() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertEquals(count, completions.get());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.channel.common.PipelineMetrics;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public final class PipelinePerformanceCounterTest {
+
+    @Test
+    public void testCountsAreReportedAsDeltas() {
+        PipelineMetrics metrics = PipelineMetrics.getInstance();
+        PipelinePerformanceCounter counter = new PipelinePerformanceCounter(metrics);
+        List<Telemetry> telemetries = new ArrayList<Telemetry>();
+        counter.report(collectingClient(telemetries));
+
+        metrics.onItemSent();
+        metrics.onItemSent();
+        metrics.onHttpResponse(200, 1000, 30);
+        metrics.onBatchSerialized(4000, 1000);
+        telemetries.clear();
+        counter.report(collectingClient(telemetries));
+
+        Map<String, MetricTelemetry> reported = byName(telemetries);
+        assertEquals(2, reported.get(PipelinePerformanceCounter.ITEMS_SENT_METRIC_NAME).getValue(), 0);
+        assertEquals(1, reported.get(PipelinePerformanceCounter.HTTP_REQUESTS_METRIC_NAME).getValue(), 0);
+        assertEquals(1000, reported.get(PipelinePerformanceCounter.BYTES_SENT_METRIC_NAME).getValue(), 0);
+        assertEquals(4, reported.get(PipelinePerformanceCounter.COMPRESSION_RATIO_METRIC_NAME).getValue(), 0.001);
+        assertNotNull(reported.get(PipelinePerformanceCounter.HTTP_LATENCY_METRIC_NAME));
+
+        telemetries.clear();
+        counter.report(collectingClient(telemetries));
+
+        reported = byName(telemetries);
+        assertEquals(0, reported.get(PipelinePerformanceCounter.ITEMS_SENT_METRIC_NAME).getValue(), 0);
+        // nothing to compute over an interval without requests
+        assertNull(reported.get(PipelinePerformanceCounter.COMPRESSION_RATIO_METRIC_NAME));
+        assertNull(reported.get(PipelinePerformanceCounter.HTTP_LATENCY_METRIC_NAME));
+        assertNotNull(reported.get(PipelinePerformanceCounter.BUFFERED_ITEMS_METRIC_NAME));
+    }
+
+    @Test
+    public void testMBeanIsRegisteredOnTheFirstCollection() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(PipelineMetrics.OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+
+        PipelinePerformanceCounter counter = new PipelinePerformanceCounter();
+        assertFalse(server.isRegistered(name));
+
+        counter.report(collectingClient(new ArrayList<Telemetry>()));
+        assertTrue(server.isRegistered(name));
+    }
+
+    private static Map<String, MetricTelemetry> byName(List<Telemetry> telemetries) {
+        Map<String, MetricTelemetry> byName = new HashMap<String, MetricTelemetry>();
+        for (Telemetry telemetry : telemetries) {
+            MetricTelemetry metric = (MetricTelemetry) telemetry;
+            byName.put(metric.getName(), metric);
+        }
+        return byName;
+    }
+
+    private static TelemetryClient collectingClient(final List<Telemetry> telemetries) {
+        return new TelemetryClient() {
+            @Override
+            public void track(Telemetry telemetry) {
+                telemetries.add(telemetry);
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public final class ProcFileReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static File getFixture(String path) throws Exception {
+        return new File(ProcFileReaderTest.class.getResource("/perfcounter/" + path).toURI());
+    }
+
+    @Test
+    public void testProcStatCpuLine() throws Exception {
+        ProcFileReader reader = new ProcFileReader(getFixture("proc/stat"));
+        assertTrue(reader.read());
+
+        long[] counters = new long[10];
+        assertEquals(10, UnixTotalCpuPerformanceCounter.readCpuCounters(reader, counters));
+        assertArrayEquals(new long[] {2255, 34, 2290, 22625563, 6290, 127, 456, 0, 0, 0}, counters);
+    }
+
+    @Test
+    public void testProcStatWithFewerFields() throws Exception {
+        ProcFileReader reader = new ProcFileReader(write("stat", "cpu  10 20 30 40\ncpu0 10 20 30 40\n"));
+        assertTrue(reader.read());
+
+        long[] counters = {1, 1, 1, 1, 1, 1};
+        assertEquals(4, UnixTotalCpuPerformanceCounter.readCpuCounters(reader, counters));
+        assertArrayEquals(new long[] {10, 20, 30, 40, 0, 0}, counters);
+    }
+
+    @Test
+    public void testTotalCpuUsage() {
+        long[] prev = {100, 0, 100, 800};
+        long[] current = {150, 0, 150, 900};
+        assertEquals(50.0, UnixTotalCpuPerformanceCounter.calculateTotalCpuUsage(prev, current), 0.0);
+        assertEquals(0.0, UnixTotalCpuPerformanceCounter.calculateTotalCpuUsage(current, current), 0.0);
+    }
+
+    @Test
+    public void testProcessIO() throws Exception {
+        ProcFileReader reader = new ProcFileReader(getFixture("proc/io"));
+        assertTrue(reader.read());
+        assertEquals(7335936 + 12288, UnixProcessIOPerformanceCounter.readProcessIO(reader));
+    }
+
+    @Test
+    public void testProcessIOWithMissingEntry() throws Exception {
+        ProcFileReader reader = new ProcFileReader(write("io", "rchar: 1661777\nread_bytes: 7335936\ncancelled_write_bytes: 0\n"));
+        assertTrue(reader.read());
+        assertEquals(-1, UnixProcessIOPerformanceCounter.readProcessIO(reader));
+    }
+
+    @Test
+    public void testKeyMustBeAWholeToken() throws Exception {
+        ProcFileReader reader = new ProcFileReader(write("stat", "nr_throttled_time 5\nnr_throttled 7\n"));
+        assertTrue(reader.read());
+        assertEquals(7, reader.getValue("nr_throttled"));
+        assertEquals(-1, reader.getValue("nr_periods"));
+    }
+
+    @Test
+    public void testNextLong() throws Exception {
+        ProcFileReader reader = new ProcFileReader(write("values", "max 100000\n-1\nabc 12\n"));
+        assertTrue(reader.read());
+        assertEquals(Long.MAX_VALUE, reader.nextLong());
+        assertEquals(100000, reader.nextLong());
+        assertEquals(-1, reader.nextLong());
+        assertTrue(reader.nextLine());
+        assertEquals(-1, reader.nextLong());
+        assertTrue(reader.nextLine());
+        assertEquals(-1, reader.nextLong());
+        assertEquals(12, reader.nextLong());
+        assertFalse(reader.nextLine());
+    }
+
+    @Test
+    public void testReadSeesNewContentAndGrowsBuffer() throws Exception {
+        File file = write("values", "first 1\n");
+        ProcFileReader reader = new ProcFileReader(file);
+        assertTrue(reader.read());
+        assertEquals(1, reader.getValue("first"));
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("key").append(i).append(' ').append(i).append('\n');
+        }
+        write("values", sb.toString());
+        assertTrue(reader.read());
+        assertEquals(-1, reader.getValue("first"));
+        assertEquals(999, reader.getValue("key999"));
+        reader.close();
+    }
+
+    @Test
+    public void testMissingFile() {
+        ProcFileReader reader = new ProcFileReader(new File(folder.getRoot(), "missing"));
+        assertFalse(reader.read());
+        assertTrue(reader.isEmpty());
+        assertEquals(-1, reader.nextLong());
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+        return file;
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter.jvm;
+
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public final class GCNotificationRecorderTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void testPauseStatsPerCollector() {
+        GCNotificationRecorder recorder = new GCNotificationRecorder(1000);
+        for (int i = 1; i <= 10; i++) {
+            recorder.record("G1 Young Generation", "end of minor GC", "G1 Evacuation Pause", i * 10, pools(0, 0), pools(0, 0));
+        }
+        recorder.record("G1 Old Generation", "end of major GC", "System.gc()", 300, pools(0, 0), pools(0, 0));
+
+        List<Telemetry> tracked = new ArrayList<Telemetry>();
+        recorder.flush(collectingClient(tracked), 60000000000L);
+
+        assertEquals(11.0, findMetric(tracked, GCNotificationRecorder.GC_TOTAL_COUNT, null).getValue(), 0.0);
+        assertEquals(850.0, findMetric(tracked, GCNotificationRecorder.GC_TOTAL_TIME, null).getValue(), 0.0);
+
+        MetricTelemetry young = findMetric(tracked, GCNotificationRecorder.GC_PAUSE_TIME, "G1 Young Generation");
+        assertNotNull(young);
+        assertEquals(550.0, young.getValue(), 0.0);
+        assertEquals(Integer.valueOf(10), young.getCount());
+        assertEquals(10.0, young.getMin(), 0.0);
+        assertEquals(100.0, young.getMax(), 0.0);
+
+        MetricTelemetry youngP99 = findMetric(tracked, GCNotificationRecorder.GC_PAUSE_TIME_PERCENTILES[2], "G1 Young Generation");
+        assertNotNull(youngP99);
+        assertTrue(youngP99.getValue() > 75 && youngP99.getValue() <= 100);
+
+        MetricTelemetry old = findMetric(tracked, GCNotificationRecorder.GC_PAUSE_TIME, "G1 Old Generation");
+        assertEquals(Integer.valueOf(1), old.getCount());
+
+        // the next interval starts empty
+        tracked.clear();
+        recorder.flush(collectingClient(tracked), 60000000000L);
+        assertEquals(0.0, findMetric(tracked, GCNotificationRecorder.GC_TOTAL_COUNT, null).getValue(), 0.0);
+        assertNull(findMetric(tracked, GCNotificationRecorder.GC_PAUSE_TIME, "G1 Young Generation"));
+    }
+
+    @Test
+    public void testAllocationAndPromotionRates() {
+        GCNotificationRecorder recorder = new GCNotificationRecorder(1000);
+        // 100MB allocated, 10MB promoted
+        recorder.record("PS Scavenge", "end of minor GC", "Allocation Failure", 5, pools(100 * MB, 50 * MB), pools(0, 60 * MB));
+        // 80MB allocated since the previous collection left the eden at 0, 5MB promoted
+        recorder.record("PS Scavenge", "end of minor GC", "Allocation Failure", 5, pools(80 * MB, 60 * MB), pools(0, 65 * MB));
+        // a major collection shrinks the old generation, which is not a promotion
+        recorder.record("PS MarkSweep", "end of major GC", "Ergonomics", 50, pools(20 * MB, 65 * MB), pools(0, 30 * MB));
+
+        List<Telemetry> tracked = new ArrayList<Telemetry>();
+        recorder.flush(collectingClient(tracked), 10000000000L);
+
+        assertEquals(200 * MB / 10.0, findMetric(tracked, GCNotificationRecorder.GC_ALLOCATION_RATE, null).getValue(), 0.0);
+        assertEquals(15 * MB / 10.0, findMetric(tracked, GCNotificationRecorder.GC_PROMOTION_RATE, null).getValue(), 0.0);
+    }
+
+    @Test
+    public void testNoRatesWithoutYoungGeneration() {
+        GCNotificationRecorder recorder = new GCNotificationRecorder(1000);
+        Map<String, MemoryUsage> before = new HashMap<String, MemoryUsage>();
+        before.put("ZHeap", new MemoryUsage(0, 500 * MB, 500 * MB, -1));
+        Map<String, MemoryUsage> after = new HashMap<String, MemoryUsage>();
+        after.put("ZHeap", new MemoryUsage(0, 100 * MB, 500 * MB, -1));
+        recorder.record("ZGC Pauses", "end of GC pause", "Proactive", 1, before, after);
+
+        List<Telemetry> tracked = new ArrayList<Telemetry>();
+        recorder.flush(collectingClient(tracked), 10000000000L);
+
+        // a rate of 0 would look like a real measurement
+        assertEquals(1.0, findMetric(tracked, GCNotificationRecorder.GC_TOTAL_COUNT, null).getValue(), 0.0);
+        assertNull(findMetric(tracked, GCNotificationRecorder.GC_ALLOCATION_RATE, null));
+        assertNull(findMetric(tracked, GCNotificationRecorder.GC_PROMOTION_RATE, null));
+    }
+
+    @Test
+    public void testLongPauseEvents() {
+        GCNotificationRecorder recorder = new GCNotificationRecorder(500);
+        recorder.record("G1 Young Generation", "end of minor GC", "G1 Evacuation Pause", 20, pools(0, 0), pools(0, 0));
+        recorder.record("G1 Old Generation", "end of major GC", "Allocation Failure", 1500, pools(0, 0), pools(0, 0));
+        for (int i = 0; i < GCNotificationRecorder.MAX_LONG_PAUSE_EVENTS + 5; i++) {
+            recorder.record("G1 Old Generation", "end of major GC", "Allocation Failure", 600, pools(0, 0), pools(0, 0));
+        }
+
+        List<Telemetry> tracked = new ArrayList<Telemetry>();
+        recorder.flush(collectingClient(tracked), 60000000000L);
+
+        List<EventTelemetry> events = new ArrayList<EventTelemetry>();
+        for (Telemetry telemetry : tracked) {
+            if (telemetry instanceof EventTelemetry) {
+                events.add((EventTelemetry) telemetry);
+            }
+        }
+        assertEquals(GCNotificationRecorder.MAX_LONG_PAUSE_EVENTS, events.size());
+        EventTelemetry first = events.get(0);
+        assertEquals(GCNotificationRecorder.LONG_GC_PAUSE_EVENT, first.getName());
+        assertEquals("G1 Old Generation", first.getProperties().get(GCNotificationRecorder.COLLECTOR_PROPERTY_NAME));
+        assertEquals("Allocation Failure", first.getProperties().get(GCNotificationRecorder.CAUSE_PROPERTY_NAME));
+        assertEquals(1500.0, first.getMetrics().get(GCNotificationRecorder.DURATION_METRIC_NAME), 0.0);
+        assertNotNull(first.getTimestamp());
+    }
+
+    @Test
+    public void testConcurrentCyclesAreNotPauses() {
+        GCNotificationRecorder recorder = new GCNotificationRecorder(100);
+        recorder.record("ZGC Cycles", "end of GC cycle", "Proactive", 5000, pools(0, 0), pools(0, 0));
+
+        List<Telemetry> tracked = new ArrayList<Telemetry>();
+        recorder.flush(collectingClient(tracked), 60000000000L);
+
+        assertEquals(1.0, findMetric(tracked, GCNotificationRecorder.GC_TOTAL_COUNT, null).getValue(), 0.0);
+        assertNull(findMetric(tracked, GCNotificationRecorder.GC_PAUSE_TIME, "ZGC Cycles"));
+        for (Telemetry telemetry : tracked) {
+            assertFalse(telemetry instanceof EventTelemetry);
+        }
+    }
+
+    @Test
+    public void testCounterRecordsRealCollections() throws Exception {
+        GCPerformanceCounter counter = new GCPerformanceCounter();
+        System.gc();
+
+        List<Telemetry> tracked = new ArrayList<Telemetry>();
+        // notifications are delivered asynchronously
+        for (int i = 0; i < 50; i++) {
+            Thread.sleep(20);
+            counter.report(collectingClient(tracked));
+            MetricTelemetry count = findMetric(tracked, GCNotificationRecorder.GC_TOTAL_COUNT, null);
+            if (count.getValue() > 0) {
+                return;
+            }
+            tracked.clear();
+        }
+        fail("no garbage collection was reported");
+    }
+
+    private static Map<String, MemoryUsage> pools(long edenUsed, long oldUsed) {
+        Map<String, MemoryUsage> pools = new HashMap<String, MemoryUsage>();
+        pools.put("PS Eden Space", new MemoryUsage(0, edenUsed, edenUsed, -1));
+        pools.put("PS Survivor Space", new MemoryUsage(0, 0, 0, -1));
+        pools.put("PS Old Gen", new MemoryUsage(0, oldUsed, oldUsed, -1));
+        return pools;
+    }
+
+    private static MetricTelemetry findMetric(List<Telemetry> tracked, String name, String collector) {
+        for (Telemetry telemetry : tracked) {
+            if (!(telemetry instanceof MetricTelemetry)) {
+                continue;
+            }
+            MetricTelemetry metric = (MetricTelemetry) telemetry;
+            if (metric.getName().equals(name)
+                    && (collector == null || collector.equals(metric.getProperties().get(GCNotificationRecorder.COLLECTOR_PROPERTY_NAME)))) {
+                return metric;
+            }
+        }
+        return null;
+    }
+
+    private static TelemetryClient collectingClient(final List<Telemetry> tracked) {
+        return new TelemetryClient() {
+            @Override
+            public void track(Telemetry telemetry) {
+                tracked.add(telemetry);
+            }
+        };
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter.jvm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.internal.perfcounter.jvm.LockContentionPerformanceCounter.Monitor;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import com.microsoft.applicationinsights.telemetry.TraceTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public final class LockContentionPerformanceCounterTest {
+
+    private static final class HotLock {
+    }
+
+    @Test
+    public void testMonitorClassName() {
+        assertEquals("java.lang.Object", LockContentionPerformanceCounter.getMonitorClassName("java.lang.Object@1b6d3586"));
+        assertEquals("java.util.concurrent.locks.ReentrantLock$NonfairSync",
+                LockContentionPerformanceCounter.getMonitorClassName("java.util.concurrent.locks.ReentrantLock$NonfairSync@4554617c"));
+        assertEquals("noHash", LockContentionPerformanceCounter.getMonitorClassName("noHash"));
+    }
+
+    @Test
+    public void testHottestMonitorsAreOrderedAndBounded() {
+        Monitor cold = monitor("cold", 1, 10);
+        Monitor hot = monitor("hot", 1, 500);
+        Monitor crowded = monitor("crowded", 4, 10);
+        Monitor other = monitor("other", 1, 0);
+
+        List<Monitor> hottest = LockContentionPerformanceCounter.getHottestMonitors(Arrays.asList(cold, hot, crowded, other), 3);
+
+        assertEquals(3, hottest.size());
+        assertSame(hot, hottest.get(0));
+        assertSame(crowded, hottest.get(1));
+        assertSame(cold, hottest.get(2));
+    }
+
+    @Test
+    public void testReportsContendedMonitorWithOwnerStack() throws Exception {
+        LockContentionPerformanceCounter counter = new LockContentionPerformanceCounter();
+        assertTrue(counter.isSupported());
+
+        List<Telemetry> telemetries = new ArrayList<Telemetry>();
+        counter.report(collectingClient(telemetries));
+        // the first cycle only takes the baseline
+        assertTrue(telemetries.isEmpty());
+
+        final HotLock lock = new HotLock();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch locked = new CountDownLatch(1);
+        Thread owner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    locked.countDown();
+                    holdLock(release);
+                }
+            }
+        }, "lock-owner");
+        owner.setDaemon(true);
+        owner.start();
+        locked.await();
+
+        List<Thread> waiters = new ArrayList<Thread>();
+        for (int i = 0; i < 2; i++) {
+            Thread waiter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (lock) {
+                        lock.hashCode();
+                    }
+                }
+            }, "lock-waiter-" + i);
+            waiter.setDaemon(true);
+            waiter.start();
+            waiters.add(waiter);
+        }
+        try {
+            waitUntilBlocked(waiters);
+            counter.report(collectingClient(telemetries));
+        } finally {
+            release.countDown();
+        }
+
+        MetricTelemetry blockedThreads = findMetric(telemetries, LockContentionPerformanceCounter.BLOCKED_THREADS_METRIC_NAME);
+        assertNotNull(blockedThreads);
+        assertTrue(blockedThreads.getValue() >= 2);
+
+        MetricTelemetry monitor = null;
+        for (Telemetry telemetry : telemetries) {
+            if (telemetry instanceof MetricTelemetry
+                    && HotLock.class.getName().equals(((MetricTelemetry) telemetry).getProperties().get(LockContentionPerformanceCounter.MONITOR_PROPERTY_NAME))) {
+                monitor = (MetricTelemetry) telemetry;
+            }
+        }
+        assertNotNull(monitor);
+        assertEquals(2.0, monitor.getValue(), 0.0);
+        assertEquals("lock-owner", monitor.getProperties().get(LockContentionPerformanceCounter.OWNER_PROPERTY_NAME));
+
+        TraceTelemetry trace = null;
+        for (Telemetry telemetry : telemetries) {
+            if (telemetry instanceof TraceTelemetry) {
+                trace = (TraceTelemetry) telemetry;
+            }
+        }
+        assertNotNull(trace);
+        assertTrue(trace.getMessage(), trace.getMessage().contains("is owned by lock-owner"));
+        assertTrue(trace.getMessage(), trace.getMessage().contains("holdLock"));
+    }
+
+    private static void holdLock(CountDownLatch release) {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntilBlocked(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (thread.getState() != Thread.State.BLOCKED && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(Thread.State.BLOCKED, thread.getState());
+        }
+    }
+
+    private static Monitor monitor(String name, int blockedThreads, long blockedTime) {
+        Monitor monitor = new Monitor(name, 1, "owner");
+        monitor.blockedThreads = blockedThreads;
+        monitor.blockedTime = blockedTime;
+        return monitor;
+    }
+
+    private static MetricTelemetry findMetric(List<Telemetry> telemetries, String name) {
+        for (Telemetry telemetry : telemetries) {
+            if (telemetry instanceof MetricTelemetry && ((MetricTelemetry) telemetry).getName().equals(name)) {
+                return (MetricTelemetry) telemetry;
+            }
+        }
+        return null;
+    }
+
+    private static TelemetryClient collectingClient(final List<Telemetry> telemetries) {
+        return new TelemetryClient() {
+            @Override
+            public void track(Telemetry telemetry) {
+                telemetries.add(telemetry);
+            }
+        };
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.internal.perfcounter.jvm;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import com.microsoft.applicationinsights.TelemetryClient;
+import com.microsoft.applicationinsights.telemetry.MetricTelemetry;
+import com.microsoft.applicationinsights.telemetry.Telemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public final class ThreadCpuPerformanceCounterTest {
+
+    // keeps the allocations of the busy threads from being optimized away
+    private static volatile Object sink;
+
+    @Test
+    public void testPoolName() {
+        assertEquals("pool-#-thread-#", ThreadCpuPerformanceCounter.getPoolName("pool-3-thread-12"));
+        assertEquals("http-nio-#-exec-#", ThreadCpuPerformanceCounter.getPoolName("http-nio-8080-exec-5"));
+        assertEquals("ForkJoinPool.commonPool-worker-#", ThreadCpuPerformanceCounter.getPoolName("ForkJoinPool.commonPool-worker-19"));
+        assertEquals("main", ThreadCpuPerformanceCounter.getPoolName("main"));
+        assertEquals(ThreadCpuPerformanceCounter.OTHER_POOL_NAME, ThreadCpuPerformanceCounter.getPoolName(""));
+    }
+
+    @Test
+    public void testReportsBusyPool() throws Exception {
+        ThreadCpuPerformanceCounter counter = new ThreadCpuPerformanceCounter();
+        assertTrue(counter.isSupported());
+
+        List<MetricTelemetry> metrics = new ArrayList<MetricTelemetry>();
+        counter.report(collectingClient(metrics));
+        // the first cycle only takes the baseline
+        assertTrue(metrics.isEmpty());
+
+        CountDownLatch stop = startBusyThreads("busy-worker-", 2);
+        try {
+            Thread.sleep(100);
+            counter.report(collectingClient(metrics));
+        } finally {
+            stop.countDown();
+        }
+
+        MetricTelemetry cpu = find(metrics, ThreadCpuPerformanceCounter.CPU_METRIC_NAME, "busy-worker-#");
+        assertNotNull(cpu);
+        assertTrue(cpu.getValue() > 0);
+        // the thread count is not a dimension, which would start a new series every time the pool size changes
+        assertEquals(1, cpu.getProperties().size());
+
+        MetricTelemetry threadCount = find(metrics, ThreadCpuPerformanceCounter.THREAD_COUNT_METRIC_NAME, "busy-worker-#");
+        assertNotNull(threadCount);
+        assertEquals(2, threadCount.getValue(), 0);
+
+        MetricTelemetry allocation = find(metrics, ThreadCpuPerformanceCounter.ALLOCATION_METRIC_NAME, "busy-worker-#");
+        assertNotNull(allocation);
+        assertTrue(allocation.getValue() > 0);
+    }
+
+    @Test
+    public void testNumberOfPoolsIsBounded() throws Exception {
+        ThreadCpuPerformanceCounter counter = new ThreadCpuPerformanceCounter(ManagementFactory.getThreadMXBean(), 1);
+        List<MetricTelemetry> metrics = new ArrayList<MetricTelemetry>();
+        counter.report(collectingClient(metrics));
+        counter.report(collectingClient(metrics));
+
+        boolean foundOther = false;
+        for (MetricTelemetry metric : metrics) {
+            String pool = metric.getProperties().get(ThreadCpuPerformanceCounter.POOL_PROPERTY_NAME);
+            if (ThreadCpuPerformanceCounter.OTHER_POOL_NAME.equals(pool)) {
+                foundOther = true;
+            }
+        }
+        assertTrue(foundOther);
+        assertTrue(metrics.size() <= 6);
+    }
+
+    @Test
+    public void testPoolThatEndedGivesUpItsSlot() throws Exception {
+        ThreadCpuPerformanceCounter counter = new ThreadCpuPerformanceCounter(ManagementFactory.getThreadMXBean(), 100);
+        List<MetricTelemetry> metrics = new ArrayList<MetricTelemetry>();
+        counter.report(collectingClient(metrics));
+        counter.report(collectingClient(metrics));
+        int poolCount = countPools(metrics);
+
+        // only leave room for one more pool
+        counter = new ThreadCpuPerformanceCounter(ManagementFactory.getThreadMXBean(), poolCount + 1);
+        counter.report(collectingClient(metrics));
+        CountDownLatch stopFirst = startBusyThreads("first-pool-", 1);
+        metrics.clear();
+        try {
+            counter.report(collectingClient(metrics));
+        } finally {
+            stopFirst.countDown();
+        }
+        assertNotNull(find(metrics, ThreadCpuPerformanceCounter.THREAD_COUNT_METRIC_NAME, "first-pool-#"));
+
+        awaitNoThreads("first-pool-0");
+        counter.report(collectingClient(metrics));
+
+        CountDownLatch stopSecond = startBusyThreads("second-pool-", 1);
+        metrics.clear();
+        try {
+            counter.report(collectingClient(metrics));
+        } finally {
+            stopSecond.countDown();
+        }
+        // the slot of the first pool was released once it had no threads left
+        assertNotNull(find(metrics, ThreadCpuPerformanceCounter.THREAD_COUNT_METRIC_NAME, "second-pool-#"));
+    }
+
+    private static int countPools(List<MetricTelemetry> metrics) {
+        int count = 0;
+        for (MetricTelemetry metric : metrics) {
+            if (metric.getName().equals(ThreadCpuPerformanceCounter.THREAD_COUNT_METRIC_NAME)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void awaitNoThreads(String threadName) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            boolean found = false;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals(threadName)) {
+                    found = true;
+                }
+            }
+            if (!found) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail(threadName + " did not end");
+    }
+
+    private static CountDownLatch startBusyThreads(String prefix, int count) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(count);
+        final CountDownLatch stop = new CountDownLatch(1);
+        for (int i = 0; i < count; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    while (stop.getCount() > 0) {
+                        sink = new byte[64];
+                    }
+                }
+            }, prefix + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        started.await();
+        return stop;
+    }
+
+    private static MetricTelemetry find(List<MetricTelemetry> metrics, String name, String pool) {
+        for (MetricTelemetry metric : metrics) {
+            if (metric.getName().equals(name) && pool.equals(metric.getProperties().get(ThreadCpuPerformanceCounter.POOL_PROPERTY_NAME))) {
+                return metric;
+            }
+        }
+        return null;
+    }
+
+    private static TelemetryClient collectingClient(final List<MetricTelemetry> metrics) {
+        return new TelemetryClient() {
+            @Override
+            public void track(Telemetry telemetry) {
+                metrics.add((MetricTelemetry) telemetry);
+            }
+        };
+    }
+}
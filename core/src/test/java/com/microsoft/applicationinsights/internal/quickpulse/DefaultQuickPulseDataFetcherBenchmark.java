@@ -0,0 +1,79 @@
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+
+import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.FinalCounters;
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+// measures the time and the allocation it takes to build a Live Metrics post body
+//
+// this is skipped unless benchmarks are enabled, run it with:
+//   ./gradlew :core:test --tests '*DefaultQuickPulseDataFetcherBenchmark' -Pai.tests.benchmarks=true
+public class DefaultQuickPulseDataFetcherBenchmark {
+
+    private static final String FAKE_INSTRUMENTATION_KEY = "fake-instrumentation-key";
+    private static final int WARMUP_BODIES = 20000;
+    private static final int MEASURED_BODIES = 100000;
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue(Boolean.getBoolean("ai.tests.benchmarks"));
+    }
+
+    @Before
+    public void setup() {
+        QuickPulseDataCollector.INSTANCE.disable();
+    }
+
+    @After
+    public void tearDown() {
+        QuickPulseDataCollector.INSTANCE.disable();
+    }
+
+    @Test
+    public void buildPostEntity() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+        for (int i = 0; i < 100; i++) {
+            QuickPulseDataCollector.INSTANCE.add(request(i));
+            QuickPulseDataCollector.INSTANCE.add(dependency(i));
+        }
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.peek();
+        DefaultQuickPulseDataFetcher dataFetcher = new DefaultQuickPulseDataFetcher(null, FAKE_INSTRUMENTATION_KEY, "instance", "quick-pulse-id");
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long bodyLength = 0;
+        for (int i = 0; i < WARMUP_BODIES; i++) {
+            bodyLength = dataFetcher.buildPostEntity(counters).getContentLength();
+        }
+        long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < MEASURED_BODIES; i++) {
+            dataFetcher.buildPostEntity(counters);
+        }
+        long nanosPerBody = (System.nanoTime() - startNanos) / MEASURED_BODIES;
+        long bytesPerBody = (threadBean.getThreadAllocatedBytes(threadId) - startBytes) / MEASURED_BODIES;
+
+        System.out.printf("post body: %d bytes, %.1f us and %d bytes allocated per body%n",
+                bodyLength, nanosPerBody / 1000.0, bytesPerBody);
+        // the body itself and its ByteArrayEntity are the only per body allocations
+        assertTrue("allocated " + bytesPerBody + " bytes per body of " + bodyLength + " bytes",
+                bytesPerBody < bodyLength + 1024);
+    }
+
+    private static RequestTelemetry request(int i) {
+        return new RequestTelemetry("GET /users/" + i, new Date(), new Duration(i), "200", true);
+    }
+
+    private static RemoteDependencyTelemetry dependency(int i) {
+        RemoteDependencyTelemetry telemetry = new RemoteDependencyTelemetry("SELECT users", "SELECT * FROM users", new Duration(i), true);
+        telemetry.setTimestamp(new Date());
+        return telemetry;
+    }
+}
@@ -47,4 +47,15 @@ public class DefaultQuickPulseDataFetcherTests {
             fail("Not a valid uri: "+endpointUrl);
         }
     }
+
+    @Test
+    public void documentStringsAreJsonEscaped() {
+        StringBuilder sb = new StringBuilder();
+        DefaultQuickPulseDataFetcher.appendJsonString(sb, "say \"hi\"\\\n\u0001");
+        assertEquals("\"say \\\"hi\\\"\\\\\\n\\u0001\"", sb.toString());
+
+        sb.setLength(0);
+        DefaultQuickPulseDataFetcher.appendJsonString(sb, null);
+        assertEquals("null", sb.toString());
+    }
 }
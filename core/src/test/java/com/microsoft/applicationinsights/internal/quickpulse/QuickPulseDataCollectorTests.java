@@ -1,7 +1,5 @@
 package com.microsoft.applicationinsights.internal.quickpulse;
 
-import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.CountAndDuration;
-import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.Counters;
 import com.microsoft.applicationinsights.internal.quickpulse.QuickPulseDataCollector.FinalCounters;
 import com.microsoft.applicationinsights.telemetry.Duration;
 import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
@@ -144,13 +142,92 @@ public class QuickPulseDataCollectorTests {
     }
 
     @Test
-    public void encodeDecodeIsIdentity() {
-        final long count = 456L;
-        final long duration = 112233L;
-        final long encoded = Counters.encodeCountAndDuration(count, duration);
-        final CountAndDuration inputs = Counters.decodeCountAndDuration(encoded);
-        assertEquals(count, inputs.count);
-        assertEquals(duration, inputs.duration);
+    public void requestCountDoesNotOverflowIntoDuration() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        // the previous packed encoding could only hold 524287 requests per interval
+        final int count = 600000;
+        final long duration = 10L;
+        RequestTelemetry rt = new RequestTelemetry("request-test", new Date(), duration, "200", true);
+        rt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        for (int i = 0; i < count; i++) {
+            QuickPulseDataCollector.INSTANCE.add(rt);
+        }
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        assertEquals(count, counters.requests);
+        assertEquals((double) count * duration, counters.requestsDuration, Math.ulp((double) count * duration));
+        assertEquals(count, counters.requestsDurationHistogram.getTotalCount());
+    }
+
+    @Test
+    public void durationsAreRecordedInHistograms() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        for (int i = 1; i <= 100; i++) {
+            RemoteDependencyTelemetry rdt = new RemoteDependencyTelemetry("dep-test", "dep-test-cmd", new Duration(i < 100 ? 3 : 4000), true);
+            rdt.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+            QuickPulseDataCollector.INSTANCE.add(rdt);
+        }
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        assertEquals(100, counters.rddsDurationHistogram.getTotalCount());
+        double p50 = counters.rddsDurationHistogram.getPercentile(50);
+        assertTrue(p50 > 2 && p50 <= 5);
+        double p99 = counters.rddsDurationHistogram.getPercentile(99);
+        assertTrue(p99 > 2 && p99 <= 5);
+        double p100 = counters.rddsDurationHistogram.getPercentile(100);
+        assertTrue(p100 > 2500 && p100 <= 5000);
+        assertEquals(0, counters.requestsDurationHistogram.getTotalCount());
+    }
+
+    @Test
+    public void telemetryWithOtherInstrumentationKeyIsIgnored() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        ExceptionTelemetry et = new ExceptionTelemetry(new Exception());
+        et.getContext().setInstrumentationKey("some-other-key");
+        QuickPulseDataCollector.INSTANCE.add(et);
+        assertCountersReset(QuickPulseDataCollector.INSTANCE.peek());
+    }
+
+    @Test
+    public void failedTelemetryIsSampledForDocumentStream() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        RequestTelemetry failed = new RequestTelemetry("request-test", new Date(), 10L, "500", false);
+        failed.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        RequestTelemetry succeeded = new RequestTelemetry("request-test", new Date(), 10L, "200", true);
+        succeeded.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.add(failed);
+        QuickPulseDataCollector.INSTANCE.add(succeeded);
+
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        assertEquals(1, counters.documents.size());
+        assertSame(failed, counters.documents.get(0).telemetry);
+        assertTrue(QuickPulseDataCollector.INSTANCE.peek().documents.isEmpty());
+    }
+
+    @Test
+    public void documentSampleIsBounded() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+
+        for (int i = 0; i < QuickPulseDataCollector.MAX_DOCUMENTS_PER_INTERVAL * 3; i++) {
+            ExceptionTelemetry et = new ExceptionTelemetry(new Exception());
+            et.getContext().setInstrumentationKey(FAKE_INSTRUMENTATION_KEY);
+            QuickPulseDataCollector.INSTANCE.add(et);
+        }
+        FinalCounters counters = QuickPulseDataCollector.INSTANCE.getAndRestart();
+        assertEquals(QuickPulseDataCollector.MAX_DOCUMENTS_PER_INTERVAL * 3, (int) counters.exceptions);
+        assertEquals(QuickPulseDataCollector.MAX_DOCUMENTS_PER_INTERVAL, counters.documents.size());
+    }
+
+    @Test
+    public void disableResetsDocumentFilters() {
+        QuickPulseDataCollector.INSTANCE.enable(FAKE_INSTRUMENTATION_KEY);
+        QuickPulseDataCollector.INSTANCE.setDocumentFilters(QuickPulseDocumentFilters.parse("{\"DocumentStreams\":[]}", "etag-1"));
+        assertEquals("etag-1", QuickPulseDataCollector.INSTANCE.getDocumentFiltersETag());
+
+        QuickPulseDataCollector.INSTANCE.disable();
+        assertNull(QuickPulseDataCollector.INSTANCE.getDocumentFiltersETag());
     }
 
     private void assertCountersReset(FinalCounters counters) {
@@ -0,0 +1,112 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import java.util.Date;
+
+import com.microsoft.applicationinsights.telemetry.Duration;
+import com.microsoft.applicationinsights.telemetry.EventTelemetry;
+import com.microsoft.applicationinsights.telemetry.ExceptionTelemetry;
+import com.microsoft.applicationinsights.telemetry.RemoteDependencyTelemetry;
+import com.microsoft.applicationinsights.telemetry.RequestTelemetry;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class QuickPulseDocumentFiltersTest {
+
+    @Test
+    public void defaultFiltersSampleFailuresAndExceptions() {
+        QuickPulseDocumentFilters filters = QuickPulseDocumentFilters.DEFAULT;
+        assertNull(filters.getETag());
+        assertNotNull(filters.getMatchingStreamIds(request("GET /", 10, "500", false)));
+        assertNull(filters.getMatchingStreamIds(request("GET /", 10, "200", true)));
+        assertNotNull(filters.getMatchingStreamIds(new RemoteDependencyTelemetry("dep", "cmd", new Duration(1), false)));
+        assertNull(filters.getMatchingStreamIds(new RemoteDependencyTelemetry("dep", "cmd", new Duration(1), true)));
+        assertNotNull(filters.getMatchingStreamIds(new ExceptionTelemetry(new Exception())));
+        assertNull(filters.getMatchingStreamIds(new EventTelemetry("event")));
+    }
+
+    @Test
+    public void filtersInAGroupAreAndedAndGroupsAreOred() {
+        QuickPulseDocumentFilters filters = QuickPulseDocumentFilters.parse("{\"ETag\":\"body-etag\",\"DocumentStreams\":["
+                + "{\"Id\":\"slow\",\"DocumentFilterGroups\":["
+                + "{\"TelemetryType\":\"Request\",\"Filters\":{\"Filters\":["
+                + "{\"FieldName\":\"Duration\",\"Predicate\":\"GreaterThan\",\"Comparand\":\"00:00:01\"},"
+                + "{\"FieldName\":\"Name\",\"Predicate\":\"Contains\",\"Comparand\":\"orders\"}]}},"
+                + "{\"TelemetryType\":\"Event\",\"Filters\":{\"Filters\":[]}}]},"
+                + "{\"Id\":\"errors\",\"DocumentFilterGroups\":["
+                + "{\"TelemetryType\":\"Request\",\"Filters\":{\"Filters\":["
+                + "{\"FieldName\":\"ResponseCode\",\"Predicate\":\"GreaterThanOrEqual\",\"Comparand\":\"500\"}]}}]}"
+                + "]}", "header-etag");
+
+        assertEquals("header-etag", filters.getETag());
+        assertArrayEquals(new String[] {"slow"}, filters.getMatchingStreamIds(request("GET /Orders", 1500, "200", true)));
+        assertArrayEquals(new String[] {"slow", "errors"}, filters.getMatchingStreamIds(request("GET /Orders", 1500, "503", false)));
+        assertArrayEquals(new String[] {"errors"}, filters.getMatchingStreamIds(request("GET /Orders", 10, "500", false)));
+        assertNull(filters.getMatchingStreamIds(request("GET /Customers", 1500, "200", true)));
+        assertArrayEquals(new String[] {"slow"}, filters.getMatchingStreamIds(new EventTelemetry("anything")));
+        // an explicit configuration replaces the default sampling
+        assertNull(filters.getMatchingStreamIds(new ExceptionTelemetry(new Exception())));
+    }
+
+    @Test
+    public void customDimensionsAndAnyFieldCanBeFiltered() {
+        QuickPulseDocumentFilters filters = QuickPulseDocumentFilters.parse("{\"DocumentStreams\":["
+                + "{\"Id\":\"tenant\",\"DocumentFilterGroups\":[{\"TelemetryType\":\"Dependency\",\"Filters\":{\"Filters\":["
+                + "{\"FieldName\":\"CustomDimensions.tenant\",\"Predicate\":\"Equal\",\"Comparand\":\"contoso\"}]}}]},"
+                + "{\"Id\":\"sql\",\"DocumentFilterGroups\":[{\"TelemetryType\":\"Dependency\",\"Filters\":{\"Filters\":["
+                + "{\"FieldName\":\"*\",\"Predicate\":\"Contains\",\"Comparand\":\"select\"}]}}]}"
+                + "]}", "etag");
+
+        RemoteDependencyTelemetry dependency = new RemoteDependencyTelemetry("db", "SELECT 1", new Duration(5), true);
+        dependency.getProperties().put("tenant", "Contoso");
+        assertArrayEquals(new String[] {"tenant", "sql"}, filters.getMatchingStreamIds(dependency));
+
+        dependency = new RemoteDependencyTelemetry("db", "UPDATE t", new Duration(5), true);
+        assertNull(filters.getMatchingStreamIds(dependency));
+    }
+
+    @Test
+    public void groupsWithUnsupportedFiltersNeverMatch() {
+        QuickPulseDocumentFilters filters = QuickPulseDocumentFilters.parse("{\"DocumentStreams\":["
+                + "{\"Id\":\"bad\",\"DocumentFilterGroups\":[{\"TelemetryType\":\"Request\",\"Filters\":{\"Filters\":["
+                + "{\"FieldName\":\"NoSuchField\",\"Predicate\":\"Equal\",\"Comparand\":\"x\"}]}}]}"
+                + "]}", "etag");
+
+        assertNull(filters.getMatchingStreamIds(request("GET /", 10, "500", false)));
+    }
+
+    @Test
+    public void timeSpansAreParsedAsMilliseconds() {
+        assertEquals(1500.0, QuickPulseDocumentFilters.parseNumber("00:00:01.5"), 0.0);
+        assertEquals(86400000.0 + 60000.0, QuickPulseDocumentFilters.parseNumber("1.00:01:00"), 0.0);
+        assertEquals(42.0, QuickPulseDocumentFilters.parseNumber("42"), 0.0);
+        assertNull(QuickPulseDocumentFilters.parseNumber("not a number"));
+    }
+
+    private static RequestTelemetry request(String name, long durationMillis, String responseCode, boolean success) {
+        return new RequestTelemetry(name, new Date(), durationMillis, responseCode, success);
+    }
+}
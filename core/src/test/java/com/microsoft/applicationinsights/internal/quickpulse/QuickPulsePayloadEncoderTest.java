@@ -0,0 +1,49 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.quickpulse;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+public class QuickPulsePayloadEncoderTest {
+
+    @Test
+    public void encodesPayloadAsUtf8() {
+        QuickPulsePayloadEncoder encoder = new QuickPulsePayloadEncoder(4);
+        String payload = "{\"Name\": \"café 日本 😀\"}";
+        encoder.begin().append(payload);
+        assertArrayEquals(payload.getBytes(StandardCharsets.UTF_8), encoder.encode());
+    }
+
+    @Test
+    public void builderIsReusedAndResetBetweenPayloads() {
+        QuickPulsePayloadEncoder encoder = new QuickPulsePayloadEncoder(64);
+        StringBuilder first = encoder.begin().append("a much longer first payload");
+        encoder.encode();
+        StringBuilder second = encoder.begin().append("short");
+        assertSame(first, second);
+        assertArrayEquals("short".getBytes(StandardCharsets.UTF_8), encoder.encode());
+    }
+}
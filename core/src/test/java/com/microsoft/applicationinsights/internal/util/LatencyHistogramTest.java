@@ -0,0 +1,65 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package com.microsoft.applicationinsights.internal.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void valuesAreAssignedToInclusiveUpperBoundBuckets() {
+        assertEquals(0, LatencyHistogram.bucketIndex(0));
+        assertEquals(0, LatencyHistogram.bucketIndex(1));
+        assertEquals(1, LatencyHistogram.bucketIndex(2));
+        assertEquals(2, LatencyHistogram.bucketIndex(3));
+        assertEquals(LatencyHistogram.BUCKET_BOUNDS.length, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.getTotalCount());
+        assertEquals(0.0, snapshot.getPercentile(95), 0.0);
+    }
+
+    @Test
+    public void percentilesInterpolateWithinBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 10; i++) {
+            histogram.record(200); // (150, 250] bucket
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10, snapshot.getTotalCount());
+        assertEquals(10, snapshot.getBucketCount(LatencyHistogram.bucketIndex(200)));
+        assertEquals(200.0, snapshot.getPercentile(50), 0.0);
+        assertEquals(250.0, snapshot.getPercentile(100), 0.0);
+    }
+
+    @Test
+    public void overflowBucketReportsLowerBound() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        long lastBound = LatencyHistogram.BUCKET_BOUNDS[LatencyHistogram.BUCKET_BOUNDS.length - 1];
+        assertEquals(lastBound, histogram.snapshot().getPercentile(99), 0.0);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * ApplicationInsights-Java
+ * Copyright (c) Microsoft Corporation
+ * All rights reserved.
+ *
+ * MIT License
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the ""Software""), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify, merge,
+ * publish, distribute, sublicense, and/or sell copies of the Software, and to permit
+ * persons to whom the Software is furnished to do so, subject to the following conditions:
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ * THE SOFTWARE IS PROVIDED *AS IS*, WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR
+ * PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE
+ * FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+
+package com.microsoft.applicationinsights.web.internal.correlation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.microsoft.applicationinsights.TelemetryConfiguration;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class CachingApplicationIdResolverTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TelemetryConfiguration config = new TelemetryConfiguration();
+
+    private File cacheFile;
+
+    @Before
+    public void setUp() {
+        cacheFile = new File(folder.getRoot(), "appid-cache.properties");
+    }
+
+    @Test
+    public void testResolvedAppIdIsUsedAfterRestart() throws Exception {
+        StubResolver delegate = new StubResolver(new ProfileFetcherResult("AppId", ProfileFetcherResultTaskStatus.COMPLETE));
+        ProfileFetcherResult result = newResolver(delegate, 1, TimeUnit.DAYS).fetchApplicationId("ikey", config);
+        assertEquals(ProfileFetcherResultTaskStatus.COMPLETE, result.getStatus());
+        assertEquals("AppId", result.getAppId());
+        assertEquals(1, delegate.calls.get());
+
+        // simulates a restart
+        StubResolver restartedDelegate = new StubResolver(new ProfileFetcherResult(null, ProfileFetcherResultTaskStatus.PENDING));
+        result = newResolver(restartedDelegate, 1, TimeUnit.DAYS).fetchApplicationId("ikey", config);
+        assertEquals(ProfileFetcherResultTaskStatus.COMPLETE, result.getStatus());
+        assertEquals("AppId", result.getAppId());
+        assertEquals(0, restartedDelegate.calls.get());
+    }
+
+    @Test
+    public void testEntriesAreKeyedByInstrumentationKeyAndEndpoint() throws Exception {
+        StubResolver delegate = new StubResolver(new ProfileFetcherResult("AppId", ProfileFetcherResultTaskStatus.COMPLETE));
+        newResolver(delegate, 1, TimeUnit.DAYS).fetchApplicationId("ikey", config);
+
+        TelemetryConfiguration otherEndpointConfig = new TelemetryConfiguration();
+        otherEndpointConfig.setConnectionString("InstrumentationKey=ikey;IngestionEndpoint=https://other.example.com/");
+        newResolver(delegate, 1, TimeUnit.DAYS).fetchApplicationId("ikey", otherEndpointConfig);
+        newResolver(delegate, 1, TimeUnit.DAYS).fetchApplicationId("otherikey", config);
+
+        assertEquals(3, delegate.calls.get());
+        assertEquals(3, loadCacheFile().size());
+    }
+
+    @Test
+    public void testPendingResultIsNotCached() throws Exception {
+        StubResolver delegate = new StubResolver(new ProfileFetcherResult(null, ProfileFetcherResultTaskStatus.PENDING));
+        ProfileFetcherResult result = newResolver(delegate, 1, TimeUnit.DAYS).fetchApplicationId("ikey", config);
+        assertEquals(ProfileFetcherResultTaskStatus.PENDING, result.getStatus());
+        assertFalse(cacheFile.exists());
+    }
+
+    @Test
+    public void testStaleEntryIsUsedAndRevalidated() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(CachingApplicationIdResolver.getKey("ikey", config), "OldAppId,1");
+        try (OutputStream out = new FileOutputStream(cacheFile)) {
+            properties.store(out, null);
+        }
+
+        StubResolver delegate = new StubResolver(new ProfileFetcherResult("NewAppId", ProfileFetcherResultTaskStatus.COMPLETE));
+        ProfileFetcherResult result = newResolver(delegate, 1, TimeUnit.MINUTES).fetchApplicationId("ikey", config);
+        assertEquals(ProfileFetcherResultTaskStatus.COMPLETE, result.getStatus());
+        assertEquals("OldAppId", result.getAppId());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        String cached = null;
+        while (System.currentTimeMillis() < deadline) {
+            cached = loadCacheFile().getProperty(CachingApplicationIdResolver.getKey("ikey", config));
+            if (cached.startsWith("NewAppId,")) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        assertTrue(cached, cached.startsWith("NewAppId,"));
+    }
+
+    @Test
+    public void testCorruptedFileIsIgnored() throws Exception {
+        try (OutputStream out = new FileOutputStream(cacheFile)) {
+            out.write("\\u00zz=garbage\n".getBytes("UTF-8"));
+        }
+        StubResolver delegate = new StubResolver(new ProfileFetcherResult("AppId", ProfileFetcherResultTaskStatus.COMPLETE));
+        ProfileFetcherResult result = newResolver(delegate, 1, TimeUnit.DAYS).fetchApplicationId("ikey", config);
+        assertEquals("AppId", result.getAppId());
+        assertEquals(1, delegate.calls.get());
+    }
+
+    @Test
+    public void testNoTemporaryFileIsLeftBehind() throws Exception {
+        StubResolver delegate = new StubResolver(new ProfileFetcherResult("AppId", ProfileFetcherResultTaskStatus.COMPLETE));
+        newResolver(delegate, 1, TimeUnit.DAYS).fetchApplicationId("ikey", config);
+        newResolver(delegate, 1, TimeUnit.DAYS).fetchApplicationId("otherikey", config);
+
+        assertArrayEquals(new String[] {cacheFile.getName()}, folder.getRoot().list());
+        assertEquals(2, loadCacheFile().size());
+    }
+
+    @Test
+    public void testTemporaryFileIsDeletedWhenTheMoveFails() throws Exception {
+        // a non-empty directory cannot be replaced by the temp file
+        assertTrue(new File(cacheFile, "child").mkdirs());
+        StubResolver delegate = new StubResolver(new ProfileFetcherResult("AppId", ProfileFetcherResultTaskStatus.COMPLETE));
+        ProfileFetcherResult result = newResolver(delegate, 1, TimeUnit.DAYS).fetchApplicationId("ikey", config);
+
+        assertEquals("AppId", result.getAppId());
+        assertArrayEquals(new String[] {cacheFile.getName()}, folder.getRoot().list());
+    }
+
+    private CachingApplicationIdResolver newResolver(ApplicationIdResolver delegate, long timeToLive, TimeUnit unit) {
+        return new CachingApplicationIdResolver(delegate, cacheFile, timeToLive, unit);
+    }
+
+    private Properties loadCacheFile() throws Exception {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(cacheFile)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    private static class StubResolver implements ApplicationIdResolver {
+
+        private final ProfileFetcherResult result;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private StubResolver(ProfileFetcherResult result) {
+            this.result = result;
+        }
+
+        @Override
+        public ProfileFetcherResult fetchApplicationId(String instrumentationKey, TelemetryConfiguration configuration) {
+            calls.incrementAndGet();
+            return result;
+        }
+    }
+}
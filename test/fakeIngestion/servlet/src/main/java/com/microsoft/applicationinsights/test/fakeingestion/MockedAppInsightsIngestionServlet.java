@@ -31,6 +31,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 
 public class MockedAppInsightsIngestionServlet extends HttpServlet {
@@ -49,6 +50,9 @@ public class MockedAppInsightsIngestionServlet extends HttpServlet {
 
     private final Object multimapLock = new Object();
 
+    // counts all items, also the ones that are not retained
+    private final AtomicLong totalItemCount = new AtomicLong();
+
     private MockedIngestionServletConfig config;
 
     private final ExecutorService itemExecutor = Executors.newSingleThreadExecutor();
@@ -109,6 +113,18 @@ public class MockedAppInsightsIngestionServlet extends HttpServlet {
         return config;
     }
 
+    public void setRetainPayloadsEnabled(boolean retainPayloadsEnabled) {
+        config.setRetainPayloadsEnabled(retainPayloadsEnabled);
+    }
+
+    public void setLogPayloadsEnabled(boolean logPayloadsEnabled) {
+        config.setLogPayloadsEnabled(logPayloadsEnabled);
+    }
+
+    public long getTotalItemCount() {
+        return totalItemCount.get();
+    }
+
     public void resetData() {
         logit("Clearing telemetry accumulator...");
         telemetryReceived.clear();
@@ -201,6 +217,7 @@ public class MockedAppInsightsIngestionServlet extends HttpServlet {
                                 logerr("Could not deserialize to Envelope", jse);
                                 throw jse;
                             }
+                            totalItemCount.incrementAndGet();
                             if (config.isRetainPayloadsEnabled()) {
                                 String baseType = envelope.getData().getBaseType();
                                 if (filtersAllowItem(envelope)) {
@@ -0,0 +1,227 @@
+package com.microsoft.applicationinsights.test.fakeingestion;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Random;
+
+/**
+ * How the fake ingestion responds to {@code /v2/track} in load testing mode.
+ *
+ * Each request gets one outcome, picked at random using the ratios below, and is answered after a delay picked
+ * from the latency distribution. During the optional outage window, all requests get the outage outcome, which
+ * can be used to reproduce an outage and the recovery of the channel afterwards.
+ *
+ * All settings can be given as system properties, e.g. {@code -DfakeIngestion.throttledRatio=0.1}
+ * (see {@link #fromSystemProperties()}).
+ */
+public class IngestionLoadProfile {
+
+    public static final String SYSTEM_PROPERTY_PREFIX = "fakeIngestion.";
+
+    public enum Outcome {
+        // 200
+        ACCEPTED,
+        // 206, with some of the items rejected with a retriable status code
+        PARTIALLY_ACCEPTED,
+        // 429, with Retry-After
+        THROTTLED,
+        // 503, with Retry-After
+        UNAVAILABLE,
+        // the connection is closed without a response
+        DROPPED
+    }
+
+    private LatencyDistribution latency = LatencyDistribution.NONE;
+    private double partialSuccessRatio;
+    // ratio of the items that are rejected in a partial success response
+    private double partialSuccessItemFailureRatio = 0.5;
+    private int partialSuccessItemStatusCode = 500;
+    private double throttledRatio;
+    private double unavailableRatio;
+    private double droppedRatio;
+    // 0 for no Retry-After header
+    private int retryAfterSeconds = 10;
+    // negative for no outage
+    private long outageAfterSeconds = -1;
+    private long outageDurationSeconds;
+    private Outcome outageOutcome = Outcome.UNAVAILABLE;
+
+    public static IngestionLoadProfile fromSystemProperties() {
+        IngestionLoadProfile profile = new IngestionLoadProfile();
+        String latency = getProperty("latency");
+        if (latency != null) {
+            profile.setLatency(LatencyDistribution.parse(latency));
+        }
+        profile.setPartialSuccessRatio(getDoubleProperty("partialSuccessRatio", profile.partialSuccessRatio));
+        profile.setPartialSuccessItemFailureRatio(getDoubleProperty("partialSuccessItemFailureRatio", profile.partialSuccessItemFailureRatio));
+        profile.setPartialSuccessItemStatusCode((int) getLongProperty("partialSuccessItemStatusCode", profile.partialSuccessItemStatusCode));
+        profile.setThrottledRatio(getDoubleProperty("throttledRatio", profile.throttledRatio));
+        profile.setUnavailableRatio(getDoubleProperty("unavailableRatio", profile.unavailableRatio));
+        profile.setDroppedRatio(getDoubleProperty("droppedRatio", profile.droppedRatio));
+        profile.setRetryAfterSeconds((int) getLongProperty("retryAfterSeconds", profile.retryAfterSeconds));
+        profile.setOutageAfterSeconds(getLongProperty("outageAfterSeconds", profile.outageAfterSeconds));
+        profile.setOutageDurationSeconds(getLongProperty("outageDurationSeconds", profile.outageDurationSeconds));
+        String outageOutcome = getProperty("outageOutcome");
+        if (outageOutcome != null) {
+            profile.setOutageOutcome(Outcome.valueOf(outageOutcome.trim().toUpperCase()));
+        }
+        profile.validate();
+        return profile;
+    }
+
+    public void validate() {
+        checkRatio("partialSuccessRatio", partialSuccessRatio);
+        checkRatio("partialSuccessItemFailureRatio", partialSuccessItemFailureRatio);
+        checkRatio("throttledRatio", throttledRatio);
+        checkRatio("unavailableRatio", unavailableRatio);
+        checkRatio("droppedRatio", droppedRatio);
+        double total = partialSuccessRatio + throttledRatio + unavailableRatio + droppedRatio;
+        Preconditions.checkArgument(total <= 1, "the sum of the ratios must not be greater than 1, but was %s", total);
+        Preconditions.checkArgument(retryAfterSeconds >= 0, "retryAfterSeconds must not be negative");
+        Preconditions.checkArgument(outageDurationSeconds >= 0, "outageDurationSeconds must not be negative");
+    }
+
+    /**
+     * @param random The source of randomness
+     * @param secondsSinceStart The time since the profile is in use, for the outage window
+     * @return The outcome for the next request
+     */
+    public Outcome nextOutcome(Random random, long secondsSinceStart) {
+        if (outageAfterSeconds >= 0 && secondsSinceStart >= outageAfterSeconds
+                && secondsSinceStart < outageAfterSeconds + outageDurationSeconds) {
+            return outageOutcome;
+        }
+        double roll = random.nextDouble();
+        if ((roll -= droppedRatio) < 0) {
+            return Outcome.DROPPED;
+        }
+        if ((roll -= throttledRatio) < 0) {
+            return Outcome.THROTTLED;
+        }
+        if ((roll -= unavailableRatio) < 0) {
+            return Outcome.UNAVAILABLE;
+        }
+        if ((roll -= partialSuccessRatio) < 0) {
+            return Outcome.PARTIALLY_ACCEPTED;
+        }
+        return Outcome.ACCEPTED;
+    }
+
+    public LatencyDistribution getLatency() {
+        return latency;
+    }
+
+    public void setLatency(LatencyDistribution latency) {
+        this.latency = Preconditions.checkNotNull(latency, "latency");
+    }
+
+    public double getPartialSuccessRatio() {
+        return partialSuccessRatio;
+    }
+
+    public void setPartialSuccessRatio(double partialSuccessRatio) {
+        this.partialSuccessRatio = partialSuccessRatio;
+    }
+
+    public double getPartialSuccessItemFailureRatio() {
+        return partialSuccessItemFailureRatio;
+    }
+
+    public void setPartialSuccessItemFailureRatio(double partialSuccessItemFailureRatio) {
+        this.partialSuccessItemFailureRatio = partialSuccessItemFailureRatio;
+    }
+
+    public int getPartialSuccessItemStatusCode() {
+        return partialSuccessItemStatusCode;
+    }
+
+    public void setPartialSuccessItemStatusCode(int partialSuccessItemStatusCode) {
+        this.partialSuccessItemStatusCode = partialSuccessItemStatusCode;
+    }
+
+    public double getThrottledRatio() {
+        return throttledRatio;
+    }
+
+    public void setThrottledRatio(double throttledRatio) {
+        this.throttledRatio = throttledRatio;
+    }
+
+    public double getUnavailableRatio() {
+        return unavailableRatio;
+    }
+
+    public void setUnavailableRatio(double unavailableRatio) {
+        this.unavailableRatio = unavailableRatio;
+    }
+
+    public double getDroppedRatio() {
+        return droppedRatio;
+    }
+
+    public void setDroppedRatio(double droppedRatio) {
+        this.droppedRatio = droppedRatio;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getOutageAfterSeconds() {
+        return outageAfterSeconds;
+    }
+
+    public void setOutageAfterSeconds(long outageAfterSeconds) {
+        this.outageAfterSeconds = outageAfterSeconds;
+    }
+
+    public long getOutageDurationSeconds() {
+        return outageDurationSeconds;
+    }
+
+    public void setOutageDurationSeconds(long outageDurationSeconds) {
+        this.outageDurationSeconds = outageDurationSeconds;
+    }
+
+    public Outcome getOutageOutcome() {
+        return outageOutcome;
+    }
+
+    public void setOutageOutcome(Outcome outageOutcome) {
+        this.outageOutcome = Preconditions.checkNotNull(outageOutcome, "outageOutcome");
+    }
+
+    @Override
+    public String toString() {
+        return "latency=" + latency
+                + ", partialSuccessRatio=" + partialSuccessRatio
+                + " (items rejected: " + partialSuccessItemFailureRatio + " with " + partialSuccessItemStatusCode + ")"
+                + ", throttledRatio=" + throttledRatio
+                + ", unavailableRatio=" + unavailableRatio
+                + ", droppedRatio=" + droppedRatio
+                + ", retryAfterSeconds=" + retryAfterSeconds
+                + (outageAfterSeconds < 0 ? "" : ", outage=" + outageOutcome + " for " + outageDurationSeconds + "s after " + outageAfterSeconds + "s");
+    }
+
+    private static String getProperty(String name) {
+        return System.getProperty(SYSTEM_PROPERTY_PREFIX + name);
+    }
+
+    private static double getDoubleProperty(String name, double defaultValue) {
+        String value = getProperty(name);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    private static long getLongProperty(String name, long defaultValue) {
+        String value = getProperty(name);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    private static void checkRatio(String name, double value) {
+        Preconditions.checkArgument(value >= 0 && value <= 1, "%s must be between 0 and 1, but was %s", name, value);
+    }
+}
@@ -0,0 +1,105 @@
+package com.microsoft.applicationinsights.test.fakeingestion;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what the fake ingestion received in load testing mode.
+ */
+public class IngestionStats {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder items = new LongAdder();
+    private final LongAdder itemsAccepted = new LongAdder();
+    private final Map<IngestionLoadProfile.Outcome, LongAdder> requestsByOutcome = new EnumMap<>(IngestionLoadProfile.Outcome.class);
+
+    public IngestionStats() {
+        for (IngestionLoadProfile.Outcome outcome : IngestionLoadProfile.Outcome.values()) {
+            requestsByOutcome.put(outcome, new LongAdder());
+        }
+    }
+
+    /**
+     * @param requestBytes The size of the request body, as sent (i.e. compressed)
+     * @param requestItems The number of telemetry items in the request
+     * @param outcome How the request was answered
+     * @param acceptedItems The number of telemetry items that were accepted
+     */
+    public void onRequest(long requestBytes, int requestItems, IngestionLoadProfile.Outcome outcome, int acceptedItems) {
+        requests.increment();
+        bytes.add(requestBytes);
+        items.add(requestItems);
+        itemsAccepted.add(acceptedItems);
+        requestsByOutcome.get(outcome).increment();
+    }
+
+    public Snapshot snapshot() {
+        Map<IngestionLoadProfile.Outcome, Long> byOutcome = new EnumMap<>(IngestionLoadProfile.Outcome.class);
+        for (Map.Entry<IngestionLoadProfile.Outcome, LongAdder> entry : requestsByOutcome.entrySet()) {
+            byOutcome.put(entry.getKey(), entry.getValue().sum());
+        }
+        return new Snapshot(System.nanoTime(), requests.sum(), bytes.sum(), items.sum(), itemsAccepted.sum(), byOutcome);
+    }
+
+    public static class Snapshot {
+
+        private final long nanoTime;
+        private final long requests;
+        private final long bytes;
+        private final long items;
+        private final long itemsAccepted;
+        private final Map<IngestionLoadProfile.Outcome, Long> requestsByOutcome;
+
+        private Snapshot(long nanoTime, long requests, long bytes, long items, long itemsAccepted,
+                         Map<IngestionLoadProfile.Outcome, Long> requestsByOutcome) {
+            this.nanoTime = nanoTime;
+            this.requests = requests;
+            this.bytes = bytes;
+            this.items = items;
+            this.itemsAccepted = itemsAccepted;
+            this.requestsByOutcome = requestsByOutcome;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getItems() {
+            return items;
+        }
+
+        public long getItemsAccepted() {
+            return itemsAccepted;
+        }
+
+        public long getRequests(IngestionLoadProfile.Outcome outcome) {
+            return requestsByOutcome.get(outcome);
+        }
+
+        /**
+         * @param earlier An earlier snapshot of the same stats
+         * @return A summary of what was received since the earlier snapshot, with the throughput over that interval
+         */
+        public String format(Snapshot earlier) {
+            double seconds = Math.max(nanoTime - earlier.nanoTime, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%.1fs: %d requests (%.1f/s), %d items (%.1f/s), %d accepted (%.1f/s), %.2f MB (%.2f MB/s)",
+                    seconds,
+                    requests - earlier.requests, (requests - earlier.requests) / seconds,
+                    items - earlier.items, (items - earlier.items) / seconds,
+                    itemsAccepted - earlier.itemsAccepted, (itemsAccepted - earlier.itemsAccepted) / seconds,
+                    (bytes - earlier.bytes) / 1048576.0, (bytes - earlier.bytes) / 1048576.0 / seconds));
+            for (IngestionLoadProfile.Outcome outcome : IngestionLoadProfile.Outcome.values()) {
+                sb.append(", ").append(outcome).append('=').append(getRequests(outcome) - earlier.getRequests(outcome));
+            }
+            return sb.toString();
+        }
+    }
+}
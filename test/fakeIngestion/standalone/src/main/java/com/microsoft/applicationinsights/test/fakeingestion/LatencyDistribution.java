@@ -0,0 +1,119 @@
+package com.microsoft.applicationinsights.test.fakeingestion;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Random;
+
+/**
+ * Response latency of the fake ingestion in load testing mode.
+ *
+ * Parsed from one of:
+ * <ul>
+ *     <li>{@code none}</li>
+ *     <li>{@code fixed:<millis>}</li>
+ *     <li>{@code uniform:<minMillis>-<maxMillis>}</li>
+ *     <li>{@code exponential:<meanMillis>}</li>
+ *     <li>{@code lognormal:<medianMillis>,<sigma>} (a long tail, closest to the real endpoint)</li>
+ * </ul>
+ */
+public class LatencyDistribution {
+
+    public static final LatencyDistribution NONE = new LatencyDistribution(Type.NONE, 0, 0);
+
+    private enum Type {
+        NONE, FIXED, UNIFORM, EXPONENTIAL, LOGNORMAL
+    }
+
+    private final Type type;
+    private final double param1;
+    private final double param2;
+
+    private LatencyDistribution(Type type, double param1, double param2) {
+        this.type = type;
+        this.param1 = param1;
+        this.param2 = param2;
+    }
+
+    public static LatencyDistribution parse(String spec) {
+        Preconditions.checkNotNull(spec, "spec");
+        String trimmed = spec.trim().toLowerCase();
+        if (trimmed.isEmpty() || trimmed.equals("none")) {
+            return NONE;
+        }
+        int colon = trimmed.indexOf(':');
+        if (colon == -1) {
+            throw new IllegalArgumentException("Invalid latency distribution: " + spec);
+        }
+        String name = trimmed.substring(0, colon);
+        String args = trimmed.substring(colon + 1);
+        try {
+            switch (name) {
+                case "fixed":
+                    return create(Type.FIXED, Double.parseDouble(args), 0, spec);
+                case "uniform": {
+                    String[] parts = args.split("-");
+                    if (parts.length != 2) {
+                        throw new IllegalArgumentException("Invalid latency distribution: " + spec);
+                    }
+                    double min = Double.parseDouble(parts[0]);
+                    double max = Double.parseDouble(parts[1]);
+                    if (max < min) {
+                        throw new IllegalArgumentException("Invalid latency distribution: " + spec);
+                    }
+                    return create(Type.UNIFORM, min, max, spec);
+                }
+                case "exponential":
+                    return create(Type.EXPONENTIAL, Double.parseDouble(args), 0, spec);
+                case "lognormal": {
+                    String[] parts = args.split(",");
+                    if (parts.length != 2) {
+                        throw new IllegalArgumentException("Invalid latency distribution: " + spec);
+                    }
+                    return create(Type.LOGNORMAL, Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), spec);
+                }
+                default:
+                    throw new IllegalArgumentException("Invalid latency distribution: " + spec);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid latency distribution: " + spec, e);
+        }
+    }
+
+    private static LatencyDistribution create(Type type, double param1, double param2, String spec) {
+        if (param1 < 0 || param2 < 0) {
+            throw new IllegalArgumentException("Invalid latency distribution: " + spec);
+        }
+        return new LatencyDistribution(type, param1, param2);
+    }
+
+    public long nextMillis(Random random) {
+        switch (type) {
+            case FIXED:
+                return Math.round(param1);
+            case UNIFORM:
+                return Math.round(param1 + random.nextDouble() * (param2 - param1));
+            case EXPONENTIAL:
+                return Math.round(-param1 * Math.log(1 - random.nextDouble()));
+            case LOGNORMAL:
+                return Math.round(param1 * Math.exp(param2 * random.nextGaussian()));
+            default:
+                return 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case FIXED:
+                return "fixed:" + param1;
+            case UNIFORM:
+                return "uniform:" + param1 + "-" + param2;
+            case EXPONENTIAL:
+                return "exponential:" + param1;
+            case LOGNORMAL:
+                return "lognormal:" + param1 + "," + param2;
+            default:
+                return "none";
+        }
+    }
+}
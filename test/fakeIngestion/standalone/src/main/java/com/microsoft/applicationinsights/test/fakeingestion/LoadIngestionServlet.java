@@ -0,0 +1,168 @@
+package com.microsoft.applicationinsights.test.fakeingestion;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.CountingInputStream;
+import org.eclipse.jetty.server.Request;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Answers {@code /v2/track} in load testing mode, according to an {@link IngestionLoadProfile}.
+ *
+ * Unlike {@link MockedAppInsightsIngestionServlet}, the payloads are neither logged nor kept, only the items are
+ * counted, so that the fake ingestion can keep up with the channel under load.
+ */
+public class LoadIngestionServlet extends HttpServlet {
+    public static final long serialVersionUID = -1;
+
+    // the format expected by the ThrottlingHandler
+    private static final DateTimeFormatter RETRY_AFTER_FORMAT = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+
+    private final IngestionStats stats = new IngestionStats();
+
+    private volatile IngestionLoadProfile profile;
+    private volatile long profileStartNanos;
+
+    public LoadIngestionServlet(IngestionLoadProfile profile) {
+        setProfile(profile);
+    }
+
+    /**
+     * Replaces the profile, e.g. to start an outage or to recover from it. This also restarts the outage window.
+     */
+    public void setProfile(IngestionLoadProfile profile) {
+        Preconditions.checkNotNull(profile, "profile");
+        profile.validate();
+        this.profileStartNanos = System.nanoTime();
+        this.profile = profile;
+    }
+
+    public IngestionLoadProfile getProfile() {
+        return profile;
+    }
+
+    public IngestionStats getStats() {
+        return stats;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        IngestionLoadProfile profile = this.profile;
+        Random random = ThreadLocalRandom.current();
+
+        CountingInputStream counting = new CountingInputStream(req.getInputStream());
+        InputStream in = "gzip".equals(req.getHeader("content-encoding")) ? new GZIPInputStream(counting) : counting;
+        int items = countItems(in);
+
+        long secondsSinceStart = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - profileStartNanos);
+        IngestionLoadProfile.Outcome outcome = profile.nextOutcome(random, secondsSinceStart);
+        if (outcome == IngestionLoadProfile.Outcome.PARTIALLY_ACCEPTED && items < 2) {
+            // the channel ignores partial success responses that reject all of the items
+            outcome = IngestionLoadProfile.Outcome.ACCEPTED;
+        }
+
+        long latencyMillis = profile.getLatency().nextMillis(random);
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        switch (outcome) {
+            case DROPPED:
+                stats.onRequest(counting.getCount(), items, outcome, 0);
+                Request.getBaseRequest(req).getHttpChannel().abort(new IOException("dropped by load profile"));
+                return;
+            case THROTTLED:
+            case UNAVAILABLE:
+                stats.onRequest(counting.getCount(), items, outcome, 0);
+                if (profile.getRetryAfterSeconds() > 0) {
+                    ZonedDateTime retryAfter = ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(profile.getRetryAfterSeconds());
+                    resp.setHeader("Retry-After", RETRY_AFTER_FORMAT.format(retryAfter));
+                }
+                resp.setStatus(outcome == IngestionLoadProfile.Outcome.THROTTLED ? 429 : 503);
+                return;
+            case PARTIALLY_ACCEPTED:
+                int rejected = writePartialSuccess(resp, items, profile, random);
+                stats.onRequest(counting.getCount(), items, outcome, items - rejected);
+                return;
+            default:
+                stats.onRequest(counting.getCount(), items, outcome, items);
+                resp.setContentType("application/json");
+                resp.getWriter().append("{\"itemsReceived\":").append(Integer.toString(items))
+                        .append(",\"itemsAccepted\":").append(Integer.toString(items))
+                        .append(",\"errors\":[]}");
+                resp.setStatus(200);
+        }
+    }
+
+    // returns the number of rejected items
+    private static int writePartialSuccess(HttpServletResponse resp, int items, IngestionLoadProfile profile, Random random) throws IOException {
+        // at least one item is accepted and at least one is rejected
+        int rejected = (int) Math.round(items * profile.getPartialSuccessItemFailureRatio());
+        rejected = Math.min(Math.max(rejected, 1), items - 1);
+
+        resp.setStatus(206);
+        resp.setContentType("application/json");
+        Writer writer = resp.getWriter();
+        writer.append("{\"itemsReceived\":").append(Integer.toString(items))
+                .append(",\"itemsAccepted\":").append(Integer.toString(items - rejected))
+                .append(",\"errors\":[");
+        // selection sampling, so that the rejected indexes are random, distinct and in order
+        int needed = rejected;
+        for (int index = 0; index < items && needed > 0; index++) {
+            if (random.nextInt(items - index) < needed) {
+                if (needed != rejected) {
+                    writer.append(',');
+                }
+                writer.append("{\"index\":").append(Integer.toString(index))
+                        .append(",\"statusCode\":").append(Integer.toString(profile.getPartialSuccessItemStatusCode()))
+                        .append(",\"message\":\"Rejected by load profile\"}");
+                needed--;
+            }
+        }
+        writer.append("]}");
+        return rejected;
+    }
+
+    // the items are new line delimited json
+    private static int countItems(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int items = 0;
+        boolean inItem = false;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                byte b = buffer[i];
+                if (b == '\n') {
+                    if (inItem) {
+                        items++;
+                        inItem = false;
+                    }
+                } else if (b != ' ' && b != '\r' && b != '\t') {
+                    inItem = true;
+                }
+            }
+        }
+        if (inItem) {
+            items++;
+        }
+        return items;
+    }
+}
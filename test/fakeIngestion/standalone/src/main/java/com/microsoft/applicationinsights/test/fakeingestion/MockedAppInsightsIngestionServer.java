@@ -10,9 +10,12 @@ import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.ServletHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -21,19 +24,59 @@ public class MockedAppInsightsIngestionServer {
 
     private final MockedAppInsightsIngestionServlet servlet;
     private final Server server;
+    private final int port;
+
+    // null unless in load testing mode
+    @Nullable
+    private final LoadIngestionServlet loadServlet;
 
     public MockedAppInsightsIngestionServer() {
-        server = new Server(DEFAULT_PORT);
+        this(DEFAULT_PORT, null);
+    }
+
+    /**
+     * @param port The port to listen on
+     * @param loadProfile If not null, {@code /v2/track} is answered according to this profile instead of capturing
+     *                    the telemetry, see {@link #getIngestionStats()}
+     */
+    public MockedAppInsightsIngestionServer(int port, @Nullable IngestionLoadProfile loadProfile) {
+        this.port = port;
+        server = new Server(port);
         ServletHandler handler = new ServletHandler();
         server.setHandler(handler);
 
         servlet = new MockedAppInsightsIngestionServlet();
 
         handler.addServletWithMapping(new ServletHolder(servlet), "/*");
+
+        if (loadProfile != null) {
+            loadServlet = new LoadIngestionServlet(loadProfile);
+            // the exact mapping takes precedence over the wildcard
+            handler.addServletWithMapping(new ServletHolder(loadServlet), "/v2/track");
+        } else {
+            loadServlet = null;
+        }
     }
 
     public int getPort() {
-        return DEFAULT_PORT; // TODO this could be configurable
+        return port;
+    }
+
+    public boolean isLoadTesting() {
+        return loadServlet != null;
+    }
+
+    /**
+     * Replaces the load profile, e.g. to start an outage or to recover from it.
+     */
+    public void setLoadProfile(IngestionLoadProfile loadProfile) {
+        Preconditions.checkState(loadServlet != null, "not in load testing mode");
+        loadServlet.setProfile(loadProfile);
+    }
+
+    public IngestionStats getIngestionStats() {
+        Preconditions.checkState(loadServlet != null, "not in load testing mode");
+        return loadServlet.getStats();
     }
 
     public void startServer() throws Exception {
@@ -55,6 +98,22 @@ public class MockedAppInsightsIngestionServer {
         this.servlet.resetData();
     }
 
+    /**
+     * Stops (or resumes) keeping and logging the received telemetry, e.g. while the test app is under load.
+     * The items are still counted, see {@link #getTotalItemCount()}.
+     */
+    public void setCapturePayloads(boolean capturePayloads) {
+        this.servlet.setRetainPayloadsEnabled(capturePayloads);
+        this.servlet.setLogPayloadsEnabled(capturePayloads);
+    }
+
+    /**
+     * @return The number of items received since the server started, including the ones that were not kept
+     */
+    public long getTotalItemCount() {
+        return this.servlet.getTotalItemCount();
+    }
+
     public boolean hasData() {
         return this.servlet.hasData();
     }
@@ -190,13 +249,50 @@ public class MockedAppInsightsIngestionServer {
                 || message.contains("pending resolution of instrumentation key");
     }
 
+    /**
+     * Runs the fake ingestion on its own.
+     *
+     * With {@code -DfakeIngestion.loadTesting=true}, it runs in load testing mode (see {@link IngestionLoadProfile}
+     * for the other settings), and reports the ingestion throughput every {@code fakeIngestion.reportIntervalSeconds}
+     * (10 by default) and the totals on shutdown.
+     */
     public static void main(String args[]) throws Exception {
-        final MockedAppInsightsIngestionServer i = new MockedAppInsightsIngestionServer();
-        System.out.println("Starting mocked ingestion on port "+DEFAULT_PORT);
+        int port = Integer.getInteger(IngestionLoadProfile.SYSTEM_PROPERTY_PREFIX + "port", DEFAULT_PORT);
+        boolean loadTesting = Boolean.getBoolean(IngestionLoadProfile.SYSTEM_PROPERTY_PREFIX + "loadTesting");
+        IngestionLoadProfile loadProfile = loadTesting ? IngestionLoadProfile.fromSystemProperties() : null;
+
+        final MockedAppInsightsIngestionServer i = new MockedAppInsightsIngestionServer(port, loadProfile);
+        System.out.println("Starting mocked ingestion on port "+port);
+        final ScheduledExecutorService reporter;
+        final IngestionStats.Snapshot start;
+        if (loadProfile != null) {
+            System.out.println("Load testing with " + loadProfile);
+            long reportIntervalSeconds = Long.getLong(IngestionLoadProfile.SYSTEM_PROPERTY_PREFIX + "reportIntervalSeconds", 10);
+            final IngestionStats stats = i.getIngestionStats();
+            start = stats.snapshot();
+            reporter = Executors.newSingleThreadScheduledExecutor();
+            reporter.scheduleAtFixedRate(new Runnable() {
+                private IngestionStats.Snapshot previous = start;
+
+                @Override
+                public void run() {
+                    IngestionStats.Snapshot current = stats.snapshot();
+                    System.out.println("Ingested in the last " + current.format(previous));
+                    previous = current;
+                }
+            }, reportIntervalSeconds, reportIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            reporter = null;
+            start = null;
+        }
         Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
             @Override
             public void run() {
                 try {
+                    if (reporter != null) {
+                        reporter.shutdownNow();
+                        System.out.println("Ingested in total in " + i.getIngestionStats().snapshot().format(start));
+                    }
                     i.stopServer();
                 } catch (Exception e) {
                     e.printStackTrace();
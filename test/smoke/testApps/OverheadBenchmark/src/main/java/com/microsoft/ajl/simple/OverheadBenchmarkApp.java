@@ -0,0 +1,133 @@
+package com.microsoft.ajl.simple;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+// the app driven by the OverheadBenchmark, each request to /work?jdbc=N&logs=M executes N jdbc queries and logs
+// M lines, and /stats reports the process cpu time, allocated bytes and heap usage, so that the cost per request
+// can be measured from the outside
+@SpringBootApplication
+public class OverheadBenchmarkApp {
+
+    private static final Logger logger = LoggerFactory.getLogger(OverheadBenchmarkApp.class);
+
+    private static final String JDBC_URL = "jdbc:hsqldb:mem:benchmark";
+    private static final int ROWS = 100;
+
+    // one connection per jetty thread, so that the benchmark doesn't measure connecting
+    private static final ThreadLocal<Connection> connections = new ThreadLocal<Connection>() {
+        @Override
+        protected Connection initialValue() {
+            try {
+                return DriverManager.getConnection(JDBC_URL, "sa", "");
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        setupDatabase();
+        Server server = new Server(8080);
+        server.setHandler(new BenchmarkHandler());
+        server.start();
+        server.join();
+    }
+
+    private static void setupDatabase() throws SQLException {
+        try (Connection connection = DriverManager.getConnection(JDBC_URL, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("create table benchmark (id integer primary key, name varchar(32))");
+            for (int i = 0; i < ROWS; i++) {
+                statement.execute("insert into benchmark (id, name) values (" + i + ", 'name" + i + "')");
+            }
+        }
+    }
+
+    private static String work(int jdbcCalls, int logLines) throws SQLException {
+        Connection connection = connections.get();
+        int found = 0;
+        for (int i = 0; i < jdbcCalls; i++) {
+            try (PreparedStatement statement = connection.prepareStatement("select name from benchmark where id = ?")) {
+                statement.setInt(1, i % ROWS);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        found++;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < logLines; i++) {
+            logger.info("benchmark log line {} of {}", i + 1, logLines);
+        }
+        return "found " + found;
+    }
+
+    // the allocations of threads that ended since the previous call are not included, the agent's threads are
+    // long-lived, and so are the jetty threads at a fixed request rate
+    private static String stats(boolean gc) {
+        if (gc) {
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+            }
+        }
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocatedBytes = 0;
+        for (long threadAllocatedBytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (threadAllocatedBytes > 0) {
+                allocatedBytes += threadAllocatedBytes;
+            }
+        }
+        long heapUsedBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        return "{\"cpuNanos\":" + os.getProcessCpuTime()
+                + ",\"allocatedBytes\":" + allocatedBytes
+                + ",\"heapUsedBytes\":" + heapUsedBytes + "}";
+    }
+
+    private static int getIntParameter(HttpServletRequest request, String name) {
+        String value = request.getParameter(name);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    public static class BenchmarkHandler extends AbstractHandler {
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request,
+                           HttpServletResponse response) throws IOException {
+
+            String body;
+            try {
+                if (target.equals("/work")) {
+                    body = work(getIntParameter(request, "jdbc"), getIntParameter(request, "logs"));
+                } else if (target.equals("/stats")) {
+                    body = stats(Boolean.parseBoolean(request.getParameter("gc")));
+                } else {
+                    body = "Hello there";
+                }
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+            response.setContentType("text/plain;charset=utf-8");
+            response.setStatus(HttpServletResponse.SC_OK);
+            baseRequest.setHandled(true);
+            response.getWriter().println(body);
+        }
+    }
+}
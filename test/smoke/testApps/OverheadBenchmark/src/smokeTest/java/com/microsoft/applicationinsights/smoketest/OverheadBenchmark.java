@@ -0,0 +1,318 @@
+package com.microsoft.applicationinsights.smoketest;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.microsoft.applicationinsights.test.fakeingestion.MockedAppInsightsIngestionServer;
+
+import static org.junit.Assert.*;
+
+// drives the OverheadBenchmarkApp at a fixed request rate, for each span shape (one request with N jdbc queries and
+// M log lines), and writes the results as json
+//
+// this is skipped by default, run it with e.g.:
+//
+//   ./gradlew :test:smoke:testApps:OverheadBenchmark:smokeTest -Pai.tests.benchmarks=true -Dai.smoketest.overheadBenchmark.rps=200
+//
+// the other settings are system properties (all optional):
+//
+//   ai.smoketest.overheadBenchmark.rps               requests per second (default 100)
+//   ai.smoketest.overheadBenchmark.warmupSeconds     per shape, not measured (default 30)
+//   ai.smoketest.overheadBenchmark.durationSeconds   per shape (default 60)
+//   ai.smoketest.overheadBenchmark.shapes            comma separated <jdbc queries>:<log lines> (default 0:0,5:2,20:10)
+//   ai.smoketest.overheadBenchmark.outputDir         (default build/overhead-benchmark)
+//
+// each test class writes <image>_<mode>.json, and whichever finishes second also writes <image>_overhead.json
+// with the latency (p50 and p99), cpu and allocation per request, and heap that the agent adds to each shape
+//
+// the latency is measured from when a request was scheduled to be sent, so a slow response also counts against the
+// requests that had to wait for it
+final class OverheadBenchmark {
+
+    static final String AGENT = "agent";
+    static final String NO_AGENT = "noagent";
+
+    private static final String PROPERTY_PREFIX = "ai.smoketest.overheadBenchmark.";
+    private static final int WORKER_THREADS = 64;
+    // telemetry is sent at least every 5 seconds
+    private static final int INGESTION_SETTLE_SECONDS = 10;
+
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    private OverheadBenchmark() {
+    }
+
+    static void run(String mode, String baseUrl, String imageName, MockedAppInsightsIngestionServer mockedIngestion) throws Exception {
+        int rps = Integer.getInteger(PROPERTY_PREFIX + "rps", 100);
+        int warmupSeconds = Integer.getInteger(PROPERTY_PREFIX + "warmupSeconds", 30);
+        int durationSeconds = Integer.getInteger(PROPERTY_PREFIX + "durationSeconds", 60);
+        List<int[]> shapes = parseShapes(System.getProperty(PROPERTY_PREFIX + "shapes", "0:0,5:2,20:10"));
+        File outputDir = new File(System.getProperty(PROPERTY_PREFIX + "outputDir", "build/overhead-benchmark"));
+
+        Result result = new Result();
+        result.mode = mode;
+        result.image = imageName;
+        result.rps = rps;
+        result.warmupSeconds = warmupSeconds;
+        result.durationSeconds = durationSeconds;
+
+        // keeping (and logging) every item would make the fake ingestion the bottleneck
+        mockedIngestion.setCapturePayloads(false);
+        try {
+            for (int[] shape : shapes) {
+                result.shapes.add(measure(baseUrl, shape[0], shape[1], rps, warmupSeconds, durationSeconds, mockedIngestion));
+            }
+        } finally {
+            mockedIngestion.setCapturePayloads(true);
+        }
+
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Could not create " + outputDir);
+        }
+        File resultFile = new File(outputDir, imageName + "_" + mode + ".json");
+        write(result, resultFile);
+        System.out.printf("OVERHEAD BENCHMARK (%s): %s%n", mode, resultFile.getAbsolutePath());
+
+        File agentFile = new File(outputDir, imageName + "_" + AGENT + ".json");
+        File noAgentFile = new File(outputDir, imageName + "_" + NO_AGENT + ".json");
+        if (agentFile.exists() && noAgentFile.exists()) {
+            Overhead overhead = compare(read(noAgentFile), read(agentFile));
+            File overheadFile = new File(outputDir, imageName + "_overhead.json");
+            write(overhead, overheadFile);
+            System.out.printf("OVERHEAD BENCHMARK (agent vs no agent): %s%n%s%n", overheadFile.getAbsolutePath(), gson.toJson(overhead));
+        }
+    }
+
+    private static ShapeResult measure(String baseUrl, int jdbcCalls, int logLines, int rps, int warmupSeconds,
+                                       int durationSeconds, MockedAppInsightsIngestionServer mockedIngestion) throws Exception {
+        String url = baseUrl + "/work?jdbc=" + jdbcCalls + "&logs=" + logLines;
+        System.out.printf("OVERHEAD BENCHMARK: %d jdbc queries and %d log lines per request, warming up for %d seconds...%n",
+                jdbcCalls, logLines, warmupSeconds);
+        drive(url, rps, warmupSeconds);
+        TimeUnit.SECONDS.sleep(INGESTION_SETTLE_SECONDS);
+
+        JsonObject before = stats(baseUrl);
+        long itemsBefore = mockedIngestion.getTotalItemCount();
+        System.out.printf("OVERHEAD BENCHMARK: measuring for %d seconds...%n", durationSeconds);
+        Latencies latencies = drive(url, rps, durationSeconds);
+        JsonObject after = stats(baseUrl);
+        TimeUnit.SECONDS.sleep(INGESTION_SETTLE_SECONDS);
+        long itemsAfter = mockedIngestion.getTotalItemCount();
+
+        int requests = latencies.values.length;
+        assertTrue("all requests failed", requests > 0);
+
+        ShapeResult result = new ShapeResult();
+        result.jdbcCalls = jdbcCalls;
+        result.logLines = logLines;
+        result.requests = requests;
+        result.errors = latencies.errors;
+        result.p50LatencyMillis = latencies.percentileMillis(50);
+        result.p99LatencyMillis = latencies.percentileMillis(99);
+        result.maxLatencyMillis = latencies.percentileMillis(100);
+        result.cpuMicrosPerRequest = (after.get("cpuNanos").getAsLong() - before.get("cpuNanos").getAsLong()) / 1000.0 / requests;
+        result.allocatedBytesPerRequest = (after.get("allocatedBytes").getAsLong() - before.get("allocatedBytes").getAsLong()) / (double) requests;
+        result.heapUsedAfterGcBytes = after.get("heapUsedBytes").getAsLong();
+        // includes the heartbeat and metrics, which is negligible at a fixed request rate
+        result.ingestedItemsPerRequest = (itemsAfter - itemsBefore) / (double) requests;
+        return result;
+    }
+
+    // open loop: the requests are sent on schedule, even if earlier ones have not completed yet
+    private static Latencies drive(final String url, int rps, int seconds) throws InterruptedException {
+        int total = rps * seconds;
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rps;
+        final long[] latencies = new long[total];
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(total);
+        ExecutorService workers = Executors.newFixedThreadPool(WORKER_THREADS);
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < total; i++) {
+                final int index = i;
+                final long scheduledNanos = start + i * intervalNanos;
+                long waitNanos = scheduledNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            get(url);
+                            latencies[index] = System.nanoTime() - scheduledNanos;
+                        } catch (Exception e) {
+                            latencies[index] = -1;
+                            errors.incrementAndGet();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            done.await();
+        } finally {
+            workers.shutdown();
+        }
+        return new Latencies(latencies, errors.get());
+    }
+
+    private static JsonObject stats(String baseUrl) throws IOException {
+        return gson.fromJson(get(baseUrl + "/stats?gc=true"), JsonObject.class);
+    }
+
+    // HttpURLConnection keeps the connections alive, so that the benchmark doesn't measure connecting
+    private static String get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        int responseCode = connection.getResponseCode();
+        if (responseCode != 200) {
+            throw new IOException("Unexpected response code " + responseCode + " from " + url);
+        }
+        StringBuilder sb = new StringBuilder();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                sb.append(new String(buffer, 0, read, "UTF-8"));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static List<int[]> parseShapes(String shapes) {
+        List<int[]> parsed = new ArrayList<>();
+        for (String shape : shapes.split(",")) {
+            String[] parts = shape.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid shape, expected <jdbc queries>:<log lines>: " + shape);
+            }
+            parsed.add(new int[]{Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim())});
+        }
+        return parsed;
+    }
+
+    private static Overhead compare(Result noAgent, Result agent) {
+        Overhead overhead = new Overhead();
+        overhead.image = agent.image;
+        overhead.rps = agent.rps;
+        if (noAgent.rps != agent.rps || noAgent.durationSeconds != agent.durationSeconds) {
+            System.out.printf("OVERHEAD BENCHMARK: WARNING the runs with and without the agent used different settings%n");
+        }
+        for (ShapeResult withAgent : agent.shapes) {
+            for (ShapeResult withoutAgent : noAgent.shapes) {
+                if (withAgent.jdbcCalls != withoutAgent.jdbcCalls || withAgent.logLines != withoutAgent.logLines) {
+                    continue;
+                }
+                ShapeOverhead shapeOverhead = new ShapeOverhead();
+                shapeOverhead.jdbcCalls = withAgent.jdbcCalls;
+                shapeOverhead.logLines = withAgent.logLines;
+                shapeOverhead.addedP50LatencyMillis = withAgent.p50LatencyMillis - withoutAgent.p50LatencyMillis;
+                shapeOverhead.addedP99LatencyMillis = withAgent.p99LatencyMillis - withoutAgent.p99LatencyMillis;
+                shapeOverhead.addedCpuMicrosPerRequest = withAgent.cpuMicrosPerRequest - withoutAgent.cpuMicrosPerRequest;
+                shapeOverhead.addedAllocatedBytesPerRequest = withAgent.allocatedBytesPerRequest - withoutAgent.allocatedBytesPerRequest;
+                shapeOverhead.heapOverheadBytes = withAgent.heapUsedAfterGcBytes - withoutAgent.heapUsedAfterGcBytes;
+                overhead.shapes.add(shapeOverhead);
+            }
+        }
+        return overhead;
+    }
+
+    private static void write(Object value, File file) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            gson.toJson(value, writer);
+        }
+    }
+
+    private static Result read(File file) throws IOException {
+        try (Reader reader = new FileReader(file)) {
+            return gson.fromJson(reader, Result.class);
+        }
+    }
+
+    private static class Latencies {
+
+        // sorted, in nanoseconds, only the successful requests
+        private final long[] values;
+        private final int errors;
+
+        private Latencies(long[] latencies, int errors) {
+            long[] values = new long[latencies.length - errors];
+            int i = 0;
+            for (long latency : latencies) {
+                if (latency >= 0) {
+                    values[i++] = latency;
+                }
+            }
+            Arrays.sort(values);
+            this.values = values;
+            this.errors = errors;
+        }
+
+        private double percentileMillis(int percentile) {
+            if (values.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(values.length * percentile / 100.0) - 1;
+            return values[Math.max(index, 0)] / 1000000.0;
+        }
+    }
+
+    // the json written for each mode
+    private static class Result {
+        private String mode;
+        private String image;
+        private int rps;
+        private int warmupSeconds;
+        private int durationSeconds;
+        private List<ShapeResult> shapes = new ArrayList<>();
+    }
+
+    private static class ShapeResult {
+        private int jdbcCalls;
+        private int logLines;
+        private int requests;
+        private int errors;
+        private double p50LatencyMillis;
+        private double p99LatencyMillis;
+        private double maxLatencyMillis;
+        private double cpuMicrosPerRequest;
+        private double allocatedBytesPerRequest;
+        private long heapUsedAfterGcBytes;
+        private double ingestedItemsPerRequest;
+    }
+
+    // the json written once both modes are there
+    private static class Overhead {
+        private String image;
+        private int rps;
+        private List<ShapeOverhead> shapes = new ArrayList<>();
+    }
+
+    private static class ShapeOverhead {
+        private int jdbcCalls;
+        private int logLines;
+        private double addedP50LatencyMillis;
+        private double addedP99LatencyMillis;
+        private double addedCpuMicrosPerRequest;
+        private double addedAllocatedBytesPerRequest;
+        private long heapOverheadBytes;
+    }
+}
@@ -0,0 +1,17 @@
+package com.microsoft.applicationinsights.smoketest;
+
+import org.junit.*;
+
+@RequestCapturing(enabled = false)
+public class OverheadBenchmarkNoAgentTest extends AiSmokeTest {
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue(Boolean.getBoolean("ai.tests.benchmarks"));
+    }
+
+    @Test
+    public void overhead() throws Exception {
+        OverheadBenchmark.run(OverheadBenchmark.NO_AGENT, getBaseUrl(), currentImageName, mockedIngestion);
+    }
+}
@@ -0,0 +1,60 @@
+package com.microsoft.ajl.simple;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+// measures the time from JVM start until the first request has been served, the app calls itself right after the
+// server has started so that the measurement doesn't depend on how often the test framework polls the app
+@SpringBootApplication
+public class StartupBenchmarkApp {
+
+    private static volatile long serverStartedMillis = -1;
+    private static volatile long firstRequestMillis = -1;
+
+    public static void main(String[] args) throws Exception {
+        Server server = new Server(8080);
+        server.setHandler(new StartupHandler());
+        server.start();
+        serverStartedMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+
+        callFirstRequest();
+        firstRequestMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+
+        server.join();
+    }
+
+    private static void callFirstRequest() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:8080/first").openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            while (in.read() != -1) {
+            }
+        }
+    }
+
+    public static class StartupHandler extends AbstractHandler {
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request,
+                           HttpServletResponse response) throws IOException {
+
+            response.setContentType("text/plain;charset=utf-8");
+            response.setStatus(HttpServletResponse.SC_OK);
+            baseRequest.setHandled(true);
+            if (target.equals("/startup")) {
+                response.getWriter().println(serverStartedMillis + "," + firstRequestMillis);
+            } else {
+                response.getWriter().println("Hello there");
+            }
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.microsoft.applicationinsights.smoketest;
+
+import static org.junit.Assert.*;
+
+// reports the time from JVM start until the test app has served its first request (see StartupBenchmarkApp),
+// for each agent mode, so that they can be compared
+//
+// this is skipped by default, run it with:
+//
+//   ./gradlew :test:smoke:testApps:StartupBenchmark:smokeTest -Pai.tests.benchmarks=true
+//
+// and then look for "time to first request" in the output, repeat the run to get a stable number
+final class StartupBenchmark {
+
+    private StartupBenchmark() {
+    }
+
+    static void report(String mode, String baseUrl) throws Exception {
+        String[] times = HttpHelper.get(baseUrl + "/startup").trim().split(",");
+        long serverStartedMillis = Long.parseLong(times[0]);
+        long firstRequestMillis = Long.parseLong(times[1]);
+
+        System.out.printf("STARTUP BENCHMARK (%s): server started after %d ms, time to first request %d ms%n",
+                mode, serverStartedMillis, firstRequestMillis);
+
+        assertTrue(serverStartedMillis > 0);
+        assertTrue(firstRequestMillis >= serverStartedMillis);
+    }
+}
@@ -0,0 +1,17 @@
+package com.microsoft.applicationinsights.smoketest;
+
+import org.junit.*;
+
+@UseAgent
+public class StartupBenchmarkDefaultTest extends AiSmokeTest {
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue(Boolean.getBoolean("ai.tests.benchmarks"));
+    }
+
+    @Test
+    public void timeToFirstRequest() throws Exception {
+        StartupBenchmark.report("agent", getBaseUrl());
+    }
+}
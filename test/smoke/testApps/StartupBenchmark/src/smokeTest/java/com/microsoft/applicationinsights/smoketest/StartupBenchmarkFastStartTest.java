@@ -0,0 +1,17 @@
+package com.microsoft.applicationinsights.smoketest;
+
+import org.junit.*;
+
+@UseAgent("faststart")
+public class StartupBenchmarkFastStartTest extends AiSmokeTest {
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue(Boolean.getBoolean("ai.tests.benchmarks"));
+    }
+
+    @Test
+    public void timeToFirstRequest() throws Exception {
+        StartupBenchmark.report("agent with fast start", getBaseUrl());
+    }
+}
@@ -0,0 +1,17 @@
+package com.microsoft.applicationinsights.smoketest;
+
+import org.junit.*;
+
+@RequestCapturing(enabled = false)
+public class StartupBenchmarkNoAgentTest extends AiSmokeTest {
+
+    @BeforeClass
+    public static void enabled() {
+        Assume.assumeTrue(Boolean.getBoolean("ai.tests.benchmarks"));
+    }
+
+    @Test
+    public void timeToFirstRequest() throws Exception {
+        StartupBenchmark.report("no agent", getBaseUrl());
+    }
+}